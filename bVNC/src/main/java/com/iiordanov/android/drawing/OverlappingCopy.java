@@ -119,6 +119,48 @@ public class OverlappingCopy {
         rectPool.release(transformedDestEntry);
         rectPool.release(transformedSourceEntry);
     }
+
+    /**
+     * Copies a w by h rectangle of pixels within an array holding rows of the given stride.
+     * Rows are copied starting from the side the rectangle moves towards, and System.arraycopy
+     * copies overlapping ranges correctly, so source and destination may overlap.
+     */
+    public static void copyPixels(int[] pixels, int stride, int srcOffset, int dstOffset, int w, int h) {
+        if (srcOffset == dstOffset || w <= 0 || h <= 0)
+            return;
+        if (dstOffset > srcOffset) {
+            for (int row = h - 1; row >= 0; row--) {
+                System.arraycopy(pixels, srcOffset + row * stride, pixels, dstOffset + row * stride, w);
+            }
+        } else {
+            for (int row = 0; row < h; row++) {
+                System.arraycopy(pixels, srcOffset + row * stride, pixels, dstOffset + row * stride, w);
+            }
+        }
+    }
+
+    /**
+     * Copies a w by h rectangle of a mutable bitmap to another position in the same bitmap through
+     * the scratch buffer, in bands of as many rows as the scratch buffer holds. Bands are taken
+     * starting from the side the rectangle moves towards and each band is read completely before it
+     * is written, so source and destination may overlap.
+     *
+     * @param scratch buffer of at least w pixels
+     */
+    public static void copyPixels(Bitmap data, int[] scratch, int sx, int sy, int dx, int dy, int w, int h) {
+        if ((sx == dx && sy == dy) || w <= 0 || h <= 0)
+            return;
+        int bandRows = Math.min(h, scratch.length / w);
+        if (bandRows < 1)
+            throw new IllegalArgumentException("Scratch buffer smaller than one row");
+        boolean downwards = dy > sy;
+        for (int done = 0; done < h; done += bandRows) {
+            int rows = Math.min(bandRows, h - done);
+            int band = downwards ? h - done - rows : done;
+            data.getPixels(scratch, 0, w, sx, sy + band, w, rows);
+            data.setPixels(scratch, 0, w, dx, dy + band, w, rows);
+        }
+    }
 }
 
 
@@ -56,6 +56,7 @@ abstract public class AbstractBitmapData implements AbstractDrawableData {
     Viewable vncCanvas;
     int xoffset = 0;
     int yoffset = 0;
+    volatile ShadowFramebuffer shadow;
 
     AbstractBitmapData(int width, int height, Viewable c) {
         vncCanvas = c;
@@ -85,6 +86,16 @@ abstract public class AbstractBitmapData implements AbstractDrawableData {
         }
     }
 
+    /**
+     * Shows the given bitmap as the cursor. The bitmap stays owned by the caller, which may show
+     * it again later, so it is not recycled when replaced.
+     */
+    public void setSoftCursor(Bitmap softCursor) {
+        if (drawable != null) {
+            drawable.setSoftCursor(softCursor);
+        }
+    }
+
     public RectF getCursorRect() {
         if (drawable != null)
             return drawable.cursorRect;
@@ -138,6 +149,19 @@ abstract public class AbstractBitmapData implements AbstractDrawableData {
      */
     public abstract int offset(int x, int y);
 
+    /**
+     * Called before the calling thread writes the pixels of a rectangle through getBitmapPixels()
+     * and offset() and then calls updateBitmap() for it. Implementations which do not keep a copy
+     * of the whole framebuffer in bitmapPixels stage the rectangle here.
+     *
+     * @param x Top left x
+     * @param y Top left y
+     * @param w width (pixels)
+     * @param h height (pixels)
+     */
+    public void prepareRect(int x, int y, int w, int h) {
+    }
+
     /**
      * Update pixels in the bitmap with data from the bitmapPixels array, positioned
      * in full-frame coordinates
@@ -199,10 +223,12 @@ abstract public class AbstractBitmapData implements AbstractDrawableData {
     }
 
     public void imageRect(int x, int y, int w, int h, int[] pix) {
+        prepareRect(x, y, w, h);
+        int[] pixels = getBitmapPixels();
         for (int j = 0; j < h; j++) {
             try {
                 synchronized(this) {
-                    System.arraycopy(pix, (w * j), bitmapPixels, offset(x, y + j), w);
+                    System.arraycopy(pix, (w * j), pixels, offset(x, y + j), w);
                 }
                 //System.arraycopy(pix, (w * j), bitmapPixels, bitmapwidth * (y + j) + x, w);
             } catch (ArrayIndexOutOfBoundsException e) {
@@ -242,6 +268,40 @@ abstract public class AbstractBitmapData implements AbstractDrawableData {
      */
     public abstract void syncScroll();
 
+    /**
+     * Enables drawing from a downscaled copy of the framebuffer while zoomed out.
+     */
+    public void setShadowFramebufferEnabled(boolean enabled) {
+        synchronized (this) {
+            if (enabled && shadow == null) {
+                shadow = new ShadowFramebuffer();
+            } else if (!enabled && shadow != null) {
+                shadow.release();
+                shadow = null;
+            }
+        }
+    }
+
+    /**
+     * Tells the downscaled copy of the framebuffer, if any, that the given area has changed.
+     */
+    public void framebufferDamaged(int left, int top, int right, int bottom) {
+        ShadowFramebuffer s = shadow;
+        if (s != null) {
+            s.damage(left, top, right, bottom);
+        }
+    }
+
+    /**
+     * Draws the given area of the framebuffer onto the canvas at framebuffer coordinates. The
+     * area is a hint, the caller clips the canvas to it. Called on the UI thread from draw().
+     */
+    void drawFramebufferArea(Canvas canvas, Rect area, Paint paint) {
+        if (mbitmap != null && !mbitmap.isRecycled()) {
+            canvas.drawBitmap(mbitmap, 0.0f, 0.0f, paint);
+        }
+    }
+
     /**
      * Release resources
      */
@@ -251,6 +311,10 @@ abstract public class AbstractBitmapData implements AbstractDrawableData {
                 drawable.stopDrawing();
                 drawable.dispose();
             }
+            if (shadow != null) {
+                shadow.release();
+                shadow = null;
+            }
             if (mbitmap != null) {
                 mbitmap.recycle();
                 mbitmap = null;
@@ -319,6 +383,8 @@ abstract public class AbstractBitmapData implements AbstractDrawableData {
         RectF cursorRect;
         int hotX, hotY;
         Bitmap softCursor;
+        // Set when softCursor belongs to someone else, such as the cursor shape cache.
+        boolean softCursorShared;
         boolean softCursorInit;
         Rect clipRect;
         Rect toDraw;
@@ -366,13 +432,41 @@ abstract public class AbstractBitmapData implements AbstractDrawableData {
         void setSoftCursor(int[] newSoftCursorPixels) {
             synchronized (AbstractBitmapData.this) {
                 Bitmap oldSoftCursor = softCursor;
+                boolean oldSoftCursorShared = softCursorShared;
                 softCursor = Bitmap.createBitmap(newSoftCursorPixels, (int) cursorRect.width(),
                         (int) cursorRect.height(), Bitmap.Config.ARGB_8888);
+                softCursorShared = false;
                 softCursorInit = true;
-                oldSoftCursor.recycle();
+                if (!oldSoftCursorShared) {
+                    oldSoftCursor.recycle();
+                }
             }
         }
 
+        void setSoftCursor(Bitmap newSoftCursor) {
+            synchronized (AbstractBitmapData.this) {
+                Bitmap oldSoftCursor = softCursor;
+                boolean oldSoftCursorShared = softCursorShared;
+                softCursor = newSoftCursor;
+                softCursorShared = true;
+                softCursorInit = true;
+                if (!oldSoftCursorShared && oldSoftCursor != newSoftCursor) {
+                    oldSoftCursor.recycle();
+                }
+            }
+        }
+
+        /**
+         * Draws the downscaled copy of the framebuffer if there is one and the zoom factor calls
+         * for it. Called on the UI thread from draw().
+         *
+         * @return false if the framebuffer itself should be drawn instead
+         */
+        boolean drawShadowFramebuffer(Canvas canvas) {
+            ShadowFramebuffer s = data.shadow;
+            return s != null && s.draw(data, canvas, data.vncCanvas.getZoomFactor());
+        }
+
         /* (non-Javadoc)
          * @see android.graphics.drawable.DrawableContainer#getIntrinsicHeight()
          */
@@ -409,7 +503,9 @@ abstract public class AbstractBitmapData implements AbstractDrawableData {
             synchronized (AbstractBitmapData.this) {
                 drawing = false;
                 if (softCursor != null) {
-                    softCursor.recycle();
+                    if (!softCursorShared) {
+                        softCursor.recycle();
+                    }
                     softCursor = null;
                 }
                 cursorRect = null;
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import java.util.Locale;
+
+/**
+ * Picks Tight JPEG quality, chroma subsampling and zlib compression level, and optionally a
+ * reduced color model, from what the session actually costs, so that the same build works on a
+ * LAN and on a cellular link.
+ * <p>
+ * After every FramebufferUpdate the protocol thread reports the bytes it read, the time it spent
+ * waiting for them and the time it spent decoding. Only updates covering a sizable part of the
+ * framebuffer are used to judge frame time, since small updates such as a blinking cursor say
+ * little about what scrolling or video costs. Once per evaluation window the average frame time,
+ * i.e. transfer time at the measured throughput, plus decoding time, plus half the round-trip
+ * time, is compared against TARGET_FRAME_MILLIS: above it, quality is lowered one step; well below
+ * it for two windows in a row, quality is raised one step.
+ * <p>
+ * Below LOW_COLOR_KBPS, the lowest step is followed by switching to 64 colors as TigerVNC does,
+ * and full color is restored above FULL_COLOR_KBPS. This is only done when the caller can tell
+ * where updates in the new pixel format start, i.e. when the server supports fences.
+ * <p>
+ * Only the protocol thread may call into this class.
+ */
+class AdaptiveQualityController {
+    private static final long TARGET_FRAME_MILLIS = 50;
+    private static final long EVALUATION_WINDOW_MILLIS = 2000;
+    private static final int MIN_UPDATES_PER_WINDOW = 4;
+    // An update must cover at least 1/LARGE_UPDATE_FRACTION of the framebuffer to be judged.
+    private static final int LARGE_UPDATE_FRACTION = 10;
+    private static final int WINDOWS_BEFORE_RAISING = 2;
+    private static final long LOW_COLOR_KBPS = 256;
+    private static final long FULL_COLOR_KBPS = 512;
+
+    // Fine quality level (0-100), TurboVNC subsampling index and zlib compression level, from the
+    // best looking to the cheapest to transfer. Index DEFAULT_LEVEL matches the fixed settings
+    // used without adaptive quality.
+    private static final int[][] LEVELS = {
+            {95, 0, 1},
+            {90, 2, 1},
+            {80, 1, 3},
+            {70, 1, 6},
+            {50, 1, 7},
+            {30, 1, 9},
+            {15, 1, 9},
+    };
+    private static final int DEFAULT_LEVEL = 3;
+
+    private int level = DEFAULT_LEVEL;
+    private boolean reducedColor;
+    private int windowsUnderBudget;
+
+    // Current evaluation window.
+    private long windowStartNanos;
+    private int updatesInWindow;
+    private int largeUpdatesInWindow;
+    private long largeUpdateBytes;
+    private long largeUpdateDecodeNanos;
+    private long rttMicros;
+
+    AdaptiveQualityController() {
+        windowStartNanos = nanoTime();
+    }
+
+    /**
+     * Returns the current time in nanoseconds. Tests override it to end evaluation windows.
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Accounts for one FramebufferUpdate.
+     *
+     * @param pixels      pixels covered by the rectangles of the update
+     * @param fbPixels    pixels in the framebuffer
+     * @param bytes       bytes read from the socket for the update
+     * @param decodeNanos time spent decoding the update, excluding waiting for data
+     */
+    void onUpdate(long pixels, long fbPixels, long bytes, long decodeNanos) {
+        updatesInWindow++;
+        if (fbPixels > 0 && pixels * LARGE_UPDATE_FRACTION >= fbPixels) {
+            largeUpdatesInWindow++;
+            largeUpdateBytes += bytes;
+            largeUpdateDecodeNanos += decodeNanos;
+        }
+    }
+
+    /**
+     * Records the latest round-trip time measured with a fence.
+     */
+    void onRoundTrip(long micros) {
+        rttMicros = micros;
+    }
+
+    /**
+     * Returns true once enough time and updates have been seen to decide on a new level.
+     */
+    boolean isWindowComplete() {
+        return updatesInWindow >= MIN_UPDATES_PER_WINDOW &&
+                nanoTime() - windowStartNanos >= EVALUATION_WINDOW_MILLIS * 1000000L;
+    }
+
+    /**
+     * Ends the evaluation window and moves the quality level or color model by at most one step.
+     *
+     * @param kbitsPerSecond        measured throughput of the connection
+     * @param colorReductionAllowed whether the server may be switched to 64 colors
+     * @return true if the level or color model changed
+     */
+    boolean evaluate(long kbitsPerSecond, boolean colorReductionAllowed) {
+        boolean changed = false;
+        if (largeUpdatesInWindow > 0 && kbitsPerSecond > 0) {
+            long frameMillis = estimateFrameMillis(kbitsPerSecond);
+            if (frameMillis > TARGET_FRAME_MILLIS) {
+                windowsUnderBudget = 0;
+                changed = lower(kbitsPerSecond, colorReductionAllowed);
+            } else if (frameMillis * 2 < TARGET_FRAME_MILLIS) {
+                if (++windowsUnderBudget >= WINDOWS_BEFORE_RAISING) {
+                    windowsUnderBudget = 0;
+                    changed = raise(kbitsPerSecond);
+                }
+            } else {
+                windowsUnderBudget = 0;
+            }
+        }
+        windowStartNanos = nanoTime();
+        updatesInWindow = largeUpdatesInWindow = 0;
+        largeUpdateBytes = largeUpdateDecodeNanos = 0;
+        return changed;
+    }
+
+    private long estimateFrameMillis(long kbitsPerSecond) {
+        long transferMillis = largeUpdateBytes * 8 / kbitsPerSecond / largeUpdatesInWindow;
+        long decodeMillis = largeUpdateDecodeNanos / largeUpdatesInWindow / 1000000L;
+        return transferMillis + decodeMillis + rttMicros / 2000;
+    }
+
+    private boolean lower(long kbitsPerSecond, boolean colorReductionAllowed) {
+        if (level < LEVELS.length - 1) {
+            level++;
+            return true;
+        }
+        if (colorReductionAllowed && !reducedColor && kbitsPerSecond < LOW_COLOR_KBPS) {
+            reducedColor = true;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean raise(long kbitsPerSecond) {
+        if (reducedColor) {
+            if (kbitsPerSecond <= FULL_COLOR_KBPS) {
+                return false;
+            }
+            reducedColor = false;
+            return true;
+        }
+        if (level > 0) {
+            level--;
+            return true;
+        }
+        return false;
+    }
+
+    int getFineQualityLevel() {
+        return LEVELS[level][0];
+    }
+
+    /**
+     * Returns the coarse JPEG quality level (0-9) for servers without fine quality support.
+     */
+    int getJpegQuality() {
+        return Math.min(9, LEVELS[level][0] / 10);
+    }
+
+    int getSubsamplingLevel() {
+        return LEVELS[level][1];
+    }
+
+    int getCompressLevel() {
+        return LEVELS[level][2];
+    }
+
+    boolean isReducedColor() {
+        return reducedColor;
+    }
+
+    String summary(long kbitsPerSecond) {
+        return String.format(Locale.US, "level %d (quality %d, subsampling %d, compression %d)%s, " +
+                        "%d kbit/s, rtt %d us", level, getFineQualityLevel(), getSubsamplingLevel(),
+                getCompressLevel(), reducedColor ? ", 64 colors" : "", kbitsPerSecond, rttMicros);
+    }
+}
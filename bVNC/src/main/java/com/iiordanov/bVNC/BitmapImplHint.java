@@ -24,4 +24,5 @@ class BitmapImplHint {
     static final long AUTO = 0L;
     static final long FULL = 1L;
     static final long TILE = 2L;
+    static final long SINGLE_COPY = 3L;
 }
@@ -27,18 +27,31 @@ import android.util.Log;
 import com.undatech.opaque.RfbConnectable;
 import com.undatech.opaque.Viewable;
 
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /*
- * This is a TimerTask which checks the clipboard for changes, and if
- * a change is detected, sends the new contents to the VNC server.
+ * Sends the device clipboard to the server when it changes. Changes are reported by the
+ * ClipboardManager listener, and the clipboard is also checked when the session window gains
+ * focus, because Android does not report changes made while another app is in the foreground.
+ * Contents are compared by length and a 64-bit hash, so the whole previous clipboard does not
+ * need to be kept. The clipboard is read and sent on a background thread.
  */
 
-public class ClipboardMonitor extends TimerTask {
+public class ClipboardMonitor implements ClipboardManager.OnPrimaryClipChangedListener {
+    private static final long RETRY_DELAY_MILLIS = 500;
     ClipboardManager clipboard;
     private final String TAG = "ClipboardMonitor";
     private final Context context;
-    private String knownClipboardContents;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ClipboardMonitor");
+        t.setDaemon(true);
+        return t;
+    });
+    private int knownClipboardLength;
+    private long knownClipboardHash;
 
     RfbConnectable rfbConnectable;
     Viewable viewable;
@@ -48,7 +61,43 @@ public class ClipboardMonitor extends TimerTask {
         this.rfbConnectable = rfbConnectable;
         this.viewable = viewable;
         clipboard = (ClipboardManager) context.getSystemService(Context.CLIPBOARD_SERVICE);
-        knownClipboardContents = "";
+        setKnownClipboardContents("");
+    }
+
+    /*
+     * Starts listening for clipboard changes and checks the current contents.
+     */
+    public void start() {
+        clipboard.addPrimaryClipChangedListener(this);
+        scheduleCheck(0);
+    }
+
+    /*
+     * Stops listening for clipboard changes.
+     */
+    public void stop() {
+        clipboard.removePrimaryClipChangedListener(this);
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void onPrimaryClipChanged() {
+        scheduleCheck(0);
+    }
+
+    /*
+     * Called when the session window gains focus.
+     */
+    public void onForegrounded() {
+        scheduleCheck(0);
+    }
+
+    private void scheduleCheck(long delayMillis) {
+        try {
+            executor.schedule(this::checkClipboard, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.v(TAG, "Clipboard monitor stopped");
+        }
     }
 
     /*
@@ -72,32 +121,55 @@ public class ClipboardMonitor extends TimerTask {
     }
 
     /*
-     * (non-Javadoc)
-     * @see java.util.TimerTask#run()
+     * FNV-1a over the UTF-16 code units of the text.
      */
+    private static long hash(String text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private synchronized boolean isKnown(String text, long textHash) {
+        return text.length() == knownClipboardLength && textHash == knownClipboardHash;
+    }
+
+    private synchronized void setKnown(String text, long textHash) {
+        knownClipboardLength = text.length();
+        knownClipboardHash = textHash;
+    }
+
     /*
-     * Called when the server sends clipboard text to the device. Updates knownClipboardContents
-     * immediately so the monitor does not echo the server's text back on the next tick.
+     * Called when the server sends clipboard text to the device, before it is placed on the
+     * device clipboard, so the monitor does not echo the server's text back.
      */
     public void setKnownClipboardContents(String text) {
-        knownClipboardContents = text;
-        Log.v(TAG, "Server sent clipboard, known length now: " + knownClipboardContents.length());
+        setKnown(text, hash(text));
+        Log.v(TAG, "Server sent clipboard, known length now: " + text.length());
     }
 
-    @Override
-    public void run() {
+    private void checkClipboard() {
         if (!viewable.isForegrounded()) {
-            Log.v(TAG, "App backgrounded, not monitoring clipboard");
+            Log.v(TAG, "App backgrounded, not checking clipboard");
             return;
         }
 
         String currentClipboardContents = getClipboardContents();
-        if (rfbConnectable != null && currentClipboardContents != null
-                && !currentClipboardContents.equals(knownClipboardContents)
-                && rfbConnectable.isInNormalProtocol()) {
-            rfbConnectable.writeClientCutText(currentClipboardContents);
-            knownClipboardContents = currentClipboardContents;
-            Log.v(TAG, "Wrote clipboard to remote, length: " + knownClipboardContents.length());
+        if (rfbConnectable == null || currentClipboardContents == null) {
+            return;
+        }
+        long currentHash = hash(currentClipboardContents);
+        if (isKnown(currentClipboardContents, currentHash)) {
+            return;
+        }
+        if (!rfbConnectable.isInNormalProtocol()) {
+            // The session is still starting up, send the clipboard once it is running.
+            scheduleCheck(RETRY_DELAY_MILLIS);
+            return;
         }
+        rfbConnectable.writeClientCutText(currentClipboardContents);
+        setKnown(currentClipboardContents, currentHash);
+        Log.v(TAG, "Wrote clipboard to remote, length: " + currentClipboardContents.length());
     }
 }
@@ -25,6 +25,8 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.util.Log;
 
+import com.iiordanov.android.drawing.OverlappingCopy;
+
 class CompactBitmapData extends AbstractBitmapData {
     /**
      * Multiply this times total number of pixels to get estimate of process size with all buffers plus
@@ -106,38 +108,18 @@ class CompactBitmapData extends AbstractBitmapData {
      */
     @Override
     public void copyRect(int sx, int sy, int dx, int dy, int w, int h) {
-        int srcOffset, dstOffset;
-        int dstH = h;
-        int dstW = w;
-
-        int startSrcY, endSrcY, dstY, deltaY;
-        if (sy > dy) {
-            startSrcY = sy;
-            endSrcY = sy + dstH;
-            dstY = dy;
-            deltaY = +1;
-        } else {
-            startSrcY = sy + dstH - 1;
-            endSrcY = sy - 1;
-            dstY = dy + dstH - 1;
-            deltaY = -1;
-        }
-        for (int y = startSrcY; y != endSrcY; y += deltaY) {
-            srcOffset = offset(sx, y);
-            dstOffset = offset(dx, dstY);
-            try {
-                synchronized(this) {
-                    mbitmap.getPixels(bitmapPixels, srcOffset, bitmapwidth, sx - xoffset, y - yoffset, dstW, 1);
-                    System.arraycopy(bitmapPixels, srcOffset, bitmapPixels, dstOffset, dstW);
-                }
-            } catch (Exception e) {
-                // There was an index out of bounds exception, but we continue copying what we can.
-                Log.e(TAG, "Caught an exception");
-                Log.e(TAG, Log.getStackTraceString(e));
+        try {
+            synchronized(this) {
+                // Refresh the source from the bitmap, which areas filled with drawRect only exist in.
+                mbitmap.getPixels(bitmapPixels, offset(sx, sy), bitmapwidth, sx - xoffset, sy - yoffset, w, h);
+                OverlappingCopy.copyPixels(bitmapPixels, bitmapwidth, offset(sx, sy), offset(dx, dy), w, h);
             }
-            dstY += deltaY;
+        } catch (Exception e) {
+            // There was an index out of bounds exception, but we continue.
+            Log.e(TAG, "Caught an exception");
+            Log.e(TAG, Log.getStackTraceString(e));
         }
-        updateBitmap(dx, dy, dstW, dstH);
+        updateBitmap(dx, dy, w, h);
     }
 
     /* (non-Javadoc)
@@ -181,7 +163,7 @@ class CompactBitmapData extends AbstractBitmapData {
             try {
                 synchronized(CompactBitmapData.this) {
                     if (drawing) {
-                        if (mbitmap != null && !mbitmap.isRecycled()) {
+                        if (!drawShadowFramebuffer(canvas) && mbitmap != null && !mbitmap.isRecycled()) {
                             canvas.drawBitmap(mbitmap, 0.0f, 0.0f, _defaultPaint);
                         }
                         if (softCursor != null && !softCursor.isRecycled()) {
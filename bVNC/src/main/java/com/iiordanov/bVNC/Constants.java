@@ -160,6 +160,14 @@ public class Constants {
     public static final String disableImmersiveTag = "disableImmersive";
     public static final String forceLandscapeTag = "forceLandscape";
     public static final String rAltAsIsoL3ShiftTag = "rAltAsIsoL3Shift";
+    public static final String parallelTightDecodingTag = "parallelTightDecoding";
+    public static final String recordVncSessionsTag = "recordVncSessions";
+    public static final String replayVncSessionTag = "replayVncSession";
+    public static final String adaptiveQualityTag = "adaptiveQuality";
+    public static final String sshDirectChannelTag = "sshDirectChannel";
+    public static final String viewportPrioritizedUpdatesTag = "viewportPrioritizedUpdates";
+    public static final String shadowFramebufferTag = "downscaledShadowFramebuffer";
+    public static final String batchedGraphicsUpdatesTag = "batchedGraphicsUpdates";
     public static final String leftHandedModeTag = "leftHandedModeTag";
     public static final String defaultInputMethodTag = "defaultInputMethod";
     public static final String defaultScalingTag = "defaultScaling";
@@ -168,6 +176,8 @@ public class Constants {
     public static final String preferSendingUnicode = "preferSendingUnicode";
     public static final boolean preferSendingUnicodeDefaultValue = true;
     public static final String doNotShowDesktopThumbnails = "doNotShowDesktopThumbnails";
+    public static final String showSessionMetricsTag = "showSessionMetrics";
+    public static final String dumpSessionMetricsTag = "dumpSessionMetrics";
     public static final String showOnlyConnectionNicknames = "showOnlyConnectionNicknames";
     public static final String softwareKeyboardType = "softwareKeyboardType";
     public static final String scrollSpeed = "scrollSpeed";
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import android.graphics.Bitmap;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Cursor bitmaps built from XCursor and RichCursor updates, keyed by a hash of the encoded shape
+ * and by its size and hotspot.
+ * <p>
+ * Desktops animating the busy cursor cycle through a handful of shapes many times a second, so
+ * the bitmaps of the most recently used shapes are kept and a repeated shape is shown without
+ * decoding it again. Evicted bitmaps are left to the garbage collector rather than recycled, since
+ * the drawable may still be showing them.
+ */
+class CursorShapeCache {
+    static final int MAX_ENTRIES = 32;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private long hits;
+    private long misses;
+
+    /**
+     * Returns the FNV-1a hash of the encoded shape together with its encoding and pixel size.
+     */
+    static long hash(byte[] data, int length, int encodingType, int bytesPerPixel) {
+        long h = FNV_OFFSET_BASIS;
+        h = (h ^ encodingType) * FNV_PRIME;
+        h = (h ^ bytesPerPixel) * FNV_PRIME;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ (data[i] & 0xFF)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the bitmap of a previously seen shape, or null if the shape has to be decoded.
+     */
+    synchronized Bitmap get(long hash, int w, int h, int hotX, int hotY) {
+        Entry entry = entries.get(hash);
+        if (entry != null && entry.matches(w, h, hotX, hotY) && !entry.bitmap.isRecycled()) {
+            hits++;
+            return entry.bitmap;
+        }
+        misses++;
+        return null;
+    }
+
+    synchronized void put(long hash, int w, int h, int hotX, int hotY, Bitmap bitmap) {
+        entries.put(hash, new Entry(w, h, hotX, hotY, bitmap));
+    }
+
+    /**
+     * Forgets all shapes, for instance because the palette they were decoded with changed.
+     */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized String summary() {
+        return String.format(Locale.US, "%d cursor shapes cached, %d hits, %d misses",
+                entries.size(), hits, misses);
+    }
+
+    private static class Entry {
+        final int w, h, hotX, hotY;
+        final Bitmap bitmap;
+
+        Entry(int w, int h, int hotX, int hotY, Bitmap bitmap) {
+            this.w = w;
+            this.h = h;
+            this.hotX = hotX;
+            this.hotY = hotY;
+            this.bitmap = bitmap;
+        }
+
+        boolean matches(int w, int h, int hotX, int hotY) {
+            return this.w == w && this.h == h && this.hotX == hotX && this.hotY == hotY;
+        }
+    }
+}
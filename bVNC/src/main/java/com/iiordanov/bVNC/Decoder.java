@@ -26,20 +26,23 @@
 package com.iiordanov.bVNC;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.util.Log;
 
-import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdException;
 import com.undatech.opaque.AbstractDrawableData;
 import com.undatech.opaque.InputCarriable;
 import com.undatech.opaque.Viewable;
 import com.undatech.opaque.input.RemotePointer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -48,13 +51,21 @@ public class Decoder {
     private final static String TAG = "Decoder";
     // Tight decoder's data.
     private final Inflater[] tightInflaters = new Inflater[4];
+    // TightZstd shares the four Tight streams. Each stream keeps its own decompression context,
+    // and compressed and decompressed data pass through direct buffers which are only ever grown.
+    private final ZstdDecompressCtx[] tightZstdContexts = new ZstdDecompressCtx[4];
+    // Compressed data of each stream left over once a rectangle was complete, fed to the stream
+    // ahead of the data of its next rectangle.
+    private final byte[][] tightZstdLeftovers = new byte[4][];
+    private ByteBuffer zstdSrcBuf;
+    private ByteBuffer zstdDstBuf;
     private final Paint handleTightRectPaint = new Paint();
     private final byte[] solidColorBuf = new byte[3];
     private final byte[] tightPalette8 = new byte[2];
     private final int[] tightPalette24 = new int[256];
     private final byte[] colorBuf = new byte[768];
     private final byte[] uncompDataBuf = new byte[RfbProto.TightMinToCompress * 3];
-    private final BitmapFactory.Options bitmapopts = new BitmapFactory.Options();
+    private final TightJpegDecoder jpegDecoder = new TightJpegDecoder();
     private final Paint handleZRLERectPaint = new Paint();
     private final int[] handleZRLERectPalette = new int[128];
     // RRE decoder's data.
@@ -68,6 +79,8 @@ public class Decoder {
     // Color Model settings
     private COLORMODEL pendingColorModel = COLORMODEL.C24bit;
     private COLORMODEL colorModel = null;
+    // Sent to the server, but not decoded with until it has acknowledged the change.
+    private COLORMODEL sentColorModel = null;
     private int bytesPerPixel = 0;
     private int[] colorPalette = null;
     private byte[] zlibData = new byte[4096];
@@ -84,29 +97,42 @@ public class Decoder {
     private byte[] rre_buf = new byte[128];
     // Raw decoder's data.
     private byte[] handleRawRectBuffer = new byte[128];
+    // Cursor shape decoder's data, only ever grown, and the bitmaps of recently seen shapes.
+    private byte[] cursorShapeBuf = new byte[128];
+    private int[] cursorPixels = new int[32 * 32];
+    private final int[] cursorColors = new int[2];
+    private final CursorShapeCache cursorShapes = new CursorShapeCache();
     // Hextile decoder's data.
     // These colors should be kept between handleHextileSubrect() calls.
     private int hextile_bg, hextile_fg;
     private AbstractDrawableData bitmapData;
+    // Changes of the current framebuffer update, invalidated together when it ends.
+    private final FramebufferDamage damage;
+    // Parallel Tight decoding. Each zlib stream worker inflates into its own buffer, and each JPEG
+    // worker thread decodes into its own pooled bitmaps, which it releases when the workers stop.
+    private boolean parallelDecoding = false;
+    private TightDecodeWorkers decodeWorkers;
+    private final byte[][] tightStreamBufs = new byte[4][];
+    private final ThreadLocal<TightJpegDecoder> workerJpegDecoders = new ThreadLocal<>();
+    // Time the decode workers spent on Tight and TightZstd rectangles, taken by the protocol thread
+    // at the end of each framebuffer update.
+    private final AtomicLong tightWorkerNanos = new AtomicLong();
+    private final AtomicLong tightZstdWorkerNanos = new AtomicLong();
 
     /**
      * Creates a new Decoder bound to the given canvas and input handler.
      *
      * @param v                         canvas that receives decoded framebuffer updates
      * @param c                         input handler used to obtain the current pointer position for cursor updates
-     * @param discardCursorShapeUpdates when {@code true}, cursor shape updates are decoded but not rendered
+     * @param discardCursorShapeUpdates when {@code true}, cursor shape updates are read but not decoded or rendered
      */
     public Decoder(Viewable v, InputCarriable c, boolean discardCursorShapeUpdates) {
         this.discardCursorShapeUpdates = discardCursorShapeUpdates;
         handleRREPaint.setStyle(Style.FILL);
         handleTightRectPaint.setStyle(Style.FILL);
-        bitmapopts.inPurgeable = false;
-        bitmapopts.inDither = false;
-        bitmapopts.inTempStorage = new byte[32768];
-        bitmapopts.inPreferredConfig = Bitmap.Config.RGB_565;
-        bitmapopts.inScaled = false;
         vncCanvas = v;
         remoteInput = c;
+        damage = new FramebufferDamage(v);
     }
 
     void setBitmapData(AbstractDrawableData b) {
@@ -122,17 +148,55 @@ public class Decoder {
      * @throws IOException if writing the SetPixelFormat message fails
      */
     public void setPixelFormat(RfbProto rfb) throws IOException {
+        sendPixelFormat(rfb);
+        applySentPixelFormat();
+    }
+
+    /**
+     * Sends the pending color model to the server but keeps decoding with the current one, for
+     * when updates in the current pixel format may still be on their way.
+     * {@link #applySentPixelFormat()} switches decoding over once they have all arrived.
+     *
+     * @param rfb the active RFB connection whose pixel format will be updated
+     * @throws IOException if writing the SetPixelFormat message fails
+     */
+    void sendPixelFormat(RfbProto rfb) throws IOException {
         pendingColorModel.setPixelFormat(rfb);
-        bytesPerPixel = pendingColorModel.bpp();
-        colorPalette = pendingColorModel.palette();
-        colorModel = pendingColorModel;
+        sentColorModel = pendingColorModel;
         pendingColorModel = null;
     }
 
+    /**
+     * Starts decoding with the color model last sent by {@link #sendPixelFormat(RfbProto)}.
+     */
+    void applySentPixelFormat() {
+        if (sentColorModel == null) {
+            return;
+        }
+        bytesPerPixel = sentColorModel.bpp();
+        colorPalette = sentColorModel.palette();
+        colorModel = sentColorModel;
+        // Shapes decoded with the old palette would keep their old colors.
+        cursorShapes.clear();
+        sentColorModel = null;
+    }
+
     public COLORMODEL getColorModel() {
         return colorModel;
     }
 
+    /**
+     * Returns the color model the server will eventually send, which differs from
+     * {@link #getColorModel()} while a change is pending or has not been acknowledged yet.
+     */
+    COLORMODEL getRequestedColorModel() {
+        COLORMODEL pending = pendingColorModel;
+        if (pending != null) {
+            return pending;
+        }
+        return sentColorModel != null ? sentColorModel : colorModel;
+    }
+
     /**
      * Schedules a color model change. The change takes effect on the next call to
      * {@link #setPixelFormat(RfbProto)}. Has no effect if {@code cm} matches the current model.
@@ -159,21 +223,20 @@ public class Decoder {
 
     void handleRawRect(RfbProto rfb, int x, int y, int w, int h, boolean paint) throws IOException {
         boolean valid = bitmapData.validDraw(x, y, w, h);
+        if (valid) {
+            bitmapData.prepareRect(x, y, w, h);
+        }
         int[] pixels = bitmapData.getBitmapPixels();
         if (bytesPerPixel == 1) {
             // 1 byte per pixel. Use palette lookup table.
             if (w > handleRawRectBuffer.length) {
                 handleRawRectBuffer = new byte[w];
             }
-            int i, offset;
             for (int dy = y; dy < y + h; dy++) {
                 rfb.is.readBytes(handleRawRectBuffer, 0, w);
                 if (!valid)
                     continue;
-                offset = bitmapData.offset(x, dy);
-                for (i = 0; i < w; i++) {
-                    pixels[offset + i] = colorPalette[0xFF & handleRawRectBuffer[i]];
-                }
+                PixelConverter.paletteLookup(handleRawRectBuffer, 0, colorPalette, pixels, bitmapData.offset(x, dy), w);
             }
         } else {
             // 4 bytes per pixel (argb) 24-bit color
@@ -182,17 +245,11 @@ public class Decoder {
             if (l > handleRawRectBuffer.length) {
                 handleRawRectBuffer = new byte[l];
             }
-            int i, offset;
             for (int dy = y; dy < y + h; dy++) {
                 rfb.is.readBytes(handleRawRectBuffer, 0, l);
                 if (!valid)
                     continue;
-                offset = bitmapData.offset(x, dy);
-                for (i = 0; i < w; i++) {
-                    final int idx = i * 4;
-                    pixels[offset + i] = // 0xFF << 24 |
-                            (handleRawRectBuffer[idx + 2] & 0xff) << 16 | (handleRawRectBuffer[idx + 1] & 0xff) << 8 | (handleRawRectBuffer[idx] & 0xff);
-                }
+                PixelConverter.bgrxToRgb(handleRawRectBuffer, 0, pixels, bitmapData.offset(x, dy), w);
             }
         }
 
@@ -202,7 +259,7 @@ public class Decoder {
         bitmapData.updateBitmap(x, y, w, h);
 
         if (paint)
-            vncCanvas.reDraw(x, y, w, h);
+            damage.add(x, y, w, h);
     }
 
     //
@@ -216,7 +273,7 @@ public class Decoder {
             return;
 
         bitmapData.copyRect(rfb.copyRectSrcX, rfb.copyRectSrcY, x, y, w, h);
-        vncCanvas.reDraw(x, y, w, h);
+        damage.add(x, y, w, h);
     }
 
     //
@@ -268,7 +325,7 @@ public class Decoder {
             bitmapData.drawRect(sx, sy, sw, sh, handleRREPaint);
         }
 
-        vncCanvas.reDraw(x, y, w, h);
+        damage.add(x, y, w, h);
     }
 
     //
@@ -317,7 +374,7 @@ public class Decoder {
             bitmapData.drawRect(sx, sy, sw, sh, handleRREPaint);
         }
 
-        vncCanvas.reDraw(x, y, w, h);
+        damage.add(x, y, w, h);
     }
 
     //
@@ -343,7 +400,7 @@ public class Decoder {
             }
 
             // Finished with a row of tiles, now let's show it.
-            vncCanvas.reDraw(x, y, w, h);
+            damage.add(x, y, w, h);
         }
     }
 
@@ -519,7 +576,7 @@ public class Decoder {
 
         zrleInStream.reset();
 
-        vncCanvas.reDraw(x, y, w, h);
+        damage.add(x, y, w, h);
     }
 
     //
@@ -540,6 +597,9 @@ public class Decoder {
         }
         zlibInflater.setInput(zlibBuf, 0, nBytes);
 
+        if (valid) {
+            bitmapData.prepareRect(x, y, w, h);
+        }
         int[] pixels = bitmapData.getBitmapPixels();
 
         if (bytesPerPixel == 1) {
@@ -547,15 +607,11 @@ public class Decoder {
             if (w > handleZlibRectBuffer.length) {
                 handleZlibRectBuffer = new byte[w];
             }
-            int i, offset;
             for (int dy = y; dy < y + h; dy++) {
                 zlibInflater.inflate(handleZlibRectBuffer, 0, w);
                 if (!valid)
                     continue;
-                offset = bitmapData.offset(x, dy);
-                for (i = 0; i < w; i++) {
-                    pixels[offset + i] = colorPalette[0xFF & handleZlibRectBuffer[i]];
-                }
+                PixelConverter.paletteLookup(handleZlibRectBuffer, 0, colorPalette, pixels, bitmapData.offset(x, dy), w);
             }
         } else {
             // 24-bit color (ARGB) 4 bytes per pixel.
@@ -563,23 +619,18 @@ public class Decoder {
             if (l > handleZlibRectBuffer.length) {
                 handleZlibRectBuffer = new byte[l];
             }
-            int i, offset;
             for (int dy = y; dy < y + h; dy++) {
                 zlibInflater.inflate(handleZlibRectBuffer, 0, l);
                 if (!valid)
                     continue;
-                offset = bitmapData.offset(x, dy);
-                for (i = 0; i < w; i++) {
-                    final int idx = i * 4;
-                    pixels[offset + i] = (handleZlibRectBuffer[idx + 2] & 0xFF) << 16 | (handleZlibRectBuffer[idx + 1] & 0xFF) << 8 | (handleZlibRectBuffer[idx] & 0xFF);
-                }
+                PixelConverter.bgrxToRgb(handleZlibRectBuffer, 0, pixels, bitmapData.offset(x, dy), w);
             }
         }
         if (!valid)
             return;
         bitmapData.updateBitmap(x, y, w, h);
 
-        vncCanvas.reDraw(x, y, w, h);
+        damage.add(x, y, w, h);
     }
 
     private int readPixel(InStream is) throws Exception {
@@ -602,19 +653,14 @@ public class Decoder {
                 readPixelsBuffer = new byte[count];
             }
             is.readBytes(readPixelsBuffer, 0, count);
-            for (int i = 0; i < count; i++) {
-                dst[i] = (int) readPixelsBuffer[i] & 0xFF;
-            }
+            PixelConverter.unsignedBytesToInts(readPixelsBuffer, 0, dst, 0, count);
         } else {
             final int l = count * 3;
             if (l > readPixelsBuffer.length) {
                 readPixelsBuffer = new byte[l];
             }
             is.readBytes(readPixelsBuffer, 0, l);
-            for (int i = 0; i < count; i++) {
-                final int idx = i * 3;
-                dst[i] = ((readPixelsBuffer[idx + 2] & 0xFF) << 16 | (readPixelsBuffer[idx + 1] & 0xFF) << 8 | (readPixelsBuffer[idx] & 0xFF));
-            }
+            PixelConverter.bgrToRgb(readPixelsBuffer, 0, dst, 0, count);
         }
     }
 
@@ -726,6 +772,7 @@ public class Decoder {
 
     private void handleUpdatedZrleTile(int x, int y, int w, int h) {
         int offsetSrc = 0;
+        bitmapData.prepareRect(x, y, w, h);
         int[] destPixels = bitmapData.getBitmapPixels();
         for (int j = 0; j < h; j++) {
             System.arraycopy(zrleTilePixels, offsetSrc, destPixels, bitmapData.offset(x, y + j), w);
@@ -741,20 +788,22 @@ public class Decoder {
     //
     void handleTightRect(RfbProto rfb, int x, int y, int w, int h, boolean zstd) throws Exception {
 
-        int[] pixels = bitmapData.getBitmapPixels();
         boolean valid = bitmapData.validDraw(x, y, w, h);
         int comp_ctl = rfb.is.readUnsignedByte();
 
         int rowSize = w;
-        int boffset = 0;
         int numColors = 0;
         boolean useGradient = false;
 
+        if (parallelDecoding && decodeWorkers == null) {
+            decodeWorkers = new TightDecodeWorkers(this::releaseWorkerJpegDecoder);
+        }
+
         // Flush zlib streams if we are told by the server to do so.
         int stream_id;
         for (stream_id = 0; stream_id < 4; stream_id++) {
             if ((comp_ctl & 1) != 0) {
-                tightInflaters[stream_id] = null;
+                resetTightStream(stream_id);
             }
             comp_ctl >>= 1;
         }
@@ -784,8 +833,9 @@ public class Decoder {
                         | (solidColorBuf[1] & 0xFF) << 8 | (solidColorBuf[2] & 0xFF));
             }
             if (valid) {
+                waitForOverlappingRects(x, y, w, h);
                 bitmapData.drawRect(x, y, w, h, handleTightRectPaint);
-                vncCanvas.reDraw(x, y, w, h);
+                damage.add(x, y, w, h);
             }
             return;
         }
@@ -793,6 +843,21 @@ public class Decoder {
         if (comp_ctl == RfbProto.TightJpeg) {
             // Read JPEG data.
             int jpegDataLen = rfb.readCompactLen();
+            if (decodeWorkers != null) {
+                // JPEG rectangles are independent of each other, decode them on the worker pool.
+                final byte[] jpegData = new byte[jpegDataLen];
+                rfb.is.readBytes(jpegData, 0, jpegDataLen);
+                if (!valid)
+                    return;
+                waitForOverlappingRects(x, y, w, h);
+                final AtomicLong workerNanos = zstd ? tightZstdWorkerNanos : tightWorkerNanos;
+                decodeWorkers.submitJpeg(new Rect(x, y, x + w, y + h), () -> {
+                    long start = System.nanoTime();
+                    decodeJpegRect(rfb, jpegData, jpegDataLen, x, y, w, h, getWorkerJpegDecoder());
+                    workerNanos.addAndGet(System.nanoTime() - start);
+                });
+                return;
+            }
             if (jpegDataLen > inflBuf.length) {
                 inflBuf = new byte[2 * jpegDataLen];
             }
@@ -800,15 +865,7 @@ public class Decoder {
             if (!valid)
                 return;
 
-            // Decode JPEG data
-            Bitmap tightBitmap = BitmapFactory.decodeByteArray(inflBuf, 0, jpegDataLen, bitmapopts);
-
-            // Copy decoded data into bitmapData and recycle bitmap.
-            //tightBitmap.getPixels(pixels, bitmapData.offset(x, y), bitmapData.bitmapwidth, 0, 0, w, h);
-            bitmapData.updateBitmap(tightBitmap, x, y, w, h);
-            vncCanvas.reDraw(x, y, w, h);
-            // To avoid running out of memory, recycle bitmap immediately.
-            tightBitmap.recycle();
+            decodeJpegRect(rfb, inflBuf, jpegDataLen, x, y, w, h, jpegDecoder);
             return;
         }
 
@@ -852,205 +909,365 @@ public class Decoder {
         // Read, optionally uncompress and decode data.
         int dataSize = h * rowSize;
 
-        int dx;
-        int dy;
-        int offset;
+        byte[] data;
         if (dataSize < RfbProto.TightMinToCompress) {
             // Data size is small - not compressed with zlib.
             rfb.is.readBytes(uncompDataBuf, 0, dataSize);
-            if (!valid)
-                return;
+            data = uncompDataBuf;
+        } else if (readUncompressed) {
+            // TurboVNC TightNoZlib: server sends a compact length then raw pixel data.
+            int rawDataLen = rfb.readCompactLen();
+            if (rawDataLen > inflBuf.length) {
+                inflBuf = new byte[rawDataLen * 2];
+            }
+            rfb.is.readBytes(inflBuf, 0, rawDataLen);
+            data = inflBuf;
+        } else if (zstd) {
+            // Data was compressed with zstd.
+            int zstdDataLen = rfb.readCompactLen();
+            stream_id = comp_ctl & 0x03;
+            byte[] leftover = tightZstdLeftovers[stream_id];
+            int leftoverLen = leftover != null ? leftover.length : 0;
+            zstdSrcBuf = ensureDirectCapacity(zstdSrcBuf, leftoverLen + zstdDataLen);
+            if (leftover != null) {
+                zstdSrcBuf.put(leftover);
+                tightZstdLeftovers[stream_id] = null;
+            }
+            rfb.is.readBytes(zstdSrcBuf, zstdDataLen);
+            zstdSrcBuf.flip();
 
-            if (numColors != 0) {
-                // Indexed colors.
-                if (numColors == 2) {
-                    // Two colors.
-                    if (bytesPerPixel == 1) {
-                        decodeMonoData(x, y, w, h, uncompDataBuf, tightPalette8);
-                    } else {
-                        decodeMonoData(x, y, w, h, uncompDataBuf, tightPalette24);
-                    }
-                } else {
-                    // 3..255 colors (assuming bytesPerPixel == 4).
-                    for (dy = y; dy < y + h; dy++) {
-                        offset = bitmapData.offset(x, dy);
-                        for (dx = x; dx < x + w; dx++) {
-                            pixels[offset++] = tightPalette24[uncompDataBuf[boffset++] & 0xFF];
-                        }
-                    }
-                }
-            } else if (useGradient) {
-                // "Gradient"-processed data
-                decodeGradientData(x, y, w, h, uncompDataBuf);
-            } else {
-                // Raw true-color data.
-                if (bytesPerPixel == 1) {
-                    for (dy = y; dy < y + h; dy++) {
-                        offset = bitmapData.offset(x, dy);
-                        for (dx = 0; dx < w; dx++) {
-                            pixels[offset++] = colorPalette[0xFF & uncompDataBuf[boffset++]];
-                        }
-                    }
-                } else {
-                    for (dy = y; dy < y + h; dy++) {
-                        offset = bitmapData.offset(x, dy);
-                        for (dx = 0; dx < w; dx++) {
-                            idx = boffset * 3;
-                            boffset++;
-                            pixels[offset++] = (uncompDataBuf[idx] & 0xFF) << 16 |
-                                    (uncompDataBuf[idx + 1] & 0xFF) << 8 |
-                                    (uncompDataBuf[idx + 2] & 0xFF);
-                        }
-                    }
+            if (dataSize > inflBuf.length) {
+                inflBuf = new byte[dataSize * 2];
+            }
+            if (!decompressTightZstdData(stream_id, dataSize)) {
+                return;
+            }
+            data = inflBuf;
+        } else if (decodeWorkers != null) {
+            // Data was compressed with zlib. Inflate and decode it on the worker owning the stream.
+            final int zlibDataLen = rfb.readCompactLen();
+            final byte[] compressed = new byte[zlibDataLen];
+            rfb.is.readBytes(compressed, 0, zlibDataLen);
+
+            final int streamId = comp_ctl & 0x03;
+            final int colors = numColors;
+            final boolean gradient = useGradient;
+            // The palettes are overwritten by the next rectangle, so the task gets its own copy.
+            final byte[] palette8 = tightPalette8.clone();
+            final int[] palette24 = tightPalette24.clone();
+            Rect area = null;
+            if (valid) {
+                waitForOverlappingRects(x, y, w, h);
+                area = new Rect(x, y, x + w, y + h);
+            }
+            decodeWorkers.submitToStream(streamId, area, () -> {
+                long start = System.nanoTime();
+                tightStreamBufs[streamId] = inflateTightData(streamId, compressed, zlibDataLen,
+                        tightStreamBufs[streamId], dataSize);
+                if (valid) {
+                    decodeTightData(x, y, w, h, tightStreamBufs[streamId], colors, palette8, palette24, gradient);
+                    bitmapData.updateBitmap(x, y, w, h);
+                    damage.add(x, y, w, h);
                 }
+                tightWorkerNanos.addAndGet(System.nanoTime() - start);
+            });
+            return;
+        } else {
+            // Data was compressed with zlib.
+            int zlibDataLen = rfb.readCompactLen();
+            if (zlibDataLen > zlibData.length) {
+                zlibData = new byte[zlibDataLen * 2];
             }
+            rfb.is.readBytes(zlibData, 0, zlibDataLen);
+
+            stream_id = comp_ctl & 0x03;
+            inflBuf = inflateTightData(stream_id, zlibData, zlibDataLen, inflBuf, dataSize);
+            data = inflBuf;
+        }
+
+        if (!valid)
+            return;
+
+        waitForOverlappingRects(x, y, w, h);
+        decodeTightData(x, y, w, h, data, numColors, tightPalette8, tightPalette24, useGradient);
 
+        bitmapData.updateBitmap(x, y, w, h);
+        damage.add(x, y, w, h);
+    }
+
+    private void resetTightStream(final int streamId) {
+        // Zstd data is always decompressed on this thread.
+        if (tightZstdContexts[streamId] != null) {
+            tightZstdContexts[streamId].reset();
+        }
+        tightZstdLeftovers[streamId] = null;
+        if (decodeWorkers != null) {
+            decodeWorkers.submitToStream(streamId, null, () -> tightInflaters[streamId] = null);
         } else {
-            // Data was compressed with zlib/zstd, or sent raw (TurboVNC TightNoZlib).
-            if (readUncompressed) {
-                // TurboVNC TightNoZlib: server sends a compact length then raw pixel data.
-                int rawDataLen = rfb.readCompactLen();
-                if (rawDataLen > inflBuf.length) {
-                    inflBuf = new byte[rawDataLen * 2];
-                }
-                rfb.is.readBytes(inflBuf, 0, rawDataLen);
-            } else if (zstd) {
-                // Data was compressed with zstd.
-                int zlibDataLen = rfb.readCompactLen();
-                zlibData = new byte[zlibDataLen];
-                rfb.is.readBytes(zlibData, 0, zlibDataLen);
-
-                inflBuf = new byte[dataSize];
-
-                try {
-                    Zstd.decompress(inflBuf, zlibData);
-                } catch (Exception e) {
-                    Log.e(TAG, Log.getStackTraceString(e));
-                    return;
-                }
-            } else {
-                // Data was compressed with zlib.
-                int zlibDataLen = rfb.readCompactLen();
-                if (zlibDataLen > zlibData.length) {
-                    zlibData = new byte[zlibDataLen * 2];
-                }
-                rfb.is.readBytes(zlibData, 0, zlibDataLen);
+            tightInflaters[streamId] = null;
+        }
+    }
 
-                stream_id = comp_ctl & 0x03;
-                if (tightInflaters[stream_id] == null) {
-                    tightInflaters[stream_id] = new Inflater();
-                }
+    /**
+     * Inflates dataSize bytes of Tight data with the inflater of the given stream.
+     *
+     * @return out, or a larger buffer if out could not hold dataSize bytes
+     */
+    private byte[] inflateTightData(int streamId, byte[] data, int dataLen, byte[] out, int dataSize) {
+        if (tightInflaters[streamId] == null) {
+            tightInflaters[streamId] = new Inflater();
+        }
 
-                Inflater myInflater = tightInflaters[stream_id];
-                myInflater.setInput(zlibData, 0, zlibDataLen);
+        Inflater myInflater = tightInflaters[streamId];
+        myInflater.setInput(data, 0, dataLen);
 
-                if (dataSize > inflBuf.length) {
-                    inflBuf = new byte[dataSize * 2];
-                }
+        if (out == null || dataSize > out.length) {
+            out = new byte[dataSize * 2];
+        }
 
-                try {
-                    myInflater.inflate(inflBuf, 0, dataSize);
-                } catch (DataFormatException e) {
-                    Log.e(TAG, Log.getStackTraceString(e));
+        try {
+            myInflater.inflate(out, 0, dataSize);
+        } catch (DataFormatException e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+        }
+        return out;
+    }
+
+    /**
+     * Decompresses dataSize bytes from zstdSrcBuf into inflBuf with the context of the given
+     * stream. The context is kept between rectangles, so data compressed as one continuous zstd
+     * stream decodes as well as data sent as a separate frame per rectangle. Compressed data not
+     * needed for this rectangle, such as the end of a frame, belongs to the stream and is kept for
+     * its next rectangle.
+     *
+     * @return false if the data could not be decompressed
+     */
+    private boolean decompressTightZstdData(int streamId, int dataSize) {
+        if (tightZstdContexts[streamId] == null) {
+            tightZstdContexts[streamId] = new ZstdDecompressCtx();
+        }
+        ZstdDecompressCtx ctx = tightZstdContexts[streamId];
+
+        zstdDstBuf = ensureDirectCapacity(zstdDstBuf, dataSize);
+        zstdDstBuf.limit(dataSize);
+        try {
+            while (zstdDstBuf.hasRemaining()) {
+                int consumed = zstdSrcBuf.position();
+                int produced = zstdDstBuf.position();
+                ctx.decompressDirectByteBufferStream(zstdDstBuf, zstdSrcBuf);
+                if (zstdSrcBuf.position() == consumed && zstdDstBuf.position() == produced) {
+                    Log.e(TAG, "TightZstd stream " + streamId + " ended after " + produced +
+                            " of " + dataSize + " bytes");
+                    ctx.reset();
+                    return false;
                 }
             }
+        } catch (ZstdException e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+            ctx.reset();
+            return false;
+        }
+        if (zstdSrcBuf.hasRemaining()) {
+            byte[] leftover = new byte[zstdSrcBuf.remaining()];
+            zstdSrcBuf.get(leftover);
+            tightZstdLeftovers[streamId] = leftover;
+        }
+        zstdDstBuf.flip();
+        zstdDstBuf.get(inflBuf, 0, dataSize);
+        return true;
+    }
 
-            if (!valid)
-                return;
+    /**
+     * Returns buf cleared for writing if it can hold size bytes, or a larger direct buffer.
+     */
+    private static ByteBuffer ensureDirectCapacity(ByteBuffer buf, int size) {
+        if (buf == null || buf.capacity() < size) {
+            buf = ByteBuffer.allocateDirect(Math.max(size * 2, 8192));
+        }
+        buf.clear();
+        return buf;
+    }
 
-            if (numColors != 0) {
-                // Indexed colors.
-                if (numColors == 2) {
-                    // Two colors.
-                    if (bytesPerPixel == 1) {
-                        decodeMonoData(x, y, w, h, inflBuf, tightPalette8);
-                    } else {
-                        decodeMonoData(x, y, w, h, inflBuf, tightPalette24);
-                    }
-                } else {
-                    // More than two colors (assuming bytesPerPixel == 4).
-                    for (dy = y; dy < y + h; dy++) {
-                        offset = bitmapData.offset(x, dy);
-                        for (dx = x; dx < x + w; dx++) {
-                            pixels[offset++] = tightPalette24[inflBuf[boffset++] & 0xFF];
-                        }
-                    }
-                }
-            } else if (useGradient) {
-                // Compressed "Gradient"-filtered data (assuming bytesPerPixel == 4).
-                decodeGradientData(x, y, w, h, inflBuf);
-            } else {
-                // Compressed true-color data.
-                if (bytesPerPixel == 1) {
-                    for (dy = y; dy < y + h; dy++) {
-                        offset = bitmapData.offset(x, dy);
-                        for (dx = 0; dx < w; dx++) {
-                            pixels[offset++] = colorPalette[0xFF & inflBuf[boffset++]];
-                        }
-                    }
-                } else {
-                    for (dy = y; dy < y + h; dy++) {
-                        offset = bitmapData.offset(x, dy);
-                        for (dx = 0; dx < w; dx++) {
-                            idx = boffset * 3;
-                            boffset++;
-                            pixels[offset++] = (inflBuf[idx] & 0xFF) << 16 |
-                                    (inflBuf[idx + 1] & 0xFF) << 8 |
-                                    (inflBuf[idx + 2] & 0xFF);
-                        }
-                    }
-                }
+    /**
+     * Frees the native memory held by the TightZstd contexts and the pooled JPEG bitmaps, stopping
+     * the decode workers so that they free theirs. All are recreated if another Tight rectangle
+     * arrives. Must be called on the thread decoding rectangles.
+     */
+    void releaseTightResources() {
+        shutdownDecodeWorkers();
+        jpegDecoder.release();
+        for (int i = 0; i < tightZstdContexts.length; i++) {
+            if (tightZstdContexts[i] != null) {
+                tightZstdContexts[i].close();
+                tightZstdContexts[i] = null;
             }
+            tightZstdLeftovers[i] = null;
         }
+    }
 
-        bitmapData.updateBitmap(x, y, w, h);
-        vncCanvas.reDraw(x, y, w, h);
+    private void decodeJpegRect(RfbProto rfb, byte[] data, int len, int x, int y, int w, int h,
+                                TightJpegDecoder decoder) {
+        long start = System.nanoTime();
+        Bitmap tightBitmap = decoder.decode(data, len, w, h);
+        if (tightBitmap == null) {
+            Log.e(TAG, "Could not decode " + w + "x" + h + " JPEG rectangle");
+            return;
+        }
+
+        // Copy decoded data into bitmapData. The bitmap stays with the decoder for reuse.
+        bitmapData.updateBitmap(tightBitmap, x, y, w, h);
+        rfb.addJpegDecodeTime(System.nanoTime() - start);
+        damage.add(x, y, w, h);
     }
 
     //
-    // Decode 1bpp-encoded bi-color rectangle (8-bit and 24-bit versions).
+    // Convert filtered Tight data into framebuffer pixels.
     //
-    void decodeMonoData(int x, int y, int w, int h, byte[] src, byte[] palette) {
-
-        int dx, dy, n;
-        int i = bitmapData.offset(x, y);
+    private void decodeTightData(int x, int y, int w, int h, byte[] buf, int numColors,
+                                 byte[] palette8, int[] palette24, boolean useGradient) {
+        // Runs on a decode worker with parallel decoding, so the rectangle is staged here.
+        bitmapData.prepareRect(x, y, w, h);
         int[] pixels = bitmapData.getBitmapPixels();
-        int rowBytes = (w + 7) / 8;
-        byte b;
+        int boffset = 0;
+        int dy;
 
-        for (dy = 0; dy < h; dy++) {
-            for (dx = 0; dx < w / 8; dx++) {
-                b = src[dy * rowBytes + dx];
-                for (n = 7; n >= 0; n--) {
-                    pixels[i++] = colorPalette[0xFF & palette[b >> n & 1]];
+        if (numColors != 0) {
+            // Indexed colors.
+            if (numColors == 2) {
+                // Two colors.
+                if (bytesPerPixel == 1) {
+                    decodeMonoData(x, y, w, h, buf, palette8);
+                } else {
+                    decodeMonoData(x, y, w, h, buf, palette24);
+                }
+            } else {
+                // More than two colors (assuming bytesPerPixel == 4).
+                for (dy = y; dy < y + h; dy++) {
+                    PixelConverter.paletteLookup(buf, boffset, palette24, pixels, bitmapData.offset(x, dy), w);
+                    boffset += w;
                 }
             }
-            for (n = 7; n >= 8 - w % 8; n--) {
-                pixels[i++] = colorPalette[0xFF & palette[src[dy * rowBytes + dx] >> n & 1]];
+        } else if (useGradient) {
+            // "Gradient"-filtered data (assuming bytesPerPixel == 4).
+            decodeGradientData(x, y, w, h, buf);
+        } else {
+            // True-color data.
+            if (bytesPerPixel == 1) {
+                for (dy = y; dy < y + h; dy++) {
+                    PixelConverter.paletteLookup(buf, boffset, colorPalette, pixels, bitmapData.offset(x, dy), w);
+                    boffset += w;
+                }
+            } else {
+                for (dy = y; dy < y + h; dy++) {
+                    PixelConverter.rgbToRgb(buf, boffset, pixels, bitmapData.offset(x, dy), w);
+                    boffset += w * 3;
+                }
             }
-            i += (bitmapData.getBitmapWidth() - w);
         }
     }
 
+    /**
+     * Starts collecting the changes of a framebuffer update instead of redrawing each rectangle.
+     */
+    void beginUpdateDamage() {
+        damage.begin();
+    }
+
+    /**
+     * Redraws everything changed since {@link #beginUpdateDamage()}. Rectangles still decoding on
+     * worker threads must have finished, see {@link #waitForPendingRects()}.
+     */
+    void flushUpdateDamage() {
+        damage.flush();
+    }
+
+    FramebufferDamage getDamage() {
+        return damage;
+    }
+
+    /**
+     * Enables or disables decoding Tight JPEG and zlib rectangles on worker threads.
+     */
+    public void setParallelDecoding(boolean parallelDecoding) {
+        this.parallelDecoding = parallelDecoding;
+    }
+
+    private void waitForOverlappingRects(int x, int y, int w, int h) throws Exception {
+        if (decodeWorkers != null) {
+            decodeWorkers.waitForOverlapping(x, y, w, h);
+        }
+    }
+
+    /**
+     * Waits until every rectangle handed to the decode workers has been written to the
+     * framebuffer. Must be called before rectangles of other encodings are drawn and at the end
+     * of each framebuffer update.
+     */
+    void waitForPendingRects() throws Exception {
+        if (decodeWorkers != null) {
+            decodeWorkers.waitForAll();
+        }
+    }
+
+    /**
+     * Returns the time the decode workers spent on Tight or TightZstd rectangles since the last
+     * call. Only complete once {@link #waitForPendingRects()} has returned.
+     */
+    long takeWorkerDecodeNanos(boolean zstd) {
+        return (zstd ? tightZstdWorkerNanos : tightWorkerNanos).getAndSet(0);
+    }
+
+    /**
+     * Returns the JPEG decoder of the calling worker thread.
+     */
+    private TightJpegDecoder getWorkerJpegDecoder() {
+        TightJpegDecoder decoder = workerJpegDecoders.get();
+        if (decoder == null) {
+            decoder = new TightJpegDecoder();
+            workerJpegDecoders.set(decoder);
+        }
+        return decoder;
+    }
+
+    /**
+     * Frees the pooled bitmaps of the calling worker thread, which is exiting.
+     */
+    private void releaseWorkerJpegDecoder() {
+        TightJpegDecoder decoder = workerJpegDecoders.get();
+        if (decoder != null) {
+            decoder.release();
+            workerJpegDecoders.remove();
+        }
+    }
+
+    /**
+     * Stops the decode workers, which release their JPEG bitmaps as they exit. They are recreated
+     * if another Tight rectangle arrives.
+     */
+    private void shutdownDecodeWorkers() {
+        if (decodeWorkers != null) {
+            decodeWorkers.shutdown();
+            decodeWorkers = null;
+        }
+    }
+
+    //
+    // Decode 1bpp-encoded bi-color rectangle (8-bit and 24-bit versions).
+    //
+    void decodeMonoData(int x, int y, int w, int h, byte[] src, byte[] palette) {
+        decodeMonoData(x, y, w, h, src, colorPalette[0xFF & palette[0]], colorPalette[0xFF & palette[1]]);
+    }
+
     void decodeMonoData(int x, int y, int w, int h, byte[] src, int[] palette) {
+        decodeMonoData(x, y, w, h, src, palette[0], palette[1]);
+    }
 
-        int dx, dy, n;
-        int i = bitmapData.offset(x, y);
+    private void decodeMonoData(int x, int y, int w, int h, byte[] src, int color0, int color1) {
         int[] pixels = bitmapData.getBitmapPixels();
         int rowBytes = (w + 7) / 8;
-        byte b;
 
-        for (dy = 0; dy < h; dy++) {
-            for (dx = 0; dx < w / 8; dx++) {
-                b = src[dy * rowBytes + dx];
-                for (n = 7; n >= 0; n--) {
-                    pixels[i++] = palette[b >> n & 1];
-                }
-            }
-            for (n = 7; n >= 8 - w % 8; n--) {
-                pixels[i++] = palette[src[dy * rowBytes + dx] >> n & 1];
-            }
-            i += (bitmapData.getBitmapWidth() - w);
+        for (int dy = 0; dy < h; dy++) {
+            PixelConverter.expandMono(src, dy * rowBytes, color0, color1, pixels, bitmapData.offset(x, y + dy), w);
         }
     }
 
@@ -1067,9 +1284,8 @@ public class Decoder {
         int[] est = new int[3];
         int[] pixels = bitmapData.getBitmapPixels();
 
-        int offset = bitmapData.offset(x, y);
-
         for (dy = 0; dy < h; dy++) {
+            int offset = bitmapData.offset(x, y + dy);
 
             /* First pixel in a row */
             for (c = 0; c < 3; c++) {
@@ -1095,12 +1311,15 @@ public class Decoder {
             }
 
             System.arraycopy(thisRow, 0, prevRow, 0, w * 3);
-            offset += (bitmapData.getBitmapWidth() - w);
         }
     }
 
     /**
      * Handles cursor shape update (XCursor and RichCursor encodings).
+     * <p>
+     * The encoded shape is read into a reusable buffer and looked up in the cursor shape cache,
+     * so a shape the server has sent before is shown again without decoding it or building a
+     * new bitmap.
      */
     synchronized void
     handleCursorShapeUpdate(RfbProto rfb, int encodingType, int hotX, int hotY, int w, int h) throws IOException {
@@ -1112,54 +1331,73 @@ public class Decoder {
         if (w * h == 0)
             return;
 
-        int[] cursorShape = decodeCursorShape(rfb, encodingType, w, h);
-
-        if (!discardCursorShapeUpdates) {
-            // Set cursor rectangle.
-            bitmapData.setCursorRect(x, y, w, h, hotX, hotY);
+        int bytesMaskData = (w + 7) / 8 * h;
+        int length;
+        if (encodingType == RfbProto.EncodingXCursor) {
+            length = 6 + bytesMaskData * 2;
+        } else {
+            length = w * h * bytesPerPixel + bytesMaskData;
+        }
+        if (cursorShapeBuf.length < length) {
+            cursorShapeBuf = new byte[length];
+        }
+        rfb.is.readBytes(cursorShapeBuf, 0, length);
 
-            // Decode cursor pixel data, and set pixel data into bitmap drawable.
-            bitmapData.setSoftCursor(cursorShape);
+        if (discardCursorShapeUpdates)
+            return;
 
-            // Show the cursor.
-            RectF r = bitmapData.getCursorRect();
-            vncCanvas.reDraw(r.left, r.top, r.width(), r.height());
+        long hash = CursorShapeCache.hash(cursorShapeBuf, length, encodingType, bytesPerPixel);
+        Bitmap cursor = cursorShapes.get(hash, w, h, hotX, hotY);
+        if (cursor == null) {
+            decodeCursorShape(encodingType, w, h);
+            cursor = Bitmap.createBitmap(cursorPixels, 0, w, w, h, Bitmap.Config.ARGB_8888);
+            cursorShapes.put(hash, w, h, hotX, hotY, cursor);
         }
+
+        // Set cursor rectangle.
+        bitmapData.setCursorRect(x, y, w, h, hotX, hotY);
+
+        // Set the cursor bitmap into bitmap drawable.
+        bitmapData.setSoftCursor(cursor);
+
+        // Show the cursor.
+        RectF r = bitmapData.getCursorRect();
+        vncCanvas.reDraw(r.left, r.top, r.width(), r.height());
+    }
+
+    CursorShapeCache getCursorShapes() {
+        return cursorShapes;
     }
 
     /**
-     * Decodes cursor pixel data for an XCursor or RichCursor encoding and returns it as a
-     * packed ARGB int array.
+     * Decodes the XCursor or RichCursor shape held in cursorShapeBuf into cursorPixels as packed
+     * ARGB, one row of {@code width} pixels after another.
      *
-     * @param rfb          the active RFB connection to read pixel and mask data from
      * @param encodingType {@link RfbProto#EncodingXCursor} or {@link RfbProto#EncodingRichCursor}
      * @param width        cursor width in pixels
      * @param height       cursor height in pixels
-     * @return packed ARGB pixel array of length {@code width * height}
-     * @throws IOException if reading from the stream fails
      */
-    synchronized int[] decodeCursorShape(RfbProto rfb, int encodingType, int width, int height) throws IOException {
+    private void decodeCursorShape(int encodingType, int width, int height) {
 
         int bytesPerRow = (width + 7) / 8;
         int bytesMaskData = bytesPerRow * height;
 
-        int[] softCursorPixels = new int[width * height];
+        if (cursorPixels.length < width * height) {
+            cursorPixels = new int[width * height];
+        }
+        int[] softCursorPixels = cursorPixels;
+        byte[] buf = cursorShapeBuf;
 
         if (encodingType == RfbProto.EncodingXCursor) {
 
-            // Read foreground and background colors of the cursor.
-            byte[] rgb = new byte[6];
-            rfb.is.readBytes(rgb, 0, rgb.length);
-            int[] colors = {(0xFF000000 | (rgb[3] & 0xFF) << 16 |
-                    (rgb[4] & 0xFF) << 8 | (rgb[5] & 0xFF)),
-                    (0xFF000000 | (rgb[0] & 0xFF) << 16 |
-                            (rgb[1] & 0xFF) << 8 | (rgb[2] & 0xFF))};
+            // Foreground and background colors of the cursor.
+            int[] colors = cursorColors;
+            colors[0] = 0xFF000000 | (buf[3] & 0xFF) << 16 | (buf[4] & 0xFF) << 8 | (buf[5] & 0xFF);
+            colors[1] = 0xFF000000 | (buf[0] & 0xFF) << 16 | (buf[1] & 0xFF) << 8 | (buf[2] & 0xFF);
 
-            // Read pixel and mask data.
-            byte[] pixBuf = new byte[bytesMaskData];
-            rfb.is.readBytes(pixBuf, 0, pixBuf.length);
-            byte[] maskBuf = new byte[bytesMaskData];
-            rfb.is.readBytes(maskBuf, 0, maskBuf.length);
+            // Pixel and mask data follow the colors.
+            int pixOffset = 6;
+            int maskOffset = pixOffset + bytesMaskData;
 
             // Decode pixel data into softCursorPixels[].
             byte pixByte, maskByte;
@@ -1167,8 +1405,8 @@ public class Decoder {
             int i = 0;
             for (y = 0; y < height; y++) {
                 for (x = 0; x < width / 8; x++) {
-                    pixByte = pixBuf[y * bytesPerRow + x];
-                    maskByte = maskBuf[y * bytesPerRow + x];
+                    pixByte = buf[pixOffset + y * bytesPerRow + x];
+                    maskByte = buf[maskOffset + y * bytesPerRow + x];
                     for (n = 7; n >= 0; n--) {
                         if ((maskByte >> n & 1) != 0) {
                             result = colors[pixByte >> n & 1];
@@ -1179,8 +1417,8 @@ public class Decoder {
                     }
                 }
                 for (n = 7; n >= 8 - width % 8; n--) {
-                    if ((maskBuf[y * bytesPerRow + x] >> n & 1) != 0) {
-                        result = colors[pixBuf[y * bytesPerRow + x] >> n & 1];
+                    if ((buf[maskOffset + y * bytesPerRow + x] >> n & 1) != 0) {
+                        result = colors[buf[pixOffset + y * bytesPerRow + x] >> n & 1];
                     } else {
                         result = 0;        // Transparent pixel
                     }
@@ -1191,28 +1429,25 @@ public class Decoder {
         } else {
             // encodingType == rfb.EncodingRichCursor
 
-            // Read pixel and mask data.
-            byte[] pixBuf = new byte[width * height * bytesPerPixel];
-            rfb.is.readBytes(pixBuf, 0, pixBuf.length);
-            byte[] maskBuf = new byte[bytesMaskData];
-            rfb.is.readBytes(maskBuf, 0, maskBuf.length);
+            // Pixel data is followed by mask data.
+            int maskOffset = width * height * bytesPerPixel;
 
             // Decode pixel data into softCursorPixels[].
-            byte pixByte, maskByte;
+            byte maskByte;
             int x, y, n, result;
             int i = 0;
             for (y = 0; y < height; y++) {
                 for (x = 0; x < width / 8; x++) {
-                    maskByte = maskBuf[y * bytesPerRow + x];
+                    maskByte = buf[maskOffset + y * bytesPerRow + x];
                     for (n = 7; n >= 0; n--) {
                         if ((maskByte >> n & 1) != 0) {
                             if (bytesPerPixel == 1) {
-                                result = colorPalette[0xFF & pixBuf[i]];
+                                result = colorPalette[0xFF & buf[i]];
                             } else {
                                 result = 0xFF000000 |
-                                        (pixBuf[i * 4 + 2] & 0xFF) << 16 |
-                                        (pixBuf[i * 4 + 1] & 0xFF) << 8 |
-                                        (pixBuf[i * 4] & 0xFF);
+                                        (buf[i * 4 + 2] & 0xFF) << 16 |
+                                        (buf[i * 4 + 1] & 0xFF) << 8 |
+                                        (buf[i * 4] & 0xFF);
                             }
                         } else {
                             result = 0;    // Transparent pixel
@@ -1221,14 +1456,14 @@ public class Decoder {
                     }
                 }
                 for (n = 7; n >= 8 - width % 8; n--) {
-                    if ((maskBuf[y * bytesPerRow + x] >> n & 1) != 0) {
+                    if ((buf[maskOffset + y * bytesPerRow + x] >> n & 1) != 0) {
                         if (bytesPerPixel == 1) {
-                            result = colorPalette[0xFF & pixBuf[i]];
+                            result = colorPalette[0xFF & buf[i]];
                         } else {
                             result = 0xFF000000 |
-                                    (pixBuf[i * 4 + 2] & 0xFF) << 16 |
-                                    (pixBuf[i * 4 + 1] & 0xFF) << 8 |
-                                    (pixBuf[i * 4] & 0xFF);
+                                    (buf[i * 4 + 2] & 0xFF) << 16 |
+                                    (buf[i * 4 + 1] & 0xFF) << 8 |
+                                    (buf[i * 4] & 0xFF);
                         }
                     } else {
                         result = 0;        // Transparent pixel
@@ -1238,7 +1473,5 @@ public class Decoder {
             }
 
         }
-
-        return softCursorPixels;
     }
 }
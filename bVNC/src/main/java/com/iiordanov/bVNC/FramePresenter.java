@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import android.view.Choreographer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Presents framebuffer changes to the screen at most once per display frame.
+ * <p>
+ * Decoder threads report damaged framebuffer areas with {@link #damage(int, int, int, int)}. The
+ * bounds of all damage since the last frame are kept in a single AtomicLong, 16 bits per edge, and
+ * grown with compare-and-set, so reporting never blocks. The first damage after a frame schedules
+ * a Choreographer callback, which takes the accumulated bounds and hands them to the
+ * {@link Target} on the UI thread. Without damage no callback is scheduled and nothing is drawn.
+ * <p>
+ * A frame is counted as late when its callback runs a full frame interval or more after the
+ * vsync it was scheduled for, and every further interval that passed counts as a missed frame.
+ */
+class FramePresenter implements Choreographer.FrameCallback {
+    private static final int MAX_COORDINATE = 0xFFFF;
+    // Left and top at their maximum, right and bottom at zero: the union identity.
+    private static final long EMPTY = pack(MAX_COORDINATE, MAX_COORDINATE, 0, 0);
+
+    private final Choreographer choreographer;
+    private final Target target;
+    private final long frameIntervalNanos;
+    private final AtomicLong pendingDamage = new AtomicLong(EMPTY);
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+
+    // Statistics, only updated on the UI thread.
+    private volatile long presentedFrames;
+    private volatile long emptyFrames;
+    private volatile long lateFrames;
+    private volatile long missedFrames;
+
+    /**
+     * Must be called on the UI thread.
+     *
+     * @param target      draws the damaged area
+     * @param refreshRate refresh rate of the display in frames per second
+     */
+    FramePresenter(Target target, float refreshRate) {
+        this.choreographer = Choreographer.getInstance();
+        this.target = target;
+        this.frameIntervalNanos = (long) (1000000000L / (refreshRate > 0 ? refreshRate : 60));
+    }
+
+    private static long pack(int left, int top, int right, int bottom) {
+        return (long) left << 48 | (long) top << 32 | (long) right << 16 | bottom;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(MAX_COORDINATE, value));
+    }
+
+    /**
+     * Records a changed area of the framebuffer. Safe to call from any thread.
+     */
+    void damage(int left, int top, int right, int bottom) {
+        left = clamp(left);
+        top = clamp(top);
+        right = clamp(right);
+        bottom = clamp(bottom);
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        long current, updated;
+        do {
+            current = pendingDamage.get();
+            updated = pack(
+                    Math.min(left, (int) (current >>> 48)),
+                    Math.min(top, (int) (current >>> 32) & MAX_COORDINATE),
+                    Math.max(right, (int) (current >>> 16) & MAX_COORDINATE),
+                    Math.max(bottom, (int) current & MAX_COORDINATE));
+        } while (current != updated && !pendingDamage.compareAndSet(current, updated));
+
+        if (frameScheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled.set(false);
+        long lateness = System.nanoTime() - frameTimeNanos;
+        if (lateness >= frameIntervalNanos) {
+            lateFrames++;
+            missedFrames += lateness / frameIntervalNanos;
+        }
+        long damage = pendingDamage.getAndSet(EMPTY);
+        if (damage == EMPTY) {
+            emptyFrames++;
+            return;
+        }
+        presentedFrames++;
+        target.present((int) (damage >>> 48), (int) (damage >>> 32) & MAX_COORDINATE,
+                (int) (damage >>> 16) & MAX_COORDINATE, (int) damage & MAX_COORDINATE);
+    }
+
+    /**
+     * Drops pending damage and any scheduled frame. Must be called on the UI thread.
+     */
+    void cancel() {
+        choreographer.removeFrameCallback(this);
+        frameScheduled.set(false);
+        pendingDamage.set(EMPTY);
+    }
+
+    long getPresentedFrames() {
+        return presentedFrames;
+    }
+
+    long getLateFrames() {
+        return lateFrames;
+    }
+
+    long getMissedFrames() {
+        return missedFrames;
+    }
+
+    String summary() {
+        return String.format(Locale.US, "%d frames presented, %d empty, %d late, %d missed",
+                presentedFrames, emptyFrames, lateFrames, missedFrames);
+    }
+
+    interface Target {
+        /**
+         * Called on the UI thread with the bounds of everything damaged since the last frame, in
+         * framebuffer coordinates.
+         */
+        void present(int left, int top, int right, int bottom);
+    }
+}
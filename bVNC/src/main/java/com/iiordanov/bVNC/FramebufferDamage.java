@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import android.graphics.Rect;
+
+import com.undatech.opaque.Viewable;
+
+import java.util.Locale;
+
+/**
+ * Collects the areas of the framebuffer changed by the rectangles of one FramebufferUpdate and
+ * invalidates the canvas once when the update ends, instead of once per rectangle.
+ * <p>
+ * Since the canvas redraws a single dirty rectangle, the union of all changes is invalidated. To
+ * show what that costs, the pixels changed by the rectangles are compared with the pixels of the
+ * invalidated union. Rectangles may overlap, so the changed pixels can exceed the invalidated
+ * ones. Outside of an update, changes are passed on to the canvas immediately.
+ * <p>
+ * Rectangles decoded on worker threads report their changes concurrently, so all methods
+ * are synchronized.
+ */
+class FramebufferDamage {
+    private final Viewable canvas;
+    private final Rect bounds = new Rect();
+    private boolean accumulating;
+    private int rectsInUpdate;
+    private long pixelsInUpdate;
+
+    // Totals since the last call to resetStats().
+    private long updates;
+    private long rectsDamaged;
+    private long pixelsDamaged;
+    private long pixelsInvalidated;
+    private long invalidations;
+
+    FramebufferDamage(Viewable canvas) {
+        this.canvas = canvas;
+    }
+
+    /**
+     * Starts collecting changes for a FramebufferUpdate.
+     */
+    synchronized void begin() {
+        accumulating = true;
+        bounds.setEmpty();
+        rectsInUpdate = 0;
+        pixelsInUpdate = 0;
+    }
+
+    /**
+     * Records a changed area of the framebuffer.
+     */
+    synchronized void add(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        if (!accumulating) {
+            invalidations++;
+            rectsDamaged++;
+            pixelsDamaged += (long) w * h;
+            pixelsInvalidated += (long) w * h;
+            canvas.reDraw(x, y, w, h);
+            return;
+        }
+        bounds.union(x, y, x + w, y + h);
+        rectsInUpdate++;
+        pixelsInUpdate += (long) w * h;
+    }
+
+    /**
+     * Ends the current FramebufferUpdate and invalidates everything it changed.
+     */
+    synchronized void flush() {
+        if (!accumulating) {
+            return;
+        }
+        accumulating = false;
+        updates++;
+        rectsDamaged += rectsInUpdate;
+        pixelsDamaged += pixelsInUpdate;
+        if (!bounds.isEmpty()) {
+            invalidations++;
+            pixelsInvalidated += (long) bounds.width() * bounds.height();
+            canvas.reDraw(bounds.left, bounds.top, bounds.width(), bounds.height());
+        }
+    }
+
+    /**
+     * Returns the pixels changed by the reported rectangles as a fraction of the pixels
+     * invalidated for them.
+     */
+    synchronized double getChangedFraction() {
+        return pixelsInvalidated == 0 ? 0 : (double) pixelsDamaged / pixelsInvalidated;
+    }
+
+    /**
+     * Returns the number of canvas invalidations issued per FramebufferUpdate.
+     */
+    synchronized double getInvalidationsPerUpdate() {
+        return updates == 0 ? 0 : (double) invalidations / updates;
+    }
+
+    synchronized String summary() {
+        return String.format(Locale.US,
+                "%d updates, %d changed rects, %d of %d invalidated pixels changed (%.2f), %.2f invalidations/update",
+                updates, rectsDamaged, pixelsDamaged, pixelsInvalidated, getChangedFraction(),
+                getInvalidationsPerUpdate());
+    }
+
+    synchronized void resetStats() {
+        updates = rectsDamaged = pixelsDamaged = pixelsInvalidated = invalidations = 0;
+    }
+}
@@ -23,6 +23,7 @@ package com.iiordanov.bVNC;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.util.Log;
 
 import com.undatech.opaque.Viewable;
@@ -111,6 +112,15 @@ class FullBufferBitmapData extends AbstractBitmapData {
         }
     }
 
+    /**
+     * There is no bitmap, so only the area itself is drawn from the pixel array.
+     */
+    @Override
+    void drawFramebufferArea(Canvas canvas, Rect area, Paint paint) {
+        canvas.drawBitmap(bitmapPixels, offset(area.left, area.top), framebufferwidth,
+                area.left, area.top, area.width(), area.height(), false, paint);
+    }
+
     /* (non-Javadoc)
      * @see com.iiordanov.bVNC.AbstractBitmapData#offset(int, int)
      */
@@ -204,8 +214,10 @@ class FullBufferBitmapData extends AbstractBitmapData {
             try {
                 synchronized (FullBufferBitmapData.this) {
                     if (drawing) {
-                        canvas.drawBitmap(data.bitmapPixels, offset(xo, yo), data.framebufferwidth,
-                                xo, yo, drawWidth, drawHeight, false, _defaultPaint);
+                        if (!drawShadowFramebuffer(canvas)) {
+                            canvas.drawBitmap(data.bitmapPixels, offset(xo, yo), data.framebufferwidth,
+                                    xo, yo, drawWidth, drawHeight, false, _defaultPaint);
+                        }
                         if (softCursor != null && !softCursor.isRecycled()) {
                             canvas.drawBitmap(softCursor, cursorRect.left, cursorRect.top, _defaultPaint);
                         }
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+/**
+ * Converts runs of pixels in the wire formats used by the decoders into framebuffer pixels.
+ * <p>
+ * Every method converts count consecutive pixels, typically one row of a rectangle, with running
+ * source and destination indices and no per-pixel multiplications or calls, which keeps the loops
+ * simple enough for the JIT to unroll and hoist bounds checks. Like the decoders, the 24-bit
+ * conversions produce 0x00RRGGBB; the framebuffer ignores the alpha byte.
+ */
+final class PixelConverter {
+
+    private PixelConverter() {
+    }
+
+    /**
+     * Converts 32-bit little-endian pixels (B, G, R, X bytes), as sent by Raw and Zlib.
+     */
+    static void bgrxToRgb(byte[] src, int srcOff, int[] dst, int dstOff, int count) {
+        int s = srcOff;
+        int end = dstOff + count;
+        for (int d = dstOff; d < end; d++) {
+            dst[d] = (src[s + 2] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8 | (src[s] & 0xFF);
+            s += 4;
+        }
+    }
+
+    /**
+     * Converts 24-bit compressed pixels (B, G, R bytes), as sent by ZRLE.
+     */
+    static void bgrToRgb(byte[] src, int srcOff, int[] dst, int dstOff, int count) {
+        int s = srcOff;
+        int end = dstOff + count;
+        for (int d = dstOff; d < end; d++) {
+            dst[d] = (src[s + 2] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8 | (src[s] & 0xFF);
+            s += 3;
+        }
+    }
+
+    /**
+     * Converts packed RGB888 pixels (R, G, B bytes), as sent by Tight.
+     */
+    static void rgbToRgb(byte[] src, int srcOff, int[] dst, int dstOff, int count) {
+        int s = srcOff;
+        int end = dstOff + count;
+        for (int d = dstOff; d < end; d++) {
+            dst[d] = (src[s] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8 | (src[s + 2] & 0xFF);
+            s += 3;
+        }
+    }
+
+    /**
+     * Maps 8-bit palette indices to colors.
+     */
+    static void paletteLookup(byte[] src, int srcOff, int[] palette, int[] dst, int dstOff, int count) {
+        int s = srcOff;
+        int end = dstOff + count;
+        for (int d = dstOff; d < end; d++) {
+            dst[d] = palette[src[s++] & 0xFF];
+        }
+    }
+
+    /**
+     * Widens 8-bit values to ints without a palette.
+     */
+    static void unsignedBytesToInts(byte[] src, int srcOff, int[] dst, int dstOff, int count) {
+        int s = srcOff;
+        int end = dstOff + count;
+        for (int d = dstOff; d < end; d++) {
+            dst[d] = src[s++] & 0xFF;
+        }
+    }
+
+    /**
+     * Expands one row of 1 bit per pixel data, most significant bit first, into two colors.
+     */
+    static void expandMono(byte[] src, int srcOff, int color0, int color1, int[] dst, int dstOff, int count) {
+        int d = dstOff;
+        int s = srcOff;
+        int fullBytes = count >> 3;
+        for (int i = 0; i < fullBytes; i++) {
+            int b = src[s++];
+            dst[d] = (b & 0x80) != 0 ? color1 : color0;
+            dst[d + 1] = (b & 0x40) != 0 ? color1 : color0;
+            dst[d + 2] = (b & 0x20) != 0 ? color1 : color0;
+            dst[d + 3] = (b & 0x10) != 0 ? color1 : color0;
+            dst[d + 4] = (b & 0x08) != 0 ? color1 : color0;
+            dst[d + 5] = (b & 0x04) != 0 ? color1 : color0;
+            dst[d + 6] = (b & 0x02) != 0 ? color1 : color0;
+            dst[d + 7] = (b & 0x01) != 0 ? color1 : color0;
+            d += 8;
+        }
+        int remaining = count & 7;
+        if (remaining != 0) {
+            int b = src[s];
+            for (int n = 7; n >= 8 - remaining; n--) {
+                dst[d++] = (b >> n & 1) != 0 ? color1 : color0;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import java.util.Locale;
+
+/**
+ * Per-encoding cost of decoding framebuffer update rectangles.
+ * <p>
+ * For every encoding the number of rectangles, pixels and nanoseconds spent in the decoder are
+ * accumulated, so decoder changes can be compared in ns/pixel on a real session. Time spent waiting
+ * for data from the network is left out by the caller. Time spent on decode worker threads is added
+ * with {@link #addWorkerTime(int, long)}, so with parallel Tight decoding the ns/pixel of Tight is
+ * the processor time of all threads rather than the time the update took. Only the protocol thread
+ * may update the counters.
+ */
+class RectDecodeStats {
+    private static final int[] ENCODINGS = {
+            RfbProto.EncodingRaw,
+            RfbProto.EncodingCopyRect,
+            RfbProto.EncodingRRE,
+            RfbProto.EncodingCoRRE,
+            RfbProto.EncodingHextile,
+            RfbProto.EncodingZlib,
+            RfbProto.EncodingTight,
+            RfbProto.EncodingZRLE,
+            RfbProto.EncodingTightZstd,
+    };
+    private static final String[] NAMES = {
+            "Raw", "CopyRect", "RRE", "CoRRE", "Hextile", "Zlib", "Tight", "ZRLE", "TightZstd",
+    };
+
+    private final long[] rects = new long[ENCODINGS.length];
+    private final long[] pixels = new long[ENCODINGS.length];
+    private final long[] nanos = new long[ENCODINGS.length];
+
+    private static int indexOf(int encoding) {
+        for (int i = 0; i < ENCODINGS.length; i++) {
+            if (ENCODINGS[i] == encoding) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of a rectangle encoding, or null for pseudo-encodings and unknown ones.
+     */
+    static String nameOf(int encoding) {
+        int i = indexOf(encoding);
+        return i < 0 ? null : NAMES[i];
+    }
+
+    /**
+     * Accounts for one rectangle. Pseudo-encodings are ignored.
+     */
+    void add(int encoding, int w, int h, long elapsedNanos) {
+        int i = indexOf(encoding);
+        if (i < 0) {
+            return;
+        }
+        rects[i]++;
+        pixels[i] += (long) w * h;
+        nanos[i] += elapsedNanos;
+    }
+
+    /**
+     * Adds time decode worker threads spent on rectangles already accounted for by
+     * {@link #add(int, int, int, long)}.
+     */
+    void addWorkerTime(int encoding, long workerNanos) {
+        int i = indexOf(encoding);
+        if (i < 0) {
+            return;
+        }
+        nanos[i] += workerNanos;
+    }
+
+    void reset() {
+        for (int i = 0; i < ENCODINGS.length; i++) {
+            rects[i] = pixels[i] = nanos[i] = 0;
+        }
+    }
+
+    /**
+     * Returns one line per encoding seen so far with its rectangle count, ns/pixel and µs/rect.
+     */
+    String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ENCODINGS.length; i++) {
+            if (rects[i] == 0) {
+                continue;
+            }
+            double nsPerPixel = pixels[i] == 0 ? 0 : (double) nanos[i] / pixels[i];
+            sb.append(String.format(Locale.US, "%s: %d rects, %d pixels, %.2f ns/pixel, %d us/rect\n",
+                    NAMES[i], rects[i], pixels[i], nsPerPixel, nanos[i] / rects[i] / 1000));
+        }
+        return sb.toString();
+    }
+}
@@ -34,7 +34,9 @@ import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.RectF;
 import android.os.Handler;
 import android.provider.Settings;
@@ -55,12 +57,16 @@ import com.undatech.opaque.AbstractDrawableData;
 import com.undatech.opaque.Connection;
 import com.undatech.opaque.DrawableReallocatedListener;
 import com.undatech.opaque.RemoteClientLibConstants;
+import com.undatech.opaque.SessionMetrics;
 import com.undatech.opaque.Viewable;
 import com.undatech.opaque.input.RemotePointer;
 import com.undatech.remoteClientUi.R;
 
+import java.util.Arrays;
+
 public class RemoteCanvas extends AppCompatImageView implements Viewable {
     private final static String TAG = "RemoteCanvas";
+    private final static long SESSION_METRICS_REFRESH_MILLIS = 1000;
 
     public AbstractScaling canvasZoomer;
 
@@ -84,6 +90,7 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
     RemotePointer pointer;
     boolean useFull = false;
     boolean compact = false;
+    boolean singleCopy = false;
 
     /*
      * Position of the top left portion of the <i>visible</i> part of the screen, in
@@ -91,6 +98,9 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
      */
     int absoluteXPosition = 0, absoluteYPosition = 0;
 
+    // Called when the visible part of the desktop is panned or zoomed.
+    private Runnable viewportChangedListener;
+
     /*
      * How much to shift coordinates over when converting from full to view coordinates.
      */
@@ -128,7 +138,8 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
      * This flag indicates whether this is the Opaque client.
      */
     boolean isOpaque;
-    long lastDraw;
+    // Invalidates damaged areas of the framebuffer once per display frame.
+    FramePresenter framePresenter;
     boolean userPanned = false;
 
     boolean isForegrounded = false;
@@ -140,6 +151,30 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
 
     DrawableReallocatedListener drawableReallocatedListener;
 
+    // Performance figures drawn over the remote desktop, or null if the overlay is off.
+    private SessionMetrics sessionMetricsOverlay;
+    private Paint sessionMetricsTextPaint;
+    private Paint sessionMetricsBackgroundPaint;
+    // Overlay text, formatted once per refresh rather than on every frame.
+    private String[] sessionMetricsLines;
+
+    /**
+     * Reformats and redraws the performance overlay periodically, since the desktop may not change
+     * for a while.
+     */
+    private final Runnable sessionMetricsRefresher = new Runnable() {
+        public void run() {
+            if (sessionMetricsOverlay != null) {
+                String[] lines = sessionMetricsOverlay.getOverlayLines();
+                lines = Arrays.copyOf(lines, lines.length + 1);
+                lines[lines.length - 1] = framePresenter.summary();
+                sessionMetricsLines = lines;
+                postInvalidate();
+                handler.postDelayed(this, SESSION_METRICS_REFRESH_MILLIS);
+            }
+        }
+    };
+
     /**
      * Shows a non-fatal error message.
      */
@@ -149,9 +184,6 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
         }
     };
 
-    //Log.d(TAG, "invalidateCanvasRunnable");
-    Runnable invalidateCanvasRunnable = this::postInvalidate;
-
     /**
      * This runnable sets the drawable (contained in myDrawable) for the RemoteCanvas (ImageView).
      */
@@ -190,6 +222,7 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
         DisplayMetrics metrics = new DisplayMetrics();
         display.getMetrics(metrics);
         displayDensity = metrics.density;
+        framePresenter = new FramePresenter(this::invalidateFramebufferRect, display.getRefreshRate());
     }
 
     public void setParameters(
@@ -206,6 +239,57 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
         this.setModes = setModes;
     }
 
+    /**
+     * Shows the given performance figures over the remote desktop, or hides them if null.
+     */
+    public void setSessionMetricsOverlay(SessionMetrics metrics) {
+        sessionMetricsOverlay = metrics;
+        handler.removeCallbacks(sessionMetricsRefresher);
+        sessionMetricsLines = null;
+        if (metrics != null) {
+            if (sessionMetricsTextPaint == null) {
+                sessionMetricsTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+                sessionMetricsTextPaint.setColor(Color.WHITE);
+                sessionMetricsTextPaint.setTextSize(12 * displayDensity);
+                sessionMetricsBackgroundPaint = new Paint();
+                sessionMetricsBackgroundPaint.setColor(0xA0000000);
+            }
+            handler.post(sessionMetricsRefresher);
+        }
+        postInvalidate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        framePresenter.cancel();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        String[] lines = sessionMetricsLines;
+        if (sessionMetricsOverlay != null && lines != null) {
+            drawSessionMetricsOverlay(canvas, lines);
+        }
+    }
+
+    private void drawSessionMetricsOverlay(Canvas canvas, String[] lines) {
+        float padding = 4 * displayDensity;
+        float lineHeight = sessionMetricsTextPaint.getFontSpacing();
+        float width = 0;
+        for (String line : lines) {
+            width = Math.max(width, sessionMetricsTextPaint.measureText(line));
+        }
+        canvas.drawRect(0, 0, width + 2 * padding, lines.length * lineHeight + 2 * padding,
+                sessionMetricsBackgroundPaint);
+        float baseline = padding - sessionMetricsTextPaint.ascent();
+        for (String line : lines) {
+            canvas.drawText(line, padding, baseline, sessionMetricsTextPaint);
+            baseline += lineHeight;
+        }
+    }
+
     /**
      * Retrieves the requested remote width.
      */
@@ -301,13 +385,20 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
         // Internal bitmap data
         int capacity = BCFactory.getInstance().getBCActivityManager().getMemoryClass(Utils.getActivityManager(getContext()));
 
+        long capacityBytes = (long) capacity * 1024 * 1024;
+        compact = false;
+        singleCopy = false;
         if (connection.getForceFull() == BitmapImplHint.AUTO) {
-            if (fbSize * CompactBitmapData.CAPACITY_MULTIPLIER <= capacity * 1024 * 1024) {
-                useFull = true;
+            useFull = true;
+            if ((long) fbSize * CompactBitmapData.CAPACITY_MULTIPLIER <= capacityBytes) {
                 compact = true;
-            } else {
-                useFull = true;
+            } else if ((long) fbSize * SingleCopyBitmapData.capacityMultiplier(isSpice | isOpaque) <= capacityBytes) {
+                // Too large for a second copy of the framebuffer, e.g. multi-monitor desktops.
+                singleCopy = true;
             }
+        } else if (connection.getForceFull() == BitmapImplHint.SINGLE_COPY) {
+            useFull = true;
+            singleCopy = true;
         } else {
             useFull = (connection.getForceFull() == BitmapImplHint.FULL);
         }
@@ -335,21 +426,28 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
                 myDrawable = new UltraCompactBitmapData(dx, dy, this, isSpice | isOpaque);
             } else {
                 try {
-                    if (!compact) {
+                    if (singleCopy) {
+                        Log.i(TAG, "Using SingleCopyBitmapData.");
+                        myDrawable = new SingleCopyBitmapData(dx, dy, this, isSpice | isOpaque);
+                    } else if (!compact) {
                         Log.i(TAG, "Using FullBufferBitmapData.");
                         myDrawable = new FullBufferBitmapData(dx, dy, this);
                     } else {
                         Log.i(TAG, "Using CompactBufferBitmapData.");
                         myDrawable = new CompactBitmapData(dx, dy, this, isSpice | isOpaque);
                     }
-                } catch (Throwable e) { // If despite our efforts we fail to allocate memory, use CompactBitmapData.
-                    Log.e(TAG, "Could not allocate drawable, attempting to use CompactBitmapData.");
+                } catch (Throwable e) { // If despite our efforts we fail to allocate memory, use SingleCopyBitmapData.
+                    Log.e(TAG, "Could not allocate drawable, attempting to use SingleCopyBitmapData.");
                     if (myDrawable != null) {
                         myDrawable.dispose();
                     }
-                    myDrawable = new CompactBitmapData(dx, dy, this, isSpice | isOpaque);
+                    myDrawable = new SingleCopyBitmapData(dx, dy, this, isSpice | isOpaque);
                 }
             }
+            if (Utils.querySharedPreferenceBoolean(getContext(), Constants.shadowFramebufferTag)) {
+                Log.i(TAG, "Drawing from a downscaled framebuffer when zoomed out.");
+                myDrawable.setShadowFramebufferEnabled(true);
+            }
         }
     }
 
@@ -662,6 +760,15 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
                 myDrawable.scrollChanged(absoluteXPosition, absoluteYPosition);
             }
         }
+        Runnable listener = viewportChangedListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public void setOnViewportChangedListener(Runnable listener) {
+        viewportChangedListener = listener;
     }
 
     @Override
@@ -680,19 +787,7 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
      */
     public void reDraw(int x, int y, int w, int h) {
         //Log.i(TAG, "reDraw called: " + x + ", " + y + " + " + w + "x" + h);
-        long timeNow = System.currentTimeMillis();
-        if (timeNow - lastDraw > 16.6666) {
-            float scale = getZoomFactor();
-            float shiftedX = x - shiftX;
-            float shiftedY = y - shiftY;
-            // Make the box slightly larger to avoid artifacts due to truncation errors.
-            postInvalidate((int) ((shiftedX - 1) * scale), (int) ((shiftedY - 1) * scale),
-                    (int) ((shiftedX + w + 1) * scale), (int) ((shiftedY + h + 1) * scale));
-            lastDraw = timeNow;
-        } else {
-            handler.removeCallbacks(invalidateCanvasRunnable);
-            handler.postDelayed(invalidateCanvasRunnable, 100);
-        }
+        framePresenter.damage(x, y, x + w, y + h);
     }
 
     /**
@@ -701,19 +796,27 @@ public class RemoteCanvas extends AppCompatImageView implements Viewable {
      */
     public void reDraw(float x, float y, float w, float h) {
         //Log.i(TAG, "reDraw float called: " + x + ", " + y + " + " + w + "x" + h);
-        long timeNow = System.currentTimeMillis();
-        if (timeNow - lastDraw > 16.6666) {
-            float scale = getZoomFactor();
-            float shiftedX = x - shiftX;
-            float shiftedY = y - shiftY;
-            // Make the box slightly larger to avoid artifacts due to truncation errors.
-            postInvalidate((int) ((shiftedX - 1.f) * scale), (int) ((shiftedY - 1.f) * scale),
-                    (int) ((shiftedX + w + 1.f) * scale), (int) ((shiftedY + h + 1.f) * scale));
-            lastDraw = timeNow;
-        } else {
-            handler.removeCallbacks(invalidateCanvasRunnable);
-            handler.postDelayed(invalidateCanvasRunnable, 100);
+        framePresenter.damage((int) Math.floor(x), (int) Math.floor(y),
+                (int) Math.ceil(x + w), (int) Math.ceil(y + h));
+    }
+
+    /**
+     * Invalidates the view area showing the given framebuffer rectangle. Called by the
+     * FramePresenter on the UI thread once per display frame.
+     */
+    private void invalidateFramebufferRect(int left, int top, int right, int bottom) {
+        AbstractDrawableData drawable = myDrawable;
+        if (drawable != null) {
+            drawable.framebufferDamaged(left, top, right, bottom);
         }
+        float scale = getZoomFactor();
+        float shiftedLeft = left - shiftX;
+        float shiftedTop = top - shiftY;
+        float shiftedRight = right - shiftX;
+        float shiftedBottom = bottom - shiftY;
+        // Make the box slightly larger to avoid artifacts due to truncation errors.
+        invalidate((int) ((shiftedLeft - 1) * scale), (int) ((shiftedTop - 1) * scale),
+                (int) ((shiftedRight + 1) * scale), (int) ((shiftedBottom + 1) * scale));
     }
 
     /**
@@ -267,6 +267,9 @@ public class RemoteCanvasActivity extends AppCompatActivity implements
         canvas.setForegrounded(hasFocus);
         if (hasFocus) {
             controlImmersive();
+            if (remoteConnection != null) {
+                remoteConnection.onWindowFocusGained();
+            }
         }
     }
 
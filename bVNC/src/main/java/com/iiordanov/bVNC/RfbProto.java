@@ -36,6 +36,8 @@ import com.tigervnc.rdr.InStream;
 import com.tigervnc.rdr.OutStream;
 import com.tigervnc.rdr.RawInStream;
 import com.tigervnc.rdr.RawOutStream;
+import com.tigervnc.rdr.RecordingInStream;
+import com.tigervnc.rdr.ReplayInStream;
 import com.tigervnc.rfb.AuthFailureException;
 import com.tigervnc.rfb.CSecurityRSAAES;
 import com.undatech.opaque.AbstractDrawableData;
@@ -46,12 +48,18 @@ import com.undatech.opaque.input.RemoteKeyboard;
 import com.undatech.opaque.util.GeneralUtils;
 import com.undatech.remoteClientUi.R;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLSocket;
 
@@ -142,7 +150,9 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
             SetColourMapEntries = 1,
             Bell = 2,
             ServerCutText = 3,
-            TextChat = 11;
+            TextChat = 11,
+            EndOfContinuousUpdates = 150,
+            ServerFence = 248;
     // Client-to-server messages
     final static int
             SetPixelFormat = 0,
@@ -151,7 +161,9 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
             FramebufferUpdateRequest = 3,
             KeyboardEvent = 4,
             PointerEvent = 5,
-            ClientCutText = 6;
+            ClientCutText = 6,
+            EnableContinuousUpdates = 150,
+            ClientFence = 248;
     // Supported encodings and pseudo-encodings
     final static int
             EncodingRaw = 0,
@@ -181,6 +193,8 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
             EncodingLastRect = -224,
             EncodingNewFBSize = -223,
             EncodingClientRedirect = -311,
+            EncodingFence = -312,
+            EncodingContinuousUpdates = -313,
             EncodingExtendedDesktopSize = -308,
             EncodingExtendedClipboard = 0xC0A1E5CE,
             EncodingTightWithoutZlib = -317,     // TurboVNC extensions
@@ -228,6 +242,13 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
             TightFilterCopy = 0x00,
             TightFilterPalette = 0x01,
             TightFilterGradient = 0x02;
+    // Fence message flags
+    final static int
+            FenceFlagBlockBefore = 1,
+            FenceFlagBlockAfter = 1 << 1,
+            FenceFlagSyncNext = 1 << 2,
+            FenceFlagRequest = 1 << 31,
+            FenceFlagsSupported = FenceFlagBlockBefore | FenceFlagBlockAfter | FenceFlagSyncNext | FenceFlagRequest;
     // Constants used for UltraVNC chat extension
     final static int
             CHAT_OPEN = -1,
@@ -245,14 +266,14 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     // maxStringLength protects against allocating a huge buffer.  Set it
     // higher if you need longer strings.
     public static int maxStringLength = 65535;
-    // Tight encoding parameters
-    private final int compressLevel = 6;
-    private final int jpegQuality = 7;
+    // Tight encoding parameters, changed during the session when adaptive quality is enabled.
+    private int compressLevel = 6;
+    private int jpegQuality = 7;
     // TurboVNC extension parameters: fine-grained JPEG quality (0-100) and subsampling index
     // (0=1X/none, 1=4X, 2=2X, 3=gray, 4=8X, 5=16X).
     // 4X (index 1) matches standard JPEG 4:2:0 and TurboVNC defaults.
-    private final int fineQualityLevel = jpegQuality * 10;
-    private final int subsamplingLevel = 1;
+    private int fineQualityLevel = jpegQuality * 10;
+    private int subsamplingLevel = 1;
     // Handle for decoder object
     private final Decoder decoder;
     // Suggests to the server whether the desktop should be shared or not
@@ -281,6 +302,10 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     // containing Zlib-, ZRLE- or Tight-encoded data.
     //boolean wereZlibUpdates = false;
     Socket sock;
+    // SSH channel used instead of a socket when set before connecting, see setDirectChannel().
+    private SshDirectChannel directChannel;
+    // Buffered stream directly over the socket, which may be wrapped by security layers in is.
+    RawInStream rawInStream;
     InStream is;
     OutStream os;
     // Before starting to record each saved session, we set this field
@@ -294,6 +319,10 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     private final SecureVncConfig svncConfig;
     private final UltraVncAuthenticator ultraVncAuth = new UltraVncAuthenticator(this);
     //- SessionRecorder rec;
+    // Where to record the session for replay, or null if it is not recorded.
+    private File sessionRecordingFile;
+    private long sessionRecordingMaxBytes;
+    private RecordingInStream recordingInStream;
     boolean inNormalProtocol = false;
     // Java on UNIX does not call keyPressed() on some keys, for example
     // swedish keys To prevent our workaround to produce duplicate
@@ -312,6 +341,30 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     boolean timing;
     long timeWaitedIn100us;
     long timedKbits;
+    // Bytes and wait time of the current adaptive quality window, converted into the totals above
+    // once per window so that the rounding of many small updates does not add up to nothing.
+    private long windowBytes;
+    private long windowWaitNanos;
+    // Tight JPEG decoding cost, updated from decoder worker threads.
+    private final AtomicLong jpegRectsDecoded = new AtomicLong();
+    private final AtomicLong jpegDecodeTimeNanos = new AtomicLong();
+    // Per-encoding decoding cost, logged every RECT_DECODE_STATS_INTERVAL updates when debugging.
+    private static final int RECT_DECODE_STATS_INTERVAL = 500;
+    private final RectDecodeStats rectDecodeStats = new RectDecodeStats();
+    private long framebufferUpdatesProcessed;
+    // Chooses the Tight encoding parameters from measured throughput, round-trip and decoding time.
+    private boolean adaptiveQualityEnabled;
+    private AdaptiveQualityController adaptiveQuality;
+    // Color model in use before adaptive quality reduced it, restored when bandwidth recovers.
+    private COLORMODEL colorModelBeforeReduction;
+    // Fences we send to measure the round-trip time carry this marker followed by System.nanoTime().
+    private static final byte[] RTT_FENCE_MARKER = {'R', 'T', 'T', '!'};
+    private boolean serverSupportsFences = false;
+    private boolean rttFencePending = false;
+    // A pixel format change is followed by a fence with this marker. Updates arriving before its
+    // response may still use the old pixel format, so decoding switches over when it comes back.
+    private static final byte[] PIXEL_FORMAT_FENCE_MARKER = {'P', 'F', '!'};
+    private boolean pixelFormatFencePending = false;
     // Protocol version and TightVNC-specific protocol options.
     int serverMajor, serverMinor;
     // VNC Encoding parameters
@@ -334,8 +387,18 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     int updateRectX, updateRectY, updateRectW, updateRectH, updateRectEncoding;
     int copyRectSrcX, copyRectSrcY;
     byte[] framebufferUpdateRequest = new byte[10];
+    // Input events of the batch being sent by the input transmit queue, written out at its end.
+    // Guarded by eventLock rather than this, so that queueing input never waits for the network.
+    private final Object eventLock = new Object();
     byte[] eventBuf = new byte[72];
     int eventBufLen;
+    private byte[] spareEventBuf = new byte[72];
+    // Pointer state of the last queued pointer event, to tell pure motion from button changes.
+    private int lastQueuedPointerMask = -1;
+    private int lastQueuedPointerModifiers = -1;
+    // Serializes the messages written by the protocol and input threads. It is only held while
+    // writing, never by the threads queueing input.
+    private final Object outputLock = new Object();
     // If true, informs that the RFB socket was closed.
     private boolean closed;
     // The main processing loop continues while this is set to true;
@@ -349,6 +412,16 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     private int screenId;
     private int screenFlags;
     private boolean isExtendedDesktopSizeSupported = false;
+    // ContinuousUpdates and Fence state. The server advertises ContinuousUpdates by sending
+    // EndOfContinuousUpdates in reply to our SetEncodings, after which it pushes updates without
+    // waiting for FramebufferUpdateRequests and paces itself with fences.
+    // Also read by the UI thread through isContinuousUpdatesActive().
+    private volatile boolean continuousUpdatesActive = false;
+    // Continuous updates leave updates in flight at all times, so they are only enabled once the
+    // server has shown it supports fences, which synchronize pixel format changes.
+    private boolean serverSupportsContinuousUpdates = false;
+    // Fence requests with SyncNext set, to be answered in order after the next update is processed.
+    private final ArrayDeque<PendingFence> pendingSyncFences = new ArrayDeque<>();
     // This variable indicates whether or not the user has accepted an untrusted
     // security certificate. Used to control progress while the dialog asking the user
     // to confirm the authenticity of a certificate is displayed.
@@ -410,6 +483,13 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
 
     // Make TCP connection to RFB server.
     private void initSocket() throws Exception {
+        if (directChannel != null) {
+            Log.i(TAG, "Using SSH direct channel instead of a socket.");
+            rawInStream = new RawInStream(directChannel.getInputStream(), directChannel.getReadBufferSize());
+            setStreams(rawInStream, new RawOutStream(directChannel.getOutputStream()));
+            return;
+        }
+
         Socket sock = null;
 
         if (sslTunneled) {
@@ -442,14 +522,50 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         sock.setTcpNoDelay(true);
 
         this.sock = sock;
-        setStreams(new RawInStream(sock.getInputStream()), new RawOutStream(sock.getOutputStream()));
+        setRawStreams(sock.getInputStream(), sock.getOutputStream());
+    }
+
+    /**
+     * Installs buffered streams over the given socket streams, keeping a handle on the input
+     * stream so its read counters stay reachable once security layers wrap it.
+     */
+    private void setRawStreams(InputStream in, OutputStream out) {
+        rawInStream = new RawInStream(in);
+        setStreams(rawInStream, new RawOutStream(out));
+    }
+
+    /**
+     * Returns the number of socket chunks read ahead of the decoder and not yet consumed.
+     */
+    public int getReadAheadQueueDepth() {
+        if (rawInStream == null || rawInStream.getReadAhead() == null) {
+            return 0;
+        }
+        return rawInStream.getReadAhead().getQueueDepth();
+    }
+
+    /**
+     * Returns the number of reads issued on the socket so far, or 0 before the socket is open.
+     */
+    public long getSocketReadCount() {
+        return rawInStream != null ? rawInStream.getReadCount() : 0;
     }
 
     private synchronized void closeSocket() {
         try {
+            if (directChannel != null) {
+                Log.i(TAG, "SSH direct channel: " + directChannel.summary());
+                // A client redirect reconnects with a socket to the new server.
+                SshDirectChannel channel = directChannel;
+                directChannel = null;
+                channel.close();
+            }
             if (sock != null) {
                 sock.close();
             }
+            if (rawInStream != null) {
+                rawInStream.close();
+            }
             closed = true;
             Log.v(TAG, "RFB socket closed");
         } catch (Exception e) {
@@ -464,6 +580,7 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         inNormalProtocol = false;
         maintainConnection = false;
         shutdownClipboardHandlerAndSetNull();
+        shutdownInputTransmitQueue();
         closeSocket();
     }
 
@@ -901,9 +1018,10 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     //
 
     void authenticateTLS() throws Exception {
+        requireSocket();
         TLSTunnel tunnel = new TLSTunnel(sock);
         SSLSocket sslsock = tunnel.setup();
-        setStreams(new RawInStream(sslsock.getInputStream()), new RawOutStream(sslsock.getOutputStream()));
+        setRawStreams(sslsock.getInputStream(), sslsock.getOutputStream());
     }
 
     //
@@ -911,9 +1029,16 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     //
 
     void authenticateX509(String certstr) throws Exception {
+        requireSocket();
         X509Tunnel tunnel = new X509Tunnel(sock, certstr, handler, this);
         SSLSocket sslsock = tunnel.setup();
-        setStreams(new RawInStream(sslsock.getInputStream()), new RawOutStream(sslsock.getOutputStream()));
+        setRawStreams(sslsock.getInputStream(), sslsock.getOutputStream());
+    }
+
+    private void requireSocket() throws Exception {
+        if (sock == null) {
+            throw new Exception("TLS security types are not available over an SSH direct channel");
+        }
     }
 
     void authenticatePlain(String user, String password) throws Exception {
@@ -1345,6 +1470,14 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     }
 
 
+    /**
+     * Requests an incremental update of the given region from the input thread, for callers which
+     * must not write to the socket themselves, such as the UI thread.
+     */
+    public void postFramebufferUpdateRequest(int x, int y, int w, int h) {
+        getInputTransmitQueue().post(() -> writeFramebufferUpdateRequest(x, y, w, h, true));
+    }
+
     //
     // Write a SetPixelFormat message
     //
@@ -1391,20 +1524,52 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
 
     private void tryOsWriteBuf(byte[] b, String msg) {
         try {
-            os.writeBytes(b, 0, b.length);
+            synchronized (outputLock) {
+                os.writeBytes(b, 0, b.length);
+            }
         } catch (NullPointerException | IOException e) {
             Log.e(TAG, msg);
             Log.e(TAG, Log.getStackTraceString(e));
         }
     }
 
-    private void tryOsWriteEventBuf(String msg) {
+    /**
+     * Writes all input events of the batch just sent by the input transmit queue with one write.
+     * The events are swapped out of eventBuf first, so that input can keep being queued while
+     * they are written.
+     */
+    @Override
+    protected void onInputBatchSent() {
+        byte[] events;
+        int length;
+        synchronized (eventLock) {
+            if (eventBufLen == 0) {
+                return;
+            }
+            events = eventBuf;
+            length = eventBufLen;
+            eventBuf = spareEventBuf;
+            eventBufLen = 0;
+            spareEventBuf = null;
+        }
         try {
-            os.writeBytes(eventBuf, 0, eventBufLen);
+            synchronized (outputLock) {
+                os.writeBytes(events, 0, length);
+            }
         } catch (NullPointerException | IOException e) {
-            Log.e(TAG, msg);
+            Log.e(TAG, "Failed to write input events to VNC server.");
             Log.e(TAG, Log.getStackTraceString(e));
         }
+        synchronized (eventLock) {
+            spareEventBuf = events;
+        }
+    }
+
+    // Called with eventLock held.
+    private void ensureEventBufCapacity(int extra) {
+        if (eventBufLen + extra > eventBuf.length) {
+            eventBuf = Arrays.copyOf(eventBuf, Math.max(eventBuf.length * 2, eventBufLen + extra));
+        }
     }
 
     //
@@ -1432,7 +1597,9 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
             b[6 + i * 6 + 5] = (byte) (blue[i] & 0xff);
         }
 
-        os.writeBytes(b);
+        synchronized (outputLock) {
+            os.writeBytes(b);
+        }
     }
 
 
@@ -1454,7 +1621,9 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
             b[7 + 4 * i] = (byte) (encs[i] & 0xff);
         }
 
-        os.writeBytes(b);
+        synchronized (outputLock) {
+            os.writeBytes(b);
+        }
     }
 
 
@@ -1489,7 +1658,9 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         b[6] = (byte) ((text.length() >> 8) & 0xff);
         b[7] = (byte) (text.length() & 0xff);
         System.arraycopy(text.getBytes(), 0, b, 8, length);
-        os.writeBytes(b);
+        synchronized (outputLock) {
+            os.writeBytes(b);
+        }
     }
 
 
@@ -1504,6 +1675,9 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     /**
      * Write a pointer event message.  We may need to send modifier key events
      * around it to set the correct modifier state.
+     * <p>
+     * The event is sent by the input transmit queue. Absolute motion which does not change the
+     * buttons, scroll or modifiers replaces a previous such motion that has not been sent yet.
      *
      * @param x           x coordinate
      * @param y           y coordinate
@@ -1511,14 +1685,34 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
      * @param pointerMask what buttons are pressed
      * @param rel         {@code true} if the coordinates are relative to the current pointer position
      */
-    public synchronized void writePointerEvent(int x, int y, int modifiers, int pointerMask,
-                                               boolean rel) {
+    public void writePointerEvent(int x, int y, int modifiers, int pointerMask, boolean rel) {
         if (viewOnly)
             return;
 
-        eventBufLen = 0;
+        Runnable event = () -> appendPointerEvent(x, y, modifiers, pointerMask);
+        // Scroll wheel buttons are clicks and must never be coalesced.
+        boolean scroll = (pointerMask & ~0x7) != 0;
+        synchronized (eventLock) {
+            if (!rel && !scroll && pointerMask == lastQueuedPointerMask && modifiers == lastQueuedPointerModifiers) {
+                getInputTransmitQueue().postMotion(event);
+            } else {
+                getInputTransmitQueue().post(event);
+            }
+            lastQueuedPointerMask = pointerMask;
+            lastQueuedPointerModifiers = modifiers;
+        }
+    }
+
+    private void appendPointerEvent(int x, int y, int modifiers, int pointerMask) {
+        synchronized (eventLock) {
+            appendPointerEventLocked(x, y, modifiers, pointerMask);
+        }
+    }
+
+    private void appendPointerEventLocked(int x, int y, int modifiers, int pointerMask) {
         writeModifierKeyEvents(modifiers, true);
 
+        ensureEventBufCapacity(6);
         eventBuf[eventBufLen++] = (byte) PointerEvent;
         eventBuf[eventBufLen++] = (byte) pointerMask;
         eventBuf[eventBufLen++] = (byte) ((x >> 8) & 0xff);
@@ -1533,31 +1727,25 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         if (pointerMask == 0) {
             writeModifierKeyEvents(modifiers, false);
         }
-
-        tryOsWriteEventBuf("Failed to write pointer event to VNC server.");
     }
 
-    synchronized void writeCtrlAltDel() {
+    void writeCtrlAltDel() {
         final int DELETE = 0xffff;
         final int CTRLALT = RemoteKeyboard.CTRL_MASK | RemoteKeyboard.ALT_MASK;
-        try {
-            // Press
-            eventBufLen = 0;
-            writeModifierKeyEvents(CTRLALT, true);
-            writeKeyEventToEventBuf(DELETE, true);
-            os.writeBytes(eventBuf, 0, eventBufLen);
-
-            // Release
-            eventBufLen = 0;
-            writeKeyEventToEventBuf(DELETE, false);
-            writeModifierKeyEvents(CTRLALT, false);
-
-            // Reset VNC server modifiers state
-            //writeModifierKeyEvents(0, false);
-            os.writeBytes(eventBuf, 0, eventBufLen);
-        } catch (IOException e) {
-            Log.e(TAG, Log.getStackTraceString(e));
-        }
+        getInputTransmitQueue().post(() -> {
+            synchronized (eventLock) {
+                // Press
+                writeModifierKeyEvents(CTRLALT, true);
+                writeKeyEventToEventBuf(DELETE, true);
+
+                // Release
+                writeKeyEventToEventBuf(DELETE, false);
+                writeModifierKeyEvents(CTRLALT, false);
+
+                // Reset VNC server modifiers state
+                //writeModifierKeyEvents(0, false);
+            }
+        });
     }
 
     //
@@ -1568,17 +1756,26 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
 
     /**
      * Sends a key event to the server, preceded and followed by the necessary modifier key
-     * events to match the given meta state.
+     * events to match the given meta state. The event is sent by the input transmit queue.
      *
      * @param keySym    X11 keysym of the key
      * @param metaState bitmask of active modifiers (Ctrl, Alt, Shift, Super)
      * @param down      {@code true} for key-press; {@code false} for key-release
      */
-    public synchronized void writeKeyEvent(int keySym, int metaState, boolean down) {
+    public void writeKeyEvent(int keySym, int metaState, boolean down) {
         if (viewOnly)
             return;
 
-        eventBufLen = 0;
+        getInputTransmitQueue().post(() -> appendKeyEvent(keySym, metaState, down));
+    }
+
+    private void appendKeyEvent(int keySym, int metaState, boolean down) {
+        synchronized (eventLock) {
+            appendKeyEventLocked(keySym, metaState, down);
+        }
+    }
+
+    private void appendKeyEventLocked(int keySym, int metaState, boolean down) {
         if (down) {
             writeModifierKeyEvents(metaState, true);
         }
@@ -1590,11 +1787,33 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         if (!down) {
             writeModifierKeyEvents(metaState, false);
         }
+    }
+
+    /**
+     * Sends the key strokes with a single KeyEvent message per key press and release, all of them
+     * written to the socket together.
+     */
+    @Override
+    public void writeKeyStrokes(int[] keys, int[] metaStates, int count) {
+        if (viewOnly)
+            return;
+
+        int[] keySyms = Arrays.copyOf(keys, count);
+        int[] keyMetaStates = Arrays.copyOf(metaStates, count);
+        getInputTransmitQueue().post(() -> appendKeyStrokes(keySyms, keyMetaStates));
+    }
 
-        tryOsWriteEventBuf("Failed to write key event to VNC server.");
+    private void appendKeyStrokes(int[] keySyms, int[] keyMetaStates) {
+        synchronized (eventLock) {
+            for (int i = 0; i < keySyms.length; i++) {
+                appendKeyEventLocked(keySyms[i], keyMetaStates[i], true);
+                appendKeyEventLocked(keySyms[i], keyMetaStates[i], false);
+            }
+        }
     }
 
-    private synchronized void writeKeyEventToEventBuf(int keysym, boolean down) {
+    // Called with eventLock held.
+    private void writeKeyEventToEventBuf(int keysym, boolean down) {
 
         if (viewOnly)
             return;
@@ -1602,6 +1821,7 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         GeneralUtils.debugLog(this.debugLogging, TAG, "writeKeyEvent, sending keysym:" +
                 keysym + ", down: " + down);
 
+        ensureEventBufCapacity(8);
         eventBuf[eventBufLen++] = (byte) KeyboardEvent;
         eventBuf[eventBufLen++] = (byte) (down ? 1 : 0);
         eventBuf[eventBufLen++] = (byte) 0;
@@ -1641,6 +1861,7 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         Log.d(TAG, "clientRedirect");
         try {
             close();
+            restartInputTransmitQueue();
             this.host = host;
             this.port = port;
             initSocket();
@@ -1652,6 +1873,7 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         }
     }
 
+    // Called with eventLock held.
     void writeModifierKeyEvents(int metaState, boolean down) {
         for (int modifierMask : modifierMap.keySet()) {
             if (remoteKeyboardState.shouldSendModifier(metaState, modifierMask, down)) {
@@ -1700,7 +1922,31 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
      * timing window. Only meaningful between calls to {@link #startTiming()} and {@link #stopTiming()}.
      */
     public long kbitsPerSecond() {
-        return timedKbits * 10000 / timeWaitedIn100us;
+        return timedKbits * 10000 / Math.max(1, timeWaitedIn100us);
+    }
+
+    /**
+     * Accounts for the time spent decoding one Tight JPEG rectangle and copying it into the
+     * framebuffer. Safe to call from any thread.
+     */
+    void addJpegDecodeTime(long nanos) {
+        jpegRectsDecoded.incrementAndGet();
+        jpegDecodeTimeNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Returns the number of Tight JPEG rectangles decoded so far.
+     */
+    public long jpegRectsDecoded() {
+        return jpegRectsDecoded.get();
+    }
+
+    /**
+     * Returns the average time spent decoding a Tight JPEG rectangle in microseconds.
+     */
+    public long jpegDecodeMicrosPerRect() {
+        long rects = jpegRectsDecoded.get();
+        return rects == 0 ? 0 : jpegDecodeTimeNanos.get() / rects / 1000;
     }
 
     /**
@@ -1758,11 +2004,18 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
 
     @Override
     public InputStream getRawInputStream() throws IOException {
+        // Bytes already buffered from the socket must be handed on with the raw stream.
+        if (rawInStream != null) {
+            return rawInStream.getUnderlyingStream();
+        }
         return sock.getInputStream();
     }
 
     @Override
     public OutputStream getRawOutputStream() throws IOException {
+        if (directChannel != null) {
+            return directChannel.getOutputStream();
+        }
         return sock.getOutputStream();
     }
 
@@ -1800,7 +2053,7 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         shutdownClipboardHandlerAndSetNull();
         extendedClipboardHandler = new ExtendedClipboardProtocol(
                 os_,
-                this,
+                outputLock,
                 new ExtendedClipboardHandler.ClipboardEventListener() {
                     @Override
                     public void onClipboardReceived(String text) {
@@ -1827,27 +2080,33 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
     }
 
     synchronized void writeOpenChat() throws Exception {
-        os.writeU8(TextChat); // byte type
-        os.writeU8(0); // byte pad 1
-        os.writeU8(0); // byte pad 2
-        os.writeU8(0); // byte pad 2
-        writeInt(CHAT_OPEN); // int message length
+        synchronized (outputLock) {
+            os.writeU8(TextChat); // byte type
+            os.writeU8(0); // byte pad 1
+            os.writeU8(0); // byte pad 2
+            os.writeU8(0); // byte pad 2
+            writeInt(CHAT_OPEN); // int message length
+        }
     }
 
     synchronized void writeCloseChat() throws Exception {
-        os.writeU8(TextChat); // byte type
-        os.writeU8(0); // byte pad 1
-        os.writeU8(0); // byte pad 2
-        os.writeU8(0); // byte pad 2
-        writeInt(CHAT_CLOSE); // int message length
+        synchronized (outputLock) {
+            os.writeU8(TextChat); // byte type
+            os.writeU8(0); // byte pad 1
+            os.writeU8(0); // byte pad 2
+            os.writeU8(0); // byte pad 2
+            writeInt(CHAT_CLOSE); // int message length
+        }
     }
 
     synchronized void writeFinishedChat() throws Exception {
-        os.writeU8(TextChat); // byte type
-        os.writeU8(0); // byte pad 1
-        os.writeU8(0); // byte pad 2
-        os.writeU8(0); // byte pad 2
-        writeInt(CHAT_FINISHED); // int message length
+        synchronized (outputLock) {
+            os.writeU8(TextChat); // byte type
+            os.writeU8(0); // byte pad 1
+            os.writeU8(0); // byte pad 2
+            os.writeU8(0); // byte pad 2
+            writeInt(CHAT_FINISHED); // int message length
+        }
     }
 
     String readTextChatMsg() throws Exception {
@@ -1887,18 +2146,20 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
      * @throws Exception if writing to the stream fails
      */
     public synchronized void writeChatMessage(String msg) throws Exception {
-        os.writeU8(TextChat); // byte type
-        os.writeU8(0); // byte pad 1
-        os.writeU8(0); // byte pad 2
-        os.writeU8(0); // byte pad 2
         byte[] bytes = msg.getBytes(StandardCharsets.ISO_8859_1);
         byte[] outgoing = bytes;
         if (bytes.length > 4096) {
             outgoing = new byte[4096];
             System.arraycopy(bytes, 0, outgoing, 0, 4096);
         }
-        writeInt(outgoing.length); // int message length
-        os.writeBytes(outgoing); // message
+        synchronized (outputLock) {
+            os.writeU8(TextChat); // byte type
+            os.writeU8(0); // byte pad 1
+            os.writeU8(0); // byte pad 2
+            os.writeU8(0); // byte pad 2
+            writeInt(outgoing.length); // int message length
+            os.writeBytes(outgoing); // message
+        }
     }
 
     // The following methods are implementations of the RfbConnectable interface
@@ -2009,6 +2270,8 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         encodings[nEncodings++] = RfbProto.EncodingNewFBSize;
         encodings[nEncodings++] = RfbProto.EncodingExtendedDesktopSize;
         encodings[nEncodings++] = RfbProto.EncodingExtendedClipboard;
+        encodings[nEncodings++] = RfbProto.EncodingFence;
+        encodings[nEncodings++] = RfbProto.EncodingContinuousUpdates;
 
         // TODO: Disabling ClientRedirect encoding for now because of
         // it being reserved for CursorWithAlpha by RealVNC and for
@@ -2052,6 +2315,15 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
 
         try {
             tryInitializeExtendedClipboardHandler(RfbProto.this.os);
+            // Authentication is over and nothing else reads the raw socket any more.
+            if (rawInStream != null) {
+                rawInStream.startReadAhead();
+            }
+            startSessionRecording();
+            if (adaptiveQualityEnabled && rawInStream != null) {
+                adaptiveQuality = new AdaptiveQualityController();
+                startTiming();
+            }
             setEncodings();
             remoteConnection.writeFullUpdateRequest(false);
 
@@ -2060,6 +2332,7 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
             //
             while (maintainConnection) {
                 exitforloop = false;
+                long socketReadsBeforeMessage = getSocketReadCount();
                 if (!canvas.isUseFull()) {
                     canvas.syncScroll();
                     // Read message type from the server.
@@ -2072,11 +2345,27 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
                 // Process the message depending on its type.
                 switch (msgType) {
                     case RfbProto.FramebufferUpdate:
+                        long updateStart = System.nanoTime();
+                        long updateBytesBefore = rawInStream != null ? rawInStream.getBytesConsumed() : 0;
+                        long updateReadNanosBefore = rawInStream != null ? rawInStream.getReadNanos() : 0;
+                        long updatePixels = 0;
                         readFramebufferUpdate();
+                        decoder.beginUpdateDamage();
+                        sessionMetrics.beginUpdate();
 
                         for (int i = 0; i < updateNRects; i++) {
                             readFramebufferUpdateRectHdr();
 
+                            // Tight rectangles may still be decoding on worker threads. Let them
+                            // finish before a rectangle of another encoding touches the framebuffer.
+                            if (updateRectEncoding != RfbProto.EncodingTight &&
+                                    updateRectEncoding != RfbProto.EncodingTightZstd) {
+                                decoder.waitForPendingRects();
+                            }
+
+                            long rectDecodeStart = System.nanoTime();
+                            long rectBytesStart = rawInStream != null ? rawInStream.getBytesConsumed() : 0;
+                            long rectReadNanosStart = rawInStream != null ? rawInStream.getReadNanos() : 0;
                             switch (updateRectEncoding) {
                                 case RfbProto.EncodingTight:
                                     decoder.handleTightRect(this, updateRectX, updateRectY, updateRectW, updateRectH, false);
@@ -2131,20 +2420,80 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
                                     Log.e(TAG, "Unknown RFB rectangle encoding " + updateRectEncoding +
                                             " (0x" + Integer.toHexString(updateRectEncoding) + ")");
                             }
+                            // Time spent waiting for the rest of the rectangle to arrive is not decoding.
+                            long rectDecodeNanos = System.nanoTime() - rectDecodeStart;
+                            if (rawInStream != null) {
+                                rectDecodeNanos = Math.max(0, rectDecodeNanos - (rawInStream.getReadNanos() - rectReadNanosStart));
+                            }
+                            rectDecodeStats.add(updateRectEncoding, updateRectW, updateRectH, rectDecodeNanos);
+                            String encodingName = RectDecodeStats.nameOf(updateRectEncoding);
+                            if (encodingName != null) {
+                                long rectPixels = (long) updateRectW * updateRectH;
+                                updatePixels += rectPixels;
+                                sessionMetrics.addRect(encodingName, rectPixels, rawInStream != null ?
+                                        rawInStream.getBytesConsumed() - rectBytesStart : 0, rectDecodeNanos);
+                            }
 
                             if (exitforloop) {
                                 break;
                             }
                         }
+                        decoder.waitForPendingRects();
+                        rectDecodeStats.addWorkerTime(RfbProto.EncodingTight, decoder.takeWorkerDecodeNanos(false));
+                        rectDecodeStats.addWorkerTime(RfbProto.EncodingTightZstd, decoder.takeWorkerDecodeNanos(true));
+                        decoder.flushUpdateDamage();
+                        sessionMetrics.endUpdate();
+                        if (adaptiveQuality != null) {
+                            updateAdaptiveQuality(updatePixels,
+                                    rawInStream.getBytesConsumed() - updateBytesBefore,
+                                    rawInStream.getReadNanos() - updateReadNanosBefore,
+                                    System.nanoTime() - updateStart);
+                        }
 
-                        if (decoder.isChangedColorModel()) {
-                            decoder.setPixelFormat(this);
-                            //setEncodings();
-                            remoteConnection.writeFullUpdateRequest(false);
-                        } else {
+                        GeneralUtils.debugLog(this.debugLogging, TAG, "FramebufferUpdate: " + updateNRects +
+                                " rects, " + (getSocketReadCount() - socketReadsBeforeMessage) + " socket reads, " +
+                                getReadAheadQueueDepth() + " chunks read ahead, " +
+                                jpegDecodeMicrosPerRect() + " us per JPEG rect");
+                        if (recordingInStream != null) {
+                            if (recordingInStream.isRecording()) {
+                                recordingInStream.flush();
+                            } else {
+                                Log.w(TAG, "Session recording reached its limit of " + sessionRecordingMaxBytes +
+                                        " bytes");
+                                stopSessionRecording();
+                            }
+                        }
+                        if (++framebufferUpdatesProcessed % RECT_DECODE_STATS_INTERVAL == 0) {
+                            if (this.debugLogging) {
+                                Log.d(TAG, "Rectangle decoding since last report:\n" + rectDecodeStats.summary() +
+                                        "Canvas invalidation: " + decoder.getDamage().summary() +
+                                        "\nInput: " + getInputTransmitStats() +
+                                        "\nCursor: " + decoder.getCursorShapes().summary());
+                            }
+                            rectDecodeStats.reset();
+                            decoder.getDamage().resetStats();
+                        }
+
+                        boolean fullUpdateRequested = false;
+                        if (decoder.isChangedColorModel() && !pixelFormatFencePending) {
+                            if (serverSupportsFences) {
+                                sendPixelFormatWithFence();
+                            } else {
+                                // Continuous updates need fences, so no update is in flight now.
+                                decoder.setPixelFormat(this);
+                                remoteConnection.writeFullUpdateRequest(false);
+                                fullUpdateRequested = true;
+                            }
+                        }
+                        if (!fullUpdateRequested && !continuousUpdatesActive) {
                             //setEncodings();
                             remoteConnection.writeFullUpdateRequest(true);
                         }
+
+                        while (!pendingSyncFences.isEmpty()) {
+                            PendingFence fence = pendingSyncFences.poll();
+                            writeFence(fence.flags, fence.data);
+                        }
                         break;
 
                     case RfbProto.SetColourMapEntries:
@@ -2170,6 +2519,14 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
                         }
                         break;
 
+                    case RfbProto.EndOfContinuousUpdates:
+                        handleEndOfContinuousUpdates();
+                        break;
+
+                    case RfbProto.ServerFence:
+                        readFence();
+                        break;
+
                     case 14:
                         // This message is sent by UltraVNC when color < 24bit is requested by the client
                         throw new RfbUltraVncColorMapException("Only 24bpp color supported with UltraVNC");
@@ -2187,17 +2544,339 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
         } finally {
             Log.v(TAG, "Closing VNC Connection");
             close();
+            // The decode workers are only touched on this thread, so they are stopped here rather
+            // than by close(), which may run on any thread.
+            decoder.releaseTightResources();
+            stopSessionRecording();
         }
         close();
     }
 
+    /**
+     * Makes the connection use the given SSH channel instead of opening a socket. Must be called
+     * before {@link #initializeAndAuthenticate}. The channel is closed with the connection.
+     */
+    public synchronized void setDirectChannel(SshDirectChannel directChannel) {
+        this.directChannel = directChannel;
+    }
+
+    /**
+     * Enables choosing the Tight JPEG quality, subsampling and compression level, and on very
+     * slow links the color model, from throughput, round-trip and decoding time measured during
+     * the session. Must be called before {@link #processProtocol()}.
+     */
+    public void setAdaptiveQuality(boolean enabled) {
+        adaptiveQualityEnabled = enabled;
+    }
+
+    /**
+     * Feeds the throughput measurement and the adaptive quality controller with one processed
+     * FramebufferUpdate, and applies the controller's decision once per evaluation window.
+     *
+     * @param pixels       pixels covered by the rectangles of the update
+     * @param bytes        bytes read for the update
+     * @param waitNanos    time spent waiting for data from the socket
+     * @param elapsedNanos time from the start of the update until it was drawn
+     */
+    private void updateAdaptiveQuality(long pixels, long bytes, long waitNanos, long elapsedNanos) {
+        if (timing) {
+            windowBytes += bytes;
+            windowWaitNanos += waitNanos;
+        }
+        adaptiveQuality.onUpdate(pixels, (long) framebufferWidth * framebufferHeight, bytes,
+                Math.max(0, elapsedNanos - waitNanos));
+        if (!adaptiveQuality.isWindowComplete()) {
+            return;
+        }
+        if (serverSupportsFences && !rttFencePending) {
+            sendRttFence();
+        }
+        timedKbits += windowBytes * 8 / 1000;
+        timeWaitedIn100us += windowWaitNanos / 100000;
+        windowBytes = 0;
+        windowWaitNanos = 0;
+        stopTiming();
+        long kbps = kbitsPerSecond();
+        startTiming();
+        // Without fences, the client cannot tell where updates in a new pixel format start.
+        if (adaptiveQuality.evaluate(kbps, serverSupportsFences)) {
+            applyAdaptiveQuality();
+            Log.i(TAG, "Adaptive quality: " + adaptiveQuality.summary(kbps));
+        } else {
+            GeneralUtils.debugLog(this.debugLogging, TAG, "Adaptive quality: " + adaptiveQuality.summary(kbps));
+        }
+    }
+
+    private void applyAdaptiveQuality() {
+        compressLevel = adaptiveQuality.getCompressLevel();
+        jpegQuality = adaptiveQuality.getJpegQuality();
+        fineQualityLevel = adaptiveQuality.getFineQualityLevel();
+        subsamplingLevel = adaptiveQuality.getSubsamplingLevel();
+        setEncodings();
+
+        // The protocol loop sends the new color model once the current update is done, and decodes
+        // with it once the server has acknowledged the change.
+        if (adaptiveQuality.isReducedColor()) {
+            if (colorModelBeforeReduction == null && decoder.getRequestedColorModel() == COLORMODEL.C24bit) {
+                colorModelBeforeReduction = COLORMODEL.C24bit;
+                decoder.setColorModel(COLORMODEL.C64);
+            }
+        } else if (colorModelBeforeReduction != null) {
+            // Leave the color model alone if the user picked another one in the meantime.
+            if (decoder.getRequestedColorModel() == COLORMODEL.C64) {
+                decoder.setColorModel(colorModelBeforeReduction);
+            }
+            colorModelBeforeReduction = null;
+        }
+    }
+
+    /**
+     * Requests that the server-to-client stream of the session be recorded to the given file once
+     * the normal protocol phase starts. The recording can be played back with
+     * {@link #replaySession(InputStream, boolean)}. Recording stops once the file reaches
+     * maxBytes.
+     */
+    public void setSessionRecordingFile(File file, long maxBytes) {
+        sessionRecordingFile = file;
+        sessionRecordingMaxBytes = maxBytes;
+    }
+
+    private void startSessionRecording() {
+        if (sessionRecordingFile == null) {
+            return;
+        }
+        try {
+            File dir = sessionRecordingFile.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            recordingInStream = new RecordingInStream(is, new FileOutputStream(sessionRecordingFile),
+                    framebufferWidth, framebufferHeight, sessionRecordingMaxBytes);
+            is = recordingInStream;
+            Log.i(TAG, "Recording session to " + sessionRecordingFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start recording session to " + sessionRecordingFile + ": " + e);
+        }
+    }
+
+    private void stopSessionRecording() {
+        if (recordingInStream == null) {
+            return;
+        }
+        try {
+            recordingInStream.close();
+            Log.i(TAG, "Recorded " + recordingInStream.getBytesRecorded() + " bytes to " + sessionRecordingFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not finish session recording: " + e);
+        }
+        recordingInStream = null;
+    }
+
+    /**
+     * Plays back a session recorded with {@link #setSessionRecordingFile(File, long)} through the
+     * normal protocol loop and decoders instead of a live connection. Messages the client would
+     * send are discarded. The framebuffer is sized from the recording and the decoder uses the
+     * pixel format of this connection's color model, which must match the recorded session.
+     * Returns when the end of the recording is reached.
+     *
+     * @param realTime true to reproduce the timing of the recorded session, false to replay as
+     *                 fast as the decoders allow
+     */
+    public void replaySession(InputStream recording, boolean realTime) throws Exception {
+        ReplayInStream replay = new ReplayInStream(recording, realTime);
+        setStreams(replay, new RawOutStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        rawInStream = null;
+        setFramebufferSize(replay.getFramebufferWidth(), replay.getFramebufferHeight());
+        canvas.reallocateDrawable(framebufferWidth, framebufferHeight);
+        if (decoder.isChangedColorModel()) {
+            decoder.setPixelFormat(this);
+        }
+        canvas.postDrawableSetter();
+
+        long start = System.nanoTime();
+        try {
+            processProtocol();
+        } catch (EOFException e) {
+            Log.i(TAG, "Replayed " + framebufferUpdatesProcessed + " framebuffer updates in " +
+                    (System.nanoTime() - start) / 1000000 + " ms\n" + rectDecodeStats.summary());
+        } finally {
+            replay.close();
+        }
+    }
+
     private synchronized void setFrameBufferSizeAndReallocateDrawable(int updateRectW, int updateRectH) {
         if (updateRectW != framebufferWidth || updateRectH != framebufferHeight) {
             setFramebufferSize(updateRectW, updateRectH);
             canvas.reallocateDrawable(updateRectW, updateRectH);
+            if (continuousUpdatesActive) {
+                writeEnableContinuousUpdates(true, 0, 0, framebufferWidth, framebufferHeight);
+            }
         }
     }
 
+    /**
+     * The server sends EndOfContinuousUpdates once in reply to a SetEncodings that lists the
+     * ContinuousUpdates pseudo-encoding, and again whenever it stops continuous updates. The
+     * first one switches us from request-response mode to continuous updates, as soon as the
+     * server also supports fences. Other servers keep being driven by FramebufferUpdateRequests.
+     */
+    private void handleEndOfContinuousUpdates() {
+        Log.i(TAG, "handleEndOfContinuousUpdates, active: " + continuousUpdatesActive);
+        if (continuousUpdatesActive) {
+            // The server has stopped pushing updates, go back to requesting them.
+            continuousUpdatesActive = false;
+            remoteConnection.writeFullUpdateRequest(true);
+            return;
+        }
+        serverSupportsContinuousUpdates = true;
+        enableContinuousUpdatesIfSupported();
+    }
+
+    private void enableContinuousUpdatesIfSupported() {
+        if (!serverSupportsContinuousUpdates || !serverSupportsFences || continuousUpdatesActive) {
+            return;
+        }
+        writeEnableContinuousUpdates(true, 0, 0, framebufferWidth, framebufferHeight);
+        continuousUpdatesActive = true;
+    }
+
+    /**
+     * Reads a Fence message. Fence requests are echoed back with the flags we understand, either
+     * immediately or, when SyncNext is set, after the next framebuffer update has been processed.
+     */
+    private void readFence() throws IOException {
+        byte[] pad = new byte[3];
+        is.readBytes(pad);
+        int flags = is.readInt();
+        int len = is.readUnsignedByte();
+        byte[] data = new byte[len];
+        is.readBytes(data);
+        if (!serverSupportsFences) {
+            serverSupportsFences = true;
+            enableContinuousUpdatesIfSupported();
+        }
+
+        if ((flags & FenceFlagRequest) == 0) {
+            // A response to a fence of ours.
+            if (Arrays.equals(data, PIXEL_FORMAT_FENCE_MARKER)) {
+                handlePixelFormatFenceResponse();
+            } else {
+                handleRttFenceResponse(data);
+            }
+            return;
+        }
+
+        flags &= (FenceFlagBlockBefore | FenceFlagBlockAfter | FenceFlagSyncNext);
+        if ((flags & FenceFlagSyncNext) != 0) {
+            pendingSyncFences.add(new PendingFence(flags, data));
+        } else {
+            writeFence(flags, data);
+        }
+    }
+
+    /**
+     * Asks the server for the pending color model as TigerVNC does: SetPixelFormat is followed by
+     * a fence which the server answers only after processing it. Updates may be in flight in the
+     * old pixel format, and the server sends them before the response, so the decoder keeps the
+     * old pixel format until the response arrives.
+     */
+    private void sendPixelFormatWithFence() throws IOException {
+        decoder.sendPixelFormat(this);
+        pixelFormatFencePending = true;
+        writeFence(FenceFlagRequest | FenceFlagBlockBefore, PIXEL_FORMAT_FENCE_MARKER);
+    }
+
+    private void handlePixelFormatFenceResponse() {
+        if (!pixelFormatFencePending) {
+            return;
+        }
+        pixelFormatFencePending = false;
+        decoder.applySentPixelFormat();
+        remoteConnection.writeFullUpdateRequest(false);
+    }
+
+    /**
+     * Sends a fence request carrying the current time. The server answers it as soon as it has
+     * processed everything we sent before it, which gives the round-trip time.
+     */
+    private void sendRttFence() {
+        byte[] data = Arrays.copyOf(RTT_FENCE_MARKER, RTT_FENCE_MARKER.length + 8);
+        long now = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            data[RTT_FENCE_MARKER.length + i] = (byte) ((now >> (56 - 8 * i)) & 0xff);
+        }
+        rttFencePending = true;
+        writeFence(FenceFlagRequest, data);
+    }
+
+    private void handleRttFenceResponse(byte[] data) {
+        if (data.length != RTT_FENCE_MARKER.length + 8 ||
+                !Arrays.equals(Arrays.copyOf(data, RTT_FENCE_MARKER.length), RTT_FENCE_MARKER)) {
+            return;
+        }
+        long sent = 0;
+        for (int i = 0; i < 8; i++) {
+            sent = (sent << 8) | (data[RTT_FENCE_MARKER.length + i] & 0xff);
+        }
+        rttFencePending = false;
+        if (adaptiveQuality != null) {
+            adaptiveQuality.onRoundTrip((System.nanoTime() - sent) / 1000);
+        }
+    }
+
+    /**
+     * Sends a Fence message with the given flags and payload (at most 64 bytes).
+     */
+    synchronized void writeFence(int flags, byte[] data) {
+        if ((flags & ~FenceFlagsSupported) != 0) {
+            Log.e(TAG, "writeFence: unsupported fence flags " + Integer.toHexString(flags));
+            return;
+        }
+        byte[] b = new byte[9 + data.length];
+        b[0] = (byte) ClientFence;
+        b[4] = (byte) ((flags >> 24) & 0xff);
+        b[5] = (byte) ((flags >> 16) & 0xff);
+        b[6] = (byte) ((flags >> 8) & 0xff);
+        b[7] = (byte) (flags & 0xff);
+        b[8] = (byte) data.length;
+        System.arraycopy(data, 0, b, 9, data.length);
+        tryOsWriteBuf(b, "Could not write fence message.");
+    }
+
+    /**
+     * Sends an EnableContinuousUpdates message. While enabled, the server sends updates for the
+     * given region without waiting for FramebufferUpdateRequests.
+     */
+    synchronized void writeEnableContinuousUpdates(boolean enable, int x, int y, int w, int h) {
+        byte[] b = new byte[10];
+        b[0] = (byte) EnableContinuousUpdates;
+        b[1] = (byte) (enable ? 1 : 0);
+        b[2] = (byte) ((x >> 8) & 0xff);
+        b[3] = (byte) (x & 0xff);
+        b[4] = (byte) ((y >> 8) & 0xff);
+        b[5] = (byte) (y & 0xff);
+        b[6] = (byte) ((w >> 8) & 0xff);
+        b[7] = (byte) (w & 0xff);
+        b[8] = (byte) ((h >> 8) & 0xff);
+        b[9] = (byte) (h & 0xff);
+        tryOsWriteBuf(b, "Could not write enable continuous updates message.");
+    }
+
+    /**
+     * Returns {@code true} while the server is pushing continuous updates.
+     */
+    public boolean isContinuousUpdatesActive() {
+        return continuousUpdatesActive;
+    }
+
     /**
      * This method handles the pseudo encoding ExtendedDesktopSize enabling a remote resizing of the vnc session
      * Protocol: <a href="https://github.com/rfbproto/rfbproto/blob/master/rfbproto.rst#extendeddesktopsize-pseudo-encoding">...</a>
@@ -2375,4 +3054,17 @@ public class RfbProto extends RfbConnectable implements RfbAuthChannel {
             super(errorMessage);
         }
     }
+
+    /**
+     * A fence request from the server waiting to be echoed back.
+     */
+    private static class PendingFence {
+        final int flags;
+        final byte[] data;
+
+        PendingFence(int flags, byte[] data) {
+            this.flags = flags;
+            this.data = data;
+        }
+    }
 }
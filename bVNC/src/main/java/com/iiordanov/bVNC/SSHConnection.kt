@@ -386,6 +386,25 @@ class SSHConnection(
         return localForwardedPort
     }
 
+    /**
+     * Opens a direct-tcpip channel to the given port of the tunnel target, for protocols that can
+     * read and write the channel streams themselves instead of connecting to a local port forward.
+     *
+     * @return the opened channel
+     * @throws Exception
+     */
+    @Throws(Exception::class)
+    fun openDirectChannel(port: Int, readBufferSize: Int): SshDirectChannel {
+        // At this point we know we are authenticated.
+        try {
+            val forwarder = connection.createLocalStreamForwarder(targetAddress, port)
+            return SshDirectChannel(forwarder, readBufferSize)
+        } catch (e: IOException) {
+            Log.e(TAG, "Could not open direct channel: " + Log.getStackTraceString(e))
+            throw Exception(context.getString(R.string.error_ssh_port_forwarding_failure))
+        }
+    }
+
     /**
      * Connects to remote server.
      *
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+
+package com.iiordanov.bVNC;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * The directory holding VNC session recordings made with
+ * {@link RfbProto#setSessionRecordingFile(File, long)}.
+ * <p>
+ * Recordings hold everything the server sent, so they are kept in app-private storage and
+ * retention is bounded: before a new recording starts, the oldest ones are deleted until at most
+ * {@link #MAX_RECORDINGS} - 1 remain and they take no more than {@link #MAX_BYTES} together, and
+ * the new recording is stopped once it would take the total beyond {@link #MAX_BYTES}.
+ */
+public class SessionRecordings {
+    private static final String TAG = "SessionRecordings";
+    public static final String DIRECTORY = "rfb-recordings";
+    static final String SUFFIX = ".rfbrec";
+    static final int MAX_RECORDINGS = 5;
+    static final long MAX_BYTES = 256L * 1024 * 1024;
+
+    private final File dir;
+    private final int maxRecordings;
+    private final long maxBytes;
+
+    public SessionRecordings(File dir) {
+        this(dir, MAX_RECORDINGS, MAX_BYTES);
+    }
+
+    SessionRecordings(File dir, int maxRecordings, long maxBytes) {
+        this.dir = dir;
+        this.maxRecordings = maxRecordings;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the recordings in the directory, newest first.
+     */
+    File[] list() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> {
+            int byTime = Long.compare(b.lastModified(), a.lastModified());
+            return byTime != 0 ? byTime : b.getName().compareTo(a.getName());
+        });
+        return files;
+    }
+
+    /**
+     * Returns the most recent recording, or null if there is none.
+     */
+    public File newest() {
+        File[] files = list();
+        return files.length > 0 ? files[0] : null;
+    }
+
+    /**
+     * Makes room for a new recording and returns the file to record it to.
+     */
+    public File newRecordingFile() {
+        prune(maxRecordings - 1, maxBytes);
+        return new File(dir, System.currentTimeMillis() + SUFFIX);
+    }
+
+    /**
+     * Returns how many bytes the recordings in the directory can still grow by.
+     */
+    public long remainingBytes() {
+        long bytes = 0;
+        for (File file : list()) {
+            bytes += file.length();
+        }
+        return Math.max(0, maxBytes - bytes);
+    }
+
+    /**
+     * Deletes the oldest recordings until at most the given number remain within the given size.
+     */
+    void prune(int keepRecordings, long keepBytes) {
+        long bytes = 0;
+        int kept = 0;
+        for (File file : list()) {
+            bytes += file.length();
+            if (kept < keepRecordings && bytes <= keepBytes) {
+                kept++;
+            } else if (!file.delete()) {
+                Log.w(TAG, "Could not delete " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+/**
+ * A copy of the framebuffer downscaled by a power of two, drawn instead of the framebuffer when
+ * zoomed out, e.g. to fit a large desktop on the screen.
+ * <p>
+ * Drawing the full resolution framebuffer through the view's scaling matrix resamples all of it
+ * on every frame. Instead, the areas changed since the last frame are resampled into the shadow,
+ * and the shadow is drawn through the matrix with its own downscaling undone, so that only the
+ * remaining factor of less than two is applied on every frame. The shadow uses the smallest power
+ * of two scale that is not below the zoom factor, so pinching only resizes it and resamples the
+ * whole framebuffer when the zoom factor crosses a power of two. Zoom factors of
+ * {@link #MAX_SCALE} and above draw the framebuffer itself again, releasing the shadow.
+ * <p>
+ * Changed areas are recorded from any thread. Everything else happens on the UI thread while
+ * drawing.
+ */
+class ShadowFramebuffer {
+    private final static String TAG = "ShadowFramebuffer";
+    static final float MAX_SCALE = 0.5f;
+
+    private final Paint resamplePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint drawPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect dirty = new Rect();
+    private final Rect area = new Rect();
+    private Bitmap bitmap;
+    private Canvas bitmapCanvas;
+    private float scale;
+
+    /**
+     * Records a changed area of the framebuffer, in framebuffer coordinates.
+     */
+    synchronized void damage(int left, int top, int right, int bottom) {
+        dirty.union(left, top, right, bottom);
+    }
+
+    /**
+     * Brings the shadow up to date for the zoom factor and draws it.
+     *
+     * @return false if the zoom factor calls for drawing the framebuffer itself
+     */
+    boolean draw(AbstractBitmapData data, Canvas canvas, float zoom) {
+        if (zoom <= 0 || zoom >= MAX_SCALE) {
+            release();
+            return false;
+        }
+        float level = levelFor(zoom);
+        if (bitmap == null || level != scale) {
+            resize(data, level);
+        }
+        synchronized (this) {
+            area.set(dirty);
+            dirty.setEmpty();
+        }
+        if (!area.isEmpty()) {
+            resample(data);
+        }
+        canvas.save();
+        canvas.scale(1 / scale, 1 / scale);
+        canvas.drawBitmap(bitmap, 0, 0, drawPaint);
+        canvas.restore();
+        return true;
+    }
+
+    /**
+     * Returns the scale of the shadow for a zoom factor: the smallest power of two scale that is
+     * not below it.
+     */
+    static float levelFor(float zoom) {
+        float level = MAX_SCALE;
+        while (level / 2 >= zoom) {
+            level /= 2;
+        }
+        return level;
+    }
+
+    private void resize(AbstractBitmapData data, float level) {
+        int width = Math.max(1, (int) Math.ceil(data.framebufferwidth * level));
+        int height = Math.max(1, (int) Math.ceil(data.framebufferheight * level));
+        if (bitmap != null && bitmap.getAllocationByteCount() >= width * height * 4) {
+            bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+        } else {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        bitmap.setHasAlpha(false);
+        Log.d(TAG, "Shadow framebuffer is " + width + "x" + height + " at scale " + level);
+        bitmapCanvas = new Canvas(bitmap);
+        bitmapCanvas.scale(level, level);
+        scale = level;
+        synchronized (this) {
+            dirty.set(0, 0, data.framebufferwidth, data.framebufferheight);
+        }
+    }
+
+    /**
+     * Resamples the changed area into the shadow. Shadow pixels straddling its edges are
+     * recomputed from the surrounding framebuffer pixels too, so the area is widened by the
+     * footprint of a shadow pixel.
+     */
+    private void resample(AbstractBitmapData data) {
+        int margin = (int) Math.ceil(1 / scale) + 1;
+        area.inset(-margin, -margin);
+        if (!area.intersect(0, 0, data.framebufferwidth, data.framebufferheight)) {
+            return;
+        }
+        bitmapCanvas.save();
+        bitmapCanvas.clipRect(area);
+        area.inset(-margin, -margin);
+        area.intersect(0, 0, data.framebufferwidth, data.framebufferheight);
+        data.drawFramebufferArea(bitmapCanvas, area, resamplePaint);
+        bitmapCanvas.restore();
+    }
+
+    void release() {
+        if (bitmap != null) {
+            bitmap.recycle();
+            bitmap = null;
+            bitmapCanvas = null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.Log;
+
+import com.iiordanov.android.drawing.OverlappingCopy;
+
+/**
+ * Framebuffer kept only in the bitmap that is drawn on screen.
+ * <p>
+ * Unlike CompactBitmapData, there is no int[] copy of the whole framebuffer. Decoders write each
+ * rectangle into a staging buffer sized for that rectangle, set up by prepareRect() on the
+ * decoding thread, and updateBitmap() copies it into the bitmap. Staging buffers are per thread,
+ * so Tight rectangles can be decoded on several worker threads at once. Buffers grown for very
+ * large rectangles are dropped after use instead of being kept for the rest of the session.
+ */
+class SingleCopyBitmapData extends AbstractBitmapData {
+    /**
+     * Multiply this times total number of pixels to get estimate of process size with all buffers plus
+     * safety factor, for RGB_565 and ARGB_8888 bitmaps respectively
+     */
+    static final int CAPACITY_MULTIPLIER = 3;
+    static final int TRUE_COLOR_CAPACITY_MULTIPLIER = 5;
+    private final static String TAG = "SingleCopyBitmapData";
+    private final static int MAX_RETAINED_STAGING_PIXELS = 256 * 1024;
+    private final static int[] NO_PIXELS = new int[0];
+    Bitmap.Config cfg = Bitmap.Config.RGB_565;
+
+    private final ThreadLocal<Staging> staging = new ThreadLocal<Staging>() {
+        @Override
+        protected Staging initialValue() {
+            return new Staging();
+        }
+    };
+
+    SingleCopyBitmapData(int width, int height, RemoteCanvas c, boolean trueColor) {
+        super(width, height, c);
+        bitmapwidth = framebufferwidth;
+        bitmapheight = framebufferheight;
+        // To please createBitmap, we ensure the size it at least 1x1.
+        if (bitmapwidth == 0) bitmapwidth = 1;
+        if (bitmapheight == 0) bitmapheight = 1;
+
+        if (trueColor)
+            cfg = Bitmap.Config.ARGB_8888;
+
+        synchronized (this) {
+            mbitmap = Bitmap.createBitmap(bitmapwidth, bitmapheight, cfg);
+        }
+        Log.i(TAG, "bitmapsize = (" + bitmapwidth + "," + bitmapheight + ")");
+        mbitmap.setHasAlpha(false);
+
+        memGraphics = new Canvas(mbitmap);
+        drawable.startDrawing();
+    }
+
+    /**
+     * Returns the capacity multiplier for the bitmap config chosen by the trueColor constructor argument.
+     */
+    static int capacityMultiplier(boolean trueColor) {
+        return trueColor ? TRUE_COLOR_CAPACITY_MULTIPLIER : CAPACITY_MULTIPLIER;
+    }
+
+    @Override
+    public boolean validDraw(int x, int y, int w, int h) {
+        return true;
+    }
+
+    @Override
+    public void prepareRect(int x, int y, int w, int h) {
+        Staging s = staging.get();
+        s.stage(x, y, w, w * h);
+    }
+
+    @Override
+    public int[] getBitmapPixels() {
+        return staging.get().pixels;
+    }
+
+    /**
+     * Returns the offset of a point in the staging buffer of the rectangle being decoded on the
+     * calling thread.
+     */
+    @Override
+    public int offset(int x, int y) {
+        Staging s = staging.get();
+        return (y - s.y) * s.w + (x - s.x);
+    }
+
+    @Override
+    AbstractBitmapDrawable createDrawable() {
+        return new SingleCopyBitmapDrawable();
+    }
+
+    @Override
+    public void updateBitmap(int x, int y, int w, int h) {
+        Staging s = staging.get();
+        synchronized (this) {
+            if (mbitmap != null) {
+                mbitmap.setPixels(s.pixels, offset(x, y), s.w, x, y, w, h);
+            }
+        }
+        s.trim();
+    }
+
+    @Override
+    public void updateBitmap(Bitmap b, int x, int y, int w, int h) {
+        synchronized (this) {
+            memGraphics.drawBitmap(b, x, y, null);
+        }
+    }
+
+    /**
+     * Copies the rectangle within the bitmap, using the staging buffer as scratch space.
+     */
+    @Override
+    public void copyRect(int sx, int sy, int dx, int dy, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        Staging s = staging.get();
+        s.stage(0, 0, w, Math.max(w, Math.min(w * h, MAX_RETAINED_STAGING_PIXELS)));
+        try {
+            synchronized (this) {
+                OverlappingCopy.copyPixels(mbitmap, s.pixels, sx, sy, dx, dy, w, h);
+            }
+        } catch (Exception e) {
+            // There was an index out of bounds exception, but we continue.
+            Log.e(TAG, "Caught an exception");
+            Log.e(TAG, Log.getStackTraceString(e));
+        }
+        s.trim();
+    }
+
+    @Override
+    public void drawRect(int x, int y, int w, int h, Paint paint) {
+        synchronized (this) {
+            memGraphics.drawRect(x, y, x + w, y + h, paint);
+        }
+    }
+
+    @Override
+    public void scrollChanged(int newx, int newy) {
+        // Don't need to do anything here
+    }
+
+    @Override
+    public void syncScroll() {
+        // Don't need anything here either
+    }
+
+    private static class Staging {
+        int[] pixels = NO_PIXELS;
+        int x, y, w;
+
+        void stage(int x, int y, int w, int size) {
+            if (pixels.length < size) {
+                pixels = new int[size];
+            }
+            this.x = x;
+            this.y = y;
+            this.w = w;
+        }
+
+        void trim() {
+            if (pixels.length > MAX_RETAINED_STAGING_PIXELS) {
+                pixels = NO_PIXELS;
+            }
+        }
+    }
+
+    class SingleCopyBitmapDrawable extends AbstractBitmapDrawable {
+
+        SingleCopyBitmapDrawable() {
+            super(SingleCopyBitmapData.this);
+        }
+
+        @Override
+        public synchronized void draw(Canvas canvas) {
+            try {
+                synchronized (SingleCopyBitmapData.this) {
+                    if (drawing) {
+                        if (!drawShadowFramebuffer(canvas) && mbitmap != null && !mbitmap.isRecycled()) {
+                            canvas.drawBitmap(mbitmap, 0.0f, 0.0f, _defaultPaint);
+                        }
+                        if (softCursor != null && !softCursor.isRecycled()) {
+                            canvas.drawBitmap(softCursor, cursorRect.left, cursorRect.top, _defaultPaint);
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                Log.e(TAG, "Failed to draw");
+                Log.e(TAG, Log.getStackTraceString(e));
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import com.trilead.ssh2.LocalStreamForwarder;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A direct-tcpip channel of an SSH connection, used as the transport of a protocol implemented in
+ * Java. The protocol reads and writes the channel streams itself instead of connecting a second
+ * socket to a local port forward, which saves a pass through the loopback interface and the pair
+ * of threads relaying it in each direction.
+ * <p>
+ * sshlib sizes the channel window itself, so what can be tuned here is how much the protocol
+ * reads from the channel at a time. Bytes are counted in both directions.
+ */
+public class SshDirectChannel implements Closeable {
+    public static final int DEFAULT_READ_BUFFER_SIZE = 128 * 1024;
+
+    private final LocalStreamForwarder forwarder;
+    private final int readBufferSize;
+    private final long openedNanos = System.nanoTime();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final InputStream in;
+    private final OutputStream out;
+
+    /**
+     * @param forwarder      the opened channel
+     * @param readBufferSize bytes the protocol should read from the channel at a time
+     */
+    public SshDirectChannel(LocalStreamForwarder forwarder, int readBufferSize) throws IOException {
+        this.forwarder = forwarder;
+        this.readBufferSize = readBufferSize;
+        this.in = new CountingInputStream(forwarder.getInputStream(), bytesIn);
+        this.out = new CountingOutputStream(forwarder.getOutputStream(), bytesOut);
+    }
+
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Returns the bytes transferred in each direction and the average throughput since the
+     * channel was opened.
+     */
+    public String summary() {
+        long millis = Math.max(1, (System.nanoTime() - openedNanos) / 1000000L);
+        return String.format(Locale.US, "%d bytes in (%d kbit/s), %d bytes out (%d kbit/s)",
+                bytesIn.get(), bytesIn.get() * 8 / millis, bytesOut.get(), bytesOut.get() * 8 / millis);
+    }
+
+    @Override
+    public void close() throws IOException {
+        forwarder.close();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong count;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count.addAndGet(n);
+            }
+            return n;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final AtomicLong count;
+
+        CountingOutputStream(OutputStream out, AtomicLong count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count.addAndGet(len);
+        }
+    }
+}
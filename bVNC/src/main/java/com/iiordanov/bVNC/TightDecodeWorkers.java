@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Worker threads for decoding Tight rectangles off the protocol thread.
+ * <p>
+ * Each of the four Tight zlib streams is pinned to its own single-threaded worker, so the data of
+ * one stream is always inflated in wire order. JPEG rectangles carry no state between them and go
+ * to a shared pool. Rectangles are written to the framebuffer in wire order only where they
+ * overlap: before a rectangle is drawn or submitted, the caller waits for the pending rectangles
+ * that intersect it.
+ * <p>
+ * Only the protocol thread may submit and wait; the bookkeeping of pending rectangles is not
+ * thread safe. Per-thread state of the JPEG workers is released by a callback which each of them
+ * runs as it exits after {@link #shutdown()}.
+ */
+class TightDecodeWorkers {
+    private static final int STREAM_COUNT = 4;
+
+    private final ExecutorService[] streamWorkers = new ExecutorService[STREAM_COUNT];
+    private final ExecutorService jpegWorkers;
+    private final ArrayList<PendingRect> pending = new ArrayList<>();
+
+    /**
+     * @param jpegWorkerExit run on each JPEG worker thread as it exits
+     */
+    TightDecodeWorkers(Runnable jpegWorkerExit) {
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            streamWorkers[i] = Executors.newSingleThreadExecutor(daemonThreadFactory("TightZlib" + i, null));
+        }
+        int jpegThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        jpegWorkers = Executors.newFixedThreadPool(jpegThreads, daemonThreadFactory("TightJpeg", jpegWorkerExit));
+    }
+
+    private static ThreadFactory daemonThreadFactory(final String name, final Runnable onExit) {
+        return r -> {
+            Thread t = new Thread(() -> {
+                try {
+                    r.run();
+                } finally {
+                    if (onExit != null) {
+                        onExit.run();
+                    }
+                }
+            }, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Runs a task on the worker that owns the given zlib stream. Tasks for the same stream run in
+     * submission order.
+     *
+     * @param area framebuffer area the task writes to, or null if it does not touch the framebuffer
+     */
+    void submitToStream(int streamId, Rect area, DecodeTask task) {
+        Future<?> future = streamWorkers[streamId].submit(() -> {
+            task.run();
+            return null;
+        });
+        if (area != null) {
+            pending.add(new PendingRect(area, future));
+        }
+    }
+
+    /**
+     * Runs a JPEG decode task on the shared pool.
+     */
+    void submitJpeg(Rect area, DecodeTask task) {
+        Future<?> future = jpegWorkers.submit(() -> {
+            task.run();
+            return null;
+        });
+        pending.add(new PendingRect(area, future));
+    }
+
+    /**
+     * Waits for pending rectangles which intersect the given area.
+     */
+    void waitForOverlapping(int x, int y, int w, int h) throws Exception {
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            PendingRect p = pending.get(i);
+            if (p.future.isDone() || p.area.intersects(x, y, x + w, y + h)) {
+                pending.remove(i);
+                get(p.future);
+            }
+        }
+    }
+
+    /**
+     * Waits for every pending rectangle.
+     */
+    void waitForAll() throws Exception {
+        for (PendingRect p : pending) {
+            get(p.future);
+        }
+        pending.clear();
+    }
+
+    private void get(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    void shutdown() {
+        for (ExecutorService worker : streamWorkers) {
+            worker.shutdownNow();
+        }
+        jpegWorkers.shutdownNow();
+        pending.clear();
+    }
+
+    interface DecodeTask {
+        void run() throws Exception;
+    }
+
+    private static class PendingRect {
+        final Rect area;
+        final Future<?> future;
+
+        PendingRect(Rect area, Future<?> future) {
+            this.area = area;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * Decodes Tight JPEG rectangles into a small set of reusable bitmaps instead of allocating and
+ * recycling a bitmap for every rectangle.
+ * <p>
+ * Bitmaps are bucketed by pixel count rounded up to a power of two. BitmapFactory reconfigures the
+ * bucket's bitmap to the size of the rectangle it decodes, so one bitmap serves every rectangle
+ * that fits in it. A decoder is not thread safe; each decoding thread must have its own.
+ */
+class TightJpegDecoder {
+    private static final String TAG = "TightJpegDecoder";
+    private static final int MIN_BUCKET_PIXELS = 64 * 64;
+
+    private final BitmapFactory.Options opts = new BitmapFactory.Options();
+    private final SparseArray<Bitmap> buckets = new SparseArray<>();
+    // Result of the last decode that could not use a pooled bitmap.
+    private Bitmap unpooled;
+
+    TightJpegDecoder() {
+        opts.inPurgeable = false;
+        opts.inDither = false;
+        opts.inTempStorage = new byte[32768];
+        opts.inPreferredConfig = Bitmap.Config.RGB_565;
+        opts.inScaled = false;
+        opts.inMutable = true;
+    }
+
+    private static int bucketFor(int pixels) {
+        return Math.max(MIN_BUCKET_PIXELS, Integer.highestOneBit(pixels - 1) << 1);
+    }
+
+    /**
+     * Decodes a JPEG rectangle of w by h pixels.
+     *
+     * @return the decoded bitmap, which stays owned by this decoder and is only valid until the
+     * next call, or null if the data could not be decoded
+     */
+    Bitmap decode(byte[] data, int len, int w, int h) {
+        if (unpooled != null) {
+            unpooled.recycle();
+            unpooled = null;
+        }
+
+        int bucket = bucketFor(w * h);
+        Bitmap target = buckets.get(bucket);
+        if (target == null) {
+            int side = (int) Math.ceil(Math.sqrt(bucket));
+            target = Bitmap.createBitmap(side, side, Bitmap.Config.RGB_565);
+            buckets.put(bucket, target);
+        }
+
+        opts.inBitmap = target;
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, len, opts);
+        } catch (IllegalArgumentException e) {
+            // The JPEG does not fit the bucket, e.g. because its size differs from the rectangle.
+            Log.w(TAG, "Could not reuse bitmap for " + w + "x" + h + " JPEG rectangle: " + e.getMessage());
+            opts.inBitmap = null;
+            unpooled = BitmapFactory.decodeByteArray(data, 0, len, opts);
+            return unpooled;
+        } finally {
+            opts.inBitmap = null;
+        }
+    }
+
+    /**
+     * Recycles all pooled bitmaps.
+     */
+    void release() {
+        for (int i = 0; i < buckets.size(); i++) {
+            buckets.valueAt(i).recycle();
+        }
+        buckets.clear();
+        if (unpooled != null) {
+            unpooled.recycle();
+            unpooled = null;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 
+import com.iiordanov.android.drawing.OverlappingCopy;
 import com.undatech.opaque.RfbConnectable;
 import com.undatech.opaque.Viewable;
 
@@ -33,7 +34,9 @@ class UltraCompactBitmapData extends AbstractBitmapData {
      */
     static final int CAPACITY_MULTIPLIER = 4;
     private final static String TAG = "UltraCompactBitmapData";
+    private final static int MAX_COPY_SCRATCH_PIXELS = 256 * 1024;
     Bitmap.Config cfg = Bitmap.Config.RGB_565;
+    private int[] copyScratch = new int[0];
 
     UltraCompactBitmapData(int width, int height, Viewable c, boolean trueColor) {
         super(width, height, c);
@@ -86,38 +89,28 @@ class UltraCompactBitmapData extends AbstractBitmapData {
         }
     }
 
+    /**
+     * Copies the rectangle within the bitmap through a scratch buffer that is reused between calls
+     * and holds at most MAX_COPY_SCRATCH_PIXELS, so scrolling allocates nothing once it has grown.
+     */
     @Override
     public void copyRect(int sx, int sy, int dx, int dy, int w, int h) {
-        int srcOffset, dstOffset;
-        int dstH = h;
-        int dstW = w;
-
-        int startSrcY, endSrcY, dstY, deltaY;
-        if (sy > dy) {
-            startSrcY = sy;
-            endSrcY = sy + dstH;
-            dstY = dy;
-            deltaY = +1;
-        } else {
-            startSrcY = sy + dstH - 1;
-            endSrcY = sy - 1;
-            dstY = dy + dstH - 1;
-            deltaY = -1;
+        if (w <= 0 || h <= 0) {
+            return;
         }
-        for (int y = startSrcY; y != endSrcY; y += deltaY) {
-            srcOffset = offset(sx, y);
-            dstOffset = offset(dx, dstY);
-            try {
-                int[] bitmapPixels = new int[w * h];
-                synchronized (mbitmap) {
-                    mbitmap.getPixels(bitmapPixels, srcOffset, bitmapwidth, sx - xoffset, y - yoffset, dstW, 1);
-                    mbitmap.setPixels(bitmapPixels, offset(dx, dy), bitmapwidth, dx, dy, dstW, dstH);
+        try {
+            synchronized (mbitmap) {
+                int needed = Math.max(w, Math.min(w * h, MAX_COPY_SCRATCH_PIXELS));
+                if (copyScratch.length < needed) {
+                    copyScratch = new int[needed];
                 }
-            } catch (Exception e) {
-                // There was an index out of bounds exception, but we continue copying what we can.
-                e.printStackTrace();
+                OverlappingCopy.copyPixels(mbitmap, copyScratch, sx - xoffset, sy - yoffset,
+                        dx - xoffset, dy - yoffset, w, h);
             }
-            dstY += deltaY;
+        } catch (Exception e) {
+            // There was an index out of bounds exception, but we continue.
+            android.util.Log.e(TAG, "Caught an exception");
+            android.util.Log.e(TAG, android.util.Log.getStackTraceString(e));
         }
     }
 
@@ -148,7 +141,9 @@ class UltraCompactBitmapData extends AbstractBitmapData {
         public void draw(Canvas canvas) {
             try {
                 synchronized (this) {
-                    canvas.drawBitmap(data.mbitmap, 0.0f, 0.0f, _defaultPaint);
+                    if (!drawShadowFramebuffer(canvas)) {
+                        canvas.drawBitmap(data.mbitmap, 0.0f, 0.0f, _defaultPaint);
+                    }
                     canvas.drawBitmap(softCursor, cursorRect.left, cursorRect.top, _defaultPaint);
                 }
             } catch (Throwable e) {
@@ -36,7 +36,6 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.Build;
@@ -69,13 +68,14 @@ import com.google.android.play.core.review.ReviewManagerFactory;
 import com.undatech.opaque.AbstractDrawableData;
 import com.undatech.opaque.ConnectionSetupActivity;
 import com.undatech.opaque.RemoteClientLibConstants;
+import com.undatech.opaque.util.DesktopThumbnails;
 import com.undatech.remoteClientUi.R;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
 import org.xml.sax.SAXException;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -572,14 +572,7 @@ public class Utils {
         try {
             if (drawable != null && drawable.getMbitmap() != null) {
                 // TODO: Add Filename to settings.
-                FileOutputStream out = new FileOutputStream(filePath);
-                double scaleReduction = (double) drawable.getMbitmap().getWidth() / dstWidth;
-                int dstHeight = (int) ((double) drawable.getMbitmap().getHeight() / scaleReduction);
-                Log.d(TAG, "Desktop screenshot width: " + dstWidth + ", height " + dstHeight);
-                Bitmap tmp = Bitmap.createScaledBitmap(drawable.getMbitmap(), dstWidth, dstHeight, true);
-                tmp.compress(Bitmap.CompressFormat.PNG, 100, out);
-                out.close();
-                tmp.recycle();
+                DesktopThumbnails.save(drawable.getMbitmap(), new File(filePath), dstWidth);
             }
         } catch (Exception e) {
             Log.e(TAG, Log.getStackTraceString(e));
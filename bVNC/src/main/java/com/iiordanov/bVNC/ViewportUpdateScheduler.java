@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.iiordanov.bVNC;
+
+import android.graphics.Rect;
+import android.os.Handler;
+
+import com.undatech.opaque.Viewable;
+
+import java.util.Locale;
+
+/**
+ * Chooses the region of each framebuffer update request so the part of the desktop on screen is
+ * kept current first when zoomed in.
+ * <p>
+ * Incremental requests cover the visible part of the desktop plus a margin of a quarter of its
+ * size on each side, so short pans show current content. The server keeps track of changes
+ * outside the requested region, and every {@link #FULL_REFRESH_INTERVAL_MILLIS} an incremental
+ * request for the whole area is posted to bring them over, also while nothing changes on screen.
+ * When the view is panned or zoomed out of the region last requested, the new region is requested
+ * right away instead of waiting for the outstanding request to be answered, which only happens
+ * once something changes in the old region. When the visible part covers most of the area, or
+ * nothing is known about it yet, the whole area is requested every time.
+ */
+public class ViewportUpdateScheduler {
+    static final float MARGIN_FRACTION = 0.25f;
+    static final long FULL_REFRESH_INTERVAL_MILLIS = 1000;
+    // Viewports which with their margin cover more than this fraction of the area are not worth it.
+    static final float WHOLE_AREA_FRACTION = 0.5f;
+
+    private final Viewable canvas;
+    private final Handler handler;
+    private final Requester requester;
+    private final Rect area = new Rect();
+    private final Rect requested = new Rect();
+    private final Rect viewport = new Rect();
+    private boolean viewportOutstanding;
+    private volatile boolean started;
+
+    // Statistics.
+    private long viewportRequests;
+    private long fullRequests;
+    private long panRequests;
+    private long pixelsRequested;
+    private long pixelsInArea;
+
+    private final Runnable fullRefresh = new Runnable() {
+        @Override
+        public void run() {
+            if (started) {
+                requestWholeArea();
+                handler.postDelayed(this, FULL_REFRESH_INTERVAL_MILLIS);
+            }
+        }
+    };
+
+    /**
+     * @param canvas    the view whose visible part of the desktop is kept current
+     * @param handler   runs the periodic whole area requests, on the UI thread
+     * @param requester sends requests made on the UI thread when the view is panned
+     */
+    public ViewportUpdateScheduler(Viewable canvas, Handler handler, Requester requester) {
+        this.canvas = canvas;
+        this.handler = handler;
+        this.requester = requester;
+    }
+
+    /**
+     * Starts requesting the whole area periodically.
+     */
+    public void start() {
+        if (!started) {
+            started = true;
+            handler.postDelayed(fullRefresh, FULL_REFRESH_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Stops requesting the whole area periodically.
+     */
+    public void stop() {
+        started = false;
+        handler.removeCallbacks(fullRefresh);
+    }
+
+    /**
+     * Returns the visible part of the desktop with its margin, clipped to the area, in viewport.
+     * Returns false if it is empty or covers most of the area.
+     */
+    private boolean computeViewport() {
+        int w = canvas.getVisibleDesktopWidth();
+        int h = canvas.getVisibleDesktopHeight();
+        if (w <= 0 || h <= 0 || area.isEmpty()) {
+            return false;
+        }
+        int x = canvas.getAbsX();
+        int y = canvas.getAbsY();
+        viewport.set(x, y, x + w, y + h);
+        viewport.inset(-(int) (w * MARGIN_FRACTION), -(int) (h * MARGIN_FRACTION));
+        if (!viewport.intersect(area)) {
+            return false;
+        }
+        return (long) viewport.width() * viewport.height() <
+                (long) area.width() * area.height() * WHOLE_AREA_FRACTION;
+    }
+
+    /**
+     * Chooses the region of the next incremental update request within the given area, usually
+     * the part of the framebuffer held by the bitmap. Called on the protocol thread.
+     *
+     * @param out set to the region to request
+     */
+    public synchronized void nextRequest(int x, int y, int w, int h, Rect out) {
+        area.set(x, y, x + w, y + h);
+        if (computeViewport()) {
+            out.set(viewport);
+            viewportOutstanding = true;
+            viewportRequests++;
+        } else {
+            out.set(area);
+            viewportOutstanding = false;
+            fullRequests++;
+        }
+        requested.set(out);
+        pixelsRequested += (long) out.width() * out.height();
+        pixelsInArea += (long) w * h;
+    }
+
+    /**
+     * Called on the UI thread when the view has been panned or zoomed.
+     */
+    public void onViewportChanged() {
+        int x, y, w, h;
+        synchronized (this) {
+            if (!viewportOutstanding || !computeViewport() || requested.contains(viewport)) {
+                return;
+            }
+            requested.set(viewport);
+            panRequests++;
+            pixelsRequested += (long) viewport.width() * viewport.height();
+            x = viewport.left;
+            y = viewport.top;
+            w = viewport.width();
+            h = viewport.height();
+        }
+        requester.requestUpdate(x, y, w, h);
+    }
+
+    /**
+     * Requests changes outside the viewport which the server has been holding back, unless the
+     * whole area is being requested already.
+     */
+    private void requestWholeArea() {
+        int x, y, w, h;
+        synchronized (this) {
+            if (!viewportOutstanding || requested.contains(area)) {
+                return;
+            }
+            requested.set(area);
+            fullRequests++;
+            pixelsRequested += (long) area.width() * area.height();
+            x = area.left;
+            y = area.top;
+            w = area.width();
+            h = area.height();
+        }
+        requester.requestUpdate(x, y, w, h);
+    }
+
+    /**
+     * Returns how many requests covered only the viewport and how many the whole area, and the
+     * share of the area's pixels that was requested.
+     */
+    public synchronized String summary() {
+        long percent = pixelsInArea == 0 ? 100 : pixelsRequested * 100 / pixelsInArea;
+        return String.format(Locale.US, "%d viewport requests, %d full, %d on pan, %d%% of pixels requested",
+                viewportRequests, fullRequests, panRequests, percent);
+    }
+
+    public interface Requester {
+        /**
+         * Requests an incremental update of the region without blocking the calling UI thread.
+         */
+        void requestUpdate(int x, int y, int w, int h);
+    }
+}
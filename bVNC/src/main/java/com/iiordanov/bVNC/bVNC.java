@@ -270,8 +270,13 @@ public class bVNC extends MainConfiguration {
             autoXStatus.setText(R.string.auto_x_disabled);
         }
 
-        groupForceFullScreen.check(selected.getForceFull() == BitmapImplHint.AUTO ?
-                R.id.radioForceFullScreenAuto : R.id.radioForceFullScreenOn);
+        if (selected.getForceFull() == BitmapImplHint.AUTO) {
+            groupForceFullScreen.check(R.id.radioForceFullScreenAuto);
+        } else if (selected.getForceFull() == BitmapImplHint.SINGLE_COPY) {
+            groupForceFullScreen.check(R.id.radioForceFullScreenSingleCopy);
+        } else {
+            groupForceFullScreen.check(R.id.radioForceFullScreenOn);
+        }
         checkboxPreferHextile.setChecked(selected.getPrefEncoding() == RfbProto.EncodingHextile);
         checkboxViewOnly.setChecked(selected.getViewOnly());
         textUsername.setText(selected.getUserName());
@@ -333,7 +338,16 @@ public class bVNC extends MainConfiguration {
         super.updateSelectedFromView();
 
         selected.setUserName(textUsername.getText().toString());
-        selected.setForceFull(groupForceFullScreen.getCheckedButtonId() == R.id.radioForceFullScreenAuto ? BitmapImplHint.AUTO : (groupForceFullScreen.getCheckedButtonId() == R.id.radioForceFullScreenOn ? BitmapImplHint.FULL : BitmapImplHint.TILE));
+        int forceFullId = groupForceFullScreen.getCheckedButtonId();
+        if (forceFullId == R.id.radioForceFullScreenAuto) {
+            selected.setForceFull(BitmapImplHint.AUTO);
+        } else if (forceFullId == R.id.radioForceFullScreenOn) {
+            selected.setForceFull(BitmapImplHint.FULL);
+        } else if (forceFullId == R.id.radioForceFullScreenSingleCopy) {
+            selected.setForceFull(BitmapImplHint.SINGLE_COPY);
+        } else {
+            selected.setForceFull(BitmapImplHint.TILE);
+        }
 
         if (checkboxPreferHextile.isChecked())
             selected.setPrefEncoding(RfbProto.EncodingHextile);
@@ -6,4 +6,9 @@ public interface KeyInputHandler {
     boolean onKeyDownEvent(int keyCode, KeyEvent event);
 
     boolean onKeyUpEvent(int keyCode, KeyEvent event);
+
+    /**
+     * Types the text on the remote desktop. Called off the UI thread.
+     */
+    void sendText(String text);
 }
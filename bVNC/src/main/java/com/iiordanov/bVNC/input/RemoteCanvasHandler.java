@@ -17,6 +17,7 @@ import androidx.fragment.app.FragmentActivity;
 import androidx.fragment.app.FragmentManager;
 
 import com.google.android.material.snackbar.Snackbar;
+import com.iiordanov.bVNC.Constants;
 import com.iiordanov.bVNC.CredentialsObtainer;
 import com.iiordanov.bVNC.RemoteCanvas;
 import com.iiordanov.bVNC.RemoteCanvasActivity;
@@ -511,6 +512,10 @@ public class RemoteCanvasHandler extends Handler implements HttpsFileDownloader.
                 Log.i(TAG, "REINIT_SESSION");
                 remoteConnection.initializeConnection();
                 c.setParameters(remoteConnection.getRfbConn(), connection, this, remoteConnection.getPointer(), setModes);
+                if (remoteConnection.getRfbConn() != null &&
+                        Utils.querySharedPreferenceBoolean(context, Constants.showSessionMetricsTag)) {
+                    c.setSessionMetricsOverlay(remoteConnection.getRfbConn().getSessionMetrics());
+                }
                 break;
             case RemoteClientLibConstants.VV_DOWNLOAD_TIMEOUT:
                 MessageDialogs.displayMessageAndFinish(context, R.string.error_vv_download_timeout,
@@ -21,10 +21,8 @@ package com.iiordanov.bVNC.input
 
 import android.app.Activity
 import android.os.Build
-import android.os.SystemClock
 import android.util.Log
 import android.view.InputDevice
-import android.view.KeyCharacterMap
 import android.view.KeyEvent
 import android.view.MotionEvent
 import android.view.View
@@ -74,39 +72,7 @@ class RemoteClientsInputListener(
     }
 
     fun sendText(s: String) {
-        workerPool.submit { sendTextSync(s) }
-    }
-
-    private fun sendTextSync(s: String) {
-        GeneralUtils.debugLog(App.debugLog, tag, "sendTextSync, s: $s")
-        for (i in s.indices) {
-            var event: KeyEvent?
-            val c = s[i]
-            if (Character.isISOControl(c)) {
-                if (c == '\n') {
-                    val keyCode = KeyEvent.KEYCODE_ENTER
-                    keyInputHandler?.onKeyDownEvent(
-                        keyCode, KeyEvent(KeyEvent.ACTION_DOWN, keyCode)
-                    )
-                    throttleInputByWaiting()
-                    keyInputHandler?.onKeyUpEvent(keyCode, KeyEvent(KeyEvent.ACTION_UP, keyCode))
-                }
-            } else {
-                event = KeyEvent(
-                    SystemClock.uptimeMillis(), s.substring(i, i + 1), KeyCharacterMap.FULL, 0
-                )
-                keyInputHandler?.onKeyDownEvent(event.keyCode, event)
-                throttleInputByWaiting()
-            }
-        }
-    }
-
-    private fun throttleInputByWaiting() {
-        try {
-            Thread.sleep(5)
-        } catch (e: InterruptedException) {
-            Log.e(tag, "InterruptedException ignored")
-        }
+        workerPool.submit { keyInputHandler?.sendText(s) }
     }
 
     fun onTrackballEvent(event: MotionEvent?): Boolean {
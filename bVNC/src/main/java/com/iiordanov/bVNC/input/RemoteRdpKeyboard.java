@@ -15,6 +15,7 @@ import com.undatech.opaque.input.RemotePointer;
 
 public class RemoteRdpKeyboard extends RemoteKeyboard {
     private final static String TAG = "RemoteRdpKeyboard";
+    private final static int VK_RETURN = 0x0D;
     protected RdpKeyboardMapper keyboardMapper;
     protected Viewable canvas;
     protected InputCarriable remoteInput;
@@ -33,6 +34,20 @@ public class RemoteRdpKeyboard extends RemoteKeyboard {
         keyboardMapper.reset((RdpKeyboardMapper.KeyProcessingListener) r);
     }
 
+    /**
+     * Types characters as unicode keys, and line feeds with the Return virtual key.
+     */
+    @Override
+    protected int[] keyStrokesFor(char c) {
+        if (c == '\n') {
+            return new int[]{RdpCommunicator.VIRTUAL_KEY_STROKE | VK_RETURN, 0};
+        }
+        if (Character.isISOControl(c) || Character.isSurrogate(c)) {
+            return null;
+        }
+        return new int[]{c, 0};
+    }
+
     public boolean processLocalKeyEvent(int keyCode, KeyEvent evt, int additionalMetaState) {
         debugLog(App.debugLog, TAG, "processLocalKeyEvent: " + evt.toString() + " " + keyCode);
         // Drop repeated modifiers
@@ -180,6 +180,40 @@ public class RemoteSpiceKeyboard extends RemoteKeyboard {
         return true;
     }
 
+    /**
+     * Types characters with the scan codes the layout map gives for them.
+     */
+    @Override
+    protected int[] keyStrokesFor(char c) {
+        Integer[] scanCodes;
+        if (c == '\n') {
+            scanCodes = table.get(KeyEvent.KEYCODE_ENTER);
+        } else if (Character.isISOControl(c)) {
+            return null;
+        } else {
+            scanCodes = table.get(c | UNICODE_MASK);
+        }
+        if (scanCodes == null || scanCodes.length == 0) {
+            return null;
+        }
+        int[] strokes = new int[scanCodes.length * 2];
+        for (int i = 0; i < scanCodes.length; i++) {
+            int scode = scanCodes[i];
+            int meta = 0;
+            if ((scode & SCANCODE_SHIFT_MASK) != 0) {
+                meta |= SHIFT_MASK;
+                scode &= ~SCANCODE_SHIFT_MASK;
+            }
+            if ((scode & SCANCODE_ALTGR_MASK) != 0) {
+                meta |= RALT_MASK;
+                scode &= ~SCANCODE_ALTGR_MASK;
+            }
+            strokes[i * 2] = scode;
+            strokes[i * 2 + 1] = meta;
+        }
+        return strokes;
+    }
+
     private void writeKeyEvent(boolean isUnicode, int code, int metaState, boolean down, boolean sendUpEvents) {
         if (down) {
             lastDownMetaState = metaState;
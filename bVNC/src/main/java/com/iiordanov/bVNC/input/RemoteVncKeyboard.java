@@ -26,6 +26,24 @@ public class RemoteVncKeyboard extends RemoteKeyboard {
         RemoteVncKeyboard.rAltAsIsoL3Shift = rAltAsIsoL3Shift;
     }
 
+    /**
+     * Types characters as their keysyms, or as Unicode keysyms if they have no keysym of their own.
+     */
+    @Override
+    protected int[] keyStrokesFor(char c) {
+        if (c == '\n') {
+            return new int[]{0xff0d, 0};
+        }
+        if (Character.isISOControl(c) || Character.isSurrogate(c)) {
+            return null;
+        }
+        int keysym = UnicodeToKeysym.translate(c);
+        if (keysym < 0) {
+            keysym = 0x01000000 | c;
+        }
+        return new int[]{keysym, 0};
+    }
+
     public boolean processLocalKeyEvent(int keyCode, KeyEvent evt, int additionalMetaState) {
         debugLog(App.debugLog, TAG, "processLocalKeyEvent: " + evt.toString() + " " + keyCode);
         // Drop repeated modifiers
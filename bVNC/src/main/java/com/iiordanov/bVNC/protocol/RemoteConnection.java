@@ -29,6 +29,7 @@ import android.app.ProgressDialog;
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
+import android.graphics.Rect;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Handler;
@@ -43,6 +44,7 @@ import com.iiordanov.bVNC.Constants;
 import com.iiordanov.bVNC.Decoder;
 import com.iiordanov.bVNC.SSHConnection;
 import com.iiordanov.bVNC.Utils;
+import com.iiordanov.bVNC.ViewportUpdateScheduler;
 import com.iiordanov.bVNC.input.KeyInputHandler;
 import com.iiordanov.bVNC.input.PointerInputHandler;
 import com.iiordanov.bVNC.input.RemoteKeyboard;
@@ -56,14 +58,13 @@ import com.undatech.opaque.input.RemotePointer;
 import com.undatech.opaque.util.GeneralUtils;
 import com.undatech.remoteClientUi.R;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Timer;
 
 abstract public class RemoteConnection implements PointerInputHandler, KeyInputHandler, InputCarriable {
     private final static String TAG = "RemoteConnection";
-    public static final int CLIPBOARD_INITIAL_DELAY = 0;
-    public static final int CLIPBOARD_CHECK_PERIOD = 500;
     public static final int MAX_IN_DIALOG_ERROR_LENGTH = 300;
 
     // Connection parameters
@@ -88,7 +89,6 @@ abstract public class RemoteConnection implements PointerInputHandler, KeyInputH
     RemoteKeyboard keyboard;
     // Used to set the contents of the clipboard.
     ClipboardManager clipboard;
-    Timer clipboardMonitorTimer;
     ClipboardMonitor clipboardMonitor;
     boolean sshTunneled;
     Context context;
@@ -96,6 +96,9 @@ abstract public class RemoteConnection implements PointerInputHandler, KeyInputH
     Thread connectionThread;
     boolean isLocalToRemoteClipboardIntegrationEnabled;
     boolean isRemoteToLocalClipboardIntegrationEnabled;
+    // Chooses the region of incremental update requests if they prioritize the visible part.
+    private ViewportUpdateScheduler viewportUpdates;
+    private final Rect viewportUpdateRect = new Rect();
 
     /**
      * Constructor used by the inflation apparatus
@@ -160,19 +163,26 @@ abstract public class RemoteConnection implements PointerInputHandler, KeyInputH
         if (isLocalToRemoteClipboardIntegrationEnabled) {
             Log.i(TAG, "Local to remote clipboard integration enabled");
             clipboardMonitor = new ClipboardMonitor(canvas, context, rfbConn);
-            if (clipboardMonitor != null) {
-                clipboardMonitorTimer = new Timer();
-                try {
-                    clipboardMonitorTimer.schedule(clipboardMonitor, CLIPBOARD_INITIAL_DELAY, CLIPBOARD_CHECK_PERIOD);
-                } catch (NullPointerException e) {
-                    Log.d(TAG, "Ignored NullPointerException while initializing clipboard monitor: " + Log.getStackTraceString(e));
-                }
+            try {
+                clipboardMonitor.start();
+            } catch (NullPointerException e) {
+                Log.d(TAG, "Ignored NullPointerException while initializing clipboard monitor: " + Log.getStackTraceString(e));
             }
         } else {
             Log.i(TAG, "Local to remote clipboard integration enabled");
         }
     }
 
+    /**
+     * Called when the session window gains focus. Clipboard changes made while another app had
+     * focus are not reported, so the clipboard is checked now.
+     */
+    public void onWindowFocusGained() {
+        if (clipboardMonitor != null) {
+            clipboardMonitor.onForegrounded();
+        }
+    }
+
     public void setHandler(Handler handler) {
         RemoteConnection.handler = handler;
     }
@@ -245,25 +255,49 @@ abstract public class RemoteConnection implements PointerInputHandler, KeyInputH
     }
 
     /**
-     * Requests an update of the entire remote desktop.
+     * Requests an update of the entire remote desktop. With viewport prioritized updates,
+     * incremental requests usually cover only the visible part of it.
      */
     public void writeFullUpdateRequest(boolean incremental) {
         canvas.prepareFullUpdateRequest(incremental);
-        rfbConn.writeFramebufferUpdateRequest(canvas.getXoffset(), canvas.getYoffset(),
-                canvas.bmWidth(), canvas.bmHeight(), incremental);
+        int x = canvas.getXoffset();
+        int y = canvas.getYoffset();
+        int w = canvas.bmWidth();
+        int h = canvas.bmHeight();
+        if (incremental && viewportUpdates != null) {
+            viewportUpdates.nextRequest(x, y, w, h, viewportUpdateRect);
+            rfbConn.writeFramebufferUpdateRequest(viewportUpdateRect.left, viewportUpdateRect.top,
+                    viewportUpdateRect.width(), viewportUpdateRect.height(), true);
+        } else {
+            rfbConn.writeFramebufferUpdateRequest(x, y, w, h, incremental);
+        }
+    }
+
+    /**
+     * Makes incremental update requests prioritize the visible part of the desktop.
+     */
+    protected void setViewportUpdateScheduler(ViewportUpdateScheduler scheduler) {
+        if (viewportUpdates != null) {
+            viewportUpdates.stop();
+        }
+        viewportUpdates = scheduler;
+        canvas.setOnViewportChangedListener(scheduler != null ? scheduler::onViewportChanged : null);
+        if (scheduler != null) {
+            scheduler.start();
+        }
     }
 
     /**
      * Set the device clipboard text with the string parameter. Also updates the clipboard monitor
-     * so it does not echo the server's text back on the next polling tick.
+     * first so it does not echo the server's text back when the clipboard change is reported.
      */
     public void setClipboardText(String s) {
         if (s != null && !s.isEmpty()) {
             try {
-                clipboard.setPrimaryClip(ClipData.newPlainText(null, s));
                 if (clipboardMonitor != null) {
                     clipboardMonitor.setKnownClipboardContents(s);
                 }
+                clipboard.setPrimaryClip(ClipData.newPlainText(null, s));
             } catch (Exception e) {
                 String error = context.getString(R.string.error) + ": " + e;
                 canvas.displayOnScreenMessageShortDuration(error);
@@ -288,6 +322,15 @@ abstract public class RemoteConnection implements PointerInputHandler, KeyInputH
             rfbConn.close();
         }
 
+        if (viewportUpdates != null) {
+            Log.i(TAG, "Viewport prioritized updates: " + viewportUpdates.summary());
+            setViewportUpdateScheduler(null);
+        }
+
+        if (rfbConn != null && Utils.querySharedPreferenceBoolean(context, Constants.dumpSessionMetricsTag)) {
+            dumpSessionMetrics();
+        }
+
         if (connectionThread != null) {
             connectionThread.interrupt();
         }
@@ -309,6 +352,21 @@ abstract public class RemoteConnection implements PointerInputHandler, KeyInputH
         onDestroy();
     }
 
+    /**
+     * Saves the performance figures of the session to a file named after the time of disconnection.
+     */
+    private void dumpSessionMetrics() {
+        File base = context.getExternalFilesDir(null);
+        File file = new File(new File(base != null ? base : context.getFilesDir(), "session-metrics"),
+                System.currentTimeMillis() + ".txt");
+        try {
+            rfbConn.getSessionMetrics().dumpToFile(file);
+            Log.i(TAG, "Saved session metrics to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save session metrics to " + file + ": " + e);
+        }
+    }
+
     /**
      * Cleans up resources after a disconnection.
      */
@@ -316,9 +374,8 @@ abstract public class RemoteConnection implements PointerInputHandler, KeyInputH
         Log.v(TAG, "Cleaning up resources");
 
         removeCallbacksAndMessages();
-        if (clipboardMonitorTimer != null) {
-            clipboardMonitorTimer.cancel();
-            clipboardMonitorTimer = null;
+        if (clipboardMonitor != null) {
+            clipboardMonitor.stop();
         }
         clipboardMonitor = null;
         clipboard = null;
@@ -381,6 +438,14 @@ abstract public class RemoteConnection implements PointerInputHandler, KeyInputH
         return keyboard.keyEvent(keyCode, e);
     }
 
+    @Override
+    public void sendText(String text) {
+        GeneralUtils.debugLog(App.debugLog, TAG, "sendText, " + text.length() + " characters");
+        if (keyboard != null) {
+            keyboard.sendText(text);
+        }
+    }
+
     abstract public boolean isColorModel(COLORMODEL cm);
 
     abstract public void setColorModel(COLORMODEL cm);
@@ -4,6 +4,7 @@ import android.content.Context
 import android.util.Log
 import com.iiordanov.bVNC.App
 import com.iiordanov.bVNC.COLORMODEL
+import com.iiordanov.bVNC.Constants
 import com.iiordanov.bVNC.Utils
 import com.iiordanov.bVNC.input.RemoteSpiceKeyboard
 import com.iiordanov.bVNC.input.RemoteSpicePointer
@@ -32,6 +33,9 @@ open class RemoteOpaqueConnection(
             connection.isRequestingNewDisplayResolution || connection.rdpResType == RemoteClientLibConstants.RDP_GEOM_SELECT_CUSTOM,
             !Utils.isFree(context) && connection.isUsbEnabled, App.debugLog, isRemoteToLocalClipboardIntegrationEnabled
         )
+        spiceComm?.setBatchedGraphicsUpdates(
+            Utils.querySharedPreferenceBoolean(context, Constants.batchedGraphicsUpdatesTag)
+        )
         rfbConn = spiceComm
         pointer =
             RemoteSpicePointer(spiceComm, context, this, canvas, handler, !connection.useDpadAsArrows, App.debugLog)
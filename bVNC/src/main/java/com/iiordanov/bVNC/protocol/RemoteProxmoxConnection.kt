@@ -8,6 +8,9 @@ import com.undatech.opaque.Connection
 import com.undatech.opaque.RemoteClientLibConstants
 import com.undatech.opaque.Viewable
 import com.undatech.opaque.proxmox.ProxmoxClient
+import com.undatech.opaque.proxmox.PveTicketCache
+import com.undatech.opaque.proxmox.pojo.PveResource
+import com.undatech.opaque.proxmox.pojo.SpiceDisplay
 import com.undatech.opaque.proxmox.pojo.VmStatus
 import com.undatech.opaque.util.FileUtils
 import com.undatech.remoteClientUi.R
@@ -41,15 +44,20 @@ class RemoteProxmoxConnection(
         val cThread: Thread = object : Thread() {
             override fun run() {
                 try {
-                    var status = api.getCurrentStatus(node, virt, vmId.toInt())
-                    if (status.status == VmStatus.STOPPED) {
-                        api.startVm(node, virt, vmId.toInt())
-                        while (status.status != VmStatus.RUNNING) {
-                            status = api.getCurrentStatus(node, virt, vmId.toInt())
-                            SystemClock.sleep(500)
+                    val id = vmId.toInt()
+                    // Ask for the display along with the status, which saves a round trip when
+                    // the VM is already running. Otherwise the display is asked for again below.
+                    val speculativeSpiceData = api.submit { api.spiceVm(node, virt, id) }
+                    val status = api.getCurrentStatus(node, virt, id)
+                    val spiceData: SpiceDisplay? = if (status.status == VmStatus.RUNNING) {
+                        ProxmoxClient.await(speculativeSpiceData)
+                    } else {
+                        if (status.status == VmStatus.STOPPED) {
+                            val upid = api.startVm(node, virt, id)
+                            api.waitForTask(node, upid, ProxmoxClient.DEFAULT_TASK_TIMEOUT_MILLIS)
                         }
+                        api.spiceVm(node, virt, id)
                     }
-                    val spiceData = api.spiceVm(node, virt, vmId.toInt())
                     if (spiceData != null) {
                         spiceData.outputToFile(tempVvFile, api.host)
                     } else {
@@ -82,6 +90,9 @@ class RemoteProxmoxConnection(
                             "error", e.message
                         )
                     )
+                } catch (e: InterruptedException) {
+                    Log.e(tag, "Interrupted while waiting for PVE.")
+                    handler.sendEmptyMessage(RemoteClientLibConstants.PVE_TIMEOUT_COMMUNICATING)
                 }
                 // At this stage we have either retrieved display data or failed, so permit the UI thread to continue.
                 synchronized(tempVvFile) { castAsObject(tempVvFile).notify() }
@@ -109,6 +120,8 @@ class RemoteProxmoxConnection(
         connectionThread = object : Thread() {
             override fun run() {
                 try {
+                    // Tickets are only kept for users who also chose to keep their password.
+                    val passwordSaved = connection.password != ""
                     // Obtain user's password if necessary.
                     if (connection.password == "") {
                         Log.i(tag, "Displaying a dialog to obtain user's password.")
@@ -125,30 +138,53 @@ class RemoteProxmoxConnection(
                         user = user.substring(0, indexOfAt)
                     }
 
-                    // Connect to the API and obtain available realms
+                    val start = SystemClock.elapsedRealtime()
                     val cas = standardCertificateAuthorities().readText().replace("\n", "\\n")
                     val api = ProxmoxClient(connection, handler, cas)
-                    val realms = api.availableRealms
+                    val ticketCache = PveTicketCache.getShared()
 
-                    // If selected realm has TFA enabled, then ask for the code
-                    val pveRealm = realms[realm]
-                    if (pveRealm != null && pveRealm.tfa != null) {
-                        Log.i(tag, "Displaying a dialog to obtain OTP/TFA enabled for realm")
-                        handler.sendEmptyMessage(RemoteClientLibConstants.GET_OTP_CODE)
-                        synchronized(handler) { castAsObject(handler).wait() }
+                    // Try a ticket kept from an earlier connection, which skips fetching realms and logging in
+                    var cachedTicketResources: Map<String, PveResource>? = null
+                    if (passwordSaved && ticketCache.restore(api, user, realm)) {
+                        try {
+                            cachedTicketResources = api.resources
+                            Log.i(tag, "Reusing the cached PVE ticket")
+                        } catch (e: LoginException) {
+                            Log.i(tag, "The cached PVE ticket was rejected, logging in")
+                            ticketCache.remove(api, user, realm)
+                        }
                     }
 
-                    // Login with provided credentials
-                    api.login(user, realm, connection.password, connection.otpCode)
-                    if (api.isPerUserNeedTfa) {
-                        Log.i(tag, "Displaying a dialog to obtain OTP/TFA for specific user")
-                        handler.sendEmptyMessage(RemoteClientLibConstants.GET_OTP_CODE)
-                        synchronized(handler) { castAsObject(handler).wait() }
+                    val nameToResources = cachedTicketResources ?: run {
+                        // Connect to the API and obtain available realms
+                        val realms = api.availableRealms
+
+                        // If selected realm has TFA enabled, then ask for the code
+                        val pveRealm = realms[realm]
+                        val realmNeedsTfa = pveRealm != null && pveRealm.tfa != null
+                        if (realmNeedsTfa) {
+                            Log.i(tag, "Displaying a dialog to obtain OTP/TFA enabled for realm")
+                            handler.sendEmptyMessage(RemoteClientLibConstants.GET_OTP_CODE)
+                            synchronized(handler) { castAsObject(handler).wait() }
+                        }
+
+                        // Login with provided credentials
                         api.login(user, realm, connection.password, connection.otpCode)
-                    }
+                        val userNeedsTfa = api.isPerUserNeedTfa
+                        if (userNeedsTfa) {
+                            Log.i(tag, "Displaying a dialog to obtain OTP/TFA for specific user")
+                            handler.sendEmptyMessage(RemoteClientLibConstants.GET_OTP_CODE)
+                            synchronized(handler) { castAsObject(handler).wait() }
+                            api.login(user, realm, connection.password, connection.otpCode)
+                        }
+                        // Keeping a ticket obtained with a one-time code would skip asking for the next one
+                        if (passwordSaved && !realmNeedsTfa && !userNeedsTfa) {
+                            ticketCache.save(api, user, realm)
+                        }
 
-                    // Get map of user parsable names to resources
-                    val nameToResources = api.resources
+                        // Get map of user parsable names to resources
+                        api.resources
+                    }
                     if (nameToResources.isEmpty()) {
                         Log.e(tag, "No available VMs found for user in PVE cluster")
                         disconnectAndShowMessage(R.string.error_no_vm_found_for_user, R.string.error_dialog_title)
@@ -214,6 +250,7 @@ class RemoteProxmoxConnection(
                     // Only if we managed to obtain a VM name we try to get a .vv file for the display.
                     if (vmId.isNotEmpty()) {
                         val vvFileName = retrieveVvFileFromPve(api, vmId, node, virt)
+                        Log.i(tag, "Connecting to PVE took " + (SystemClock.elapsedRealtime() - start) + " ms")
                         vvFileName?.let { startFromVvFile(it) }
                     }
                 } catch (e: LoginException) {
@@ -4,6 +4,7 @@ import android.content.Context
 import android.util.Log
 import com.iiordanov.bVNC.App
 import com.iiordanov.bVNC.COLORMODEL
+import com.iiordanov.bVNC.Constants
 import com.iiordanov.bVNC.Utils
 import com.iiordanov.bVNC.input.RemoteSpiceKeyboard
 import com.iiordanov.bVNC.input.RemoteSpicePointer
@@ -34,6 +35,9 @@ class RemoteSpiceConnection(
             !Utils.isFree(context) && connection.isUsbEnabled,
             App.debugLog, isRemoteToLocalClipboardIntegrationEnabled
         )
+        spiceComm?.setBatchedGraphicsUpdates(
+            Utils.querySharedPreferenceBoolean(context, Constants.batchedGraphicsUpdatesTag)
+        )
         rfbConn = spiceComm
         pointer = RemoteSpicePointer(spiceComm, context, this, canvas, handler, !connection.useDpadAsArrows, App.debugLog)
         keyboard = RemoteSpiceKeyboard(
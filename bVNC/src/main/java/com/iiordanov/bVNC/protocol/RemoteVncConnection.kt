@@ -10,10 +10,13 @@ import com.iiordanov.bVNC.Constants
 import com.iiordanov.bVNC.Decoder
 import com.iiordanov.bVNC.RfbProto
 import com.iiordanov.bVNC.SecureVncConfig
+import com.iiordanov.bVNC.SessionRecordings
+import com.iiordanov.bVNC.SshDirectChannel
 import com.iiordanov.bVNC.RfbProto.RfbPasswordAuthenticationException
 import com.iiordanov.bVNC.RfbProto.RfbUltraVncColorMapException
 import com.iiordanov.bVNC.RfbProto.RfbUserPassAuthFailedOrUsernameRequiredException
 import com.iiordanov.bVNC.Utils
+import com.iiordanov.bVNC.ViewportUpdateScheduler
 import com.iiordanov.bVNC.exceptions.AnonCipherUnsupportedException
 import com.iiordanov.bVNC.exceptions.SecureVNCPluginException
 import com.iiordanov.bVNC.input.RemoteVncKeyboard
@@ -23,6 +26,8 @@ import com.undatech.opaque.Connection
 import com.undatech.opaque.RemoteClientLibConstants
 import com.undatech.opaque.Viewable
 import com.undatech.remoteClientUi.R
+import java.io.File
+import java.io.FileInputStream
 import kotlin.math.max
 import kotlin.math.min
 
@@ -34,6 +39,9 @@ class RemoteVncConnection(
 ) : RemoteConnection(context, connection, canvas, hideKeyboardAndExtraKeys) {
     private val tag: String = "RemoteVncConnection"
     private var rfb: RfbProto? = null
+    private val sessionRecordings = SessionRecordings(File(context.filesDir, SessionRecordings.DIRECTORY))
+    private val replayingSession =
+        Utils.querySharedPreferenceBoolean(context, Constants.replayVncSessionTag)
 
     /**
      * Determines the preferred remote width for VNC connections.
@@ -84,6 +92,9 @@ class RemoteVncConnection(
         Log.i(tag, "Initializing connection to: " + connection.address + ", port: " + connection.port)
         val sslTunneled = connection.connectionType == Constants.CONN_TYPE_STUNNEL
         decoder = Decoder(canvas, this, connection.useLocalCursor == Constants.CURSOR_FORCE_LOCAL)
+        decoder.setParallelDecoding(
+            Utils.querySharedPreferenceBoolean(this.context, Constants.parallelTightDecodingTag)
+        )
         rfb = RfbProto(
             decoder, canvas, this, handler, connection.prefEncoding, connection.viewOnly,
             sslTunneled, connection.idHashAlgorithm, connection.idHash, connection.x509KeySignature,
@@ -96,6 +107,18 @@ class RemoteVncConnection(
             )
         )
         rfbConn = rfb
+        rfb?.setAdaptiveQuality(
+            Utils.querySharedPreferenceBoolean(this.context, Constants.adaptiveQualityTag)
+        )
+        if (Utils.querySharedPreferenceBoolean(this.context, Constants.viewportPrioritizedUpdatesTag)) {
+            setViewportUpdateScheduler(ViewportUpdateScheduler(canvas, handler) { x, y, w, h ->
+                rfb?.postFramebufferUpdateRequest(x, y, w, h)
+            })
+        }
+        if (!replayingSession && Utils.querySharedPreferenceBoolean(this.context, Constants.recordVncSessionsTag)) {
+            val recordingFile = sessionRecordings.newRecordingFile()
+            rfb?.setSessionRecordingFile(recordingFile, sessionRecordings.remainingBytes())
+        }
         pointer = RemoteVncPointer(rfbConn, context, this, canvas, handler, !connection.useDpadAsArrows, App.debugLog)
         val rAltAsIsoL3Shift = Utils.querySharedPreferenceBoolean(
             this.context,
@@ -112,6 +135,10 @@ class RemoteVncConnection(
      */
     @Throws(Exception::class)
     private fun startVncConnection() {
+        if (replayingSession) {
+            replayLastSession()
+            return
+        }
         try {
             val address = address
             val vncPort = getRemoteProtocolPort(connection.port)
@@ -183,6 +210,22 @@ class RemoteVncConnection(
         }
     }
 
+    /**
+     * Plays back the most recent session recording in real time instead of connecting, to
+     * reproduce decoding and drawing problems without the server.
+     */
+    @Throws(Exception::class)
+    private fun replayLastSession() {
+        val recording = sessionRecordings.newest()
+        if (recording == null) {
+            showFatalMessageAndQuit(context.getString(R.string.error_no_vnc_session_recording))
+            return
+        }
+        Log.i(tag, "Replaying session recording $recording")
+        if (pd.isShowing) pd.dismiss()
+        FileInputStream(recording).use { rfb?.replaySession(it, true) }
+    }
+
     override fun initializeConnection() {
         super.initializeConnection()
         try {
@@ -217,7 +260,14 @@ class RemoteVncConnection(
             if (connection.autoXEnabled) {
                 remotePort = sshConnection.setupAutoX()
             }
-            result = sshConnection.createLocalPortForward(remotePort)
+            result = if (Utils.querySharedPreferenceBoolean(context, Constants.sshDirectChannelTag)) {
+                rfb?.setDirectChannel(
+                    sshConnection.openDirectChannel(remotePort, SshDirectChannel.DEFAULT_READ_BUFFER_SIZE)
+                )
+                remotePort
+            } else {
+                sshConnection.createLocalPortForward(remotePort)
+            }
         } else {
             result = if (port <= 20) {
                 Constants.DEFAULT_VNC_PORT + port
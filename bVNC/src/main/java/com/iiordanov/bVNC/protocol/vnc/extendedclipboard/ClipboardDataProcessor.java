@@ -24,24 +24,45 @@ import static com.iiordanov.bVNC.protocol.vnc.extendedclipboard.ExtendedClipboar
 
 import android.util.Log;
 
-import com.iiordanov.bVNC.Utils;
-import com.tigervnc.rdr.MemOutStream;
-import com.tigervnc.rdr.ZlibOutStream;
+import com.tigervnc.rdr.InStream;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
 /**
  * Handles compression and decompression of clipboard data.
+ * <p>
+ * Both directions work in chunks with a Deflater and an Inflater that are reset and reused for
+ * every message. Compressing converts line endings and encodes UTF-8 chunk by chunk, so the only
+ * full size allocation is the compressed result. Decompressing inflates straight from the input
+ * stream while it is read, into an array sized from the length prefix of the payload.
+ * <p>
+ * Compression runs on the clipboard writer thread and decompression on the protocol thread, and
+ * each direction has its own buffers, so the two may run at the same time.
  */
 public class ClipboardDataProcessor {
     private static final String TAG = "ClipboardDataProcessor";
+    private static final int CHUNK_SIZE = 16384;
+    private static final int MAX_RETAINED_OUTPUT_SIZE = 1024 * 1024;
+
+    // Used only for compressing.
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final byte[] encodeBuf = new byte[CHUNK_SIZE];
+    private byte[] deflateBuf = new byte[CHUNK_SIZE];
+    private int deflatedLength;
+
+    // Used only for decompressing.
+    private final Inflater inflater = new Inflater();
+    private final byte[] inflateInputBuf = new byte[CHUNK_SIZE];
+    private int compressedRemaining;
 
     /**
      * Compresses clipboard text using zlib compression with UTF-8 encoding.
-     * Applies CRLF line ending conversion before compression.
+     * Converts line endings to CRLF while compressing.
      *
      * @param text The text to compress
      * @return Compressed data ready for transmission
@@ -52,117 +73,218 @@ public class ClipboardDataProcessor {
             throw new IllegalArgumentException("Clipboard text cannot be null");
         }
 
-        String textWithCRLF = Utils.convertCRLF(text);
-        byte[] textBytes = encodeToUTF8(textWithCRLF);
+        deflater.reset();
+        deflatedLength = 0;
 
-        return compressWithZlib(textBytes);
-    }
+        // Format: 4-byte length + UTF-8 text + null terminator
+        int textLength = encodedLength(text) + 1;
+        encodeBuf[0] = (byte) (textLength >> 24);
+        encodeBuf[1] = (byte) (textLength >> 16);
+        encodeBuf[2] = (byte) (textLength >> 8);
+        encodeBuf[3] = (byte) textLength;
+        int pos = 4;
 
-    /**
-     * Decompresses and parses clipboard data received from server.
-     * Handles Z_STREAM_END for QEMU server compatibility.
-     *
-     * @param compressedData The compressed data to decompress
-     * @return Decompressed clipboard text with LF line endings, or null if parsing failed
-     * @throws DataFormatException if decompression fails
-     */
-    public String decompressClipboardText(byte[] compressedData) throws DataFormatException {
-        if (compressedData == null || compressedData.length == 0) {
-            Log.w(TAG, "Empty compressed data");
-            return null;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            // Leave room for the longest encoding of one character, or of CR LF.
+            if (pos > CHUNK_SIZE - 4) {
+                deflate(pos);
+                pos = 0;
+            }
+            char c = text.charAt(i);
+            if (c == '\r' || c == '\n') {
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                encodeBuf[pos++] = '\r';
+                encodeBuf[pos++] = '\n';
+            } else if (c < 0x80) {
+                encodeBuf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                encodeBuf[pos++] = (byte) (0xc0 | c >> 6);
+                encodeBuf[pos++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                encodeBuf[pos++] = (byte) (0xf0 | cp >> 18);
+                encodeBuf[pos++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                encodeBuf[pos++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                encodeBuf[pos++] = (byte) (0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced like String.getBytes() does.
+                encodeBuf[pos++] = '?';
+            } else {
+                encodeBuf[pos++] = (byte) (0xe0 | c >> 12);
+                encodeBuf[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+                encodeBuf[pos++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        encodeBuf[pos++] = 0; // null terminator
+        deflate(pos);
+
+        deflater.finish();
+        while (!deflater.finished()) {
+            drainDeflater();
         }
 
-        byte[] decompressed = decompressWithZlib(compressedData);
-        return parseDecompressedData(decompressed);
+        byte[] result = Arrays.copyOf(deflateBuf, deflatedLength);
+        if (deflateBuf.length > MAX_RETAINED_OUTPUT_SIZE) {
+            deflateBuf = new byte[CHUNK_SIZE];
+        }
+        return result;
     }
 
     /**
-     * Compresses data using zlib with proper framing for Extended Clipboard protocol.
-     * Format: 4-byte length + UTF-8 text + null terminator
+     * Returns the length in bytes of the text encoded as UTF-8 with CRLF line endings.
      */
-    private byte[] compressWithZlib(byte[] textBytes) throws IOException {
-        MemOutStream mos = new MemOutStream();
-        ZlibOutStream zos = new ZlibOutStream();
-
-        try {
-            zos.setUnderlying(mos);
-
-            zos.writeU32(textBytes.length + 1);
-            zos.writeBytes(textBytes, 0, textBytes.length);
-            zos.writeU8(0); // null terminator
+    private static int encodedLength(String text) {
+        int encoded = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\r' || c == '\n') {
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                encoded += 2;
+            } else if (c < 0x80) {
+                encoded += 1;
+            } else if (c < 0x800) {
+                encoded += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                i++;
+                encoded += 4;
+            } else if (Character.isSurrogate(c)) {
+                encoded += 1;
+            } else {
+                encoded += 3;
+            }
+        }
+        return encoded;
+    }
 
-            zos.flush();
+    private void deflate(int length) {
+        deflater.setInput(encodeBuf, 0, length);
+        while (!deflater.needsInput()) {
+            drainDeflater();
+        }
+    }
 
-            byte[] result = new byte[mos.length()];
-            System.arraycopy(mos.data(), 0, result, 0, mos.length());
-            return result;
-        } finally {
-            zos.close();
+    private void drainDeflater() {
+        if (deflatedLength == deflateBuf.length) {
+            deflateBuf = Arrays.copyOf(deflateBuf, deflateBuf.length * 2);
         }
+        deflatedLength += deflater.deflate(deflateBuf, deflatedLength, deflateBuf.length - deflatedLength);
     }
 
     /**
-     * Decompresses zlib-compressed data.
-     * Handles Z_STREAM_END for servers that close stream after each transfer (QEMU).
+     * Decompresses and parses the UTF-8 clipboard data of a provide message while reading it from
+     * the stream. Exactly compressedLength bytes are consumed from the stream, unless it throws.
+     * Handles Z_STREAM_END for QEMU server compatibility.
+     *
+     * @param is               The stream positioned at the compressed data
+     * @param compressedLength Length of the compressed data
+     * @return Decompressed clipboard text with LF line endings, or null if parsing failed
+     * @throws IOException         if reading the stream fails
+     * @throws DataFormatException if decompression fails
      */
-    private byte[] decompressWithZlib(byte[] compressedData) throws DataFormatException {
-        Inflater inflater = new Inflater();
-        try {
-            inflater.setInput(compressedData);
+    public String decompressClipboardText(InStream is, int compressedLength) throws IOException, DataFormatException {
+        if (compressedLength <= 0) {
+            Log.w(TAG, "Empty compressed data");
+            return null;
+        }
 
-            byte[] decompressed = new byte[MAX_DECOMPRESSED_SIZE];
-            int decompressedLen = inflater.inflate(decompressed);
+        inflater.reset();
+        compressedRemaining = compressedLength;
+        try {
+            // Format: 4-byte length (big-endian) + UTF-8 text + null terminator
+            byte[] header = new byte[4];
+            if (inflateFromStream(is, header, 0, 4) < 4) {
+                Log.w(TAG, "Decompressed data too short");
+                return null;
+            }
+            int textLen = readBigEndianInt32(header, 0);
 
-            // Z_STREAM_END handling
-            if (decompressedLen == 0 && !inflater.finished()) {
-                throw new DataFormatException("Decompression produced no data");
+            // Validate text length
+            if (textLen <= 0 || textLen > MAX_DECOMPRESSED_SIZE) {
+                Log.w(TAG, "Invalid clipboard text length: " + textLen);
+                return null;
             }
 
-            byte[] result = new byte[decompressedLen];
-            System.arraycopy(decompressed, 0, result, 0, decompressedLen);
-            return result;
+            byte[] text = new byte[textLen];
+            int decompressedLen = inflateFromStream(is, text, 0, textLen);
+
+            // textLen includes null terminator, which a truncated stream may not reach
+            int actualTextLen = decompressedLen;
+            if (actualTextLen > 0 && text[actualTextLen - 1] == 0) {
+                actualTextLen--;
+            }
+            actualTextLen = convertLF(text, actualTextLen);
+            return new String(text, 0, actualTextLen, StandardCharsets.UTF_8);
         } finally {
-            inflater.end();
+            // Other formats, if any, follow the text and are not used.
+            skipCompressed(is);
         }
     }
 
     /**
-     * Parses decompressed clipboard data.
-     * Format: 4-byte length (big-endian) + UTF-8 text + null terminator
+     * Inflates up to length bytes, reading compressed data from the stream as the inflater needs
+     * it. Returns fewer bytes if the compressed data or the zlib stream ends first.
      */
-    private String parseDecompressedData(byte[] data) {
-        if (data.length < 4) {
-            Log.w(TAG, "Decompressed data too short");
-            return null;
-        }
-
-        int textLen = readBigEndianInt32(data, 0);
-
-        // Validate text length
-        if (textLen <= 0 || textLen > data.length - 4) {
-            Log.w(TAG, "Invalid clipboard text length: " + textLen);
-            return null;
+    private int inflateFromStream(InStream is, byte[] out, int offset, int length) throws IOException, DataFormatException {
+        int produced = 0;
+        while (produced < length) {
+            int n = inflater.inflate(out, offset + produced, length - produced);
+            produced += n;
+            if (n > 0) {
+                continue;
+            }
+            if (inflater.finished()) {
+                // Z_STREAM_END, sent by servers that close the stream after each transfer.
+                break;
+            }
+            if (inflater.needsDictionary()) {
+                throw new DataFormatException("Clipboard data needs a preset dictionary");
+            }
+            if (inflater.needsInput()) {
+                if (compressedRemaining == 0) {
+                    break;
+                }
+                int chunk = Math.min(compressedRemaining, inflateInputBuf.length);
+                is.readBytes(inflateInputBuf, 0, chunk);
+                compressedRemaining -= chunk;
+                inflater.setInput(inflateInputBuf, 0, chunk);
+            }
         }
-
-        // textLen includes null terminator, so subtract 1 for actual text
-        int actualTextLen = Math.min(textLen - 1, data.length - 4);
-        String text = decodeFromUTF8(data, 4, actualTextLen);
-
-        return Utils.convertLF(text);
+        return produced;
     }
 
-    /**
-     * Encodes string to UTF-8 bytes.
-     */
-    private byte[] encodeToUTF8(String text) {
-        return text.getBytes(StandardCharsets.UTF_8);
+    private void skipCompressed(InStream is) throws IOException {
+        while (compressedRemaining > 0) {
+            int chunk = Math.min(compressedRemaining, inflateInputBuf.length);
+            is.readBytes(inflateInputBuf, 0, chunk);
+            compressedRemaining -= chunk;
+        }
     }
 
     /**
-     * Decodes UTF-8 bytes to string.
+     * Converts CRLF and CR line endings to LF in place and returns the new length. Both are ASCII,
+     * so this is safe on UTF-8 data.
      */
-    private String decodeFromUTF8(byte[] data, int offset, int length) {
-        return new String(data, offset, length, StandardCharsets.UTF_8);
+    private static int convertLF(byte[] data, int length) {
+        int out = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = data[i];
+            if (b == '\r') {
+                if (i + 1 < length && data[i + 1] == '\n') {
+                    i++;
+                }
+                b = '\n';
+            }
+            data[out++] = b;
+        }
+        return out;
     }
 
     /**
@@ -33,12 +33,23 @@ import android.util.Log;
 import com.tigervnc.rdr.InStream;
 
 import java.io.IOException;
+import java.util.zip.DataFormatException;
 
 /**
  * Reads and parses Extended Clipboard protocol messages.
  */
 public class ClipboardMessageReader {
     private static final String TAG = "ClipboardMessageReader";
+    private static final int SKIP_CHUNK_SIZE = 4096;
+
+    private final ClipboardDataProcessor dataProcessor;
+
+    /**
+     * @param dataProcessor Decompresses the data of provide messages while they are read
+     */
+    public ClipboardMessageReader(ClipboardDataProcessor dataProcessor) {
+        this.dataProcessor = dataProcessor;
+    }
 
     /**
      * Reads and parses an Extended Clipboard message from the input stream.
@@ -56,14 +67,6 @@ public class ClipboardMessageReader {
             throw new IOException("Malformed Extended Clipboard message: length too short");
         }
 
-        // Check size limit (bug fix from TurboVNC commit 28e27192)
-        if (len > MAX_MESSAGE_SIZE) {
-            Log.e(TAG, "Ignoring " + len + "-byte Extended Clipboard message (limit = " +
-                    MAX_MESSAGE_SIZE + " bytes)");
-            skipBytes(is, len);
-            return new ClipboardMessage(ClipboardMessage.Type.UNKNOWN, 0, null);
-        }
-
         // Read flags
         int flags;
         try {
@@ -78,24 +81,52 @@ public class ClipboardMessageReader {
         Log.d(TAG, "Extended Clipboard: len=" + len + ", flags=0x" + Integer.toHexString(flags) +
                 ", action=0x" + Integer.toHexString(action) + ", remainingLen=" + remainingLen);
 
+        // Provide messages are streamed through the decompressor and never held whole.
+        if (action == ACTION_PROVIDE) {
+            return readProvideMessage(is, flags, remainingLen);
+        }
+
+        // Check size limit (bug fix from TurboVNC commit 28e27192)
+        if (len > MAX_MESSAGE_SIZE) {
+            Log.e(TAG, "Ignoring " + len + "-byte Extended Clipboard message (limit = " +
+                    MAX_MESSAGE_SIZE + " bytes)");
+            skipBytes(is, remainingLen);
+            return new ClipboardMessage(ClipboardMessage.Type.UNKNOWN, 0, null, null);
+        }
+
         // Determine message type and read data if needed
         if ((action & ACTION_CAPS) != 0) {
             byte[] data = readRemainingData(is, remainingLen);
-            return new ClipboardMessage(ClipboardMessage.Type.CAPS, flags, data);
-        } else if (action == ACTION_PROVIDE) {
-            byte[] data = readRemainingData(is, remainingLen);
-            return new ClipboardMessage(ClipboardMessage.Type.PROVIDE, flags, data);
+            return new ClipboardMessage(ClipboardMessage.Type.CAPS, flags, data, null);
         } else if (action == ACTION_NOTIFY) {
             byte[] data = readRemainingData(is, remainingLen);
-            return new ClipboardMessage(ClipboardMessage.Type.NOTIFY, flags, data);
+            return new ClipboardMessage(ClipboardMessage.Type.NOTIFY, flags, data, null);
         } else if (action == ACTION_REQUEST) {
             byte[] data = readRemainingData(is, remainingLen);
-            return new ClipboardMessage(ClipboardMessage.Type.REQUEST, flags, data);
+            return new ClipboardMessage(ClipboardMessage.Type.REQUEST, flags, data, null);
         } else {
             // Unknown action, skip remaining data
             skipBytes(is, remainingLen);
-            return new ClipboardMessage(ClipboardMessage.Type.UNKNOWN, flags, null);
+            return new ClipboardMessage(ClipboardMessage.Type.UNKNOWN, flags, null, null);
+        }
+    }
+
+    /**
+     * Reads a provide message, decompressing its UTF-8 text while the data is read.
+     */
+    private ClipboardMessage readProvideMessage(InStream is, int flags, int length) throws IOException {
+        if ((flags & FORMAT_UTF8) == 0) {
+            skipBytes(is, length);
+            return new ClipboardMessage(ClipboardMessage.Type.PROVIDE, flags, null, null);
+        }
+        String text = null;
+        try {
+            text = dataProcessor.decompressClipboardText(is, length);
+        } catch (DataFormatException e) {
+            // The rest of the message has been skipped, so the session can go on.
+            Log.e(TAG, "Failed to decompress clipboard data: " + e);
         }
+        return new ClipboardMessage(ClipboardMessage.Type.PROVIDE, flags, null, text);
     }
 
     /**
@@ -132,18 +163,23 @@ public class ClipboardMessageReader {
             return;
         }
 
-        byte[] skip = new byte[numBytes];
+        byte[] skip = new byte[Math.min(numBytes, SKIP_CHUNK_SIZE)];
         try {
-            is.readBytes(skip, 0, numBytes);
+            while (numBytes > 0) {
+                int chunk = Math.min(numBytes, skip.length);
+                is.readBytes(skip, 0, chunk);
+                numBytes -= chunk;
+            }
         } catch (Exception e) {
             throw new IOException("Failed to skip bytes", e);
         }
     }
 
     /**
-     * Result of parsing a clipboard message.
+     * Result of parsing a clipboard message. Provide messages carry the decompressed UTF-8 text
+     * instead of data, or null if there was none.
      */
-    public record ClipboardMessage(Type type, int flags, byte[] data) {
+    public record ClipboardMessage(Type type, int flags, byte[] data, String text) {
         public boolean hasUTF8Format() {
             return (flags & FORMAT_UTF8) != 0;
         }
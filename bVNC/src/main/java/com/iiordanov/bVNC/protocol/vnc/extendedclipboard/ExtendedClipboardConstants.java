@@ -30,8 +30,9 @@ public final class ExtendedClipboardConstants {
     public static final int ACTION_REQUEST = 1 << 25;
     public static final int ACTION_NOTIFY = 1 << 27;
     public static final int ACTION_PROVIDE = 1 << 28;
+    // Limit for messages read whole. Provide messages are decompressed while they are read.
     public static final int MAX_MESSAGE_SIZE = 65536;
-    public static final int MAX_DECOMPRESSED_SIZE = 131072;
+    public static final int MAX_DECOMPRESSED_SIZE = 32 * 1024 * 1024;
     private ExtendedClipboardConstants() {
     }
 }
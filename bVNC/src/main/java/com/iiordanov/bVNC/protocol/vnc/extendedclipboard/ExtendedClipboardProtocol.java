@@ -31,7 +31,6 @@ import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.zip.DataFormatException;
 
 /**
  * Implementation of Extended Clipboard protocol.
@@ -73,9 +72,9 @@ public class ExtendedClipboardProtocol implements ExtendedClipboardHandler {
             throw new IllegalArgumentException("ClipboardCallback cannot be null");
         }
 
-        this.messageReader = new ClipboardMessageReader();
-        this.messageWriter = new ClipboardMessageWriter(outputStream, writeLock);
         this.dataProcessor = new ClipboardDataProcessor();
+        this.messageReader = new ClipboardMessageReader(dataProcessor);
+        this.messageWriter = new ClipboardMessageWriter(outputStream, writeLock);
         this.callback = callback;
         this.enabled = false;
         this.pendingClipboardText = null;
@@ -266,23 +265,12 @@ public class ExtendedClipboardProtocol implements ExtendedClipboardHandler {
             return;
         }
 
-        if (message.data() == null || message.data().length == 0) {
-            Log.w(TAG, "Server provided empty clipboard data");
-            return;
-        }
-
-        Log.d(TAG, "Server provided clipboard data, decompressing");
-
-        try {
-            String clipboardText = dataProcessor.decompressClipboardText(message.data());
-
-            if (clipboardText != null && !clipboardText.isEmpty()) {
-                callback.onClipboardReceived(clipboardText);
-            } else {
-                Log.w(TAG, "Decompressed clipboard text is empty");
-            }
-        } catch (DataFormatException e) {
-            callback.onClipboardError("Failed to decompress clipboard data", e);
+        String clipboardText = message.text();
+        if (clipboardText != null && !clipboardText.isEmpty()) {
+            Log.d(TAG, "Server provided clipboard data, length: " + clipboardText.length());
+            callback.onClipboardReceived(clipboardText);
+        } else {
+            Log.w(TAG, "Decompressed clipboard text is empty");
         }
     }
 }
@@ -1,55 +1,210 @@
 package com.tigervnc.rdr;
 
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
+/**
+ * Buffered InStream over a socket InputStream.
+ * <p>
+ * Small reads (message headers, rectangle headers, compact lengths, Hextile subrects) are served
+ * from an internal buffer which is refilled in bulk, so they do not each turn into a read on the
+ * underlying stream. Reads larger than the buffer drain what is buffered and then read the rest
+ * directly into the caller's array.
+ * <p>
+ * The number of reads issued on the underlying stream, the bytes they returned and the time spent
+ * in them are counted so that the cost per framebuffer update can be observed.
+ * <p>
+ * Once the connection is in the normal protocol phase, {@link #startReadAhead()} moves socket
+ * reads onto a separate thread so the socket keeps being drained while rectangles are decoded.
+ */
 public class RawInStream extends InStream {
-    DataInputStream is;
+    private static final int DEFAULT_BUF_SIZE = 65536;
+    private static final int READ_AHEAD_CHUNK_SIZE = 32768;
+    private static final int READ_AHEAD_CHUNK_COUNT = 16;
+
+    private InputStream is;
+    private ReadAheadInputStream readAhead;
+    private final int bufSize;
+    private long readCount;
+    private long bytesRead;
+    private long readNanos;
 
     public RawInStream(InputStream is) {
-        this.is = new DataInputStream(is);
+        this(is, DEFAULT_BUF_SIZE);
+    }
+
+    public RawInStream(InputStream is, int bufSize) {
+        this.is = is;
+        this.bufSize = bufSize;
+        b = new byte[bufSize];
+        ptr = end = 0;
     }
 
     @Override
     protected int overrun(int itemSize, int nItems, boolean wait) throws IOException {
-        return itemSize * nItems;
+        if (itemSize > bufSize)
+            throw new IOException("RawInStream overrun: max itemSize exceeded");
+
+        if (end - ptr != 0)
+            System.arraycopy(b, ptr, b, 0, end - ptr);
+
+        end -= ptr;
+        ptr = 0;
+
+        while (end < itemSize) {
+            if (!wait && is.available() == 0)
+                return 0;
+            end += fill(b, end, bufSize - end);
+        }
+
+        int nAvail = end / itemSize;
+        return Math.min(nAvail, nItems);
+    }
+
+    private int fill(byte[] buf, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int n = is.read(buf, off, len);
+        readNanos += System.nanoTime() - start;
+        if (n < 0)
+            throw new EOFException("RawInStream: end of stream");
+        if (readAhead == null)
+            readCount++;
+        bytesRead += n;
+        return n;
     }
 
+    @Override
     public void readBytes(ByteBuffer data, int length) throws IOException {
-        is.readFully(data.array(), 0, length);
+        if (!data.hasArray()) {
+            super.readBytes(data, length);
+            return;
+        }
+        int position = data.position();
+        readBytes(data.array(), data.arrayOffset() + position, length);
+        data.position(position + length);
     }
 
+    @Override
     public void readBytes(byte[] bytes, int off, int length) throws IOException {
-        is.readFully(bytes, off, length);
+        int buffered = Math.min(end - ptr, length);
+        if (buffered > 0) {
+            System.arraycopy(b, ptr, bytes, off, buffered);
+            ptr += buffered;
+            off += buffered;
+            length -= buffered;
+        }
+        if (length >= bufSize) {
+            // Large payloads bypass the buffer to avoid copying them twice.
+            while (length > 0) {
+                int n = fill(bytes, off, length);
+                off += n;
+                length -= n;
+            }
+            return;
+        }
+        if (length > 0) {
+            check(length);
+            System.arraycopy(b, ptr, bytes, off, length);
+            ptr += length;
+        }
+    }
+
+    @Override
+    public void readBytes(byte[] bytes) throws IOException {
+        readBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns an InputStream which first yields any bytes still buffered here and then reads from
+     * the underlying stream. Used when a security handshake continues on the raw socket streams.
+     */
+    public InputStream getUnderlyingStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (ptr < end)
+                    return b[ptr++] & 0xff;
+                return is.read();
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                if (ptr < end) {
+                    int n = Math.min(end - ptr, len);
+                    System.arraycopy(b, ptr, buf, off, n);
+                    ptr += n;
+                    return n;
+                }
+                return is.read(buf, off, len);
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (end - ptr) + is.available();
+            }
+        };
     }
 
-    public int readByte() throws IOException {
-        return is.readByte();
+    /**
+     * Starts draining the underlying stream on a separate thread. Must be called from the thread
+     * which reads from this stream, and only once no other party reads the raw socket any more.
+     */
+    public void startReadAhead() {
+        if (readAhead != null)
+            return;
+        readAhead = new ReadAheadInputStream(is, READ_AHEAD_CHUNK_SIZE, READ_AHEAD_CHUNK_COUNT);
+        is = readAhead;
     }
 
-    public int readShort() throws IOException {
-        return is.readShort();
+    /**
+     * Closes the underlying stream. With read-ahead running this also stops the read-ahead thread,
+     * which would otherwise wait forever for the consumer to free a chunk.
+     */
+    public void close() throws IOException {
+        // Once read-ahead has started, is is the read-ahead stream, which interrupts its thread
+        // and closes the source.
+        is.close();
     }
 
-    public int readInt() throws IOException {
-        return is.readInt();
+    /**
+     * Returns the read-ahead stream, or null if read-ahead has not been started.
+     */
+    public ReadAheadInputStream getReadAhead() {
+        return readAhead;
     }
 
-    public long readLong() throws Exception {
-        return is.readLong();
+    /**
+     * Returns the number of reads issued on the socket so far. With read-ahead running, reads done
+     * by the read-ahead thread are counted instead of hand-overs from its queue.
+     */
+    public long getReadCount() {
+        if (readAhead != null)
+            return readCount + readAhead.getSourceReadCount();
+        return readCount;
     }
 
-    public int readUnsignedByte() throws IOException {
-        return is.readUnsignedByte();
+    /**
+     * Returns the number of bytes returned by the underlying stream so far.
+     */
+    public long getBytesRead() {
+        return bytesRead;
     }
 
-    public int readUnsignedShort() throws IOException {
-        return is.readUnsignedShort();
+    /**
+     * Returns the number of bytes handed out to readers so far, i.e. read from the underlying
+     * stream and no longer buffered here.
+     */
+    public long getBytesConsumed() {
+        return bytesRead - (end - ptr);
     }
 
-    public int readUnsignedInt() throws IOException {
-        return is.readInt();
+    /**
+     * Returns the time spent waiting on the underlying stream so far, in nanoseconds. With
+     * read-ahead running, this is the time the reader found no data queued.
+     */
+    public long getReadNanos() {
+        return readNanos;
     }
 }
@@ -0,0 +1,182 @@
+package com.tigervnc.rdr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * InputStream which keeps draining its source on a dedicated thread while the consumer is busy,
+ * so that the TCP receive window does not fill up while a large rectangle is being decoded.
+ * <p>
+ * The reader thread fills a fixed pool of chunks and hands them over in order through a bounded
+ * queue. When every chunk is waiting to be consumed the reader blocks, which propagates
+ * back-pressure to the server through TCP flow control. Byte order is preserved exactly, so
+ * decoder state such as zlib streams and CopyRect ordering is unaffected.
+ */
+public class ReadAheadInputStream extends InputStream {
+    private static final String THREAD_NAME = "RfbReadAhead";
+
+    private final InputStream source;
+    private final BlockingQueue<Chunk> freeChunks;
+    private final BlockingQueue<Chunk> filledChunks;
+    private final Thread reader;
+    private Chunk current;
+    private volatile boolean closed;
+    private volatile long sourceReadCount;
+    private volatile long readerStallCount;
+    private volatile int maxQueueDepth;
+
+    public ReadAheadInputStream(InputStream source, int chunkSize, int chunkCount) {
+        this.source = source;
+        freeChunks = new ArrayBlockingQueue<>(chunkCount);
+        // One extra slot for the end-of-stream marker.
+        filledChunks = new ArrayBlockingQueue<>(chunkCount + 1);
+        for (int i = 0; i < chunkCount; i++) {
+            freeChunks.add(new Chunk(new byte[chunkSize]));
+        }
+        reader = new Thread(this::readLoop, THREAD_NAME);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readLoop() {
+        try {
+            while (!closed) {
+                Chunk chunk = freeChunks.poll();
+                if (chunk == null) {
+                    readerStallCount++;
+                    chunk = freeChunks.take();
+                }
+                int n = source.read(chunk.data, 0, chunk.data.length);
+                if (n < 0) {
+                    filledChunks.put(Chunk.END);
+                    return;
+                }
+                sourceReadCount++;
+                chunk.pos = 0;
+                chunk.len = n;
+                filledChunks.put(chunk);
+                int depth = filledChunks.size();
+                if (depth > maxQueueDepth) {
+                    maxQueueDepth = depth;
+                }
+            }
+        } catch (InterruptedException e) {
+            filledChunks.offer(Chunk.END);
+        } catch (IOException e) {
+            filledChunks.offer(new Chunk(e));
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (current != null) {
+            if (current.pos < current.len) {
+                return true;
+            }
+            freeChunks.offer(current);
+            current = null;
+        }
+        Chunk chunk;
+        try {
+            chunk = filledChunks.take();
+        } catch (InterruptedException e) {
+            throw new IOException("ReadAheadInputStream: interrupted", e);
+        }
+        if (chunk.error != null) {
+            filledChunks.offer(chunk);
+            throw new IOException(chunk.error);
+        }
+        if (chunk == Chunk.END) {
+            filledChunks.offer(chunk);
+            return false;
+        }
+        current = chunk;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        return current.data[current.pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(current.len - current.pos, len);
+        System.arraycopy(current.data, current.pos, buf, off, n);
+        current.pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        int available = current != null ? current.len - current.pos : 0;
+        for (Chunk chunk : filledChunks) {
+            available += chunk.len - chunk.pos;
+        }
+        return available;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        reader.interrupt();
+        source.close();
+    }
+
+    /**
+     * Returns the number of reads the reader thread has issued on the source.
+     */
+    public long getSourceReadCount() {
+        return sourceReadCount;
+    }
+
+    /**
+     * Returns the number of chunks read ahead and not yet consumed.
+     */
+    public int getQueueDepth() {
+        return filledChunks.size();
+    }
+
+    /**
+     * Returns the largest queue depth seen so far.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Returns how many times the reader had to wait for the consumer to free a chunk.
+     */
+    public long getReaderStallCount() {
+        return readerStallCount;
+    }
+
+    private static class Chunk {
+        static final Chunk END = new Chunk(new byte[0]);
+
+        final byte[] data;
+        final IOException error;
+        int pos;
+        int len;
+
+        Chunk(byte[] data) {
+            this.data = data;
+            this.error = null;
+        }
+
+        Chunk(IOException error) {
+            this.data = new byte[0];
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.tigervnc.rdr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * InStream which passes through the data of another InStream and records every chunk of it,
+ * together with the time it arrived, so that the session can be played back later with
+ * {@link ReplayInStream}.
+ * <p>
+ * Recordings start in the normal protocol phase, after any security layer has been set up, so
+ * they hold the decrypted server-to-client messages. The format is big-endian:
+ * <pre>
+ *   header: "RFBREC01", int framebufferWidth, int framebufferHeight, long startTimeMillis
+ *   record: int microsSincePreviousRecord, int length, byte[length] data
+ * </pre>
+ * A recording can be limited to a number of bytes in the file. Once the next record would go
+ * beyond it, the recording is finished and the rest of the stream is only passed through.
+ */
+public class RecordingInStream extends InStream {
+    static final byte[] MAGIC = "RFBREC01".getBytes(StandardCharsets.US_ASCII);
+    private static final int DEFAULT_BUF_SIZE = 65536;
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final InStream in;
+    private final DataOutputStream out;
+    private final int bufSize;
+    private final long maxBytes;
+    private long lastRecordNanos;
+    private long bytesRecorded;
+    private long bytesWritten;
+    private boolean recording = true;
+
+    public RecordingInStream(InStream in, OutputStream out, int framebufferWidth, int framebufferHeight)
+            throws IOException {
+        this(in, out, framebufferWidth, framebufferHeight, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBytes the size the recording file may grow to
+     */
+    public RecordingInStream(InStream in, OutputStream out, int framebufferWidth, int framebufferHeight,
+                             long maxBytes) throws IOException {
+        this.in = in;
+        this.maxBytes = maxBytes;
+        this.out = new DataOutputStream(new BufferedOutputStream(out, DEFAULT_BUF_SIZE));
+        this.bufSize = DEFAULT_BUF_SIZE;
+        b = new byte[bufSize];
+        ptr = end = 0;
+
+        this.out.write(MAGIC);
+        this.out.writeInt(framebufferWidth);
+        this.out.writeInt(framebufferHeight);
+        this.out.writeLong(System.currentTimeMillis());
+        bytesWritten = HEADER_SIZE;
+        lastRecordNanos = System.nanoTime();
+    }
+
+    @Override
+    protected int overrun(int itemSize, int nItems, boolean wait) throws IOException {
+        if (itemSize > bufSize)
+            throw new IOException("RecordingInStream overrun: max itemSize exceeded");
+
+        if (end - ptr != 0)
+            System.arraycopy(b, ptr, b, 0, end - ptr);
+
+        end -= ptr;
+        ptr = 0;
+
+        while (end < itemSize) {
+            int n = in.check(1, bufSize - end, wait);
+            if (n == 0)
+                return 0;
+            System.arraycopy(in.b, in.ptr, b, end, n);
+            in.ptr += n;
+            record(b, end, n);
+            end += n;
+        }
+
+        int nAvail = end / itemSize;
+        return Math.min(nAvail, nItems);
+    }
+
+    private void record(byte[] data, int off, int len) throws IOException {
+        if (!recording) {
+            return;
+        }
+        if (bytesWritten + RECORD_HEADER_SIZE + len > maxBytes) {
+            close();
+            return;
+        }
+        long now = System.nanoTime();
+        out.writeInt((int) ((now - lastRecordNanos) / 1000));
+        out.writeInt(len);
+        out.write(data, off, len);
+        lastRecordNanos = now;
+        bytesRecorded += len;
+        bytesWritten += RECORD_HEADER_SIZE + len;
+    }
+
+    /**
+     * Writes buffered recording data to the file, e.g. at the end of each framebuffer update, so
+     * a recording survives the process being killed.
+     */
+    public void flush() throws IOException {
+        if (recording) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Finishes the recording. The stream can still be read afterwards, but is no longer recorded.
+     */
+    public void close() throws IOException {
+        if (recording) {
+            recording = false;
+            out.close();
+        }
+    }
+
+    /**
+     * Returns false once the recording has been finished, either by {@link #close()} or because
+     * it reached its size limit.
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * Returns the number of server bytes recorded so far.
+     */
+    public long getBytesRecorded() {
+        return bytesRecorded;
+    }
+}
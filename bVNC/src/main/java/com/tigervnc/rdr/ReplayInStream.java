@@ -0,0 +1,110 @@
+package com.tigervnc.rdr;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+/**
+ * InStream which plays back a session recorded by {@link RecordingInStream}.
+ * <p>
+ * In real-time mode every recorded chunk is released when as much time has passed since the start
+ * of the replay as had passed when it arrived, which reproduces the pacing of the original
+ * session. Otherwise chunks are released as fast as they are consumed, which measures decoding
+ * throughput. The end of the recording surfaces as an EOFException, like a closed socket.
+ */
+public class ReplayInStream extends InStream {
+    private static final int DEFAULT_BUF_SIZE = 65536;
+
+    private final DataInputStream in;
+    private final boolean realTime;
+    private final int bufSize;
+    private final int framebufferWidth;
+    private final int framebufferHeight;
+    private int recordRemaining;
+    private long recordTimeMicros;
+    private long replayStartNanos;
+
+    public ReplayInStream(InputStream is, boolean realTime) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(is, DEFAULT_BUF_SIZE));
+        this.realTime = realTime;
+        this.bufSize = DEFAULT_BUF_SIZE;
+        b = new byte[bufSize];
+        ptr = end = 0;
+
+        byte[] magic = new byte[RecordingInStream.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, RecordingInStream.MAGIC))
+            throw new IOException("ReplayInStream: not an RFB session recording");
+        framebufferWidth = in.readInt();
+        framebufferHeight = in.readInt();
+        // Start time of the recording, only informative.
+        in.readLong();
+    }
+
+    @Override
+    protected int overrun(int itemSize, int nItems, boolean wait) throws IOException {
+        if (itemSize > bufSize)
+            throw new IOException("ReplayInStream overrun: max itemSize exceeded");
+
+        if (end - ptr != 0)
+            System.arraycopy(b, ptr, b, 0, end - ptr);
+
+        end -= ptr;
+        ptr = 0;
+
+        while (end < itemSize) {
+            if (recordRemaining == 0)
+                nextRecord();
+            int n = Math.min(recordRemaining, bufSize - end);
+            in.readFully(b, end, n);
+            end += n;
+            recordRemaining -= n;
+        }
+
+        int nAvail = end / itemSize;
+        return Math.min(nAvail, nItems);
+    }
+
+    private void nextRecord() throws IOException {
+        int deltaMicros;
+        try {
+            deltaMicros = in.readInt();
+        } catch (EOFException e) {
+            throw new EOFException("ReplayInStream: end of recording");
+        }
+        recordRemaining = in.readInt();
+        recordTimeMicros += deltaMicros;
+
+        if (!realTime)
+            return;
+        long now = System.nanoTime();
+        if (replayStartNanos == 0) {
+            replayStartNanos = now - recordTimeMicros * 1000;
+            return;
+        }
+        long sleepMillis = (replayStartNanos + recordTimeMicros * 1000 - now) / 1000000;
+        if (sleepMillis > 0) {
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("ReplayInStream: interrupted");
+            }
+        }
+    }
+
+    public int getFramebufferWidth() {
+        return framebufferWidth;
+    }
+
+    public int getFramebufferHeight() {
+        return framebufferHeight;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
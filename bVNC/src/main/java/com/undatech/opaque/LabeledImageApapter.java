@@ -22,8 +22,6 @@ package com.undatech.opaque;
 
 import android.app.Activity;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -37,6 +35,7 @@ import androidx.appcompat.widget.AppCompatImageView;
 
 import com.iiordanov.bVNC.Constants;
 import com.iiordanov.bVNC.Utils;
+import com.undatech.opaque.util.DesktopThumbnails;
 import com.undatech.remoteClientUi.R;
 
 import java.io.File;
@@ -52,6 +51,8 @@ public class LabeledImageApapter extends BaseAdapter {
     private int numCols = 2;
     private String defaultLabel = "Untitled";
     private boolean doNotShowDesktopThumbnails = false;
+    // Whether the grid is rebound once it has a width, since thumbnails are not loaded before.
+    private boolean rebindPosted = false;
 
     public LabeledImageApapter(Context context, Map<String, Connection> connectionsByPosition, String[] filter, int maxNumCols) {
         this.context = context;
@@ -107,18 +108,18 @@ public class LabeledImageApapter extends BaseAdapter {
         } else {
             textView.setText(label);
         }
-        String screenshotFilePath = context.getFilesDir() + "/" + c.getScreenshotFilename();
+        File screenshotFile = new File(context.getFilesDir(), c.getScreenshotFilename());
         AppCompatImageView imageView = gridView.findViewById(R.id.grid_item_image);
         if (doNotShowDesktopThumbnails) {
             imageView.setVisibility(View.GONE);
             lp.height = GridView.LayoutParams.WRAP_CONTENT;
         } else {
-            boolean screenshotExists = new File(screenshotFilePath).exists();
-            if (screenshotExists) {
-                Log.d(TAG, "Setting screenshot from file " + screenshotFilePath);
-                Bitmap gridImage = BitmapFactory.decodeFile(screenshotFilePath);
-                imageView.setImageBitmap(gridImage);
-            } else {
+            if (height <= 0 && !rebindPosted) {
+                rebindPosted = true;
+                gView.post(this::notifyDataSetChanged);
+            }
+            boolean screenshotExists = DesktopThumbnails.load(imageView, c.getId(), screenshotFile, height);
+            if (!screenshotExists) {
                 imageView.setImageResource(R.drawable.ic_screen_black_48dp);
                 imageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
             }
@@ -17,13 +17,30 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.security.auth.login.LoginException;
 
 public class ProxmoxClient extends RestClient {
     private static final int DEFAULT_PROXMOX_PORT = 8006;
+    public static final long DEFAULT_TASK_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+    private static final long MIN_POLL_INTERVAL_MILLIS = 100;
+    private static final long MAX_POLL_INTERVAL_MILLIS = 1000;
+
+    // Runs requests which do not depend on each other at the same time.
+    private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "ProxmoxClient");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final String baseUrl;
     private String ticket;
     private boolean perUserNeedTfa;
@@ -85,6 +102,22 @@ public class ProxmoxClient extends RestClient {
         }
     }
 
+    public String getTicket() {
+        return ticket;
+    }
+
+    public String getCsrfToken() {
+        return csrfToken;
+    }
+
+    /**
+     * Uses a ticket obtained earlier instead of logging in.
+     */
+    public void setTicket(String ticket, String csrfToken) {
+        this.ticket = ticket;
+        this.csrfToken = csrfToken;
+    }
+
     private void addRegularAuthParams(String user, String password, String realm) {
         addUserAndPassword(user, password);
         addParam("realm", realm);
@@ -227,6 +260,67 @@ public class ProxmoxClient extends RestClient {
         return new VmStatus(jObj.getJSONObject("data"));
     }
 
+    /**
+     * Waits for a task, such as the one startVm() returns, to finish. Its status is polled at
+     * increasing intervals, starting short since starting a VM often takes only a moment.
+     *
+     * @param node          the name of the PVE node running the task
+     * @param upid          the ID of the task
+     * @param timeoutMillis how long to wait at most
+     * @throws HttpException if the task failed
+     * @throws IOException   if the task did not finish in time
+     */
+    public void waitForTask(String node, String upid, long timeoutMillis)
+            throws LoginException, JSONException, IOException, HttpException {
+        long deadline = System.nanoTime() / 1000000L + timeoutMillis;
+        long interval = MIN_POLL_INTERVAL_MILLIS;
+        while (true) {
+            JSONObject jObj = request("/nodes/" + node + "/tasks/" + URLEncoder.encode(upid, "UTF-8") + "/status",
+                    RestClient.RequestMethod.GET, null);
+            JSONObject data = jObj.getJSONObject("data");
+            if ("stopped".equals(data.optString("status"))) {
+                String exitStatus = data.optString("exitstatus");
+                if (!"OK".equals(exitStatus)) {
+                    throw new HttpException("Task " + upid + " failed: " + exitStatus);
+                }
+                return;
+            }
+            if (System.nanoTime() / 1000000L + interval > deadline) {
+                throw new IOException("Timed out waiting for task " + upid);
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for task " + upid);
+            }
+            interval = Math.min(interval * 2, MAX_POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Runs a request on another thread, so that it can proceed at the same time as others.
+     */
+    public <T> Future<T> submit(Callable<T> request) {
+        return executor.submit(request);
+    }
+
+    /**
+     * Waits for a request started with submit() and returns its result, throwing what the
+     * request threw.
+     */
+    public static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
     /**
      * Shows what resources are currently available on the PVE cluster
      *
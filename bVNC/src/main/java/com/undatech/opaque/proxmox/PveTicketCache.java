@@ -0,0 +1,86 @@
+package com.undatech.opaque.proxmox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps PVE authentication tickets between connections made by this process, so that
+ * reconnecting to a cluster within the lifetime of a ticket skips fetching realms and logging in.
+ * <p>
+ * A ticket grants the same access as the password it was obtained with, so tickets are only kept
+ * in memory and never written to storage. PVE tickets are valid for two hours. A ticket is reused
+ * for {@link #MAX_AGE_MILLIS} after it was obtained, measured with the local clock so that clock
+ * skew with the cluster does not matter, and dropped when the cluster rejects it.
+ */
+public class PveTicketCache {
+    static final long MAX_AGE_MILLIS = 90 * 60 * 1000L;
+
+    private static final PveTicketCache shared = new PveTicketCache();
+
+    private final Map<String, Entry> tickets = new HashMap<>();
+
+    /**
+     * Returns the cache used by connections.
+     */
+    public static PveTicketCache getShared() {
+        return shared;
+    }
+
+    private static String key(ProxmoxClient api, String user, String realm) {
+        return api.getApiUrl() + "/" + user + "@" + realm;
+    }
+
+    /**
+     * Returns the current time in milliseconds. Tests override it to age tickets.
+     */
+    long now() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * Gives the client the cached ticket of the user, if there is one young enough.
+     *
+     * @return true if the client was given a ticket
+     */
+    public synchronized boolean restore(ProxmoxClient api, String user, String realm) {
+        String key = key(api, user, realm);
+        Entry entry = tickets.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (now() - entry.obtained < MAX_AGE_MILLIS) {
+            api.setTicket(entry.ticket, entry.csrfToken);
+            return true;
+        }
+        tickets.remove(key);
+        return false;
+    }
+
+    /**
+     * Caches the ticket the client obtained by logging in as the user.
+     */
+    public synchronized void save(ProxmoxClient api, String user, String realm) {
+        if (api.getTicket() != null && api.getCsrfToken() != null) {
+            tickets.put(key(api, user, realm), new Entry(api.getTicket(), api.getCsrfToken(), now()));
+        }
+    }
+
+    /**
+     * Forgets the ticket of the user, for instance after the cluster rejected it.
+     */
+    public synchronized void remove(ProxmoxClient api, String user, String realm) {
+        tickets.remove(key(api, user, realm));
+    }
+
+    private static class Entry {
+        final String ticket;
+        final String csrfToken;
+        final long obtained;
+
+        Entry(String ticket, String csrfToken, long obtained) {
+            this.ticket = ticket;
+            this.csrfToken = csrfToken;
+            this.obtained = obtained;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.undatech.opaque.proxmox;
 
 import android.annotation.SuppressLint;
-import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Base64;
@@ -19,6 +18,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -29,32 +29,43 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Locale;
 
+import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 // Original examples (adapter to use HttpURLConnection) taken from:
 // http://lukencode.com/2010/04/27/calling-web-services-in-android-using-httpclient\
+//
+// The state of a request, from resetState() to getResponse(), is kept per thread, so requests
+// may be made from several threads at once. Connections are left open for HttpURLConnection to
+// reuse, which it only does for connections made with the same SSLSocketFactory, so the factory
+// is kept until the accepted certificate changes.
 public class RestClient {
     public static final String TAG = "RestClient";
     private static final int TIMEOUT_MS = 60 * 1000; // 60 seconds
-    protected ArrayList<Parameter> params;
-    private ArrayList<Parameter> headers;
-    private int responseCode;
-    private String message;
-    private String response;
+    // Accept all hostnames for custom certificate handling
+    private static final HostnameVerifier ACCEPT_ALL_HOSTNAMES = (hostname, session) -> true;
+    private final ThreadLocal<RequestState> state = new ThreadLocal<RequestState>() {
+        @Override
+        protected RequestState initialValue() {
+            return new RequestState();
+        }
+    };
+    private SSLSocketFactory sslSocketFactory;
+    private String sslSocketFactoryCert;
     protected Connection connection;
     protected final Handler handler;
-    private String url;
     private final String host;
-    private final Uri uri;
+    private final URL uri;
     private final int port;
 
     public RestClient(Connection connection, Handler handler, int defaultPort) {
         this.connection = connection;
         this.handler = handler;
-        this.uri = Uri.parse(getUriToParse());
+        this.uri = parseUrl(getUriToParse());
         this.port = getApiPort(defaultPort);
         this.host = uri.getHost();
     }
@@ -67,9 +78,21 @@ public class RestClient {
         return port;
     }
 
+    /**
+     * Parses the address with java.net.URL rather than android.net.Uri, which keeps the client
+     * usable in JVM unit tests.
+     */
+    private static URL parseUrl(String address) {
+        try {
+            return new URL(address);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid API address: " + address, e);
+        }
+    }
+
     @NonNull
     public String getApiUrl() {
-        return String.format(Locale.US, "%s://%s:%d", uri.getScheme(), host, port);
+        return String.format(Locale.US, "%s://%s:%d", uri.getProtocol(), host, port);
     }
 
     @NonNull
@@ -114,30 +137,27 @@ public class RestClient {
     }
 
     public String getErrorMessage() {
-        return message;
+        return state.get().message;
     }
 
     public String getResponse() {
-        return response;
+        return state.get().response;
     }
 
     public int getResponseCode() {
-        return responseCode;
+        return state.get().responseCode;
     }
 
     public void resetState(String url) {
-        this.url = url;
-        setupSSLConfiguration();
-        params = new ArrayList<>();
-        headers = new ArrayList<>();
+        state.get().reset(url);
     }
 
     public void addHeader(String name, String value) {
-        headers.add(new Parameter(name, value));
+        state.get().headers.add(new Parameter(name, value));
     }
 
     public void addParam(String name, String value) {
-        params.add(new Parameter(name, value));
+        state.get().params.add(new Parameter(name, value));
     }
 
     public void execute(RequestMethod method) throws IOException {
@@ -152,6 +172,7 @@ public class RestClient {
     }
 
     private void executeGet() throws IOException {
+        ArrayList<Parameter> params = state.get().params;
         StringBuilder queryString = new StringBuilder();
         if (!params.isEmpty()) {
             queryString.append("?");
@@ -166,7 +187,7 @@ public class RestClient {
             }
         }
 
-        URL requestUrl = new URL(url + queryString);
+        URL requestUrl = new URL(state.get().url + queryString);
         HttpURLConnection connection = createConnection(requestUrl);
         connection.setRequestMethod("GET");
         addHeaders(connection);
@@ -174,13 +195,13 @@ public class RestClient {
     }
 
     private void executePost() throws IOException {
-        URL requestUrl = new URL(url);
+        URL requestUrl = new URL(state.get().url);
         HttpURLConnection connection = createConnection(requestUrl);
         connection.setRequestMethod("POST");
         connection.setDoOutput(true);
         addHeaders(connection);
 
-        if (!params.isEmpty()) {
+        if (!state.get().params.isEmpty()) {
             connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
             String postData = buildPostData();
             try (OutputStream os = connection.getOutputStream()) {
@@ -195,7 +216,13 @@ public class RestClient {
     private HttpURLConnection createConnection(URL url) throws IOException {
         HttpURLConnection connection;
         if (url.getProtocol().equals("https")) {
-            connection = (HttpsURLConnection) url.openConnection();
+            HttpsURLConnection httpsConnection = (HttpsURLConnection) url.openConnection();
+            SSLSocketFactory factory = getSslSocketFactory();
+            if (factory != null) {
+                httpsConnection.setSSLSocketFactory(factory);
+                httpsConnection.setHostnameVerifier(ACCEPT_ALL_HOSTNAMES);
+            }
+            connection = httpsConnection;
         } else {
             connection = (HttpURLConnection) url.openConnection();
         }
@@ -206,12 +233,13 @@ public class RestClient {
     }
 
     private void addHeaders(HttpURLConnection connection) {
-        for (Parameter header : headers) {
+        for (Parameter header : state.get().headers) {
             connection.setRequestProperty(header.getName(), header.getValue());
         }
     }
 
     private String buildPostData() throws IOException {
+        ArrayList<Parameter> params = state.get().params;
         StringBuilder postData = new StringBuilder();
         for (int i = 0; i < params.size(); i++) {
             Parameter param = params.get(i);
@@ -225,41 +253,71 @@ public class RestClient {
         return postData.toString();
     }
 
+    /**
+     * Reads the whole response, which lets HttpURLConnection reuse the connection for the next
+     * request. The connection is only closed if the response could not be read.
+     */
     private void executeRequest(HttpURLConnection connection) throws IOException {
+        RequestState s = state.get();
+        boolean read = false;
         try {
-            responseCode = connection.getResponseCode();
-            message = connection.getResponseMessage();
+            s.responseCode = connection.getResponseCode();
+            s.message = connection.getResponseMessage();
 
             InputStream inputStream;
-            if (responseCode >= 200 && responseCode < 300) {
+            if (s.responseCode >= 200 && s.responseCode < 300) {
                 inputStream = connection.getInputStream();
             } else {
                 inputStream = connection.getErrorStream();
             }
 
             if (inputStream != null) {
-                response = convertStreamToString(inputStream);
+                s.response = convertStreamToString(inputStream);
+                read = true;
             }
         } finally {
-            connection.disconnect();
+            if (!read) {
+                connection.disconnect();
+            }
         }
     }
 
-    private void setupSSLConfiguration() {
-        try {
-            String certString = connection.getX509KeySignature().trim();
-            CustomTrustManager trustManager = new CustomTrustManager(certString, handler);
-
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, new TrustManager[]{trustManager}, null);
-
-            HttpsURLConnection.setDefaultSSLSocketFactory(sslContext.getSocketFactory());
-            HttpsURLConnection.setDefaultHostnameVerifier((hostname, session) -> {
-                // Accept all hostnames for custom certificate handling
-                return true;
-            });
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to setup SSL configuration", e);
+    /**
+     * Returns the socket factory trusting the certificate accepted for the connection, creating
+     * it again only when a different certificate has been accepted since.
+     */
+    private synchronized SSLSocketFactory getSslSocketFactory() {
+        String certString = connection.getX509KeySignature().trim();
+        if (sslSocketFactory == null || !certString.equals(sslSocketFactoryCert)) {
+            try {
+                CustomTrustManager trustManager = new CustomTrustManager(certString, handler);
+
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(null, new TrustManager[]{trustManager}, null);
+                sslSocketFactory = sslContext.getSocketFactory();
+                sslSocketFactoryCert = certString;
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to setup SSL configuration", e);
+            }
+        }
+        return sslSocketFactory;
+    }
+
+    private static class RequestState {
+        ArrayList<Parameter> params = new ArrayList<>();
+        ArrayList<Parameter> headers = new ArrayList<>();
+        int responseCode;
+        String message;
+        String response;
+        String url;
+
+        void reset(String url) {
+            this.url = url;
+            params = new ArrayList<>();
+            headers = new ArrayList<>();
+            responseCode = 0;
+            message = null;
+            response = null;
         }
     }
 
@@ -315,6 +373,10 @@ public class RestClient {
         public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
             if (storedCert == null || !storedCert.equals(chain[0])) {
                 synchronized (handler) {
+                    // Another request may have had the certificate accepted while this one waited.
+                    if (isAcceptedCertificate(chain[0])) {
+                        return;
+                    }
                     Log.d(TAG, "Sending a message containing the certificate to our handler.");
                     Message m = new Message();
                     m.setTarget(handler);
@@ -338,6 +400,19 @@ public class RestClient {
             }
         }
 
+        private boolean isAcceptedCertificate(X509Certificate cert) {
+            String certString = connection.getX509KeySignature().trim();
+            if (certString.isEmpty()) {
+                return false;
+            }
+            try {
+                ByteArrayInputStream in = new ByteArrayInputStream(Base64.decode(certString, Base64.DEFAULT));
+                return CertificateFactory.getInstance("X.509").generateCertificate(in).equals(cert);
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
         @Override
         public X509Certificate[] getAcceptedIssuers() {
             return new X509Certificate[0];
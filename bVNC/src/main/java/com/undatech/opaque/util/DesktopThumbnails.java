@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.undatech.opaque.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads and saves the desktop thumbnails shown in the connection grid.
+ * <p>
+ * Thumbnails are decoded on background threads, subsampled with inSampleSize to the smallest
+ * power of two reduction that still covers the grid cell, and kept in a memory LRU keyed by
+ * connection id, file modification time and cell size, so a thumbnail saved by a newer session
+ * replaces the cached one and one decoded for a smaller cell is not shown in a larger one, nor
+ * the other way around. Nothing is decoded before the cell size is known. A view recycled for
+ * another connection before its thumbnail is decoded is left alone when the result arrives.
+ * <p>
+ * Saving scales the desktop on the calling thread, since the framebuffer goes away with the
+ * session, and encodes and writes a JPEG in the background. The file is written under a
+ * temporary name and renamed, so the grid never reads a partial thumbnail.
+ */
+public final class DesktopThumbnails {
+    private static final String TAG = "DesktopThumbnails";
+    private static final int JPEG_QUALITY = 80;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, TAG);
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // An eighth of the heap, counted in KiB.
+    private static final LruCache<String, Bitmap> cache =
+            new LruCache<String, Bitmap>((int) (Runtime.getRuntime().maxMemory() / 1024 / 8)) {
+                @Override
+                protected int sizeOf(String key, Bitmap bitmap) {
+                    return bitmap.getByteCount() / 1024;
+                }
+            };
+
+    private DesktopThumbnails() {
+    }
+
+    /**
+     * Shows the thumbnail in the file in the view, decoding it in the background unless it is
+     * cached. Must be called on the UI thread.
+     *
+     * @param connectionId id of the connection the thumbnail belongs to
+     * @param targetSize   width of the grid cell in pixels, or 0 if the grid is not laid out
+     *                     yet, in which case the view is cleared and the caller has to load again
+     *                     once the size is known
+     * @return false if there is no thumbnail file, in which case the view is left unchanged
+     */
+    public static boolean load(ImageView view, String connectionId, File file, int targetSize) {
+        long modified = file.lastModified();
+        if (modified == 0) {
+            view.setTag(null);
+            return false;
+        }
+        if (targetSize <= 0) {
+            view.setTag(null);
+            view.setImageDrawable(null);
+            return true;
+        }
+        final String key = connectionId + "@" + modified + "/" + targetSize;
+        view.setTag(key);
+        Bitmap cached = cache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return true;
+        }
+        view.setImageDrawable(null);
+        executor.execute(() -> {
+            Bitmap bitmap = decode(file, targetSize);
+            if (bitmap == null) {
+                return;
+            }
+            cache.put(key, bitmap);
+            mainHandler.post(() -> {
+                if (key.equals(view.getTag())) {
+                    view.setImageBitmap(bitmap);
+                }
+            });
+        });
+        return true;
+    }
+
+    private static Bitmap decode(File file, int targetSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(TAG, "Could not read thumbnail " + file);
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    /**
+     * Saves a thumbnail of the desktop to the file. The desktop is scaled down to dstWidth before
+     * this returns, and may be released afterwards.
+     */
+    public static void save(Bitmap desktop, File file, int dstWidth) {
+        double scaleReduction = (double) desktop.getWidth() / dstWidth;
+        int dstHeight = (int) ((double) desktop.getHeight() / scaleReduction);
+        Log.d(TAG, "Desktop screenshot width: " + dstWidth + ", height " + dstHeight);
+        Bitmap scaled = Bitmap.createScaledBitmap(desktop, dstWidth, dstHeight, true);
+        // createScaledBitmap returns the desktop itself when it already has the requested size.
+        final Bitmap thumbnail = scaled != desktop ? scaled : desktop.copy(desktop.getConfig(), false);
+        executor.execute(() -> {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } catch (IOException e) {
+                Log.e(TAG, Log.getStackTraceString(e));
+                tmp.delete();
+                return;
+            } finally {
+                thumbnail.recycle();
+            }
+            if (!tmp.renameTo(file)) {
+                Log.e(TAG, "Could not rename " + tmp + " to " + file);
+                tmp.delete();
+            }
+        });
+    }
+}
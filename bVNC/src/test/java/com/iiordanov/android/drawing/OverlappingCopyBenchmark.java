@@ -0,0 +1,72 @@
+package com.iiordanov.android.drawing;
+
+import com.iiordanov.bVNC.BenchmarkReport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Times a vertical scroll of a whole 1080p and 4K framebuffer with copyPixels, as a CopyRect
+ * scrolling a full screen window does, against copying through a separate buffer, and reports the
+ * time per scroll in build/reports/benchmarks.
+ * Run with ./gradlew :bVNC:testDebugUnitTest -Pbenchmarks --tests '*OverlappingCopyBenchmark'
+ */
+public class OverlappingCopyBenchmark {
+    private static final int WARMUP = 3;
+    private static final int RUNS = 10;
+    private static final int SCROLL_ROWS = 64;
+
+    private interface Scroll {
+        void run(int[] pixels);
+    }
+
+    private static double bestMillis(int[] pixels, Scroll scroll) {
+        for (int i = 0; i < WARMUP; i++) {
+            scroll.run(pixels);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            scroll.run(pixels);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    private static void benchmark(BenchmarkReport report, String name, int w, int h) {
+        int[] buffer = new int[w * h];
+        Scroll throughBuffer = pixels -> {
+            int rows = h - SCROLL_ROWS;
+            System.arraycopy(pixels, SCROLL_ROWS * w, buffer, 0, rows * w);
+            for (int row = 0; row < rows; row++) {
+                System.arraycopy(buffer, row * w, pixels, row * w, w);
+            }
+        };
+        Scroll up = pixels -> OverlappingCopy.copyPixels(pixels, w, SCROLL_ROWS * w, 0, w, h - SCROLL_ROWS);
+        Scroll down = pixels -> OverlappingCopy.copyPixels(pixels, w, 0, SCROLL_ROWS * w, w, h - SCROLL_ROWS);
+
+        int[] expected = new int[w * h];
+        int[] actual = new int[w * h];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = actual[i] = i;
+        }
+        throughBuffer.run(expected);
+        up.run(actual);
+        assertArrayEquals(expected, actual);
+
+        int[] pixels = new int[w * h];
+        report.add("%s scroll by %d rows: through buffer %.2f ms, copyPixels up %.2f ms, down %.2f ms",
+                name, SCROLL_ROWS, bestMillis(pixels, throughBuffer), bestMillis(pixels, up), bestMillis(pixels, down));
+    }
+
+    @Test
+    public void verticalScroll() throws IOException {
+        BenchmarkReport report = new BenchmarkReport("OverlappingCopyBenchmark");
+        benchmark(report, "1920x1080", 1920, 1080);
+        benchmark(report, "3840x2160", 3840, 2160);
+        report.write();
+    }
+}
@@ -0,0 +1,84 @@
+package com.iiordanov.android.drawing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Checks copyPixels on overlapping rectangles against copying through a separate buffer.
+ */
+public class OverlappingCopyTest {
+    private static final int STRIDE = 37;
+    private static final int HEIGHT = 29;
+
+    private static int[] newPixels() {
+        int[] pixels = new int[STRIDE * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i;
+        }
+        return pixels;
+    }
+
+    private static void copyThroughBuffer(int[] pixels, int sx, int sy, int dx, int dy, int w, int h) {
+        int[] buffer = new int[w * h];
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(pixels, (sy + row) * STRIDE + sx, buffer, row * w, w);
+        }
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(buffer, row * w, pixels, (dy + row) * STRIDE + dx, w);
+        }
+    }
+
+    private static void assertCopy(int sx, int sy, int dx, int dy, int w, int h) {
+        int[] expected = newPixels();
+        copyThroughBuffer(expected, sx, sy, dx, dy, w, h);
+        int[] actual = newPixels();
+        OverlappingCopy.copyPixels(actual, STRIDE, sy * STRIDE + sx, dy * STRIDE + dx, w, h);
+        assertArrayEquals("(" + sx + "," + sy + ") to (" + dx + "," + dy + ") " + w + "x" + h, expected, actual);
+    }
+
+    @Test
+    public void shiftUp() {
+        assertCopy(3, 5, 3, 4, 20, 15);
+        assertCopy(0, 10, 0, 0, STRIDE, HEIGHT - 10);
+    }
+
+    @Test
+    public void shiftDown() {
+        assertCopy(3, 4, 3, 5, 20, 15);
+        assertCopy(0, 0, 0, 10, STRIDE, HEIGHT - 10);
+    }
+
+    @Test
+    public void shiftLeft() {
+        assertCopy(5, 2, 4, 2, 20, 15);
+        assertCopy(10, 0, 0, 0, STRIDE - 10, HEIGHT);
+    }
+
+    @Test
+    public void shiftRight() {
+        assertCopy(4, 2, 5, 2, 20, 15);
+        assertCopy(0, 0, 10, 0, STRIDE - 10, HEIGHT);
+    }
+
+    @Test
+    public void shiftDiagonally() {
+        assertCopy(2, 2, 5, 6, 20, 15);
+        assertCopy(5, 6, 2, 2, 20, 15);
+        assertCopy(2, 6, 5, 2, 20, 15);
+        assertCopy(5, 2, 2, 6, 20, 15);
+    }
+
+    @Test
+    public void copyWithoutOverlap() {
+        assertCopy(0, 0, 20, 14, 10, 10);
+        assertCopy(20, 14, 0, 0, 10, 10);
+    }
+
+    @Test
+    public void emptyOrStationaryCopyChangesNothing() {
+        assertCopy(3, 3, 3, 3, 10, 10);
+        assertCopy(3, 3, 4, 4, 0, 10);
+        assertCopy(3, 3, 4, 4, 10, 0);
+    }
+}
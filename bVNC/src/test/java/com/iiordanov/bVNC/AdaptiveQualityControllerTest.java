@@ -0,0 +1,184 @@
+package com.iiordanov.bVNC;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveQualityControllerTest {
+    private static final long FB_PIXELS = 1920 * 1080;
+    // Large enough at 1000 kbit/s to take well over the 50 ms frame budget.
+    private static final long SLOW_FRAME_BYTES = 100000;
+    // Small enough at any rate used here to stay well under the frame budget.
+    private static final long FAST_FRAME_BYTES = 1;
+
+    private static void fullScreenUpdates(AdaptiveQualityController controller, long bytes) {
+        for (int i = 0; i < 4; i++) {
+            controller.onUpdate(FB_PIXELS, FB_PIXELS, bytes, 0);
+        }
+    }
+
+    private static void lowerToCheapestLevel(AdaptiveQualityController controller) {
+        for (int i = 0; i < 3; i++) {
+            fullScreenUpdates(controller, SLOW_FRAME_BYTES);
+            assertTrue(controller.evaluate(1000, true));
+        }
+        assertEquals(15, controller.getFineQualityLevel());
+    }
+
+    @Test
+    public void startsAtTheDefaultLevel() {
+        AdaptiveQualityController controller = new AdaptiveQualityController();
+        assertEquals(70, controller.getFineQualityLevel());
+        assertEquals(7, controller.getJpegQuality());
+        assertEquals(1, controller.getSubsamplingLevel());
+        assertEquals(6, controller.getCompressLevel());
+        assertFalse(controller.isReducedColor());
+    }
+
+    @Test
+    public void slowFramesLowerQualityOneStepPerWindow() {
+        AdaptiveQualityController controller = new AdaptiveQualityController();
+        fullScreenUpdates(controller, SLOW_FRAME_BYTES);
+        assertTrue(controller.evaluate(1000, false));
+        assertEquals(50, controller.getFineQualityLevel());
+        assertEquals(7, controller.getCompressLevel());
+        fullScreenUpdates(controller, SLOW_FRAME_BYTES);
+        assertTrue(controller.evaluate(1000, false));
+        assertEquals(30, controller.getFineQualityLevel());
+        assertEquals(9, controller.getCompressLevel());
+    }
+
+    @Test
+    public void slowDecodingAloneLowersQuality() {
+        AdaptiveQualityController controller = new AdaptiveQualityController();
+        for (int i = 0; i < 4; i++) {
+            controller.onUpdate(FB_PIXELS, FB_PIXELS, FAST_FRAME_BYTES, 80000000L);
+        }
+        assertTrue(controller.evaluate(100000, false));
+        assertEquals(50, controller.getFineQualityLevel());
+    }
+
+    @Test
+    public void smallUpdatesAreNotJudged() {
+        AdaptiveQualityController controller = new AdaptiveQualityController();
+        for (int i = 0; i < 4; i++) {
+            controller.onUpdate(FB_PIXELS / 100, FB_PIXELS, SLOW_FRAME_BYTES, 0);
+        }
+        assertFalse(controller.evaluate(1000, false));
+        assertEquals(70, controller.getFineQualityLevel());
+    }
+
+    @Test
+    public void fastFramesRaiseQualityAfterTwoWindows() {
+        AdaptiveQualityController controller = new AdaptiveQualityController();
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertFalse(controller.evaluate(10000, false));
+        assertEquals(70, controller.getFineQualityLevel());
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertTrue(controller.evaluate(10000, false));
+        assertEquals(80, controller.getFineQualityLevel());
+        assertEquals(3, controller.getCompressLevel());
+    }
+
+    @Test
+    public void aWindowNearTheBudgetRestartsTheRaiseCount() {
+        AdaptiveQualityController controller = new AdaptiveQualityController();
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertFalse(controller.evaluate(10000, false));
+        // 4000 bytes at 1000 kbit/s take 32 ms, within the budget but not well under it.
+        fullScreenUpdates(controller, 4000);
+        assertFalse(controller.evaluate(1000, false));
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertFalse(controller.evaluate(10000, false));
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertTrue(controller.evaluate(10000, false));
+        assertEquals(80, controller.getFineQualityLevel());
+    }
+
+    @Test
+    public void halfTheRoundTripCountsTowardsTheFrameTime() {
+        AdaptiveQualityController controller = new AdaptiveQualityController();
+        controller.onRoundTrip(120000);
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertTrue(controller.evaluate(10000, false));
+        assertEquals(50, controller.getFineQualityLevel());
+    }
+
+    @Test
+    public void colorIsReducedBelow256KbpsAtTheCheapestLevel() {
+        AdaptiveQualityController controller = new AdaptiveQualityController();
+        lowerToCheapestLevel(controller);
+        fullScreenUpdates(controller, SLOW_FRAME_BYTES);
+        assertFalse(controller.evaluate(256, true));
+        assertFalse(controller.isReducedColor());
+        fullScreenUpdates(controller, SLOW_FRAME_BYTES);
+        assertTrue(controller.evaluate(255, true));
+        assertTrue(controller.isReducedColor());
+        fullScreenUpdates(controller, SLOW_FRAME_BYTES);
+        assertFalse(controller.evaluate(100, true));
+    }
+
+    @Test
+    public void colorIsNotReducedUnlessAllowed() {
+        AdaptiveQualityController controller = new AdaptiveQualityController();
+        lowerToCheapestLevel(controller);
+        fullScreenUpdates(controller, SLOW_FRAME_BYTES);
+        assertFalse(controller.evaluate(100, false));
+        assertFalse(controller.isReducedColor());
+    }
+
+    @Test
+    public void fullColorIsRestoredAbove512KbpsBeforeRaisingQuality() {
+        AdaptiveQualityController controller = new AdaptiveQualityController();
+        lowerToCheapestLevel(controller);
+        fullScreenUpdates(controller, SLOW_FRAME_BYTES);
+        assertTrue(controller.evaluate(100, true));
+        assertTrue(controller.isReducedColor());
+
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertFalse(controller.evaluate(512, true));
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertFalse(controller.evaluate(512, true));
+        assertTrue(controller.isReducedColor());
+
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertFalse(controller.evaluate(513, true));
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertTrue(controller.evaluate(513, true));
+        assertFalse(controller.isReducedColor());
+        assertEquals(15, controller.getFineQualityLevel());
+
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertFalse(controller.evaluate(513, true));
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        assertTrue(controller.evaluate(513, true));
+        assertEquals(30, controller.getFineQualityLevel());
+    }
+
+    @Test
+    public void windowNeedsTwoSecondsAndFourUpdates() {
+        final long[] now = {0};
+        AdaptiveQualityController controller = new AdaptiveQualityController() {
+            @Override
+            long nanoTime() {
+                return now[0];
+            }
+        };
+        fullScreenUpdates(controller, FAST_FRAME_BYTES);
+        now[0] = 1999000000L;
+        assertFalse(controller.isWindowComplete());
+        now[0] = 2000000000L;
+        assertTrue(controller.isWindowComplete());
+
+        controller.evaluate(10000, false);
+        now[0] = 5000000000L;
+        controller.onUpdate(FB_PIXELS, FB_PIXELS, FAST_FRAME_BYTES, 0);
+        controller.onUpdate(FB_PIXELS, FB_PIXELS, FAST_FRAME_BYTES, 0);
+        controller.onUpdate(FB_PIXELS, FB_PIXELS, FAST_FRAME_BYTES, 0);
+        assertFalse(controller.isWindowComplete());
+        controller.onUpdate(FB_PIXELS, FB_PIXELS, FAST_FRAME_BYTES, 0);
+        assertTrue(controller.isWindowComplete());
+    }
+}
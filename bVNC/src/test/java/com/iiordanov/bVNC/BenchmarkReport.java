@@ -0,0 +1,38 @@
+package com.iiordanov.bVNC;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Collects the results of a benchmark and writes them to build/reports/benchmarks/NAME.txt of the
+ * module. Benchmarks are left out of the unit tests unless Gradle is run with -Pbenchmarks.
+ */
+public class BenchmarkReport {
+    private final String name;
+    private final StringBuilder lines = new StringBuilder();
+
+    public BenchmarkReport(String name) {
+        this.name = name;
+    }
+
+    public void add(String format, Object... args) {
+        lines.append(String.format(Locale.US, format, args)).append('\n');
+    }
+
+    public File write() throws IOException {
+        File dir = new File("build/reports/benchmarks");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File file = new File(dir, name + ".txt");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(lines.toString());
+        }
+        return file;
+    }
+}
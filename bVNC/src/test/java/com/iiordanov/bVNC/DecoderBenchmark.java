@@ -0,0 +1,227 @@
+package com.iiordanov.bVNC;
+
+import com.tigervnc.rdr.InStream;
+import com.tigervnc.rdr.ReplayInStream;
+import com.undatech.opaque.Viewable;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Replays the recordings made by DecoderFixtures through the rectangle decoders into an in-memory
+ * framebuffer, and reports for every encoding and pixel format the processor time per pixel, the
+ * elapsed time per pixel and the bytes allocated per framebuffer update in
+ * build/reports/benchmarks. Processor time includes the time the decode workers spent with
+ * parallel Tight decoding. The first update of every replay fills the decoder's buffers and is not
+ * measured.
+ * <p>
+ * JPEG and TightZstd rectangles are not covered, since BitmapFactory and the zstd library only
+ * work on a device.
+ * Run with ./gradlew :bVNC:testDebugUnitTest -Pbenchmarks --tests '*DecoderBenchmark'
+ */
+public class DecoderBenchmark {
+    private static final int WARMUP = 50;
+    private static final int RUNS = 200;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * The measured part of replaying a recording.
+     */
+    private static class Sample {
+        long updates;
+        long pixels;
+        long cpuNanos;
+        long wallNanos;
+        long allocatedBytes;
+        long workerAllocatedBytes;
+
+        void add(Sample other) {
+            updates += other.updates;
+            pixels += other.pixels;
+            cpuNanos += other.cpuNanos;
+            wallNanos += other.wallNanos;
+            allocatedBytes += other.allocatedBytes;
+            workerAllocatedBytes += other.workerAllocatedBytes;
+        }
+    }
+
+    private static byte[] readFixture(String name) throws IOException {
+        InputStream in = DecoderBenchmark.class.getResourceAsStream("decoder/" + name + ".rfbrec");
+        assertNotNull("Missing fixture " + name, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Viewable canvas() {
+        // Only redrawing is asked of the canvas, which there is nothing to do for.
+        return (Viewable) Proxy.newProxyInstance(Viewable.class.getClassLoader(), new Class<?>[]{Viewable.class},
+                (proxy, method, args) -> null);
+    }
+
+    // Bytes allocated so far by each decode worker thread, which the decoder starts on demand.
+    private static Map<Long, Long> workerAllocatedBytes() {
+        Map<Long, Long> bytes = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("Tight")) {
+                bytes.put(thread.getId(), THREADS.getThreadAllocatedBytes(thread.getId()));
+            }
+        }
+        return bytes;
+    }
+
+    // Bytes allocated since before by the workers still running, which were started after the
+    // first update of the replay and live until the decoder is released.
+    private static long workerAllocatedBytesSince(Map<Long, Long> before) {
+        long bytes = 0;
+        for (Map.Entry<Long, Long> after : workerAllocatedBytes().entrySet()) {
+            Long start = before.get(after.getKey());
+            if (start != null && after.getValue() > 0) {
+                bytes += after.getValue() - start;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes one framebuffer update the way RfbProto.processProtocol() does.
+     *
+     * @return the number of pixels decoded
+     */
+    private static long decodeUpdate(RfbProto rfb, Decoder decoder) throws Exception {
+        InStream is = rfb.is;
+        assertEquals(RfbProto.FramebufferUpdate, is.readUnsignedByte());
+        is.readUnsignedByte();
+        int rects = is.readUnsignedShort();
+        long pixels = 0;
+        decoder.beginUpdateDamage();
+        for (int i = 0; i < rects; i++) {
+            int x = is.readUnsignedShort();
+            int y = is.readUnsignedShort();
+            int w = is.readUnsignedShort();
+            int h = is.readUnsignedShort();
+            int encoding = is.readInt();
+            if (encoding != RfbProto.EncodingTight) {
+                decoder.waitForPendingRects();
+            }
+            switch (encoding) {
+                case RfbProto.EncodingRaw:
+                    decoder.handleRawRect(rfb, x, y, w, h);
+                    break;
+                case RfbProto.EncodingHextile:
+                    decoder.handleHextileRect(rfb, x, y, w, h);
+                    break;
+                case RfbProto.EncodingZRLE:
+                    decoder.handleZRLERect(rfb, x, y, w, h);
+                    break;
+                case RfbProto.EncodingTight:
+                    decoder.handleTightRect(rfb, x, y, w, h, false);
+                    break;
+                default:
+                    throw new IOException("Unexpected encoding " + encoding);
+            }
+            pixels += (long) w * h;
+        }
+        decoder.waitForPendingRects();
+        decoder.flushUpdateDamage();
+        return pixels;
+    }
+
+    /**
+     * Replays a recording with a new decoder, as a new session would.
+     */
+    private static Sample replay(byte[] recording, COLORMODEL colorModel, boolean parallel) throws Exception {
+        Viewable canvas = canvas();
+        Decoder decoder = new Decoder(canvas, null, true);
+        RfbProto rfb = new RfbProto(decoder, canvas, null, null, RfbProto.EncodingTight, true, false,
+                0, null, null, false, false, null);
+        decoder.setColorModel(colorModel);
+        decoder.setPixelFormat(rfb);
+        decoder.setParallelDecoding(parallel);
+        ReplayInStream replay = new ReplayInStream(new ByteArrayInputStream(recording), false);
+        rfb.setStreams(replay, null);
+        decoder.setBitmapData(new MemoryDrawableData(replay.getFramebufferWidth(), replay.getFramebufferHeight()));
+
+        Sample sample = new Sample();
+        try {
+            decodeUpdate(rfb, decoder);
+            decoder.takeWorkerDecodeNanos(false);
+            Map<Long, Long> workerBytes = workerAllocatedBytes();
+            while (true) {
+                // Each update is measured on its own, so that reaching the end of the recording is not.
+                long bytes = THREADS.getCurrentThreadAllocatedBytes();
+                long cpu = THREADS.getCurrentThreadCpuTime();
+                long start = System.nanoTime();
+                long pixels;
+                try {
+                    pixels = decodeUpdate(rfb, decoder);
+                } catch (EOFException end) {
+                    break;
+                }
+                sample.wallNanos += System.nanoTime() - start;
+                sample.cpuNanos += THREADS.getCurrentThreadCpuTime() - cpu;
+                sample.allocatedBytes += THREADS.getCurrentThreadAllocatedBytes() - bytes;
+                sample.pixels += pixels;
+                sample.updates++;
+            }
+            sample.cpuNanos += decoder.takeWorkerDecodeNanos(false);
+            sample.workerAllocatedBytes = workerAllocatedBytesSince(workerBytes);
+        } finally {
+            decoder.releaseTightResources();
+            replay.close();
+        }
+        return sample;
+    }
+
+    private static void measure(BenchmarkReport report, String name, byte[] recording, boolean parallel)
+            throws Exception {
+        COLORMODEL colorModel = COLORMODEL.valueOf(name.substring(name.lastIndexOf('-') + 1));
+        for (int i = 0; i < WARMUP; i++) {
+            replay(recording, colorModel, parallel);
+        }
+        Sample total = new Sample();
+        for (int i = 0; i < RUNS; i++) {
+            total.add(replay(recording, colorModel, parallel));
+        }
+        assertEquals((long) RUNS * (DecoderFixtures.UPDATES - 1), total.updates);
+        report.add("%-22s %-8s %8.2f %8.2f %12d %12d", name, parallel ? "parallel" : "serial",
+                (double) total.cpuNanos / total.pixels, (double) total.wallNanos / total.pixels,
+                total.allocatedBytes / total.updates, total.workerAllocatedBytes / total.updates);
+    }
+
+    @Test
+    public void decodeFixtures() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("DecoderBenchmark");
+        report.add("%-22s %-8s %8s %8s %12s %12s", "fixture", "decoding", "cpu ns/px", "wall ns/px",
+                "bytes/update", "worker bytes/update");
+        for (String name : DecoderFixtures.generate().keySet()) {
+            byte[] recording = readFixture(name);
+            measure(report, name, recording, false);
+            if (name.startsWith("tight")) {
+                measure(report, name, recording, true);
+            }
+        }
+        report.write();
+    }
+}
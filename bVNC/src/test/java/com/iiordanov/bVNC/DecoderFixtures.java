@@ -0,0 +1,617 @@
+package com.iiordanov.bVNC;
+
+import com.tigervnc.rdr.RawInStream;
+import com.tigervnc.rdr.RecordingInStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Generates the session recordings DecoderBenchmark replays, in the format written by
+ * RecordingInStream. Each one holds UPDATES framebuffer updates of a desktop-like picture in a
+ * single encoding and pixel format, as a server would send them after ServerInit.
+ * <p>
+ * The recordings are checked in under src/test/resources/com/iiordanov/bVNC/decoder, so that the
+ * benchmark results stay comparable. Run main() from the bVNC directory to regenerate them.
+ */
+public class DecoderFixtures {
+    static final int WIDTH = 192;
+    static final int HEIGHT = 128;
+    static final int UPDATES = 3;
+    private static final int RECT_W = 96;
+    private static final int RECT_H = 64;
+    // Bytes per read while recording, as a socket would hand them out.
+    private static final int PACKET = 1460;
+
+    private interface Picture {
+        int rgb(int x, int y, int frame);
+    }
+
+    private interface RectEncoder {
+        void write(DataOutputStream out, int[] rgb, int x, int y, int w, int h) throws IOException;
+    }
+
+    /**
+     * Returns the fixtures by name. A name ends with the COLORMODEL the server was asked for.
+     */
+    static Map<String, byte[]> generate() throws IOException {
+        Map<String, byte[]> fixtures = new LinkedHashMap<>();
+        for (COLORMODEL cm : new COLORMODEL[]{COLORMODEL.C24bit, COLORMODEL.C256}) {
+            fixtures.put("raw-" + cm.name(), record(DecoderFixtures::desktop, RfbProto.EncodingRaw,
+                    (out, rgb, x, y, w, h) -> {
+                        for (int pixel : pixelsOf(rgb, x, y, w, h, cm)) {
+                            writePixel(out, pixel, cm);
+                        }
+                    }));
+            fixtures.put("hextile-" + cm.name(), record(DecoderFixtures::desktop, RfbProto.EncodingHextile,
+                    new HextileEncoder(cm)));
+            fixtures.put("zrle-" + cm.name(), record(DecoderFixtures::desktop, RfbProto.EncodingZRLE,
+                    new ZrleEncoder(cm)));
+            fixtures.put("tight-" + cm.name(), record(DecoderFixtures::desktop, RfbProto.EncodingTight,
+                    new TightEncoder(cm, TightEncoder.COPY)));
+            fixtures.put("tight-mono-" + cm.name(), record(DecoderFixtures::text, RfbProto.EncodingTight,
+                    new TightEncoder(cm, TightEncoder.PALETTE)));
+        }
+        fixtures.put("tight-palette-C24bit", record(DecoderFixtures::icons, RfbProto.EncodingTight,
+                new TightEncoder(COLORMODEL.C24bit, TightEncoder.PALETTE)));
+        fixtures.put("tight-gradient-C24bit", record(DecoderFixtures::photo, RfbProto.EncodingTight,
+                new TightEncoder(COLORMODEL.C24bit, TightEncoder.GRADIENT)));
+        return fixtures;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : "src/test/resources/com/iiordanov/bVNC/decoder");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        for (Map.Entry<String, byte[]> fixture : generate().entrySet()) {
+            try (OutputStream out = new FileOutputStream(new File(dir, fixture.getKey() + ".rfbrec"))) {
+                out.write(fixture.getValue());
+            }
+        }
+    }
+
+    private static byte[] record(Picture picture, int encoding, RectEncoder encoder) throws IOException {
+        ByteArrayOutputStream server = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(server);
+        int[] rgb = new int[WIDTH * HEIGHT];
+        for (int frame = 0; frame < UPDATES; frame++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    rgb[y * WIDTH + x] = picture.rgb(x, y, frame) & 0xFFFFFF;
+                }
+            }
+            out.writeByte(RfbProto.FramebufferUpdate);
+            out.writeByte(0);
+            out.writeShort(WIDTH / RECT_W * (HEIGHT / RECT_H));
+            for (int y = 0; y < HEIGHT; y += RECT_H) {
+                for (int x = 0; x < WIDTH; x += RECT_W) {
+                    out.writeShort(x);
+                    out.writeShort(y);
+                    out.writeShort(RECT_W);
+                    out.writeShort(RECT_H);
+                    out.writeInt(encoding);
+                    encoder.write(out, rgb, x, y, RECT_W, RECT_H);
+                }
+            }
+        }
+        return record(server.toByteArray());
+    }
+
+    private static byte[] record(byte[] data) throws IOException {
+        InputStream packets = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, PACKET));
+            }
+        };
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        RecordingInStream recording = new RecordingInStream(new RawInStream(packets), file, WIDTH, HEIGHT);
+        byte[] buf = new byte[PACKET];
+        for (int off = 0; off < data.length; off += PACKET) {
+            recording.readBytes(buf, 0, Math.min(PACKET, data.length - off));
+        }
+        recording.close();
+        return file.toByteArray();
+    }
+
+    //
+    // Pictures. Each frame moves the content a little, so that updates differ.
+    //
+
+    private static int hash(int a, int b) {
+        int h = a * 0x9E3779B1 + b * 0x85EBCA77;
+        h ^= h >>> 15;
+        h *= 0xC2B2AE3D;
+        return h ^ (h >>> 13);
+    }
+
+    private static int clamp(double v) {
+        return Math.max(0, Math.min(255, (int) v));
+    }
+
+    // A smooth photo with a little noise.
+    private static int photo(int x, int y, int frame) {
+        int noise = (hash(x, y + frame) & 3) - 1;
+        int r = clamp(128 + 100 * StrictMath.sin((x + frame * 5) / 23.0) + noise);
+        int g = clamp(128 + 100 * StrictMath.sin(y / 17.0 + x / 40.0) + noise);
+        int b = clamp(64 + (x + y + frame * 8) / 2 + noise);
+        return r << 16 | g << 8 | b;
+    }
+
+    // Dark text on a light background, scrolling by a line of text per frame.
+    private static int text(int x, int y, int frame) {
+        int row = y + frame * 12;
+        int line = row / 12;
+        int col = x / 7;
+        int gx = x % 7;
+        int gy = row % 12;
+        boolean space = (hash(col, line) & 7) == 0;
+        if (space || gx >= 5 || gy >= 8) {
+            return 0xF4F4F4;
+        }
+        boolean ink = ((hash(col, line) >>> (gx * 8 + gy)) & 1) != 0;
+        return ink ? 0x202020 : 0xF4F4F4;
+    }
+
+    private static final int[] ICON_COLORS = {
+            0xFFFFFF, 0x000000, 0xC0C0C0, 0x808080, 0xFF0000, 0x00A000,
+            0x0000FF, 0xFFFF00, 0x00FFFF, 0xFF00FF, 0x804000, 0x3366AA,
+    };
+
+    // 16x16 icons of a few colors with outlines, on a flat background.
+    private static int icons(int x, int y, int frame) {
+        int icon = hash(x / 16 + frame, y / 16);
+        int ix = x % 16;
+        int iy = y % 16;
+        if ((icon & 3) == 0 || ix == 0 || iy == 0) {
+            return ICON_COLORS[2];
+        }
+        if (ix == 1 || iy == 1 || ix == 15 || iy == 15) {
+            return ICON_COLORS[1];
+        }
+        int shade = (ix + iy) / 6;
+        return ICON_COLORS[(((icon >>> 4) & 7) + shade) % ICON_COLORS.length];
+    }
+
+    // A panel of icons above a photo and a text window, next to a flat desktop background.
+    private static int desktop(int x, int y, int frame) {
+        if (y < 16) {
+            return icons(x, y, frame);
+        }
+        if (x < 96) {
+            return y < 64 ? photo(x, y, frame) : 0x3366AA;
+        }
+        return text(x, y, frame);
+    }
+
+    //
+    // Pixels in the format of the color model. COLORMODEL.C256 is BGR233.
+    //
+
+    private static int index233(int rgb) {
+        return (rgb >> 21 & 7) | (rgb >> 13 & 7) << 3 | (rgb >> 6 & 3) << 6;
+    }
+
+    // A pixel of the pixel format set by COLORMODEL, least significant byte first.
+    private static void writePixel(DataOutputStream out, int rgb, COLORMODEL cm) throws IOException {
+        if (cm.bpp() == 1) {
+            out.writeByte(index233(rgb));
+        } else {
+            out.writeByte(rgb);
+            out.writeByte(rgb >> 8);
+            out.writeByte(rgb >> 16);
+            out.writeByte(0);
+        }
+    }
+
+    // ZRLE's compressed pixel, which leaves out the unused byte.
+    private static void writeCPixel(DataOutputStream out, int rgb, COLORMODEL cm) throws IOException {
+        if (cm.bpp() == 1) {
+            out.writeByte(index233(rgb));
+        } else {
+            out.writeByte(rgb);
+            out.writeByte(rgb >> 8);
+            out.writeByte(rgb >> 16);
+        }
+    }
+
+    // Tight's pixel, which is sent as RGB.
+    private static void writeTPixel(DataOutputStream out, int rgb, COLORMODEL cm) throws IOException {
+        if (cm.bpp() == 1) {
+            out.writeByte(index233(rgb));
+        } else {
+            out.writeByte(rgb >> 16);
+            out.writeByte(rgb >> 8);
+            out.writeByte(rgb);
+        }
+    }
+
+    private static int[] pixelsOf(int[] rgb, int x, int y, int w, int h, COLORMODEL cm) {
+        int[] pixels = new int[w * h];
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(rgb, (y + row) * WIDTH + x, pixels, row * w, w);
+        }
+        if (cm.bpp() == 1) {
+            // Colors that map to the same index are the same pixel.
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = rgb233(index233(pixels[i]));
+            }
+        }
+        return pixels;
+    }
+
+    // Returns the distinct pixels in order of appearance, or null if there are more than max.
+    private static int[] paletteOf(int[] pixels, int max) {
+        int[] palette = new int[max];
+        int size = 0;
+        for (int pixel : pixels) {
+            int i = 0;
+            while (i < size && palette[i] != pixel) {
+                i++;
+            }
+            if (i == size) {
+                if (size == max) {
+                    return null;
+                }
+                palette[size++] = pixel;
+            }
+        }
+        int[] result = new int[size];
+        System.arraycopy(palette, 0, result, 0, size);
+        return result;
+    }
+
+    private static int indexOf(int[] palette, int pixel) {
+        for (int i = 0; i < palette.length; i++) {
+            if (palette[i] == pixel) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Pixel not in palette");
+    }
+
+    // The RGB color an 8-bit index stands for, which maps back to the same index.
+    private static int rgb233(int index) {
+        return (index & 7) << 21 | (index >> 3 & 7) << 13 | (index >> 6 & 3) << 6;
+    }
+
+    private static class HextileEncoder implements RectEncoder {
+        private final COLORMODEL cm;
+
+        HextileEncoder(COLORMODEL cm) {
+            this.cm = cm;
+        }
+
+        @Override
+        public void write(DataOutputStream out, int[] rgb, int x, int y, int w, int h) throws IOException {
+            Integer background = null;
+            for (int ty = y; ty < y + h; ty += 16) {
+                for (int tx = x; tx < x + w; tx += 16) {
+                    int tw = Math.min(16, x + w - tx);
+                    int th = Math.min(16, y + h - ty);
+                    background = writeTile(out, pixelsOf(rgb, tx, ty, tw, th, cm), tw, th, background);
+                }
+            }
+        }
+
+        // Returns the background color in effect after the tile.
+        private Integer writeTile(DataOutputStream out, int[] pixels, int tw, int th, Integer background)
+                throws IOException {
+            int[] palette = paletteOf(pixels, 4);
+            if (palette != null) {
+                int bg = mostCommon(pixels, palette);
+                ByteArrayOutputStream subrects = new ByteArrayOutputStream();
+                DataOutputStream sub = new DataOutputStream(subrects);
+                boolean coloured = palette.length > 2;
+                int count = 0;
+                for (int row = 0; row < th; row++) {
+                    for (int col = 0; col < tw; ) {
+                        int pixel = pixels[row * tw + col];
+                        int end = col + 1;
+                        while (end < tw && pixels[row * tw + end] == pixel) {
+                            end++;
+                        }
+                        if (pixel != bg) {
+                            if (coloured) {
+                                writePixel(sub, pixel, cm);
+                            }
+                            sub.writeByte(col << 4 | row);
+                            sub.writeByte((end - col - 1) << 4);
+                            count++;
+                        }
+                        col = end;
+                    }
+                }
+                int fg = palette.length == 2 ? palette[palette[0] == bg ? 1 : 0] : bg;
+                int encodedSize = 2 * cm.bpp() + 1 + subrects.size();
+                if (count <= 255 && encodedSize < tw * th * cm.bpp()) {
+                    int subencoding = 0;
+                    if (background == null || background != bg) {
+                        subencoding |= RfbProto.HextileBackgroundSpecified;
+                    }
+                    if (count > 0) {
+                        subencoding |= RfbProto.HextileAnySubrects;
+                        subencoding |= coloured ? RfbProto.HextileSubrectsColoured : RfbProto.HextileForegroundSpecified;
+                    }
+                    out.writeByte(subencoding);
+                    if ((subencoding & RfbProto.HextileBackgroundSpecified) != 0) {
+                        writePixel(out, bg, cm);
+                    }
+                    if ((subencoding & RfbProto.HextileForegroundSpecified) != 0) {
+                        writePixel(out, fg, cm);
+                    }
+                    if (count > 0) {
+                        out.writeByte(count);
+                        subrects.writeTo(out);
+                    }
+                    return bg;
+                }
+            }
+            out.writeByte(RfbProto.HextileRaw);
+            for (int pixel : pixels) {
+                writePixel(out, pixel, cm);
+            }
+            // The background is undefined after a raw tile.
+            return null;
+        }
+
+        private static int mostCommon(int[] pixels, int[] palette) {
+            int[] counts = new int[palette.length];
+            for (int pixel : pixels) {
+                counts[indexOf(palette, pixel)]++;
+            }
+            int best = 0;
+            for (int i = 1; i < counts.length; i++) {
+                if (counts[i] > counts[best]) {
+                    best = i;
+                }
+            }
+            return palette[best];
+        }
+    }
+
+    private static class ZrleEncoder implements RectEncoder {
+        private final COLORMODEL cm;
+        // One zlib stream for the whole session.
+        private final Deflater deflater = new Deflater();
+
+        ZrleEncoder(COLORMODEL cm) {
+            this.cm = cm;
+        }
+
+        @Override
+        public void write(DataOutputStream out, int[] rgb, int x, int y, int w, int h) throws IOException {
+            ByteArrayOutputStream tiles = new ByteArrayOutputStream();
+            DataOutputStream tileOut = new DataOutputStream(tiles);
+            for (int ty = y; ty < y + h; ty += 64) {
+                for (int tx = x; tx < x + w; tx += 64) {
+                    int tw = Math.min(64, x + w - tx);
+                    int th = Math.min(64, y + h - ty);
+                    writeTile(tileOut, pixelsOf(rgb, tx, ty, tw, th, cm), tw, th);
+                }
+            }
+            byte[] compressed = deflate(deflater, tiles.toByteArray());
+            out.writeInt(compressed.length);
+            out.write(compressed);
+        }
+
+        private void writeTile(DataOutputStream out, int[] pixels, int tw, int th) throws IOException {
+            int cpixel = cm.bpp() == 1 ? 1 : 3;
+            int[] palette = paletteOf(pixels, 127);
+            int runs = 1;
+            for (int i = 1; i < pixels.length; i++) {
+                if (pixels[i] != pixels[i - 1]) {
+                    runs++;
+                }
+            }
+            if (palette != null && palette.length == 1) {
+                out.writeByte(1);
+                writeCPixel(out, palette[0], cm);
+                return;
+            }
+            int raw = pixels.length * cpixel;
+            int plainRle = runs * (cpixel + 1);
+            int paletteRle = palette == null ? Integer.MAX_VALUE : palette.length * cpixel + runs * 2;
+            int bits = palette == null || palette.length > 16 ? 0 : palette.length > 4 ? 4 : palette.length > 2 ? 2 : 1;
+            int packed = bits == 0 ? Integer.MAX_VALUE : palette.length * cpixel + (tw * bits + 7) / 8 * th;
+            int best = Math.min(Math.min(raw, plainRle), Math.min(paletteRle, packed));
+            if (best == packed) {
+                out.writeByte(palette.length);
+                for (int pixel : palette) {
+                    writeCPixel(out, pixel, cm);
+                }
+                for (int row = 0; row < th; row++) {
+                    int b = 0;
+                    int nbits = 0;
+                    for (int col = 0; col < tw; col++) {
+                        b = b << bits | indexOf(palette, pixels[row * tw + col]);
+                        nbits += bits;
+                        if (nbits == 8) {
+                            out.writeByte(b);
+                            b = 0;
+                            nbits = 0;
+                        }
+                    }
+                    if (nbits > 0) {
+                        out.writeByte(b << (8 - nbits));
+                    }
+                }
+            } else if (best == paletteRle) {
+                out.writeByte(128 | palette.length);
+                for (int pixel : palette) {
+                    writeCPixel(out, pixel, cm);
+                }
+                for (int i = 0; i < pixels.length; ) {
+                    int end = runEnd(pixels, i);
+                    int index = indexOf(palette, pixels[i]);
+                    if (end - i == 1) {
+                        out.writeByte(index);
+                    } else {
+                        out.writeByte(128 | index);
+                        writeRunLength(out, end - i);
+                    }
+                    i = end;
+                }
+            } else if (best == plainRle) {
+                out.writeByte(128);
+                for (int i = 0; i < pixels.length; ) {
+                    int end = runEnd(pixels, i);
+                    writeCPixel(out, pixels[i], cm);
+                    writeRunLength(out, end - i);
+                    i = end;
+                }
+            } else {
+                out.writeByte(0);
+                for (int pixel : pixels) {
+                    writeCPixel(out, pixel, cm);
+                }
+            }
+        }
+
+        private static int runEnd(int[] pixels, int start) {
+            int end = start + 1;
+            while (end < pixels.length && pixels[end] == pixels[start]) {
+                end++;
+            }
+            return end;
+        }
+
+        private static void writeRunLength(DataOutputStream out, int length) throws IOException {
+            length--;
+            while (length >= 255) {
+                out.writeByte(255);
+                length -= 255;
+            }
+            out.writeByte(length);
+        }
+    }
+
+    private static class TightEncoder implements RectEncoder {
+        static final int COPY = 0;
+        static final int PALETTE = 1;
+        static final int GRADIENT = 2;
+
+        private final COLORMODEL cm;
+        private final int filter;
+        private final Deflater[] streams = new Deflater[4];
+
+        TightEncoder(COLORMODEL cm, int filter) {
+            this.cm = cm;
+            this.filter = filter;
+        }
+
+        @Override
+        public void write(DataOutputStream out, int[] rgb, int x, int y, int w, int h) throws IOException {
+            int[] pixels = pixelsOf(rgb, x, y, w, h, cm);
+            int[] palette = paletteOf(pixels, cm.bpp() == 1 ? 2 : 256);
+            if (palette != null && palette.length == 1) {
+                out.writeByte(RfbProto.TightFill << 4);
+                writeTPixel(out, palette[0], cm);
+                return;
+            }
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            DataOutputStream dataOut = new DataOutputStream(data);
+            int stream;
+            if (filter == PALETTE && palette != null) {
+                // Two colors are sent as a bitmap on stream 1, more as indices on stream 2.
+                stream = palette.length == 2 ? 1 : 2;
+                out.writeByte((stream | RfbProto.TightExplicitFilter) << 4);
+                out.writeByte(RfbProto.TightFilterPalette);
+                out.writeByte(palette.length - 1);
+                for (int pixel : palette) {
+                    writeTPixel(out, pixel, cm);
+                }
+                if (palette.length == 2) {
+                    for (int row = 0; row < h; row++) {
+                        for (int col = 0; col < w; col += 8) {
+                            int b = 0;
+                            for (int bit = 0; bit < 8; bit++) {
+                                int i = col + bit;
+                                b = b << 1 | (i < w && pixels[row * w + i] == palette[1] ? 1 : 0);
+                            }
+                            dataOut.writeByte(b);
+                        }
+                    }
+                } else {
+                    for (int pixel : pixels) {
+                        dataOut.writeByte(indexOf(palette, pixel));
+                    }
+                }
+            } else if (filter == GRADIENT && cm.bpp() == 4) {
+                stream = 3;
+                out.writeByte((stream | RfbProto.TightExplicitFilter) << 4);
+                out.writeByte(RfbProto.TightFilterGradient);
+                writeGradient(dataOut, pixels, w, h);
+            } else {
+                stream = 0;
+                out.writeByte(stream << 4);
+                for (int pixel : pixels) {
+                    writeTPixel(dataOut, pixel, cm);
+                }
+            }
+            byte[] bytes = data.toByteArray();
+            if (bytes.length < RfbProto.TightMinToCompress) {
+                out.write(bytes);
+                return;
+            }
+            if (streams[stream] == null) {
+                streams[stream] = new Deflater();
+            }
+            byte[] compressed = deflate(streams[stream], bytes);
+            writeCompactLen(out, compressed.length);
+            out.write(compressed);
+        }
+
+        // Each component is sent as the difference to its prediction from the left, upper and
+        // upper left pixels.
+        private static void writeGradient(DataOutputStream out, int[] pixels, int w, int h) throws IOException {
+            for (int row = 0; row < h; row++) {
+                for (int col = 0; col < w; col++) {
+                    for (int shift = 16; shift >= 0; shift -= 8) {
+                        int up = row > 0 ? pixels[(row - 1) * w + col] >> shift & 0xFF : 0;
+                        int left = col > 0 ? pixels[row * w + col - 1] >> shift & 0xFF : 0;
+                        int upLeft = row > 0 && col > 0 ? pixels[(row - 1) * w + col - 1] >> shift & 0xFF : 0;
+                        int prediction = col == 0 ? up : Math.max(0, Math.min(255, up + left - upLeft));
+                        out.writeByte((pixels[row * w + col] >> shift) - prediction);
+                    }
+                }
+            }
+        }
+
+        private static void writeCompactLen(DataOutputStream out, int len) throws IOException {
+            if (len < 0x80) {
+                out.writeByte(len);
+            } else if (len < 0x4000) {
+                out.writeByte(len & 0x7F | 0x80);
+                out.writeByte(len >> 7);
+            } else {
+                out.writeByte(len & 0x7F | 0x80);
+                out.writeByte(len >> 7 & 0x7F | 0x80);
+                out.writeByte(len >> 14);
+            }
+        }
+    }
+
+    // Compresses data as the next part of the stream, flushed so the client can decode it.
+    private static byte[] deflate(Deflater deflater, byte[] data) {
+        deflater.setInput(data);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        do {
+            n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+            compressed.write(buf, 0, n);
+        } while (n == buf.length);
+        return compressed.toByteArray();
+    }
+}
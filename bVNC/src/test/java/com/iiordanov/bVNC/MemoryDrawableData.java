@@ -0,0 +1,217 @@
+package com.iiordanov.bVNC;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.widget.ImageView;
+
+import com.undatech.opaque.AbstractDrawableData;
+
+import java.util.Arrays;
+
+/**
+ * A framebuffer held in an int array with no bitmap behind it, so the decoders can run on the JVM.
+ */
+class MemoryDrawableData implements AbstractDrawableData {
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final RectF cursorRect = new RectF();
+
+    MemoryDrawableData(int width, int height) {
+        this.width = width;
+        this.height = height;
+        pixels = new int[width * height];
+    }
+
+    @Override
+    public void doneWaiting() {
+    }
+
+    @Override
+    public void setCursorRect(int x, int y, int w, int h, int hX, int hY) {
+    }
+
+    @Override
+    public void moveCursorRect(int x, int y) {
+    }
+
+    @Override
+    public void setSoftCursor(int[] newSoftCursorPixels) {
+    }
+
+    @Override
+    public void setSoftCursor(Bitmap softCursor) {
+    }
+
+    @Override
+    public RectF getCursorRect() {
+        return cursorRect;
+    }
+
+    @Override
+    public boolean isNotInitSoftCursor() {
+        return false;
+    }
+
+    @Override
+    public float getMinimumScale() {
+        return 1;
+    }
+
+    @Override
+    public boolean widthRatioLessThanHeightRatio() {
+        return false;
+    }
+
+    @Override
+    public void prepareFullUpdateRequest(boolean incremental) {
+    }
+
+    @Override
+    public boolean validDraw(int x, int y, int w, int h) {
+        return x >= 0 && y >= 0 && x + w <= width && y + h <= height;
+    }
+
+    @Override
+    public int offset(int x, int y) {
+        return y * width + x;
+    }
+
+    @Override
+    public void prepareRect(int x, int y, int w, int h) {
+    }
+
+    @Override
+    public void updateBitmap(int x, int y, int w, int h) {
+    }
+
+    @Override
+    public void updateBitmap(Bitmap b, int x, int y, int w, int h) {
+    }
+
+    @Override
+    public void setShadowFramebufferEnabled(boolean enabled) {
+    }
+
+    @Override
+    public void framebufferDamaged(int left, int top, int right, int bottom) {
+    }
+
+    @Override
+    public void setImageDrawable(ImageView v) {
+    }
+
+    @Override
+    public void updateView(ImageView v) {
+    }
+
+    @Override
+    public void copyRect(int sx, int sy, int dx, int dy, int w, int h) {
+        if (dy > sy) {
+            for (int row = h - 1; row >= 0; row--) {
+                System.arraycopy(pixels, offset(sx, sy + row), pixels, offset(dx, dy + row), w);
+            }
+        } else {
+            for (int row = 0; row < h; row++) {
+                System.arraycopy(pixels, offset(sx, sy + row), pixels, offset(dx, dy + row), w);
+            }
+        }
+    }
+
+    @Override
+    public void fillRect(int x, int y, int w, int h, int pix) {
+        for (int row = y; row < y + h; row++) {
+            Arrays.fill(pixels, offset(x, row), offset(x + w, row), pix);
+        }
+    }
+
+    @Override
+    public void imageRect(int x, int y, int w, int h, int[] pix) {
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(pix, row * w, pixels, offset(x, y + row), w);
+        }
+    }
+
+    @Override
+    public void drawRect(int x, int y, int w, int h, Paint paint) {
+        fillRect(x, y, w, h, paint.getColor());
+    }
+
+    @Override
+    public void scrollChanged(int newx, int newy) {
+    }
+
+    @Override
+    public void syncScroll() {
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    @Override
+    public int fbWidth() {
+        return width;
+    }
+
+    @Override
+    public int fbHeight() {
+        return height;
+    }
+
+    @Override
+    public int bmWidth() {
+        return width;
+    }
+
+    @Override
+    public int bmHeight() {
+        return height;
+    }
+
+    @Override
+    public int getXoffset() {
+        return 0;
+    }
+
+    @Override
+    public int getYoffset() {
+        return 0;
+    }
+
+    @Override
+    public int[] getBitmapPixels() {
+        return pixels;
+    }
+
+    @Override
+    public int getBitmapWidth() {
+        return width;
+    }
+
+    @Override
+    public int getBitmapHeight() {
+        return height;
+    }
+
+    @Override
+    public int getFramebufferWidth() {
+        return width;
+    }
+
+    @Override
+    public int getFramebufferHeight() {
+        return height;
+    }
+
+    @Override
+    public Bitmap getMbitmap() {
+        return null;
+    }
+
+    @Override
+    public Paint getPaint() {
+        return null;
+    }
+}
@@ -0,0 +1,106 @@
+package com.iiordanov.bVNC;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Times the row kernels against the per-pixel loops they replaced on a 1920x1080 rectangle and
+ * reports the cost per pixel in build/reports/benchmarks. It only fails if the results differ.
+ * Run with ./gradlew :bVNC:testDebugUnitTest -Pbenchmarks --tests '*PixelConverterBenchmark'
+ */
+public class PixelConverterBenchmark {
+    private static final int W = 1920;
+    private static final int H = 1080;
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    private interface Kernel {
+        void run();
+    }
+
+    private static double nanosPerPixel(Kernel kernel) {
+        for (int i = 0; i < WARMUP; i++) {
+            kernel.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            kernel.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return (double) best / W / H;
+    }
+
+    private static void time(BenchmarkReport report, String name, Kernel oldKernel, Kernel newKernel) {
+        double oldNanos = nanosPerPixel(oldKernel);
+        double newNanos = nanosPerPixel(newKernel);
+        report.add("%-14s per-pixel loop %.3f ns/pixel, kernel %.3f ns/pixel", name, oldNanos, newNanos);
+    }
+
+    @Test
+    public void benchmark() throws IOException {
+        BenchmarkReport report = new BenchmarkReport("PixelConverterBenchmark");
+        Random random = new Random(1);
+        byte[] bgrx = new byte[W * 4];
+        byte[] rgb = new byte[W * H * 3];
+        byte[] indices = new byte[W * H];
+        byte[] mono = new byte[(W + 7) / 8 * H];
+        random.nextBytes(bgrx);
+        random.nextBytes(rgb);
+        random.nextBytes(indices);
+        random.nextBytes(mono);
+        int[] palette = new int[256];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = random.nextInt() & 0xFFFFFF;
+        }
+        int[] twoColors = {palette[0], palette[1]};
+        int[] expected = new int[W * H];
+        int[] actual = new int[W * H];
+
+        time(report, "bgrxToRgb", () -> {
+            for (int y = 0; y < H; y++) {
+                PixelConverterTest.oldBgrxToRgb(bgrx, expected, y * W, W);
+            }
+        }, () -> {
+            for (int y = 0; y < H; y++) {
+                PixelConverter.bgrxToRgb(bgrx, 0, actual, y * W, W);
+            }
+        });
+        assertArrayEquals(expected, actual);
+
+        time(report, "rgbToRgb", () -> {
+            for (int y = 0; y < H; y++) {
+                PixelConverterTest.oldRgbToRgb(rgb, y * W, expected, y * W, W);
+            }
+        }, () -> {
+            for (int y = 0; y < H; y++) {
+                PixelConverter.rgbToRgb(rgb, y * W * 3, actual, y * W, W);
+            }
+        });
+        assertArrayEquals(expected, actual);
+
+        time(report, "paletteLookup", () -> {
+            for (int y = 0; y < H; y++) {
+                PixelConverterTest.oldPaletteLookup(indices, palette, expected, y * W, W);
+            }
+        }, () -> {
+            for (int y = 0; y < H; y++) {
+                PixelConverter.paletteLookup(indices, 0, palette, actual, y * W, W);
+            }
+        });
+        assertArrayEquals(expected, actual);
+
+        int rowBytes = (W + 7) / 8;
+        time(report, "expandMono", () -> PixelConverterTest.oldMonoData(W, H, mono, twoColors, expected, 0, W), () -> {
+            for (int y = 0; y < H; y++) {
+                PixelConverter.expandMono(mono, y * rowBytes, twoColors[0], twoColors[1], actual, y * W, W);
+            }
+        });
+        assertArrayEquals(expected, actual);
+        report.write();
+    }
+}
@@ -0,0 +1,172 @@
+package com.iiordanov.bVNC;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Checks the row kernels against the per-pixel loops the decoders used before, at unaligned
+ * offsets and for lengths which are not multiples of the unrolling.
+ */
+public class PixelConverterTest {
+    private static final int SENTINEL = 0x5A5A5A5A;
+    private static final int[] COUNTS = {0, 1, 2, 7, 8, 9, 15, 16, 17, 63, 64, 65, 1000};
+
+    private final Random random = new Random(42);
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int[] newDst(int length) {
+        int[] dst = new int[length];
+        Arrays.fill(dst, SENTINEL);
+        return dst;
+    }
+
+    // The loops below are the ones replaced by PixelConverter.
+
+    static void oldBgrxToRgb(byte[] src, int[] dst, int offset, int w) {
+        for (int i = 0; i < w; i++) {
+            final int idx = i * 4;
+            dst[offset + i] = (src[idx + 2] & 0xff) << 16 | (src[idx + 1] & 0xff) << 8 | (src[idx] & 0xff);
+        }
+    }
+
+    static void oldBgrToRgb(byte[] src, int[] dst, int count) {
+        for (int i = 0; i < count; i++) {
+            final int idx = i * 3;
+            dst[i] = ((src[idx + 2] & 0xFF) << 16 | (src[idx + 1] & 0xFF) << 8 | (src[idx] & 0xFF));
+        }
+    }
+
+    static void oldRgbToRgb(byte[] buf, int boffset, int[] pixels, int offset, int w) {
+        for (int dx = 0; dx < w; dx++) {
+            int idx = boffset * 3;
+            boffset++;
+            pixels[offset++] = (buf[idx] & 0xFF) << 16 | (buf[idx + 1] & 0xFF) << 8 | (buf[idx + 2] & 0xFF);
+        }
+    }
+
+    static void oldPaletteLookup(byte[] src, int[] palette, int[] pixels, int offset, int w) {
+        for (int i = 0; i < w; i++) {
+            pixels[offset + i] = palette[0xFF & src[i]];
+        }
+    }
+
+    static void oldUnsignedBytesToInts(byte[] src, int[] dst, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[i] = (int) src[i] & 0xFF;
+        }
+    }
+
+    static void oldMonoData(int w, int h, byte[] src, int[] palette, int[] pixels, int i, int stride) {
+        int dx, dy, n;
+        int rowBytes = (w + 7) / 8;
+        byte b;
+        for (dy = 0; dy < h; dy++) {
+            for (dx = 0; dx < w / 8; dx++) {
+                b = src[dy * rowBytes + dx];
+                for (n = 7; n >= 0; n--) {
+                    pixels[i++] = palette[b >> n & 1];
+                }
+            }
+            for (n = 7; n >= 8 - w % 8; n--) {
+                pixels[i++] = palette[src[dy * rowBytes + dx] >> n & 1];
+            }
+            i += (stride - w);
+        }
+    }
+
+    @Test
+    public void bgrxToRgbMatchesPerPixelLoop() {
+        for (int count : COUNTS) {
+            byte[] src = randomBytes(count * 4);
+            int offset = random.nextInt(5);
+            int[] expected = newDst(count + 8);
+            int[] actual = newDst(count + 8);
+            oldBgrxToRgb(src, expected, offset, count);
+            PixelConverter.bgrxToRgb(src, 0, actual, offset, count);
+            assertArrayEquals("count " + count, expected, actual);
+        }
+    }
+
+    @Test
+    public void bgrToRgbMatchesPerPixelLoop() {
+        for (int count : COUNTS) {
+            byte[] src = randomBytes(count * 3);
+            int[] expected = newDst(count + 1);
+            int[] actual = newDst(count + 1);
+            oldBgrToRgb(src, expected, count);
+            PixelConverter.bgrToRgb(src, 0, actual, 0, count);
+            assertArrayEquals("count " + count, expected, actual);
+        }
+    }
+
+    @Test
+    public void rgbToRgbMatchesPerPixelLoop() {
+        for (int count : COUNTS) {
+            int pixelOffset = random.nextInt(5);
+            byte[] src = randomBytes((pixelOffset + count) * 3);
+            int offset = random.nextInt(5);
+            int[] expected = newDst(count + 8);
+            int[] actual = newDst(count + 8);
+            oldRgbToRgb(src, pixelOffset, expected, offset, count);
+            PixelConverter.rgbToRgb(src, pixelOffset * 3, actual, offset, count);
+            assertArrayEquals("count " + count, expected, actual);
+        }
+    }
+
+    @Test
+    public void paletteLookupMatchesPerPixelLoop() {
+        int[] palette = new int[256];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = random.nextInt() & 0xFFFFFF;
+        }
+        for (int count : COUNTS) {
+            byte[] src = randomBytes(count);
+            int offset = random.nextInt(5);
+            int[] expected = newDst(count + 8);
+            int[] actual = newDst(count + 8);
+            oldPaletteLookup(src, palette, expected, offset, count);
+            PixelConverter.paletteLookup(src, 0, palette, actual, offset, count);
+            assertArrayEquals("count " + count, expected, actual);
+        }
+    }
+
+    @Test
+    public void unsignedBytesToIntsMatchesPerPixelLoop() {
+        for (int count : COUNTS) {
+            byte[] src = randomBytes(count);
+            int[] expected = newDst(count + 1);
+            int[] actual = newDst(count + 1);
+            oldUnsignedBytesToInts(src, expected, count);
+            PixelConverter.unsignedBytesToInts(src, 0, actual, 0, count);
+            assertArrayEquals("count " + count, expected, actual);
+        }
+    }
+
+    @Test
+    public void expandMonoMatchesPerPixelLoop() {
+        int[] palette = {0x102030, 0xA0B0C0};
+        for (int w : COUNTS) {
+            int h = 3;
+            int stride = w + 5;
+            int rowBytes = (w + 7) / 8;
+            byte[] src = randomBytes(rowBytes * h);
+            int[] expected = newDst(stride * h + 8);
+            int[] actual = newDst(stride * h + 8);
+            int start = 2;
+            oldMonoData(w, h, src, palette, expected, start, stride);
+            for (int dy = 0; dy < h; dy++) {
+                PixelConverter.expandMono(src, dy * rowBytes, palette[0], palette[1], actual, start + dy * stride, w);
+            }
+            assertArrayEquals("width " + w, expected, actual);
+        }
+    }
+}
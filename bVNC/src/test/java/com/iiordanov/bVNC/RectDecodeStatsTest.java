@@ -0,0 +1,67 @@
+package com.iiordanov.bVNC;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RectDecodeStatsTest {
+
+    @Test
+    public void encodingsAreNamed() {
+        assertEquals("Raw", RectDecodeStats.nameOf(RfbProto.EncodingRaw));
+        assertEquals("Tight", RectDecodeStats.nameOf(RfbProto.EncodingTight));
+        assertEquals("TightZstd", RectDecodeStats.nameOf(RfbProto.EncodingTightZstd));
+        assertNull(RectDecodeStats.nameOf(RfbProto.EncodingLastRect));
+        assertNull(RectDecodeStats.nameOf(RfbProto.EncodingNewFBSize));
+    }
+
+    @Test
+    public void nothingToSummarizeInitially() {
+        assertEquals("", new RectDecodeStats().summary());
+    }
+
+    @Test
+    public void rectanglesAreAccumulatedPerEncoding() {
+        RectDecodeStats stats = new RectDecodeStats();
+        stats.add(RfbProto.EncodingZRLE, 64, 64, 4096 * 3);
+        stats.add(RfbProto.EncodingZRLE, 64, 64, 4096 * 5);
+        stats.add(RfbProto.EncodingRaw, 10, 10, 250000);
+        assertEquals("Raw: 1 rects, 100 pixels, 2500.00 ns/pixel, 250 us/rect\n" +
+                "ZRLE: 2 rects, 8192 pixels, 4.00 ns/pixel, 16 us/rect\n", stats.summary());
+    }
+
+    @Test
+    public void pseudoEncodingsAreIgnored() {
+        RectDecodeStats stats = new RectDecodeStats();
+        stats.add(RfbProto.EncodingPointerPos, 1, 1, 1000);
+        stats.add(RfbProto.EncodingLastRect, 0, 0, 1000);
+        assertEquals("", stats.summary());
+    }
+
+    @Test
+    public void emptyRectanglesDoNotDivideByZero() {
+        RectDecodeStats stats = new RectDecodeStats();
+        stats.add(RfbProto.EncodingCopyRect, 0, 0, 2000);
+        assertEquals("CopyRect: 1 rects, 0 pixels, 0.00 ns/pixel, 2 us/rect\n", stats.summary());
+    }
+
+    @Test
+    public void workerTimeIsAddedToItsEncoding() {
+        RectDecodeStats stats = new RectDecodeStats();
+        stats.add(RfbProto.EncodingTight, 100, 100, 10000);
+        stats.addWorkerTime(RfbProto.EncodingTight, 30000);
+        stats.addWorkerTime(RfbProto.EncodingTightZstd, 0);
+        assertEquals("Tight: 1 rects, 10000 pixels, 4.00 ns/pixel, 40 us/rect\n", stats.summary());
+    }
+
+    @Test
+    public void resetClearsAllEncodings() {
+        RectDecodeStats stats = new RectDecodeStats();
+        stats.add(RfbProto.EncodingHextile, 16, 16, 1000);
+        stats.reset();
+        assertEquals("", stats.summary());
+        stats.add(RfbProto.EncodingHextile, 16, 16, 2560);
+        assertEquals("Hextile: 1 rects, 256 pixels, 10.00 ns/pixel, 2 us/rect\n", stats.summary());
+    }
+}
@@ -0,0 +1,89 @@
+package com.iiordanov.bVNC;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRecordingsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File recording(String name, int size, long modified) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[size]);
+        }
+        assertTrue(file.setLastModified(modified));
+        return file;
+    }
+
+    @Test
+    public void newestIsNullWithoutRecordings() throws IOException {
+        assertNull(new SessionRecordings(folder.getRoot()).newest());
+        assertNull(new SessionRecordings(new File(folder.getRoot(), "missing")).newest());
+        recording("notes.txt", 10, 1000000);
+        assertNull(new SessionRecordings(folder.getRoot()).newest());
+    }
+
+    @Test
+    public void newestIsTheLastModified() throws IOException {
+        recording("1.rfbrec", 10, 1000000);
+        File newest = recording("3.rfbrec", 10, 3000000);
+        recording("2.rfbrec", 10, 2000000);
+        assertEquals(newest, new SessionRecordings(folder.getRoot()).newest());
+    }
+
+    @Test
+    public void newRecordingKeepsRoomForItself() throws IOException {
+        File oldest = recording("1.rfbrec", 10, 1000000);
+        File middle = recording("2.rfbrec", 10, 2000000);
+        File newest = recording("3.rfbrec", 10, 3000000);
+        File next = new SessionRecordings(folder.getRoot(), 3, 1000).newRecordingFile();
+        assertFalse(oldest.exists());
+        assertTrue(middle.exists());
+        assertTrue(newest.exists());
+        assertEquals(folder.getRoot(), next.getParentFile());
+        assertTrue(next.getName().endsWith(".rfbrec"));
+        assertFalse(next.exists());
+    }
+
+    @Test
+    public void oldestRecordingsAreDeletedBeyondTheSizeLimit() throws IOException {
+        File oldest = recording("1.rfbrec", 400, 1000000);
+        File middle = recording("2.rfbrec", 400, 2000000);
+        File newest = recording("3.rfbrec", 400, 3000000);
+        new SessionRecordings(folder.getRoot(), 10, 1000).newRecordingFile();
+        assertFalse(oldest.exists());
+        assertTrue(middle.exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void remainingBytesLeaveRoomForExistingRecordings() throws IOException {
+        recording("1.rfbrec", 300, 1000000);
+        recording("2.rfbrec", 400, 2000000);
+        SessionRecordings recordings = new SessionRecordings(folder.getRoot(), 10, 1000);
+        recordings.newRecordingFile();
+        assertEquals(300, recordings.remainingBytes());
+        recording("3.rfbrec", 400, 3000000);
+        assertEquals(0, recordings.remainingBytes());
+    }
+
+    @Test
+    public void otherFilesAreLeftAlone() throws IOException {
+        File other = recording("notes.txt", 4000, 1000000);
+        File newest = recording("2.rfbrec", 10, 2000000);
+        new SessionRecordings(folder.getRoot(), 1, 100).newRecordingFile();
+        assertTrue(other.exists());
+        assertFalse(newest.exists());
+    }
+}
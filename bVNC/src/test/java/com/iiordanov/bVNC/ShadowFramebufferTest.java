@@ -0,0 +1,25 @@
+package com.iiordanov.bVNC;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShadowFramebufferTest {
+
+    @Test
+    public void levelIsThePowerOfTwoAtOrAboveTheZoom() {
+        assertEquals(0.5f, ShadowFramebuffer.levelFor(0.49f), 0);
+        assertEquals(0.5f, ShadowFramebuffer.levelFor(0.26f), 0);
+        assertEquals(0.25f, ShadowFramebuffer.levelFor(0.25f), 0);
+        assertEquals(0.25f, ShadowFramebuffer.levelFor(0.2f), 0);
+        assertEquals(0.125f, ShadowFramebuffer.levelFor(0.1f), 0);
+    }
+
+    @Test
+    public void pinchingWithinALevelKeepsTheShadow() {
+        float level = ShadowFramebuffer.levelFor(0.45f);
+        for (float zoom = 0.45f; zoom > 0.26f; zoom -= 0.01f) {
+            assertEquals(level, ShadowFramebuffer.levelFor(zoom), 0);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.iiordanov.bVNC;
+
+import android.graphics.Rect;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TightDecodeWorkersTest {
+
+    @Test
+    public void jpegWorkersRunTheExitCallbackOnTheirOwnThreads() throws Exception {
+        final Set<Thread> decoding = Collections.synchronizedSet(new HashSet<Thread>());
+        final Set<Thread> exited = Collections.synchronizedSet(new HashSet<Thread>());
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        final CountDownLatch allExited = new CountDownLatch(threads);
+        TightDecodeWorkers workers = new TightDecodeWorkers(() -> {
+            exited.add(Thread.currentThread());
+            allExited.countDown();
+        });
+        for (int i = 0; i < threads * 4; i++) {
+            workers.submitJpeg(new Rect(), () -> {
+                decoding.add(Thread.currentThread());
+                Thread.sleep(5);
+            });
+        }
+        workers.waitForAll();
+        workers.shutdown();
+        assertTrue(allExited.await(5, TimeUnit.SECONDS));
+        assertTrue(exited.containsAll(decoding));
+        assertEquals(threads, exited.size());
+    }
+
+    @Test
+    public void streamWorkersDoNotRunTheExitCallback() throws Exception {
+        final CountDownLatch exited = new CountDownLatch(1);
+        TightDecodeWorkers workers = new TightDecodeWorkers(exited::countDown);
+        workers.submitToStream(0, null, () -> {
+        });
+        workers.waitForAll();
+        workers.shutdown();
+        assertFalse(exited.await(200, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,87 @@
+package com.tigervnc.rdr;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RawInStreamTest {
+
+    /**
+     * A server which keeps sending and records whether it was closed.
+     */
+    private static class EndlessInputStream extends InputStream {
+        volatile boolean closed;
+
+        @Override
+        public int read() {
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return len;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static Set<Thread> readAheadThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("RfbReadAhead")) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    @Test
+    public void closeStopsTheReadAheadThread() throws Exception {
+        Set<Thread> before = readAheadThreads();
+        EndlessInputStream source = new EndlessInputStream();
+        RawInStream in = new RawInStream(source);
+        in.startReadAhead();
+        in.readBytes(new byte[100000], 0, 100000);
+        Set<Thread> started = readAheadThreads();
+        started.removeAll(before);
+        assertEquals(1, started.size());
+        Thread reader = started.iterator().next();
+
+        // Nothing reads any more, so the reader runs out of free chunks and waits.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (in.getReadAhead().getReaderStallCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(reader.isAlive());
+
+        in.close();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void closeWithoutReadAheadClosesTheSource() throws IOException {
+        final boolean[] closed = {false};
+        RawInStream in = new RawInStream(new ByteArrayInputStream(new byte[10]) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        });
+        assertEquals(0, in.readUnsignedByte());
+        in.close();
+        assertTrue(closed[0]);
+    }
+}
@@ -0,0 +1,106 @@
+package com.tigervnc.rdr;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class SessionReplayTest {
+
+    private static byte[] serverBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(7).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Hands out at most chunk bytes per read, like a socket.
+     */
+    private static InputStream chunked(byte[] data, final int chunk) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        };
+    }
+
+    private static byte[] record(byte[] data, int chunk, int width, int height) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        RecordingInStream recording = new RecordingInStream(new RawInStream(chunked(data, chunk)), file,
+                width, height);
+        byte[] read = new byte[data.length];
+        int off = 0;
+        for (int len = 1; off < read.length; len = len * 2 % 5000 + 1) {
+            int n = Math.min(len, read.length - off);
+            recording.readBytes(read, off, n);
+            off += n;
+        }
+        assertArrayEquals(data, read);
+        assertEquals(data.length, recording.getBytesRecorded());
+        recording.close();
+        return file.toByteArray();
+    }
+
+    @Test
+    public void replayReturnsWhatWasRecorded() throws IOException {
+        byte[] data = serverBytes(300000);
+        ReplayInStream replay = new ReplayInStream(new ByteArrayInputStream(record(data, 1500, 1920, 1080)), false);
+        assertEquals(1920, replay.getFramebufferWidth());
+        assertEquals(1080, replay.getFramebufferHeight());
+        byte[] replayed = new byte[data.length];
+        replay.readBytes(replayed, 0, 3);
+        replay.readBytes(replayed, 3, replayed.length - 3);
+        assertArrayEquals(data, replayed);
+        try {
+            replay.readUnsignedByte();
+            fail("Expected the end of the recording");
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void replayReadsIntegersAcrossRecords() throws IOException {
+        byte[] data = serverBytes(4096);
+        ReplayInStream replay = new ReplayInStream(new ByteArrayInputStream(record(data, 3, 640, 480)), false);
+        for (int i = 0; i < data.length; i += 4) {
+            int expected = (data[i] & 0xff) << 24 | (data[i + 1] & 0xff) << 16 |
+                    (data[i + 2] & 0xff) << 8 | (data[i + 3] & 0xff);
+            assertEquals(expected, replay.readInt());
+        }
+    }
+
+    @Test
+    public void recordingStopsAtItsSizeLimit() throws IOException {
+        byte[] data = serverBytes(10000);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        RecordingInStream recording = new RecordingInStream(new RawInStream(chunked(data, 1000)), file,
+                640, 480, 4000);
+        byte[] read = new byte[data.length];
+        recording.readBytes(read, 0, read.length);
+        assertArrayEquals(data, read);
+        assertFalse(recording.isRecording());
+        assertEquals(3000, recording.getBytesRecorded());
+        assertEquals(24 + 3 * (8 + 1000), file.size());
+
+        ReplayInStream replay = new ReplayInStream(new ByteArrayInputStream(file.toByteArray()), false);
+        byte[] replayed = new byte[3000];
+        replay.readBytes(replayed, 0, replayed.length);
+        assertArrayEquals(Arrays.copyOf(data, 3000), replayed);
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        new ReplayInStream(new ByteArrayInputStream("RFB 003.008\n".getBytes()), false);
+    }
+}
@@ -0,0 +1,221 @@
+package com.undatech.opaque.proxmox;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.undatech.opaque.Connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A PVE API on localhost with a single node n1 and user alice@pve, implementing the requests
+ * ProxmoxClient makes closely enough to exercise its login, ticket and task handling.
+ */
+class MockPveServer {
+    static final String USER = "alice";
+    static final String REALM = "pve";
+    static final String PASSWORD = "secret";
+    static final String NODE = "n1";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Set<String> validTickets = new HashSet<>();
+    private final Map<Integer, String> vmStatus = new HashMap<>();
+    private final Map<String, Integer> taskPolls = new HashMap<>();
+    private final Set<Integer> clientPorts = new HashSet<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger logins = new AtomicInteger();
+    private int ticketSerial;
+    private String csrfToken = "csrf-token";
+    private int taskPollsUntilDone = 1;
+    private String taskExitStatus = "OK";
+
+    MockPveServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/api2/json/", this::handle);
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns a connection pointing at this server.
+     */
+    Connection connection() {
+        String hostname = "http://127.0.0.1:" + server.getAddress().getPort();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getHostname":
+                            return hostname;
+                        case "getX509KeySignature":
+                        case "getOvirtCaData":
+                            return "";
+                    }
+                    Class<?> type = method.getReturnType();
+                    if (type == boolean.class) {
+                        return false;
+                    } else if (type == int.class) {
+                        return 0;
+                    } else if (type == long.class) {
+                        return 0L;
+                    }
+                    return null;
+                });
+    }
+
+    synchronized void setVmStatus(int vmid, String status) {
+        vmStatus.put(vmid, status);
+    }
+
+    synchronized void setTask(int pollsUntilDone, String exitStatus) {
+        taskPollsUntilDone = pollsUntilDone;
+        taskExitStatus = exitStatus;
+    }
+
+    synchronized int getTaskPolls(String upid) {
+        Integer polls = taskPolls.get(upid);
+        return polls != null ? polls : 0;
+    }
+
+    synchronized void revokeTickets() {
+        validTickets.clear();
+    }
+
+    synchronized int getClientConnections() {
+        return clientPorts.size();
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    int getLogins() {
+        return logins.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        synchronized (this) {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+        }
+        String path = exchange.getRequestURI().getPath().substring("/api2/json".length());
+        String method = exchange.getRequestMethod();
+        Map<String, String> form = parseForm(readBody(exchange.getRequestBody()));
+        try {
+            if (path.equals("/access/domains")) {
+                respond(exchange, 200, "[{\"realm\":\"pam\",\"type\":\"pam\"},"
+                        + "{\"realm\":\"pve\",\"type\":\"pve\"},"
+                        + "{\"realm\":\"otp\",\"type\":\"pve\",\"tfa\":\"oath\"}]");
+            } else if (path.equals("/access/ticket") && method.equals("POST")) {
+                login(exchange, form);
+            } else if (!isAuthenticated(exchange, method)) {
+                respond(exchange, 401, null);
+            } else if (path.equals("/cluster/resources")) {
+                respond(exchange, 200, "[{\"id\":\"qemu/100\",\"type\":\"qemu\",\"node\":\"n1\","
+                        + "\"vmid\":\"100\",\"name\":\"desktop\"},"
+                        + "{\"id\":\"node/n1\",\"type\":\"node\",\"node\":\"n1\"}]");
+            } else if (path.matches("/nodes/n1/qemu/\\d+/status/current")) {
+                respond(exchange, 200, "{\"status\":\"" + getVmStatus(vmid(path)) + "\"}");
+            } else if (path.matches("/nodes/n1/qemu/\\d+/status/start") && method.equals("POST")) {
+                respond(exchange, 200, "\"UPID:n1:00001234:qmstart:" + vmid(path) + ":" + USER + "@" + REALM + ":\"");
+            } else if (path.matches("/nodes/n1/tasks/.+/status")) {
+                respond(exchange, 200, pollTask(path.substring("/nodes/n1/tasks/".length(), path.length() - "/status".length())));
+            } else {
+                respond(exchange, 404, null);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void login(HttpExchange exchange, Map<String, String> form) throws IOException {
+        logins.incrementAndGet();
+        if (!USER.equals(form.get("username")) || !PASSWORD.equals(form.get("password"))
+                || !REALM.equals(form.get("realm"))) {
+            respond(exchange, 401, null);
+            return;
+        }
+        String ticket;
+        synchronized (this) {
+            ticket = "PVE:" + USER + "@" + REALM + ":" + (++ticketSerial);
+            validTickets.add(ticket);
+        }
+        respond(exchange, 200, "{\"username\":\"" + USER + "@" + REALM + "\",\"ticket\":\"" + ticket
+                + "\",\"CSRFPreventionToken\":\"" + csrfToken + "\"}");
+    }
+
+    private synchronized boolean isAuthenticated(HttpExchange exchange, String method) {
+        String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+        if (cookie == null || !cookie.startsWith("PVEAuthCookie=")
+                || !validTickets.contains(cookie.substring("PVEAuthCookie=".length()))) {
+            return false;
+        }
+        return method.equals("GET") || csrfToken.equals(exchange.getRequestHeaders().getFirst("CSRFPreventionToken"));
+    }
+
+    private synchronized String getVmStatus(int vmid) {
+        String status = vmStatus.get(vmid);
+        return status != null ? status : "stopped";
+    }
+
+    private synchronized String pollTask(String upid) {
+        int polls = getTaskPolls(upid) + 1;
+        taskPolls.put(upid, polls);
+        if (polls < taskPollsUntilDone) {
+            return "{\"status\":\"running\",\"upid\":\"" + upid + "\"}";
+        }
+        return "{\"status\":\"stopped\",\"exitstatus\":\"" + taskExitStatus + "\",\"upid\":\"" + upid + "\"}";
+    }
+
+    private static int vmid(String path) {
+        return Integer.parseInt(path.split("/")[4]);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String data) throws IOException {
+        byte[] body = ("{\"data\":" + (data != null ? data : "null") + "}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static Map<String, String> parseForm(String body) throws IOException {
+        Map<String, String> form = new HashMap<>();
+        for (String pair : body.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                form.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return form;
+    }
+}
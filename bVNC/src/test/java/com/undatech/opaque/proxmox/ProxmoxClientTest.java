@@ -0,0 +1,150 @@
+package com.undatech.opaque.proxmox;
+
+import com.undatech.opaque.proxmox.pojo.PveRealm;
+import com.undatech.opaque.proxmox.pojo.PveResource;
+
+import org.apache.http.HttpException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import javax.security.auth.login.LoginException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProxmoxClientTest {
+    private MockPveServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockPveServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private ProxmoxClient newClient() {
+        return new ProxmoxClient(server.connection(), null, null);
+    }
+
+    private ProxmoxClient loggedInClient() throws Exception {
+        ProxmoxClient api = newClient();
+        api.login(MockPveServer.USER, MockPveServer.REALM, MockPveServer.PASSWORD, null);
+        return api;
+    }
+
+    @Test
+    public void realmsAreListedWithoutLogin() throws Exception {
+        Map<String, PveRealm> realms = newClient().getAvailableRealms();
+        assertEquals(3, realms.size());
+        assertEquals("oath", realms.get("otp").getTfa());
+    }
+
+    @Test
+    public void loginObtainsTicketForLaterRequests() throws Exception {
+        ProxmoxClient api = loggedInClient();
+        assertNotNull(api.getTicket());
+        assertEquals("csrf-token", api.getCsrfToken());
+
+        Map<String, PveResource> resources = api.getResources();
+        assertEquals(1, resources.size());
+        assertEquals("desktop", resources.get("100").getName());
+    }
+
+    @Test(expected = LoginException.class)
+    public void wrongPasswordIsLoginException() throws Exception {
+        newClient().login(MockPveServer.USER, MockPveServer.REALM, "wrong", null);
+    }
+
+    @Test(expected = LoginException.class)
+    public void requestWithoutTicketIsLoginException() throws Exception {
+        newClient().getResources();
+    }
+
+    @Test
+    public void sequentialRequestsReuseOneConnection() throws Exception {
+        ProxmoxClient api = loggedInClient();
+        for (int i = 0; i < 5; i++) {
+            api.getResources();
+            api.getCurrentStatus(MockPveServer.NODE, "qemu", 100);
+        }
+        assertEquals(11, server.getRequests());
+        assertEquals(1, server.getClientConnections());
+    }
+
+    @Test
+    public void concurrentRequestsKeepTheirOwnState() throws Exception {
+        ProxmoxClient api = loggedInClient();
+        int vms = 16;
+        for (int vmid = 0; vmid < vms; vmid++) {
+            server.setVmStatus(vmid, vmid % 2 == 0 ? "running" : "stopped");
+        }
+        List<Future<String>> statuses = new ArrayList<>();
+        for (int vmid = 0; vmid < vms; vmid++) {
+            final int id = vmid;
+            statuses.add(api.submit(() -> api.getCurrentStatus(MockPveServer.NODE, "qemu", id).getStatus()));
+        }
+        for (int vmid = 0; vmid < vms; vmid++) {
+            assertEquals(vmid % 2 == 0 ? "running" : "stopped", ProxmoxClient.await(statuses.get(vmid)));
+        }
+    }
+
+    @Test
+    public void awaitThrowsWhatTheRequestThrew() throws Exception {
+        ProxmoxClient api = newClient();
+        try {
+            ProxmoxClient.await(api.submit(api::getResources));
+            fail("Expected LoginException");
+        } catch (LoginException expected) {
+        }
+    }
+
+    @Test
+    public void startedVmIsFollowedUntilItsTaskStops() throws Exception {
+        ProxmoxClient api = loggedInClient();
+        server.setTask(3, "OK");
+        String upid = api.startVm(MockPveServer.NODE, "qemu", 100);
+        assertTrue(upid.startsWith("UPID:n1:"));
+        api.waitForTask(MockPveServer.NODE, upid, 10000);
+        assertEquals(3, server.getTaskPolls(upid));
+    }
+
+    @Test
+    public void failedTaskIsHttpException() throws Exception {
+        ProxmoxClient api = loggedInClient();
+        server.setTask(2, "start failed: QEMU exited with code 1");
+        String upid = api.startVm(MockPveServer.NODE, "qemu", 100);
+        try {
+            api.waitForTask(MockPveServer.NODE, upid, 10000);
+            fail("Expected HttpException");
+        } catch (HttpException expected) {
+            assertTrue(expected.getMessage().contains("QEMU exited"));
+        }
+    }
+
+    @Test
+    public void unfinishedTaskTimesOut() throws Exception {
+        ProxmoxClient api = loggedInClient();
+        server.setTask(Integer.MAX_VALUE, "OK");
+        String upid = api.startVm(MockPveServer.NODE, "qemu", 100);
+        long start = System.nanoTime();
+        try {
+            api.waitForTask(MockPveServer.NODE, upid, 500);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+        assertTrue((System.nanoTime() - start) / 1000000L < 2000);
+        assertTrue(server.getTaskPolls(upid) >= 2);
+    }
+}
@@ -0,0 +1,95 @@
+package com.undatech.opaque.proxmox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import javax.security.auth.login.LoginException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PveTicketCacheTest {
+    private MockPveServer server;
+    private long now;
+    private PveTicketCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockPveServer();
+        cache = new PveTicketCache() {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private ProxmoxClient newClient() {
+        return new ProxmoxClient(server.connection(), null, null);
+    }
+
+    private void loginAndSave() throws Exception {
+        ProxmoxClient api = newClient();
+        api.login(MockPveServer.USER, MockPveServer.REALM, MockPveServer.PASSWORD, null);
+        cache.save(api, MockPveServer.USER, MockPveServer.REALM);
+    }
+
+    @Test
+    public void savedTicketSkipsLogin() throws Exception {
+        loginAndSave();
+        ProxmoxClient api = newClient();
+        assertTrue(cache.restore(api, MockPveServer.USER, MockPveServer.REALM));
+        assertEquals(1, api.getResources().size());
+        assertEquals(1, server.getLogins());
+    }
+
+    @Test
+    public void ticketIsOnlyRestoredForItsUser() throws Exception {
+        loginAndSave();
+        assertFalse(cache.restore(newClient(), "bob", MockPveServer.REALM));
+        assertFalse(cache.restore(newClient(), MockPveServer.USER, "pam"));
+    }
+
+    @Test
+    public void clientWithoutTicketIsNotSaved() {
+        ProxmoxClient api = newClient();
+        cache.save(api, MockPveServer.USER, MockPveServer.REALM);
+        assertFalse(cache.restore(api, MockPveServer.USER, MockPveServer.REALM));
+    }
+
+    @Test
+    public void oldTicketIsDropped() throws Exception {
+        loginAndSave();
+        now += PveTicketCache.MAX_AGE_MILLIS - 1;
+        assertTrue(cache.restore(newClient(), MockPveServer.USER, MockPveServer.REALM));
+        now += 1;
+        assertFalse(cache.restore(newClient(), MockPveServer.USER, MockPveServer.REALM));
+        now = 0;
+        assertFalse(cache.restore(newClient(), MockPveServer.USER, MockPveServer.REALM));
+    }
+
+    @Test
+    public void rejectedTicketIsLoginExceptionAndCanBeRemoved() throws Exception {
+        loginAndSave();
+        server.revokeTickets();
+        ProxmoxClient api = newClient();
+        assertTrue(cache.restore(api, MockPveServer.USER, MockPveServer.REALM));
+        try {
+            api.getResources();
+            fail("Expected LoginException");
+        } catch (LoginException expected) {
+        }
+        cache.remove(api, MockPveServer.USER, MockPveServer.REALM);
+        assertFalse(cache.restore(newClient(), MockPveServer.USER, MockPveServer.REALM));
+    }
+}
@@ -26,16 +26,7 @@
 #include "android-service.h"
 #include "spice/vd_agent.h"
 
-JNIEXPORT void JNICALL
-Java_com_undatech_opaque_SpiceCommunicator_UpdateBitmap (JNIEnv* env, jobject obj, jobject bitmap, gint x, gint y, gint width, gint height) {
-    uchar* pixels;
-    SpiceDisplayPrivate *d = SPICE_DISPLAY_GET_PRIVATE(global_display);
-
-    if (AndroidBitmap_lockPixels(env, bitmap, (void**)&pixels) < 0) {
-        __android_log_write(ANDROID_LOG_ERROR, "android-io", "AndroidBitmap_lockPixels() failed!");
-        return;
-    }
-
+static void copyRectToBitmap (SpiceDisplayPrivate *d, uchar *pixels, gint x, gint y, gint width, gint height) {
     int slen = d->width * 4;
     int offset = (slen * y) + (x * 4);
     uchar *source = d->data;
@@ -52,6 +43,50 @@ Java_com_undatech_opaque_SpiceCommunicator_UpdateBitmap (JNIEnv* env, jobject ob
         sourcepix = sourcepix + slen;
         destpix   = destpix + slen;
     }
+}
+
+JNIEXPORT void JNICALL
+Java_com_undatech_opaque_SpiceCommunicator_UpdateBitmap (JNIEnv* env, jobject obj, jobject bitmap, gint x, gint y, gint width, gint height) {
+    uchar* pixels;
+    SpiceDisplayPrivate *d = SPICE_DISPLAY_GET_PRIVATE(global_display);
+
+    if (AndroidBitmap_lockPixels(env, bitmap, (void**)&pixels) < 0) {
+        __android_log_write(ANDROID_LOG_ERROR, "android-io", "AndroidBitmap_lockPixels() failed!");
+        return;
+    }
+
+    copyRectToBitmap(d, pixels, x, y, width, height);
+
+    AndroidBitmap_unlockPixels(env, bitmap);
+}
+
+/* Copies a batch of rectangles, given as x, y, width and height, locking the bitmap once.
+ * Rectangles batched before the primary surface was replaced may no longer fit, so they are
+ * checked against the current surface and the bitmap. */
+JNIEXPORT void JNICALL
+Java_com_undatech_opaque_SpiceCommunicator_UpdateBitmapRects (JNIEnv* env, jobject obj, jobject bitmap, jintArray rects, jint count) {
+    uchar* pixels;
+    AndroidBitmapInfo info;
+    SpiceDisplayPrivate *d = SPICE_DISPLAY_GET_PRIVATE(global_display);
+
+    if (d->data == NULL || AndroidBitmap_getInfo(env, bitmap, &info) < 0) {
+        return;
+    }
+    if (AndroidBitmap_lockPixels(env, bitmap, (void**)&pixels) < 0) {
+        __android_log_write(ANDROID_LOG_ERROR, "android-io", "AndroidBitmap_lockPixels() failed!");
+        return;
+    }
+    jint *r = (*env)->GetIntArrayElements(env, rects, NULL);
+    if (r != NULL) {
+        for (int i = 0; i < count * 4; i += 4) {
+            if (r[i] >= 0 && r[i + 1] >= 0 &&
+                r[i] + r[i + 2] <= d->width && r[i + 1] + r[i + 3] <= d->height &&
+                (uint32_t) d->width == info.width && (uint32_t) d->height == info.height) {
+                copyRectToBitmap(d, pixels, r[i], r[i + 1], r[i + 2], r[i + 3]);
+            }
+        }
+        (*env)->ReleaseIntArrayElements(env, rects, r, JNI_ABORT);
+    }
 
     AndroidBitmap_unlockPixels(env, bitmap);
 }
@@ -205,6 +240,26 @@ Java_com_undatech_opaque_SpiceCommunicator_SpiceClientCutText(JNIEnv *env, jobje
 /* Callbacks to the UI layer to draw screen updates and invalidate part of the screen,
  * or to request a new bitmap. */
 
+static gboolean frame_end_pending = FALSE;
+
+/* Runs once the main loop has dispatched the sources that were ready along with the first
+ * invalidation, which ends the frame the UI may have been batching updates for. */
+static gboolean uiCallbackFrameEnd (gpointer data) {
+    frame_end_pending = FALSE;
+    if (jni_graphics_frame_end == NULL) {
+        return G_SOURCE_REMOVE;
+    }
+    JNIEnv* env;
+    gboolean attached = attachThreadToJvm (&env);
+
+    (*env)->CallStaticVoidMethod(env, jni_connector_class, jni_graphics_frame_end, 0);
+
+    if (attached) {
+        detachThreadFromJvm ();
+    }
+    return G_SOURCE_REMOVE;
+}
+
 void uiCallbackInvalidate (SpiceDisplayPrivate *d, gint x, gint y, gint w, gint h) {
     JNIEnv* env;
     gboolean attached = attachThreadToJvm (&env);
@@ -215,6 +270,12 @@ void uiCallbackInvalidate (SpiceDisplayPrivate *d, gint x, gint y, gint w, gint
     if (attached) {
         detachThreadFromJvm ();
     }
+
+    // At default rather than idle priority, so a busy connection cannot postpone it.
+    if (!frame_end_pending) {
+        frame_end_pending = TRUE;
+        g_idle_add_full (G_PRIORITY_DEFAULT, uiCallbackFrameEnd, NULL, NULL);
+    }
 }
 
 void uiCallbackSettingsChanged (gint instance, gint width, gint height, gint bpp) {
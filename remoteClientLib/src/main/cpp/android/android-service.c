@@ -252,6 +252,7 @@ gboolean getJvmAndMethodReferences(JNIEnv *env) {
     // Get global method IDs for callback methods.
     jni_settings_changed = (*env)->GetStaticMethodID(env, jni_connector_class, "OnSettingsChanged", "(IIII)V");
     jni_graphics_update = (*env)->GetStaticMethodID(env, jni_connector_class, "OnGraphicsUpdate", "(IIIII)V");
+    jni_graphics_frame_end = (*env)->GetStaticMethodID(env, jni_connector_class, "OnGraphicsFrameEnd", "(I)V");
     jni_mouse_update = (*env)->GetStaticMethodID(env, jni_connector_class, "OnMouseUpdate", "(II)V");
     jni_mouse_mode = (*env)->GetStaticMethodID(env, jni_connector_class, "OnMouseMode", "(Z)V");
     jni_show_message = (*env)->GetStaticMethodID(env, jni_connector_class, "ShowMessage", "(Ljava/lang/String;)V");
@@ -305,6 +306,7 @@ Java_com_undatech_opaque_SpiceCommunicator_SpiceClientConnect(
     jni_connector_class = NULL;
     jni_settings_changed = NULL;
     jni_graphics_update = NULL;
+    jni_graphics_frame_end = NULL;
     return result;
 }
 
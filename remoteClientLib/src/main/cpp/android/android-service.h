@@ -37,6 +37,7 @@ JNIEnv*                  g_env = NULL;
 jclass    jni_connector_class  = NULL;
 jmethodID jni_settings_changed = NULL;
 jmethodID jni_graphics_update  = NULL;
+jmethodID jni_graphics_frame_end = NULL;
 jmethodID jni_mouse_update     = NULL;
 jmethodID jni_mouse_mode       = NULL;
 jmethodID jni_show_message     = NULL;
@@ -56,6 +57,7 @@ extern JNIEnv *g_env;
 extern jclass jni_connector_class;
 extern jmethodID jni_settings_changed;
 extern jmethodID jni_graphics_update;
+extern jmethodID jni_graphics_frame_end;
 extern jmethodID jni_mouse_update;
 extern jmethodID jni_mouse_mode;
 extern jmethodID jni_show_message;
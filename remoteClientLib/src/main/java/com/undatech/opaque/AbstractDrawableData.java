@@ -14,6 +14,8 @@ public interface AbstractDrawableData {
 
     void setSoftCursor(int[] newSoftCursorPixels);
 
+    void setSoftCursor(Bitmap softCursor);
+
     RectF getCursorRect();
 
     boolean isNotInitSoftCursor();
@@ -28,10 +30,16 @@ public interface AbstractDrawableData {
 
     int offset(int x, int y);
 
+    void prepareRect(int x, int y, int w, int h);
+
     void updateBitmap(int x, int y, int w, int h);
 
     void updateBitmap(Bitmap b, int x, int y, int w, int h);
 
+    void setShadowFramebufferEnabled(boolean enabled);
+
+    void framebufferDamaged(int left, int top, int right, int bottom);
+
     void setImageDrawable(ImageView v);
 
     void updateView(ImageView v);
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.undatech.opaque;
+
+import java.util.Locale;
+
+/**
+ * Graphics updates reported by native code during one native frame, merged into a few rectangles
+ * so they can be copied to the bitmap with a single native call and redrawn once.
+ * <p>
+ * A rectangle touching or overlapping one already in the batch is merged into it. Once the batch
+ * holds {@link #MAX_RECTS} rectangles, a new one is merged into whichever existing rectangle grows
+ * the least. Counts of the updates received and the copies made from them show how much batching
+ * saves.
+ * <p>
+ * Used only on the native thread delivering the updates. The counters may be read from any thread.
+ */
+class GraphicsUpdateBatch {
+    static final int MAX_RECTS = 16;
+
+    // Left, top, right and bottom of each rectangle.
+    private final int[] bounds = new int[MAX_RECTS * 4];
+    // Left, top, width and height of each rectangle, as the native copy takes them.
+    private final int[] rects = new int[MAX_RECTS * 4];
+    private int count;
+
+    private volatile long updatesReceived;
+    private volatile long framesCopied;
+    private volatile long rectsCopied;
+
+    /**
+     * Adds an update to the batch.
+     */
+    void add(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        updatesReceived++;
+        int r = x + w, b = y + h;
+        int best = -1;
+        long bestGrowth = Long.MAX_VALUE;
+        for (int i = 0; i < count * 4; i += 4) {
+            if (x <= bounds[i + 2] && r >= bounds[i] && y <= bounds[i + 3] && b >= bounds[i + 1]) {
+                best = i;
+                break;
+            }
+            if (count == MAX_RECTS) {
+                long growth = area(Math.min(x, bounds[i]), Math.min(y, bounds[i + 1]),
+                        Math.max(r, bounds[i + 2]), Math.max(b, bounds[i + 3]))
+                        - area(bounds[i], bounds[i + 1], bounds[i + 2], bounds[i + 3]);
+                if (growth < bestGrowth) {
+                    bestGrowth = growth;
+                    best = i;
+                }
+            }
+        }
+        if (best < 0) {
+            best = count++ * 4;
+            bounds[best] = x;
+            bounds[best + 1] = y;
+            bounds[best + 2] = r;
+            bounds[best + 3] = b;
+        } else {
+            bounds[best] = Math.min(x, bounds[best]);
+            bounds[best + 1] = Math.min(y, bounds[best + 1]);
+            bounds[best + 2] = Math.max(r, bounds[best + 2]);
+            bounds[best + 3] = Math.max(b, bounds[best + 3]);
+        }
+    }
+
+    private static long area(int left, int top, int right, int bottom) {
+        return (long) (right - left) * (bottom - top);
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the rectangles of the batch as left, top, width and height, and counts them as
+     * copied with one native call.
+     */
+    int[] takeRects() {
+        for (int i = 0; i < count * 4; i += 4) {
+            rects[i] = bounds[i];
+            rects[i + 1] = bounds[i + 1];
+            rects[i + 2] = bounds[i + 2] - bounds[i];
+            rects[i + 3] = bounds[i + 3] - bounds[i + 1];
+        }
+        framesCopied++;
+        rectsCopied += count;
+        return rects;
+    }
+
+    /**
+     * Returns the pixels covered by the rectangles of the batch.
+     */
+    long getPixels() {
+        long pixels = 0;
+        for (int i = 0; i < count * 4; i += 4) {
+            pixels += area(bounds[i], bounds[i + 1], bounds[i + 2], bounds[i + 3]);
+        }
+        return pixels;
+    }
+
+    int getLeft() {
+        int left = Integer.MAX_VALUE;
+        for (int i = 0; i < count * 4; i += 4) {
+            left = Math.min(left, bounds[i]);
+        }
+        return left;
+    }
+
+    int getTop() {
+        int top = Integer.MAX_VALUE;
+        for (int i = 1; i < count * 4; i += 4) {
+            top = Math.min(top, bounds[i]);
+        }
+        return top;
+    }
+
+    int getRight() {
+        int right = 0;
+        for (int i = 2; i < count * 4; i += 4) {
+            right = Math.max(right, bounds[i]);
+        }
+        return right;
+    }
+
+    int getBottom() {
+        int bottom = 0;
+        for (int i = 3; i < count * 4; i += 4) {
+            bottom = Math.max(bottom, bounds[i]);
+        }
+        return bottom;
+    }
+
+    /**
+     * Drops the rectangles of the batch, after copying them or when the framebuffer is replaced.
+     */
+    void clear() {
+        count = 0;
+    }
+
+    String summary() {
+        return String.format(Locale.US, "%d updates received, %d copies of %d rects",
+                updatesReceived, framesCopied, rectsCopied);
+    }
+}
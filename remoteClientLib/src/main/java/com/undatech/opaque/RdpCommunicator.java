@@ -20,10 +20,9 @@ import com.undatech.opaque.util.GeneralUtils;
 import org.apache.commons.validator.routines.InetAddressValidator;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class RdpCommunicator extends RfbConnectable implements RdpKeyboardMapper.KeyProcessingListener,
         LibFreeRDP.UIEventListener, LibFreeRDP.EventListener {
@@ -39,6 +38,8 @@ public class RdpCommunicator extends RfbConnectable implements RdpKeyboardMapper
     private final static int VK_LWIN = 0x5B;
     private final static int VK_RWIN = 0x5C;
     private final static int VK_EXT_KEY = 0x00000100;
+    // Marks a key passed to writeKeyStrokes() as a virtual key code rather than a unicode character.
+    public final static int VIRTUAL_KEY_STROKE = 0x10000000;
     private final RdpCommunicator myself;
     private final Viewable viewable;
     private SessionState session;
@@ -59,14 +60,10 @@ public class RdpCommunicator extends RfbConnectable implements RdpKeyboardMapper
 
     private final Connection connection;
 
-    ExecutorService inputExecutor = Executors.newSingleThreadExecutor(
-            r -> {
-                Thread thread = new Thread(r);
-                thread.setName("SendRdpInputThread");
-                thread.setPriority(Thread.MAX_PRIORITY);
-                return thread;
-            }
-    );
+    // FreeRDP pointer flag for motion, see RemoteRdpPointer.
+    private static final int POINTER_FLAGS_MOVE = 0x0800;
+    // Pointer mask of the last queued pointer event, to tell pure motion from button changes.
+    private int lastQueuedPointerMask = -1;
 
     public RdpCommunicator(Connection connection,
                            Context context, Handler handler, Viewable viewable,
@@ -167,7 +164,13 @@ public class RdpCommunicator extends RfbConnectable implements RdpKeyboardMapper
     }
 
     private void sendRemoteMouseEventOnNewThread(int x, int y, int pointerMask) {
-        runMethodOnInputThread(() -> sendRemoteMouseEvent(x, y, pointerMask));
+        Runnable event = () -> sendRemoteMouseEvent(x, y, pointerMask);
+        if ((pointerMask & POINTER_FLAGS_MOVE) != 0 && pointerMask == lastQueuedPointerMask) {
+            getInputTransmitQueue().postMotion(event);
+        } else {
+            getInputTransmitQueue().post(event);
+        }
+        lastQueuedPointerMask = pointerMask;
     }
 
     private synchronized void sendRemoteMouseEvent(int x, int y, int pointerMask) {
@@ -202,6 +205,7 @@ public class RdpCommunicator extends RfbConnectable implements RdpKeyboardMapper
 
     @Override
     public void close() {
+        shutdownInputTransmitQueue();
         setIsInNormalProtocol(false);
         disconnectRequested = true;
         long instance = session.getInstance();
@@ -278,7 +282,7 @@ public class RdpCommunicator extends RfbConnectable implements RdpKeyboardMapper
     }
 
     private void runMethodOnInputThread(Runnable runnable) {
-        inputExecutor.submit(runnable);
+        getInputTransmitQueue().post(runnable);
     }
 
     private synchronized void sendUnicodeKey(int unicodeKey, boolean down) {
@@ -286,6 +290,29 @@ public class RdpCommunicator extends RfbConnectable implements RdpKeyboardMapper
         LibFreeRDP.sendUnicodeKeyEvent(session.getInstance(), unicodeKey, down);
     }
 
+    /**
+     * Sends each key as a unicode key, or as a virtual key if it has {@link #VIRTUAL_KEY_STROKE}
+     * set, without modifiers and without pausing between keys. Callers pace the key strokes.
+     */
+    @Override
+    public void writeKeyStrokes(int[] keys, int[] metaStates, int count) {
+        int[] keyStrokes = Arrays.copyOf(keys, count);
+        runMethodOnInputThread(() -> sendKeyStrokes(keyStrokes));
+    }
+
+    private synchronized void sendKeyStrokes(int[] keyStrokes) {
+        long instance = session.getInstance();
+        for (int key : keyStrokes) {
+            if ((key & VIRTUAL_KEY_STROKE) != 0) {
+                LibFreeRDP.sendKeyEvent(instance, key & ~VIRTUAL_KEY_STROKE, true);
+                LibFreeRDP.sendKeyEvent(instance, key & ~VIRTUAL_KEY_STROKE, false);
+            } else {
+                LibFreeRDP.sendUnicodeKeyEvent(instance, key, true);
+                LibFreeRDP.sendUnicodeKeyEvent(instance, key, false);
+            }
+        }
+    }
+
     private static void sleepBetweenInputEvents(int millis) {
         try {
             Thread.sleep(millis);
@@ -580,7 +607,9 @@ public class RdpCommunicator extends RfbConnectable implements RdpKeyboardMapper
         if (viewable != null && session != null) {
             Bitmap bitmap = viewable.getBitmap();
             if (bitmap != null && x + width <= bitmap.getWidth() && y + height <= bitmap.getHeight()) {
+                long start = System.nanoTime();
                 LibFreeRDP.updateGraphics(session.getInstance(), bitmap, x, y, width, height);
+                sessionMetrics.addUpdate("RDP", (long) width * height, 0, System.nanoTime() - start);
                 viewable.reDraw(x, y, width, height);
             }
         }
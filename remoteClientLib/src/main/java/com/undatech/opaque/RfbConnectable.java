@@ -24,6 +24,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
 
+import com.undatech.opaque.input.InputTransmitQueue;
 import com.undatech.opaque.input.RemoteKeyboardState;
 
 import java.util.HashMap;
@@ -38,12 +39,18 @@ public abstract class RfbConnectable implements DrawableReallocatedListener {
     protected Handler handler;
     protected boolean receivedFirstGraphicsFrame = false;
     protected boolean isRemoteToLocalClipboardIntegrationEnabled;
+    protected final SessionMetrics sessionMetrics = new SessionMetrics();
 
     // Controls the user prompt when the server offers an encryption upgrade, but the client
     // does not have it enabled.
     private boolean encryptionUpgradeDeclined = false;
     private boolean setEncryptionUpgradeDecisionMade = false;
 
+    // Sends input events off the calling thread, created on first use. It has its own lock, since
+    // connections hold their monitor while writing to the network and input must not wait for that.
+    private final Object inputTransmitQueueLock = new Object();
+    private InputTransmitQueue inputTransmitQueue;
+
     public RfbConnectable(boolean debugLogging, Handler handler, boolean isRemoteToLocalClipboardIntegrationEnabled) {
         this.handler = handler;
         this.debugLogging = debugLogging;
@@ -88,6 +95,30 @@ public abstract class RfbConnectable implements DrawableReallocatedListener {
 
     public abstract void writeFramebufferUpdateRequest(int x, int y, int w, int h, boolean b);
 
+    /**
+     * Sends a press and a release of each of the first count keys, with the meta state at the
+     * same index, in order. Connections override this to send all the key strokes as one batch.
+     */
+    public void writeKeyStrokes(int[] keys, int[] metaStates, int count) {
+        for (int i = 0; i < count; i++) {
+            writeKeyEvent(keys[i], metaStates[i], true);
+            writeKeyEvent(keys[i], metaStates[i], false);
+        }
+    }
+
+    /**
+     * Waits until the input events queued so far have been sent to the server.
+     *
+     * @return false if they were not all sent within the timeout
+     */
+    public boolean awaitInputSent(long timeoutMillis) throws InterruptedException {
+        InputTransmitQueue queue;
+        synchronized (inputTransmitQueueLock) {
+            queue = inputTransmitQueue;
+        }
+        return queue == null || queue.awaitIdle(timeoutMillis);
+    }
+
     /**
      * Close the current connection through the connectable
      */
@@ -113,6 +144,72 @@ public abstract class RfbConnectable implements DrawableReallocatedListener {
         }
     }
 
+    /**
+     * Returns the queue which sends this connection's input events, creating it if needed. After
+     * {@link #shutdownInputTransmitQueue()}, a stopped queue which drops the events is returned.
+     */
+    protected InputTransmitQueue getInputTransmitQueue() {
+        synchronized (inputTransmitQueueLock) {
+            if (inputTransmitQueue == null) {
+                inputTransmitQueue = new InputTransmitQueue(getClass().getSimpleName() + "Input", () -> {
+                    onInputBatchSent();
+                    sessionMetrics.onInputSent();
+                });
+            }
+            return inputTransmitQueue;
+        }
+    }
+
+    /**
+     * Called on the input thread after a batch of queued input events has been sent. Connections
+     * which accumulate the events of a batch write them out here.
+     */
+    protected void onInputBatchSent() throws Exception {
+    }
+
+    /**
+     * Stops sending queued input events. Input arriving afterwards is dropped, until
+     * {@link #restartInputTransmitQueue()} is called.
+     */
+    protected void shutdownInputTransmitQueue() {
+        synchronized (inputTransmitQueueLock) {
+            if (inputTransmitQueue != null) {
+                inputTransmitQueue.shutdown();
+            } else {
+                inputTransmitQueue = InputTransmitQueue.createStopped();
+            }
+        }
+    }
+
+    /**
+     * Lets input be sent again after {@link #shutdownInputTransmitQueue()}, for connections
+     * which reconnect to a server.
+     */
+    protected void restartInputTransmitQueue() {
+        synchronized (inputTransmitQueueLock) {
+            if (inputTransmitQueue != null) {
+                inputTransmitQueue.shutdown();
+                inputTransmitQueue = null;
+            }
+        }
+    }
+
+    /**
+     * Returns statistics about the input events sent so far, or null if no input was sent.
+     */
+    public String getInputTransmitStats() {
+        synchronized (inputTransmitQueueLock) {
+            return inputTransmitQueue != null ? inputTransmitQueue.getStats() : null;
+        }
+    }
+
+    /**
+     * Returns the performance figures of this connection.
+     */
+    public SessionMetrics getSessionMetrics() {
+        return sessionMetrics;
+    }
+
     @Override
     public void setBitmapData(AbstractDrawableData drawable) {
         Log.d(TAG, "Stub setBitmapData called");
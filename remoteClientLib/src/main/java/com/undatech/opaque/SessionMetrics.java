@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.undatech.opaque;
+
+import android.os.Build;
+import android.os.Debug;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Performance figures of one remote desktop session, recorded the same way for VNC, SPICE and
+ * RDP so that slowness can be attributed to the network, the server or the decoder.
+ * <p>
+ * The protocol code reports each graphics update as a sequence of rectangles with the encoding,
+ * pixels, bytes received and time spent decoding of each. Protocols which decode in native code
+ * report the time spent copying the update into the framebuffer and no bytes. Input-to-display
+ * latency is the time from sending input until the end of the next update, which assumes the
+ * server reacts to input with the next update it sends. GC and allocation figures come from the
+ * ART runtime statistics where available.
+ * <p>
+ * Updates arrive on the protocol thread while the overlay reads the figures on the UI thread, so
+ * all methods are synchronized.
+ */
+public class SessionMetrics {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final Map<String, EncodingMetrics> encodings = new LinkedHashMap<>();
+    private final LatencyHistogram decodeLatency = new LatencyHistogram();
+    private final LatencyHistogram inputLatency = new LatencyHistogram();
+
+    private long startNanos;
+    private long updates;
+    private long rects;
+    private long bytes;
+    private int rectsInUpdate;
+
+    // Updates and bytes in the current and the last complete second.
+    private long secondStartNanos;
+    private int updatesThisSecond;
+    private long bytesThisSecond;
+    private int updatesLastSecond;
+    private long bytesLastSecond;
+
+    // Time the oldest input not yet followed by an update was sent, or 0.
+    private long inputPendingSinceNanos;
+
+    private long gcCountAtStart;
+    private long gcTimeAtStart;
+    private long bytesAllocatedAtStart;
+
+    public SessionMetrics() {
+        reset();
+    }
+
+    /**
+     * Starts a graphics update.
+     */
+    public synchronized void beginUpdate() {
+        rectsInUpdate = 0;
+    }
+
+    /**
+     * Accounts for one rectangle of the current update.
+     *
+     * @param encoding    name of the encoding, or of the protocol if it does not tell
+     * @param pixels      pixels covered by the rectangle
+     * @param rectBytes   bytes received for the rectangle, or 0 if unknown
+     * @param decodeNanos time spent decoding the rectangle
+     */
+    public synchronized void addRect(String encoding, long pixels, long rectBytes, long decodeNanos) {
+        EncodingMetrics metrics = encodings.get(encoding);
+        if (metrics == null) {
+            metrics = new EncodingMetrics();
+            encodings.put(encoding, metrics);
+        }
+        metrics.rects++;
+        metrics.pixels += pixels;
+        metrics.bytes += rectBytes;
+        metrics.decodeLatency.add(decodeNanos);
+        decodeLatency.add(decodeNanos);
+        rectsInUpdate++;
+        rects++;
+        bytes += rectBytes;
+        bytesThisSecond += rectBytes;
+    }
+
+    /**
+     * Ends the current graphics update.
+     */
+    public synchronized void endUpdate() {
+        long now = System.nanoTime();
+        updates++;
+        rollSecond(now);
+        updatesThisSecond++;
+        if (inputPendingSinceNanos != 0) {
+            inputLatency.add(now - inputPendingSinceNanos);
+            inputPendingSinceNanos = 0;
+        }
+    }
+
+    /**
+     * Accounts for an update consisting of a single rectangle, as SPICE and RDP deliver them.
+     */
+    public synchronized void addUpdate(String encoding, long pixels, long updateBytes, long decodeNanos) {
+        beginUpdate();
+        addRect(encoding, pixels, updateBytes, decodeNanos);
+        endUpdate();
+    }
+
+    /**
+     * Records that input was sent to the server.
+     */
+    public synchronized void onInputSent() {
+        if (inputPendingSinceNanos == 0) {
+            inputPendingSinceNanos = System.nanoTime();
+        }
+    }
+
+    private void rollSecond(long now) {
+        long elapsed = now - secondStartNanos;
+        if (elapsed < NANOS_PER_SECOND) {
+            return;
+        }
+        // Nothing arrived in the last second if more than two have passed.
+        boolean contiguous = elapsed < 2 * NANOS_PER_SECOND;
+        updatesLastSecond = contiguous ? updatesThisSecond : 0;
+        bytesLastSecond = contiguous ? bytesThisSecond : 0;
+        updatesThisSecond = 0;
+        bytesThisSecond = 0;
+        secondStartNanos = now;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public synchronized void reset() {
+        encodings.clear();
+        decodeLatency.clear();
+        inputLatency.clear();
+        startNanos = secondStartNanos = System.nanoTime();
+        updates = rects = bytes = 0;
+        updatesThisSecond = updatesLastSecond = 0;
+        bytesThisSecond = bytesLastSecond = 0;
+        inputPendingSinceNanos = 0;
+        gcCountAtStart = runtimeStat("art.gc.gc-count");
+        gcTimeAtStart = runtimeStat("art.gc.gc-time");
+        bytesAllocatedAtStart = runtimeStat("art.gc.bytes-allocated");
+    }
+
+    private static long runtimeStat(String name) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        try {
+            String value = Debug.getRuntimeStat(name);
+            return value != null ? Long.parseLong(value) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long sinceStart(String name, long atStart) {
+        long value = runtimeStat(name);
+        return value < 0 || atStart < 0 ? -1 : value - atStart;
+    }
+
+    /**
+     * Returns a few short lines meant to be drawn over the remote desktop.
+     */
+    public synchronized String[] getOverlayLines() {
+        rollSecond(System.nanoTime());
+        double rectsPerUpdate = updates == 0 ? 0 : (double) rects / updates;
+        return new String[]{
+                String.format(Locale.US, "%d updates/s, %.1f rects/update, %d KiB/s",
+                        updatesLastSecond, rectsPerUpdate, bytesLastSecond / 1024),
+                String.format(Locale.US, "decode p50 %s, p95 %s",
+                        decodeLatency.formatPercentile(50), decodeLatency.formatPercentile(95)),
+                String.format(Locale.US, "input to display p50 %s, p95 %s",
+                        inputLatency.formatPercentile(50), inputLatency.formatPercentile(95)),
+                String.format(Locale.US, "%d GCs, %d ms in GC",
+                        sinceStart("art.gc.gc-count", gcCountAtStart),
+                        sinceStart("art.gc.gc-time", gcTimeAtStart)),
+        };
+    }
+
+    /**
+     * Returns a multi-line report of everything recorded since the session started.
+     */
+    public synchronized String summary() {
+        long seconds = Math.max(1, (System.nanoTime() - startNanos) / NANOS_PER_SECOND);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "Session metrics over %d s\n", seconds));
+        sb.append(String.format(Locale.US, "Updates: %d (%.1f/s), %d rects (%.2f/update), %d bytes\n",
+                updates, (double) updates / seconds, rects, updates == 0 ? 0 : (double) rects / updates, bytes));
+        for (Map.Entry<String, EncodingMetrics> entry : encodings.entrySet()) {
+            EncodingMetrics m = entry.getValue();
+            sb.append(String.format(Locale.US, "%s: %d rects, %d pixels, %d bytes, decode %s\n",
+                    entry.getKey(), m.rects, m.pixels, m.bytes, m.decodeLatency.summary()));
+        }
+        sb.append("Decode: ").append(decodeLatency.summary()).append('\n');
+        sb.append("Input to display: ").append(inputLatency.summary()).append('\n');
+        sb.append(String.format(Locale.US, "GC: %d collections, %d ms, %d bytes allocated\n",
+                sinceStart("art.gc.gc-count", gcCountAtStart),
+                sinceStart("art.gc.gc-time", gcTimeAtStart),
+                sinceStart("art.gc.bytes-allocated", bytesAllocatedAtStart)));
+        return sb.toString();
+    }
+
+    /**
+     * Writes {@link #summary()} to the given file, creating its directory if needed.
+     */
+    public void dumpToFile(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        String report = summary();
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(report);
+        }
+    }
+
+    private static class EncodingMetrics {
+        final LatencyHistogram decodeLatency = new LatencyHistogram();
+        long rects;
+        long pixels;
+        long bytes;
+    }
+
+    /**
+     * Histogram with power of two buckets in microseconds. Bucket i counts durations below 2^i us,
+     * the last bucket everything longer.
+     */
+    static class LatencyHistogram {
+        private static final int BUCKETS = 24;
+        private final long[] counts = new long[BUCKETS];
+        private long total;
+
+        void add(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            counts[bucket]++;
+            total++;
+        }
+
+        void clear() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = 0;
+            }
+            total = 0;
+        }
+
+        /**
+         * Returns the upper bound in microseconds of the bucket holding the given percentile, or
+         * -1 if nothing was recorded.
+         */
+        long percentileMicros(int percentile) {
+            if (total == 0) {
+                return -1;
+            }
+            long rank = (total * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        String formatPercentile(int percentile) {
+            long micros = percentileMicros(percentile);
+            if (micros < 0) {
+                return "-";
+            }
+            return micros < 1000 ? "<" + micros + " us" : "<" + micros / 1000 + " ms";
+        }
+
+        String summary() {
+            return String.format(Locale.US, "%d samples, p50 %s, p95 %s, p99 %s", total,
+                    formatPercentile(50), formatPercentile(95), formatPercentile(99));
+        }
+    }
+}
@@ -44,6 +44,7 @@ import com.undatech.opaque.util.UsbDeviceManager;
 import org.freedesktop.gstreamer.GStreamer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Objects;
 
 public class SpiceCommunicator extends RfbConnectable {
@@ -135,6 +136,11 @@ public class SpiceCommunicator extends RfbConnectable {
     private ArrayList<String> vmNames = null;
     private boolean isRequestingNewDisplayResolution;
     private final boolean usbEnabled;
+    // Pointer state of the last queued pointer event, to tell pure motion from button changes.
+    private int lastQueuedPointerMask = -1;
+    private int lastQueuedPointerMetaState = -1;
+    // Graphics updates waiting for the end of the native frame, or null to copy each one at once.
+    private GraphicsUpdateBatch graphicsUpdateBatch;
 
     public SpiceCommunicator(Context context, Handler handler, Viewable canvas, boolean res,
                              boolean usb, boolean debugLogging, boolean isRemoteToLocalClipboardIntegrationEnabled) {
@@ -233,15 +239,60 @@ public class SpiceCommunicator extends RfbConnectable {
             receivedFirstGraphicsFrame = true;
             handler.sendEmptyMessage(RemoteClientLibConstants.GRAPHICS_FIRST_FRAME_RECEIVED);
         }
+        if (graphicsUpdateBatch != null) {
+            graphicsUpdateBatch.add(x, y, width, height);
+            return;
+        }
         Bitmap bitmap = canvas.getBitmap();
         if (bitmap != null) {
+            long start = System.nanoTime();
             synchronized (canvas) {
                 myself.UpdateBitmap(bitmap, x, y, width, height);
             }
+            sessionMetrics.addUpdate("SPICE", (long) width * height, 0, System.nanoTime() - start);
             canvas.reDraw(x, y, width, height);
         }
     }
 
+    /**
+     * Called by native code once the main loop has dispatched everything that was ready, which
+     * ends the native frame.
+     */
+    @SuppressWarnings("unused")
+    private static void OnGraphicsFrameEnd(int inst) {
+        myself.onGraphicsFrameEnd();
+    }
+
+    /**
+     * Copies the updates batched during the native frame to the bitmap in one native call and
+     * redraws their bounds.
+     */
+    void onGraphicsFrameEnd() {
+        GraphicsUpdateBatch batch = graphicsUpdateBatch;
+        if (batch == null || batch.isEmpty()) {
+            return;
+        }
+        Bitmap bitmap = canvas.getBitmap();
+        if (bitmap != null) {
+            long start = System.nanoTime();
+            synchronized (canvas) {
+                UpdateBitmapRects(bitmap, batch.takeRects(), batch.getCount());
+            }
+            sessionMetrics.addUpdate("SPICE", batch.getPixels(), 0, System.nanoTime() - start);
+            int left = batch.getLeft(), top = batch.getTop();
+            canvas.reDraw(left, top, batch.getRight() - left, batch.getBottom() - top);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Batches graphics updates until the end of each native frame instead of copying each one to
+     * the bitmap as it arrives. Must be called before connecting.
+     */
+    public void setBatchedGraphicsUpdates(boolean batched) {
+        graphicsUpdateBatch = batched ? new GraphicsUpdateBatch() : null;
+    }
+
     @SuppressWarnings("unused")
     private static void OnMouseUpdate(int x, int y) {
         //Log.i(TAG, "OnMouseUpdate called: " + x +", " + y);
@@ -296,6 +347,11 @@ public class SpiceCommunicator extends RfbConnectable {
 
     public native void UpdateBitmap(Bitmap bitmap, int x, int y, int w, int h);
 
+    /**
+     * Copies count rectangles, given as left, top, width and height in rects, to the bitmap.
+     */
+    public native void UpdateBitmapRects(Bitmap bitmap, int[] rects, int count);
+
     public native void SpiceRequestResolution(int x, int y);
 
     public native boolean SpiceAttachUsbDeviceByFileDescriptor(int fileDescriptor);
@@ -372,6 +428,9 @@ public class SpiceCommunicator extends RfbConnectable {
         if (isInNormalProtocol) {
             SpiceClientDisconnect();
         }
+        if (graphicsUpdateBatch != null) {
+            Log.i(TAG, "Batched graphics updates: " + graphicsUpdateBatch.summary());
+        }
         setIsInNormalProtocol(false);
     }
 
@@ -429,8 +488,26 @@ public class SpiceCommunicator extends RfbConnectable {
         return "";
     }
 
+    /**
+     * Queues a pointer event on the input transmit queue. Absolute motion which does not change
+     * the buttons or modifiers replaces a previous such motion that has not been sent yet.
+     */
     @Override
     public synchronized void writePointerEvent(int x, int y, int metaState, int pointerMask, boolean rel) {
+        Runnable event = () -> sendPointerEvent(x, y, metaState, pointerMask, rel);
+        // Scroll wheel buttons (4 and 5) are clicks and must never be coalesced.
+        int button = pointerMask & ~RemotePointer.POINTER_DOWN_MASK;
+        boolean scroll = button == 4 || button == 5;
+        if (!rel && !scroll && pointerMask == lastQueuedPointerMask && metaState == lastQueuedPointerMetaState) {
+            getInputTransmitQueue().postMotion(event);
+        } else {
+            getInputTransmitQueue().post(event);
+        }
+        lastQueuedPointerMask = pointerMask;
+        lastQueuedPointerMetaState = metaState;
+    }
+
+    private synchronized void sendPointerEvent(int x, int y, int metaState, int pointerMask, boolean rel) {
         this.metaState = metaState;
         if ((pointerMask & RemotePointer.POINTER_DOWN_MASK) != 0)
             sendModifierKeys(true);
@@ -453,7 +530,25 @@ public class SpiceCommunicator extends RfbConnectable {
         }
     }
 
-    public synchronized void writeKeyEvent(int key, int metaState, boolean keyDown) {
+    public void writeKeyEvent(int key, int metaState, boolean keyDown) {
+        getInputTransmitQueue().post(() -> sendKeyEvent(key, metaState, keyDown));
+    }
+
+    @Override
+    public void writeKeyStrokes(int[] keys, int[] metaStates, int count) {
+        int[] scanCodes = Arrays.copyOf(keys, count);
+        int[] keyMetaStates = Arrays.copyOf(metaStates, count);
+        getInputTransmitQueue().post(() -> sendKeyStrokes(scanCodes, keyMetaStates));
+    }
+
+    private synchronized void sendKeyStrokes(int[] scanCodes, int[] keyMetaStates) {
+        for (int i = 0; i < scanCodes.length; i++) {
+            sendKeyEvent(scanCodes[i], keyMetaStates[i], true);
+            sendKeyEvent(scanCodes[i], keyMetaStates[i], false);
+        }
+    }
+
+    private synchronized void sendKeyEvent(int key, int metaState, boolean keyDown) {
         if (keyDown) {
             this.metaState = metaState;
             sendModifierKeys(true);
@@ -482,6 +577,7 @@ public class SpiceCommunicator extends RfbConnectable {
     }
 
     public void close() {
+        shutdownInputTransmitQueue();
         disconnect();
     }
 
@@ -545,6 +641,9 @@ public class SpiceCommunicator extends RfbConnectable {
 
         setFramebufferWidth(width);
         setFramebufferHeight(height);
+        if (graphicsUpdateBatch != null) {
+            graphicsUpdateBatch.clear();
+        }
 
         canvas.reallocateDrawable(width, height);
 
@@ -345,4 +345,10 @@ public interface Viewable {
      * Returns whether or not the viewable is in focus
      */
     boolean isForegrounded();
+
+    /**
+     * Sets a listener called on the UI thread when the visible part of the desktop is panned or
+     * zoomed, or null to remove it.
+     */
+    void setOnViewportChangedListener(Runnable listener);
 }
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.undatech.opaque.input;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Sends input events to the server on a dedicated thread, so the thread producing them (usually
+ * the UI thread) never blocks on the network or on native code.
+ * <p>
+ * Events are sent in the order they were posted. A pointer motion that is still waiting to be sent
+ * is replaced by a newer motion posted right after it, so on a slow link the server receives the
+ * latest position instead of a backlog of stale ones. Button and key events are never coalesced.
+ * <p>
+ * The sender thread takes everything pending at once and sends it as one batch, after which the
+ * {@link BatchListener} is called, e.g. to write the accumulated messages with a single socket
+ * write.
+ */
+public class InputTransmitQueue {
+    private static final String TAG = "InputTransmitQueue";
+
+    private final ArrayDeque<Event> pending = new ArrayDeque<>();
+    private final ArrayList<Event> batch = new ArrayList<>();
+    private final ArrayDeque<Event> freeEvents = new ArrayDeque<>();
+    private final BatchListener listener;
+    private final Thread sender;
+    private boolean stopped;
+    // Set while the sender thread is sending a batch.
+    private boolean sending;
+
+    // Statistics, guarded by this.
+    private long eventsSent;
+    private long motionsCoalesced;
+    private long batchesSent;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    /**
+     * @param name     name of the sender thread
+     * @param listener called on the sender thread after each batch, may be null
+     */
+    public InputTransmitQueue(String name, BatchListener listener) {
+        this.listener = listener;
+        sender = new Thread(this::sendLoop, name);
+        sender.setDaemon(true);
+        sender.setPriority(Thread.MAX_PRIORITY);
+        sender.start();
+    }
+
+    private InputTransmitQueue() {
+        listener = null;
+        sender = null;
+        stopped = true;
+    }
+
+    /**
+     * Returns a queue which has been shut down without ever starting a sender thread, and drops
+     * all events posted to it.
+     */
+    public static InputTransmitQueue createStopped() {
+        return new InputTransmitQueue();
+    }
+
+    /**
+     * Queues an event which must be sent as is, such as a button or key event.
+     */
+    public synchronized void post(Runnable event) {
+        enqueue(event, false);
+    }
+
+    /**
+     * Queues a pointer motion. If the last queued event is a motion which has not been sent yet,
+     * it is replaced, keeping its queueing time for the latency statistics.
+     */
+    public synchronized void postMotion(Runnable motion) {
+        Event last = pending.peekLast();
+        if (last != null && last.motion) {
+            last.action = motion;
+            motionsCoalesced++;
+            return;
+        }
+        enqueue(motion, true);
+    }
+
+    private void enqueue(Runnable action, boolean motion) {
+        if (stopped) {
+            return;
+        }
+        Event event = freeEvents.poll();
+        if (event == null) {
+            event = new Event();
+        }
+        event.action = action;
+        event.motion = motion;
+        event.queuedNanos = System.nanoTime();
+        pending.add(event);
+        notifyAll();
+    }
+
+    private void sendLoop() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (pending.isEmpty() && !stopped) {
+                        wait();
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    batch.addAll(pending);
+                    pending.clear();
+                    sending = true;
+                }
+                sendBatch();
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Sender thread interrupted");
+        }
+    }
+
+    private void sendBatch() {
+        long latency = 0;
+        long maxLatency = 0;
+        for (Event event : batch) {
+            long eventLatency = System.nanoTime() - event.queuedNanos;
+            latency += eventLatency;
+            maxLatency = Math.max(maxLatency, eventLatency);
+            try {
+                event.action.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to send input event: " + Log.getStackTraceString(e));
+            }
+        }
+        if (listener != null) {
+            try {
+                listener.onBatchSent();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to send input batch: " + Log.getStackTraceString(e));
+            }
+        }
+        synchronized (this) {
+            eventsSent += batch.size();
+            batchesSent++;
+            totalLatencyNanos += latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, maxLatency);
+            for (Event event : batch) {
+                event.action = null;
+                freeEvents.add(event);
+            }
+            sending = false;
+            notifyAll();
+        }
+        batch.clear();
+    }
+
+    /**
+     * Waits until all events posted so far have been sent, or the queue has been shut down.
+     *
+     * @return false if the events were not all sent within the timeout
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        while ((sending || !pending.isEmpty()) && !stopped) {
+            long remainingMillis = (deadline - System.nanoTime()) / 1000000L;
+            if (remainingMillis <= 0) {
+                return false;
+            }
+            wait(remainingMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the sender thread. Events still pending are dropped.
+     */
+    public synchronized void shutdown() {
+        stopped = true;
+        pending.clear();
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of events sent, coalesced motions, batches and the average and maximum
+     * time events spent in the queue.
+     */
+    public synchronized String getStats() {
+        long avgMicros = eventsSent == 0 ? 0 : totalLatencyNanos / eventsSent / 1000;
+        return String.format(Locale.US, "%d events in %d batches, %d motions coalesced, " +
+                        "queue latency avg %d us, max %d us",
+                eventsSent, batchesSent, motionsCoalesced, avgMicros, maxLatencyNanos / 1000);
+    }
+
+    public interface BatchListener {
+        void onBatchSent() throws Exception;
+    }
+
+    private static class Event {
+        Runnable action;
+        boolean motion;
+        long queuedNanos;
+    }
+}
@@ -23,7 +23,6 @@ import static com.undatech.opaque.util.InputUtils.isNoQwertyKbd;
 
 import android.content.Context;
 import android.os.Handler;
-import android.os.SystemClock;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 
@@ -62,11 +61,15 @@ public abstract class RemoteKeyboard {
     public final static int RALT_MASK = KeyEvent.META_ALT_RIGHT_ON;
     public final static int RSUPER_MASK = KeyEvent.META_META_RIGHT_ON;
     private static final String TAG = "RemoteKeyboard";
+    // Loaded once, sendUnicode() is called for every character of text which is typed.
+    private static KeyCharacterMap fullKeyCharacterMap;
+    private static KeyCharacterMap virtualKeyCharacterMap;
     protected static int remoteKeyboardMetaState = 0;
     protected Handler handler;
     protected RfbConnectable rfb;
     protected Context context;
     protected KeyRepeater keyRepeater;
+    private TextInjector textInjector;
     // Variable holding the state of any pressed hardware meta keys (Ctrl, Alt...)
     protected int hardwareMetaState = 0;
     // Keep track when a seeming key press was the result of a menu shortcut
@@ -214,29 +217,28 @@ public abstract class RemoteKeyboard {
         onScreenMetaState = 0;
     }
 
+    /**
+     * Types the text on the remote desktop with the text injector. Must not be called on the UI
+     * thread.
+     */
     public void sendText(String s) {
-        for (int i = 0; i < s.length(); i++) {
-            KeyEvent event = null;
-            char c = s.charAt(i);
-            if (Character.isISOControl(c)) {
-                if (c == '\n') {
-                    int keyCode = KeyEvent.KEYCODE_ENTER;
-                    keyEvent(keyCode, new KeyEvent(KeyEvent.ACTION_DOWN, keyCode));
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException e) {
-                    }
-                    keyEvent(keyCode, new KeyEvent(KeyEvent.ACTION_UP, keyCode));
-                }
-            } else {
-                event = new KeyEvent(SystemClock.uptimeMillis(), s.substring(i, i + 1), KeyCharacterMap.FULL, 0);
-                keyEvent(event.getKeyCode(), event);
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                }
-            }
+        getTextInjector().type(s);
+    }
+
+    public synchronized TextInjector getTextInjector() {
+        if (textInjector == null) {
+            textInjector = new TextInjector(this, rfb);
         }
+        return textInjector;
+    }
+
+    /**
+     * Returns the key strokes which type the character in this keyboard's protocol, as pairs of
+     * key and meta state to pass to {@link RfbConnectable#writeKeyStrokes(int[], int[], int)}, or
+     * null if the character has to be typed with {@link #sendUnicode(char, int)}.
+     */
+    protected int[] keyStrokesFor(char c) {
+        return null;
     }
 
     public void sendKeySym(int keysym, int metaState) {
@@ -251,15 +253,13 @@ public abstract class RemoteKeyboard {
      * @param additionalMetaState
      */
     public boolean sendUnicode(char unicodeChar, int additionalMetaState) {
-        KeyCharacterMap fullKmap = KeyCharacterMap.load(KeyCharacterMap.FULL);
-        KeyCharacterMap virtualKmap = KeyCharacterMap.load(KeyCharacterMap.VIRTUAL_KEYBOARD);
         char[] s = new char[1];
         s[0] = unicodeChar;
 
-        KeyEvent[] events = fullKmap.getEvents(s);
+        KeyEvent[] events = getFullKeyCharacterMap().getEvents(s);
         // Failing with the FULL keymap, try the VIRTUAL_KEYBOARD one.
         if (events == null) {
-            events = virtualKmap.getEvents(s);
+            events = getVirtualKeyCharacterMap().getEvents(s);
         }
 
         if (events != null) {
@@ -276,6 +276,20 @@ public abstract class RemoteKeyboard {
         return false;
     }
 
+    private static synchronized KeyCharacterMap getFullKeyCharacterMap() {
+        if (fullKeyCharacterMap == null) {
+            fullKeyCharacterMap = KeyCharacterMap.load(KeyCharacterMap.FULL);
+        }
+        return fullKeyCharacterMap;
+    }
+
+    private static synchronized KeyCharacterMap getVirtualKeyCharacterMap() {
+        if (virtualKeyCharacterMap == null) {
+            virtualKeyCharacterMap = KeyCharacterMap.load(KeyCharacterMap.VIRTUAL_KEYBOARD);
+        }
+        return virtualKeyCharacterMap;
+    }
+
     /**
      * Converts event meta state to our meta state.
      *
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2026 Iordan Iordanov
+ * <p>
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,
+ * USA.
+ */
+
+package com.undatech.opaque.input;
+
+import android.util.Log;
+
+import com.undatech.opaque.RfbConnectable;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Types text on the remote desktop as key strokes, e.g. to paste into a console which has no
+ * clipboard integration.
+ * <p>
+ * Each character is translated once into the key strokes of the keyboard's protocol (keysyms for
+ * VNC, scan codes for SPICE, unicode or virtual keys for RDP) and the translation is kept, Latin-1
+ * being translated up front. Text is sent in chunks, the key strokes of a chunk being handed to
+ * the connection as one batch. After each chunk the injector waits until the connection has sent
+ * the batch and adapts the chunk size to how long that took: it grows while the server keeps up
+ * and halves when sending falls behind, so a fast link is not held back by a fixed delay and a
+ * slow one is not flooded. An additional pause between chunks can be configured for servers which
+ * drop keys arriving too quickly.
+ */
+public class TextInjector {
+    private static final String TAG = "TextInjector";
+    static final int MIN_CHUNK_CHARS = 4;
+    static final int MAX_CHUNK_CHARS = 256;
+    static final int INITIAL_CHUNK_CHARS = 32;
+    // Sending a chunk taking longer than this means the server or link is not keeping up.
+    static final long TARGET_SEND_MILLIS = 20;
+    static final long SEND_TIMEOUT_MILLIS = 2000;
+    private static final int[] NO_STROKES = new int[0];
+
+    private final RemoteKeyboard keyboard;
+    private final RfbConnectable rfb;
+    private final int[][] latin1Strokes = new int[256][];
+    private final HashMap<Character, int[]> otherStrokes = new HashMap<>();
+    // Room for a full chunk of characters typed with two key strokes each, e.g. with dead keys.
+    private final int[] keys = new int[MAX_CHUNK_CHARS * 2];
+    private final int[] metaStates = new int[MAX_CHUNK_CHARS * 2];
+    private int count;
+    private int chunkChars = INITIAL_CHUNK_CHARS;
+    private volatile int chunkDelayMillis;
+
+    TextInjector(RemoteKeyboard keyboard, RfbConnectable rfb) {
+        this.keyboard = keyboard;
+        this.rfb = rfb;
+        for (int c = 0; c < latin1Strokes.length; c++) {
+            latin1Strokes[c] = translate((char) c);
+        }
+    }
+
+    /**
+     * Sets a pause in milliseconds between chunks, in addition to waiting for each chunk to be sent.
+     */
+    public void setChunkDelayMillis(int chunkDelayMillis) {
+        this.chunkDelayMillis = chunkDelayMillis;
+    }
+
+    private int[] translate(char c) {
+        int[] strokes = keyboard.keyStrokesFor(c);
+        return strokes != null ? strokes : NO_STROKES;
+    }
+
+    private int[] strokesFor(char c) {
+        if (c < latin1Strokes.length) {
+            return latin1Strokes[c];
+        }
+        int[] strokes = otherStrokes.get(c);
+        if (strokes == null) {
+            strokes = translate(c);
+            otherStrokes.put(c, strokes);
+        }
+        return strokes;
+    }
+
+    /**
+     * Types the text, returning once it has all been sent. Line feeds are typed as Enter, a
+     * carriage return before a line feed is skipped and other control characters are dropped.
+     * Must not be called on the UI thread.
+     */
+    public synchronized void type(String text) {
+        long start = System.nanoTime();
+        int chunks = 0;
+        int typed = 0;
+        int charsInChunk = 0;
+        try {
+            for (int i = 0; i < text.length(); i++) {
+                if (!rfb.isInNormalProtocol()) {
+                    Log.i(TAG, "Connection is not ready, stopped typing text");
+                    break;
+                }
+                char c = text.charAt(i);
+                if (Character.isISOControl(c) && c != '\n') {
+                    continue;
+                }
+                typed++;
+                int[] strokes = strokesFor(c);
+                if (strokes.length == 0) {
+                    // Typed through the local key character maps, after what precedes it.
+                    flush();
+                    chunks++;
+                    charsInChunk = 0;
+                    keyboard.sendUnicode(c, 0);
+                    continue;
+                }
+                if (count + strokes.length / 2 > keys.length) {
+                    flush();
+                    chunks++;
+                    charsInChunk = 0;
+                }
+                for (int s = 0; s < strokes.length; s += 2) {
+                    keys[count] = strokes[s];
+                    metaStates[count++] = strokes[s + 1];
+                }
+                if (++charsInChunk >= chunkChars) {
+                    flush();
+                    chunks++;
+                    charsInChunk = 0;
+                }
+            }
+            flush();
+            chunks++;
+        } catch (InterruptedException e) {
+            Log.i(TAG, "Interrupted while typing text");
+            count = 0;
+            Thread.currentThread().interrupt();
+        }
+        long millis = Math.max(1, (System.nanoTime() - start) / 1000000L);
+        Log.i(TAG, String.format(Locale.US, "Typed %d characters in %d ms (%d chars/s), %d chunks, " +
+                "chunk size now %d", typed, millis, typed * 1000L / millis, chunks, chunkChars));
+    }
+
+    private void flush() throws InterruptedException {
+        if (count > 0) {
+            long start = System.nanoTime();
+            rfb.writeKeyStrokes(keys, metaStates, count);
+            count = 0;
+            boolean sent = rfb.awaitInputSent(SEND_TIMEOUT_MILLIS);
+            long millis = (System.nanoTime() - start) / 1000000L;
+            if (!sent || millis > TARGET_SEND_MILLIS) {
+                chunkChars = Math.max(MIN_CHUNK_CHARS, chunkChars / 2);
+            } else {
+                chunkChars = Math.min(MAX_CHUNK_CHARS, chunkChars + MIN_CHUNK_CHARS);
+            }
+        }
+        int delay = chunkDelayMillis;
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+}
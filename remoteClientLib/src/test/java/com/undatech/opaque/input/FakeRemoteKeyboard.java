@@ -0,0 +1,45 @@
+package com.undatech.opaque.input;
+
+import android.view.KeyEvent;
+
+/**
+ * Types ASCII letters and digits with one key stroke, shifted for capitals, accented e with a
+ * dead key followed by e, line feeds as Enter, and everything else through sendUnicode().
+ */
+class FakeRemoteKeyboard extends RemoteKeyboard {
+    static final int SHIFT = 1;
+    static final int ENTER = '\u23ce';
+    static final int DEAD_ACUTE = '\u00b4';
+
+    private final FakeRfbConnectable fakeRfb;
+
+    FakeRemoteKeyboard(FakeRfbConnectable rfb) {
+        super(rfb, null, null, false);
+        fakeRfb = rfb;
+    }
+
+    @Override
+    protected int[] keyStrokesFor(char c) {
+        if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == ' ') {
+            return new int[]{c, 0};
+        } else if (c >= 'A' && c <= 'Z') {
+            return new int[]{Character.toLowerCase(c), SHIFT};
+        } else if (c == '\u00e9') {
+            return new int[]{DEAD_ACUTE, 0, 'e', 0};
+        } else if (c == '\n') {
+            return new int[]{ENTER, 0};
+        }
+        return null;
+    }
+
+    @Override
+    public boolean sendUnicode(char unicodeChar, int additionalMetaState) {
+        fakeRfb.logUnicode(unicodeChar);
+        return true;
+    }
+
+    @Override
+    public boolean processLocalKeyEvent(int keyCode, KeyEvent evt, int additionalMetaState) {
+        return false;
+    }
+}
@@ -0,0 +1,143 @@
+package com.undatech.opaque.input;
+
+import com.undatech.opaque.RfbConnectable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records the key strokes it is given and sends them through the real input transmit queue,
+ * taking sendDelayMillis per batch like a link of limited speed would.
+ */
+class FakeRfbConnectable extends RfbConnectable {
+    final List<String> log = new ArrayList<>();
+    final List<Integer> batchSizes = new ArrayList<>();
+    volatile long sendDelayMillis;
+    volatile boolean sendTimesOut;
+    volatile boolean inNormalProtocol = true;
+    // Stops the connection after this many batches, when not negative.
+    volatile int batchesBeforeDisconnect = -1;
+    long keyStrokesSent;
+
+    FakeRfbConnectable() {
+        super(false, null, false);
+    }
+
+    @Override
+    public void writeKeyStrokes(int[] keys, int[] metaStates, int count) {
+        int[] batchKeys = Arrays.copyOf(keys, count);
+        int[] batchMetaStates = Arrays.copyOf(metaStates, count);
+        synchronized (this) {
+            batchSizes.add(count);
+            if (batchesBeforeDisconnect >= 0 && batchSizes.size() >= batchesBeforeDisconnect) {
+                inNormalProtocol = false;
+            }
+        }
+        getInputTransmitQueue().post(() -> {
+            synchronized (this) {
+                for (int i = 0; i < batchKeys.length; i++) {
+                    log.add(batchMetaStates[i] == 0 ? String.valueOf((char) batchKeys[i])
+                            : batchMetaStates[i] + "+" + (char) batchKeys[i]);
+                }
+                keyStrokesSent += batchKeys.length;
+            }
+        });
+    }
+
+    @Override
+    protected void onInputBatchSent() throws Exception {
+        long delay = sendDelayMillis;
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    @Override
+    public boolean awaitInputSent(long timeoutMillis) throws InterruptedException {
+        boolean sent = super.awaitInputSent(timeoutMillis);
+        return sent && !sendTimesOut;
+    }
+
+    synchronized void logUnicode(char c) {
+        log.add("unicode " + c);
+    }
+
+    void stop() {
+        shutdownInputTransmitQueue();
+    }
+
+    @Override
+    public int framebufferWidth() {
+        return 0;
+    }
+
+    @Override
+    public int framebufferHeight() {
+        return 0;
+    }
+
+    @Override
+    public String desktopName() {
+        return null;
+    }
+
+    @Override
+    public void requestUpdate(boolean incremental) {
+    }
+
+    @Override
+    public void requestResolution(int x, int y) {
+    }
+
+    @Override
+    public void writeClientCutText(String text) {
+    }
+
+    @Override
+    public void setIsInNormalProtocol(boolean state) {
+        inNormalProtocol = state;
+    }
+
+    @Override
+    public boolean isInNormalProtocol() {
+        return inNormalProtocol;
+    }
+
+    @Override
+    public String getEncoding() {
+        return null;
+    }
+
+    @Override
+    public void writePointerEvent(int x, int y, int metaState, int pointerMask, boolean relative) {
+    }
+
+    @Override
+    public void writeKeyEvent(int key, int metaState, boolean down) {
+    }
+
+    @Override
+    public void writeSetPixelFormat(int bitsPerPixel, int depth, boolean bigEndian, boolean trueColour,
+                                    int redMax, int greenMax, int blueMax, int redShift, int greenShift,
+                                    int blueShift, boolean fGreyScale) {
+    }
+
+    @Override
+    public void writeFramebufferUpdateRequest(int x, int y, int w, int h, boolean b) {
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    @Override
+    public boolean isCertificateAccepted() {
+        return false;
+    }
+
+    @Override
+    public void setCertificateAccepted(boolean certificateAccepted) {
+    }
+}
@@ -0,0 +1,67 @@
+package com.undatech.opaque.input;
+
+import com.undatech.opaque.BenchmarkReport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Types text over simulated links which take a fixed time per batch, and reports the typing speed
+ * and the chunk size the injector settled on in build/reports/benchmarks.
+ * Run with ./gradlew :remoteClientLib:testDebugUnitTest -Pbenchmarks --tests '*TextInjectorBenchmark'
+ */
+public class TextInjectorBenchmark {
+    private static final int CHARS = 20000;
+
+    private static String randomText() {
+        Random random = new Random(7);
+        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 \n\u00e9";
+        StringBuilder text = new StringBuilder(CHARS);
+        for (int i = 0; i < CHARS; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    private static void type(BenchmarkReport report, String text, long sendDelayMillis) {
+        FakeRfbConnectable rfb = new FakeRfbConnectable();
+        try {
+            rfb.sendDelayMillis = sendDelayMillis;
+            TextInjector injector = new TextInjector(new FakeRemoteKeyboard(rfb), rfb);
+            long start = System.nanoTime();
+            injector.type(text);
+            long millis = Math.max(1, (System.nanoTime() - start) / 1000000L);
+            int batches = rfb.batchSizes.size();
+            report.add("%2d ms per batch: %d chars in %d ms (%d chars/s), %d batches, last batch %d key strokes",
+                    sendDelayMillis, text.length(), millis, text.length() * 1000L / millis, batches,
+                    rfb.batchSizes.get(batches - 1));
+            assertEquals(text.length(), rfb.log.size() - countOf(text, '\u00e9'));
+        } finally {
+            rfb.stop();
+        }
+    }
+
+    private static int countOf(String text, char c) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void typingSpeed() throws IOException {
+        BenchmarkReport report = new BenchmarkReport("TextInjectorBenchmark");
+        String text = randomText();
+        type(report, text, 0);
+        type(report, text, 1);
+        type(report, text, 5);
+        report.write();
+    }
+}
@@ -0,0 +1,118 @@
+package com.undatech.opaque.input;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TextInjectorTest {
+    private FakeRfbConnectable rfb;
+    private TextInjector injector;
+
+    @Before
+    public void setUp() {
+        rfb = new FakeRfbConnectable();
+        injector = new TextInjector(new FakeRemoteKeyboard(rfb), rfb);
+    }
+
+    @After
+    public void tearDown() {
+        rfb.stop();
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void charactersAreTypedAsTheirKeyStrokesInOrder() {
+        injector.type("Hi \u00e9\r\n1\t");
+        assertEquals(Arrays.asList(FakeRemoteKeyboard.SHIFT + "+h", "i", " ",
+                String.valueOf((char) FakeRemoteKeyboard.DEAD_ACUTE), "e",
+                String.valueOf((char) FakeRemoteKeyboard.ENTER), "1"), rfb.log);
+    }
+
+    @Test
+    public void charactersWithoutKeyStrokesAreTypedAfterWhatPrecedesThem() {
+        injector.type("ab\u2603c");
+        assertEquals(Arrays.asList("a", "b", "unicode \u2603", "c"), rfb.log);
+        assertEquals(Arrays.asList(2, 1), rfb.batchSizes);
+    }
+
+    @Test
+    public void chunksGrowWhileSendingKeepsUp() {
+        int chars = TextInjector.INITIAL_CHUNK_CHARS * 3 + TextInjector.MIN_CHUNK_CHARS * 3;
+        injector.type(repeat('a', chars));
+        int first = TextInjector.INITIAL_CHUNK_CHARS;
+        int step = TextInjector.MIN_CHUNK_CHARS;
+        assertEquals(Arrays.asList(first, first + step, first + 2 * step), rfb.batchSizes);
+        assertEquals(chars, rfb.log.size());
+    }
+
+    @Test
+    public void chunksHalveWhenSendingFallsBehind() {
+        rfb.sendDelayMillis = TextInjector.TARGET_SEND_MILLIS + 10;
+        injector.type(repeat('a', 32 + 16 + 8 + 4 + 4));
+        assertEquals(Arrays.asList(32, 16, 8, 4, 4), rfb.batchSizes);
+    }
+
+    @Test
+    public void chunksHalveWhenSendingTimesOut() {
+        rfb.sendTimesOut = true;
+        injector.type(repeat('a', 32 + 16 + 8));
+        assertEquals(Arrays.asList(32, 16, 8), rfb.batchSizes);
+    }
+
+    @Test
+    public void chunksStayWithinMaximum() {
+        injector.type(repeat('a', 20000));
+        int max = 0;
+        for (int size : rfb.batchSizes) {
+            max = Math.max(max, size);
+        }
+        assertEquals(TextInjector.MAX_CHUNK_CHARS, max);
+        assertEquals(20000, rfb.log.size());
+    }
+
+    @Test
+    public void twoStrokeCharactersFitInLargestChunk() {
+        injector.type(repeat('a', 20000));
+        rfb.log.clear();
+        rfb.batchSizes.clear();
+        injector.type(repeat('\u00e9', TextInjector.MAX_CHUNK_CHARS * 3));
+        for (int size : rfb.batchSizes) {
+            assertTrue(size <= TextInjector.MAX_CHUNK_CHARS * 2);
+        }
+        assertEquals(TextInjector.MAX_CHUNK_CHARS * 2, (int) rfb.batchSizes.get(0));
+        assertEquals(TextInjector.MAX_CHUNK_CHARS * 6, rfb.log.size());
+        List<String> strokes = rfb.log;
+        for (int i = 0; i < strokes.size(); i += 2) {
+            assertEquals(String.valueOf((char) FakeRemoteKeyboard.DEAD_ACUTE), strokes.get(i));
+            assertEquals("e", strokes.get(i + 1));
+        }
+    }
+
+    @Test
+    public void typingStopsWhenConnectionIsNotReady() {
+        rfb.batchesBeforeDisconnect = 1;
+        injector.type(repeat('a', 1000));
+        assertEquals(Arrays.asList(TextInjector.INITIAL_CHUNK_CHARS), rfb.batchSizes);
+    }
+
+    @Test
+    public void pauseIsAddedBetweenChunks() {
+        injector.setChunkDelayMillis(30);
+        long start = System.nanoTime();
+        injector.type(repeat('a', TextInjector.INITIAL_CHUNK_CHARS * 2));
+        long millis = (System.nanoTime() - start) / 1000000L;
+        assertTrue(millis >= 60);
+        assertEquals(2, rfb.batchSizes.size());
+    }
+}